@@ -0,0 +1,27 @@
+const SIZE = 200000;
+
+const startTime = Date.now();
+
+const queue = [];
+for (let i = 0; i < SIZE; i++) {
+    queue.push(i);
+}
+
+// Drain from the front, re-queueing every tenth item once at the back
+let total = 0;
+let processed = 0;
+while (queue.length > 0) {
+    const item = queue.shift();
+    total += item;
+    processed++;
+    if (item % 10 === 0 && item >= 0) {
+        queue.push(-1);
+    }
+}
+
+const endTime = Date.now();
+
+console.log(`Queue size: ${SIZE}`);
+console.log(`Processed: ${processed}`);
+console.log(`Sum: ${total}`);
+console.log(`Time: ${endTime - startTime}ms`);
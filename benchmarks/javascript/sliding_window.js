@@ -0,0 +1,29 @@
+const SIZE = 500000;
+const WINDOW = 40;
+const STEPS = 3000;
+
+const startTime = Date.now();
+
+const values = [];
+for (let i = 0; i < SIZE; i++) {
+    values.push(i % 100);
+}
+
+// Each window is summed and its total stored over the first element
+let checksum = 0;
+for (let i = 0; i < STEPS; i++) {
+    const window = values.slice(i, i + WINDOW);
+    let total = 0;
+    for (const v of window) {
+        total += v;
+    }
+    values[i] = total;
+    checksum += total;
+}
+
+const endTime = Date.now();
+
+console.log(`Array size: ${SIZE}`);
+console.log(`Windows: ${STEPS}`);
+console.log(`Checksum: ${checksum}`);
+console.log(`Time: ${endTime - startTime}ms`);
@@ -15,7 +15,7 @@ cd "$PROJECT_ROOT"
 javac -d . src/com/thorn/*.java src/com/thorn/vm/*.java 2>/dev/null
 
 # Test programs
-declare -a TESTS=("fibonacci" "string_ops" "array_ops")
+declare -a TESTS=("fibonacci" "string_ops" "array_ops" "loop_optimizations" "function_inlining" "branch_dispatch")
 
 # Run each test with different optimization levels
 for test in "${TESTS[@]}"; do
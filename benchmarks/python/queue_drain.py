@@ -0,0 +1,27 @@
+import time
+from collections import deque
+
+SIZE = 200000
+
+start_time = time.time()
+
+queue = deque()
+for i in range(SIZE):
+    queue.append(i)
+
+# Drain from the front, re-queueing every tenth item once at the back
+total = 0
+processed = 0
+while queue:
+    item = queue.popleft()
+    total += item
+    processed += 1
+    if item % 10 == 0 and item >= 0:
+        queue.append(-1)
+
+end_time = time.time()
+
+print(f"Queue size: {SIZE}")
+print(f"Processed: {processed}")
+print(f"Sum: {total}")
+print(f"Time: {(end_time - start_time) * 1000:.2f}ms")
@@ -0,0 +1,28 @@
+import time
+
+SIZE = 500000
+WINDOW = 40
+STEPS = 3000
+
+start_time = time.time()
+
+values = []
+for i in range(SIZE):
+    values.append(i % 100)
+
+# Each window is summed and its total stored over the first element
+checksum = 0
+for i in range(STEPS):
+    window = values[i:i + WINDOW]
+    total = 0
+    for v in window:
+        total += v
+    values[i] = total
+    checksum += total
+
+end_time = time.time()
+
+print(f"Array size: {SIZE}")
+print(f"Windows: {STEPS}")
+print(f"Checksum: {checksum}")
+print(f"Time: {(end_time - start_time) * 1000:.2f}ms")
@@ -46,4 +46,24 @@ timeout 10s python3 "$BENCHMARKS_DIR/python/array_ops.py" 2>/dev/null | grep Tim
 echo -n "JavaScript: "
 timeout 10s node "$BENCHMARKS_DIR/javascript/array_ops.js" 2>/dev/null | grep Time || echo "Timeout"
 echo -n "Ruby:       "
-timeout 10s ruby "$BENCHMARKS_DIR/ruby/array_ops.rb" 2>/dev/null | grep Time || echo "Timeout"
\ No newline at end of file
+timeout 10s ruby "$BENCHMARKS_DIR/ruby/array_ops.rb" 2>/dev/null | grep Time || echo "Timeout"
+echo ""
+echo "🚚 Queue Drain(200000):"
+echo -n "Thorn:      "
+timeout 10s java com.thorn.Thorn "$BENCHMARKS_DIR/thorn/queue_drain.thorn" 2>/dev/null | grep Time || echo "Timeout"
+echo -n "Python:     "
+timeout 10s python3 "$BENCHMARKS_DIR/python/queue_drain.py" 2>/dev/null | grep Time || echo "Timeout"
+echo -n "JavaScript: "
+timeout 10s node "$BENCHMARKS_DIR/javascript/queue_drain.js" 2>/dev/null | grep Time || echo "Timeout"
+echo -n "Ruby:       "
+timeout 10s ruby "$BENCHMARKS_DIR/ruby/queue_drain.rb" 2>/dev/null | grep Time || echo "Timeout"
+echo ""
+echo "🪟 Sliding Window(500000):"
+echo -n "Thorn:      "
+timeout 10s java com.thorn.Thorn "$BENCHMARKS_DIR/thorn/sliding_window.thorn" 2>/dev/null | grep Time || echo "Timeout"
+echo -n "Python:     "
+timeout 10s python3 "$BENCHMARKS_DIR/python/sliding_window.py" 2>/dev/null | grep Time || echo "Timeout"
+echo -n "JavaScript: "
+timeout 10s node "$BENCHMARKS_DIR/javascript/sliding_window.js" 2>/dev/null | grep Time || echo "Timeout"
+echo -n "Ruby:       "
+timeout 10s ruby "$BENCHMARKS_DIR/ruby/sliding_window.rb" 2>/dev/null | grep Time || echo "Timeout"
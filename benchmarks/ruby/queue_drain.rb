@@ -0,0 +1,25 @@
+SIZE = 200000
+
+start_time = Time.now
+
+queue = []
+(0...SIZE).each do |i|
+    queue << i
+end
+
+# Drain from the front, re-queueing every tenth item once at the back
+total = 0
+processed = 0
+until queue.empty?
+    item = queue.shift
+    total += item
+    processed += 1
+    queue << -1 if item % 10 == 0 && item >= 0
+end
+
+end_time = Time.now
+
+puts "Queue size: #{SIZE}"
+puts "Processed: #{processed}"
+puts "Sum: #{total}"
+puts "Time: #{((end_time - start_time) * 1000).round(2)}ms"
@@ -0,0 +1,29 @@
+SIZE = 500000
+WINDOW = 40
+STEPS = 3000
+
+start_time = Time.now
+
+values = []
+(0...SIZE).each do |i|
+    values << i % 100
+end
+
+# Each window is summed and its total stored over the first element
+checksum = 0
+(0...STEPS).each do |i|
+    window = values[i, WINDOW]
+    total = 0
+    window.each do |v|
+        total += v
+    end
+    values[i] = total
+    checksum += total
+end
+
+end_time = Time.now
+
+puts "Array size: #{SIZE}"
+puts "Windows: #{STEPS}"
+puts "Checksum: #{checksum}"
+puts "Time: #{((end_time - start_time) * 1000).round(2)}ms"
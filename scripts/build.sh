@@ -19,6 +19,11 @@ mkdir -p com/thorn/stdlib
 echo "Compiling core language classes..."
 javac -d . src/com/thorn/TokenType.java src/com/thorn/Token.java src/com/thorn/Expr.java src/com/thorn/Stmt.java
 
+# Compile ThornArray, ThornDict and ThornRange (array, dict and range values
+# in the interpreter, the VM and the JSON parser)
+echo "Compiling ThornArray, ThornDict and ThornRange..."
+javac -d . src/com/thorn/ThornArray.java src/com/thorn/ThornDict.java src/com/thorn/ThornRange.java
+
 # Compile stdlib classes (needed by ModuleSystem)
 echo "Compiling stdlib classes..."
 javac -d . src/com/thorn/stdlib/*.java
@@ -27,6 +32,18 @@ javac -d . src/com/thorn/stdlib/*.java
 echo "Compiling ThornResult..."
 javac -d . src/com/thorn/ThornResult.java
 
+# Compile MatchPlan (shared by the interpreter and the VM compiler)
+echo "Compiling MatchPlan..."
+javac -d . src/com/thorn/MatchPlan.java
+
+# Compile StringRope (string appends in both the interpreter and the VM)
+echo "Compiling StringRope..."
+javac -d . src/com/thorn/StringRope.java
+
+# Compile ExecutionProfile (recorded and read by the interpreter and the VM)
+echo "Compiling ExecutionProfile..."
+javac -d . src/com/thorn/ExecutionProfile.java
+
 # Compile VM package
 echo "Compiling VM package..."
 javac -d . src/com/thorn/vm/*.java
@@ -36,4 +53,4 @@ echo "Compiling main package..."
 javac -d . src/com/thorn/*.java
 
 echo "Build completed successfully!"
-echo "Run with: java com.thorn.Thorn [--ast] [--vm] [script]"
\ No newline at end of file
+echo "Run with: java com.thorn.Thorn [--ast] [--vm] [--profile-out file] [script]"
\ No newline at end of file
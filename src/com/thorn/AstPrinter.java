@@ -76,6 +76,12 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return "(throw " + print(stmt.value) + ")";
     }
 
+    @Override
+    public String visitYieldStmt(Stmt.Yield stmt) {
+        if (stmt.value == null) return "(yield)";
+        return "(yield " + print(stmt.value) + ")";
+    }
+
     @Override
     public String visitVarStmt(Stmt.Var stmt) {
         String result = "(var " + stmt.name.lexeme;
@@ -237,7 +243,7 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
             if (c.guard != null) {
                 builder.append(" if ").append(print(c.guard));
             }
-            builder.append(" => ").append(print(c.value)).append(")");
+            builder.append(" => ").append(c.isBlock ? print(new Stmt.Block(c.stmts)) : print(c.value)).append(")");
         }
         builder.append(")");
         return builder.toString();
@@ -0,0 +1,314 @@
+package com.thorn;
+
+import java.util.*;
+
+/**
+ * Rebuilds statements and expressions, keeping every node that does not
+ * change. Subclasses replace expressions; a copying rewriter rebuilds
+ * every node, so the copy shares none with the original. Function and
+ * lambda bodies and match cases are only entered when copying.
+ */
+class AstRewriter {
+    static final AstRewriter IDENTITY = new AstRewriter(false);
+
+    private final boolean copy;
+
+    AstRewriter(boolean copy) {
+        this.copy = copy;
+    }
+
+    // The expression to use instead, or null to rewrite its operands
+    Expr replace(Expr expr) {
+        return null;
+    }
+
+    // The name a variable is read or bound under instead
+    Token name(Token name) {
+        return name;
+    }
+
+    Expr iterable(Expr iterable) {
+        return expression(iterable);
+    }
+
+    // Case patterns may bind names, so rewriting reads inside cases is
+    // only safe for copies
+    boolean entersCases() {
+        return copy;
+    }
+
+    List<Stmt> caseBody(List<Stmt> statements) {
+        return statements(statements);
+    }
+
+    Expr lambda(Expr.Lambda lambda) {
+        return copy ? new Expr.Lambda(lambda.params, statements(lambda.body)) : lambda;
+    }
+
+    Stmt.Function function(Stmt.Function function) {
+        return copy ? new Stmt.Function(function.name, function.typeParams, function.params,
+                                        function.returnType, statements(function.body))
+                    : function;
+    }
+
+    List<Stmt> statements(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = copy;
+        for (Stmt stmt : statements) {
+            Stmt rewritten = statement(stmt);
+            changed |= rewritten != stmt;
+            result.add(rewritten);
+        }
+        return changed ? result : statements;
+    }
+
+    private Expr optional(Expr expr) {
+        return expr != null ? expression(expr) : null;
+    }
+
+    private List<Expr> expressions(List<Expr> exprs) {
+        List<Expr> result = new ArrayList<>(exprs.size());
+        boolean changed = copy;
+        for (Expr expr : exprs) {
+            Expr rewritten = expression(expr);
+            changed |= rewritten != expr;
+            result.add(rewritten);
+        }
+        return changed ? result : exprs;
+    }
+
+    Stmt statement(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression) {
+            Expr expr = ((Stmt.Expression) stmt).expression;
+            Expr rewritten = expression(expr);
+            return rewritten == expr && !copy ? stmt : new Stmt.Expression(rewritten);
+        }
+        if (stmt instanceof Stmt.Var) {
+            Stmt.Var var = (Stmt.Var) stmt;
+            Token name = name(var.name);
+            Expr initializer = optional(var.initializer);
+            return name == var.name && initializer == var.initializer && !copy ? stmt
+                : new Stmt.Var(name, var.type, initializer, var.isImmutable);
+        }
+        if (stmt instanceof Stmt.Block) {
+            List<Stmt> body = ((Stmt.Block) stmt).statements;
+            List<Stmt> rewritten = statements(body);
+            return rewritten == body ? stmt : new Stmt.Block(rewritten);
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            Expr condition = expression(ifStmt.condition);
+            Stmt thenBranch = statement(ifStmt.thenBranch);
+            Stmt elseBranch = ifStmt.elseBranch != null ? statement(ifStmt.elseBranch) : null;
+            return condition == ifStmt.condition && thenBranch == ifStmt.thenBranch
+                    && elseBranch == ifStmt.elseBranch && !copy ? stmt
+                : new Stmt.If(condition, thenBranch, elseBranch);
+        }
+        if (stmt instanceof Stmt.While) {
+            Stmt.While whileStmt = (Stmt.While) stmt;
+            Expr condition = expression(whileStmt.condition);
+            Stmt body = statement(whileStmt.body);
+            return condition == whileStmt.condition && body == whileStmt.body && !copy ? stmt
+                : new Stmt.While(condition, body);
+        }
+        if (stmt instanceof Stmt.For) {
+            Stmt.For forStmt = (Stmt.For) stmt;
+            Token variable = name(forStmt.variable);
+            Expr iterable = iterable(forStmt.iterable);
+            Stmt body = statement(forStmt.body);
+            return variable == forStmt.variable && iterable == forStmt.iterable
+                    && body == forStmt.body && !copy ? stmt
+                : new Stmt.For(variable, iterable, body);
+        }
+        if (stmt instanceof Stmt.Return) {
+            Stmt.Return returnStmt = (Stmt.Return) stmt;
+            Expr value = optional(returnStmt.value);
+            return value == returnStmt.value && !copy ? stmt : new Stmt.Return(returnStmt.keyword, value);
+        }
+        if (stmt instanceof Stmt.Throw) {
+            Stmt.Throw throwStmt = (Stmt.Throw) stmt;
+            Expr value = optional(throwStmt.value);
+            return value == throwStmt.value && !copy ? stmt : new Stmt.Throw(throwStmt.keyword, value);
+        }
+        if (stmt instanceof Stmt.Yield) {
+            Stmt.Yield yieldStmt = (Stmt.Yield) stmt;
+            Expr value = optional(yieldStmt.value);
+            return value == yieldStmt.value && !copy ? stmt : new Stmt.Yield(yieldStmt.keyword, value);
+        }
+        if (stmt instanceof Stmt.Function) {
+            return function((Stmt.Function) stmt);
+        }
+        if (stmt instanceof Stmt.Class) {
+            Stmt.Class classStmt = (Stmt.Class) stmt;
+            List<Stmt.Function> methods = new ArrayList<>();
+            boolean changed = false;
+            for (Stmt.Function method : classStmt.methods) {
+                Stmt.Function rewritten = function(method);
+                changed |= rewritten != method;
+                methods.add(rewritten);
+            }
+            return changed ? new Stmt.Class(classStmt.name, classStmt.typeParams, methods) : stmt;
+        }
+        if (stmt instanceof Stmt.Export) {
+            Stmt declaration = ((Stmt.Export) stmt).declaration;
+            Stmt rewritten = statement(declaration);
+            return rewritten == declaration ? stmt : new Stmt.Export(rewritten);
+        }
+        return stmt;
+    }
+
+    Expr expression(Expr expr) {
+        Expr replacement = replace(expr);
+        return replacement != null ? replacement : operands(expr);
+    }
+
+    Expr operands(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            Expr left = expression(binary.left);
+            Expr right = expression(binary.right);
+            return left == binary.left && right == binary.right && !copy ? expr
+                : new Expr.Binary(left, binary.operator, right);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            Expr left = expression(logical.left);
+            Expr right = expression(logical.right);
+            return left == logical.left && right == logical.right && !copy ? expr
+                : new Expr.Logical(left, logical.operator, right);
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            Expr right = expression(unary.right);
+            return right == unary.right && !copy ? expr : new Expr.Unary(unary.operator, right);
+        }
+        if (expr instanceof Expr.Grouping) {
+            Expr inner = ((Expr.Grouping) expr).expression;
+            Expr rewritten = expression(inner);
+            return rewritten == inner && !copy ? expr : new Expr.Grouping(rewritten);
+        }
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            Expr callee = call.callee;
+            if (callee instanceof Expr.Get) {
+                // Method lookups stay attached to their call
+                Expr.Get method = (Expr.Get) callee;
+                Expr object = expression(method.object);
+                if (object != method.object || copy) {
+                    callee = new Expr.Get(object, method.name);
+                }
+            } else {
+                callee = expression(callee);
+            }
+            List<Expr> arguments = expressions(call.arguments);
+            return callee == call.callee && arguments == call.arguments && !copy ? expr
+                : new Expr.Call(callee, call.paren, call.typeArguments, arguments);
+        }
+        if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr;
+            Expr object = expression(get.object);
+            return object == get.object && !copy ? expr : new Expr.Get(object, get.name);
+        }
+        if (expr instanceof Expr.Index) {
+            Expr.Index index = (Expr.Index) expr;
+            Expr object = expression(index.object);
+            Expr position = expression(index.index);
+            return object == index.object && position == index.index && !copy ? expr
+                : new Expr.Index(object, index.bracket, position);
+        }
+        if (expr instanceof Expr.Slice) {
+            Expr.Slice slice = (Expr.Slice) expr;
+            Expr object = expression(slice.object);
+            Expr start = optional(slice.start);
+            Expr end = optional(slice.end);
+            return object == slice.object && start == slice.start && end == slice.end && !copy ? expr
+                : new Expr.Slice(object, slice.bracket, start, end);
+        }
+        if (expr instanceof Expr.Set) {
+            Expr.Set set = (Expr.Set) expr;
+            Expr object = expression(set.object);
+            Expr value = expression(set.value);
+            return object == set.object && value == set.value && !copy ? expr
+                : new Expr.Set(object, set.name, value);
+        }
+        if (expr instanceof Expr.IndexSet) {
+            Expr.IndexSet indexSet = (Expr.IndexSet) expr;
+            Expr object = expression(indexSet.object);
+            Expr position = expression(indexSet.index);
+            Expr value = expression(indexSet.value);
+            return object == indexSet.object && position == indexSet.index
+                    && value == indexSet.value && !copy ? expr
+                : new Expr.IndexSet(object, indexSet.bracket, position, value);
+        }
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            Token name = name(assign.name);
+            Expr value = expression(assign.value);
+            return name == assign.name && value == assign.value && !copy ? expr
+                : new Expr.Assign(name, value);
+        }
+        if (expr instanceof Expr.ListExpr) {
+            List<Expr> elements = ((Expr.ListExpr) expr).elements;
+            List<Expr> rewritten = expressions(elements);
+            return rewritten == elements ? expr : new Expr.ListExpr(rewritten);
+        }
+        if (expr instanceof Expr.Dict) {
+            Expr.Dict dict = (Expr.Dict) expr;
+            List<Expr> keys = expressions(dict.keys);
+            List<Expr> values = expressions(dict.values);
+            return keys == dict.keys && values == dict.values ? expr : new Expr.Dict(keys, values);
+        }
+        if (expr instanceof Expr.Match) {
+            return match((Expr.Match) expr);
+        }
+        if (expr instanceof Expr.Lambda) {
+            return lambda((Expr.Lambda) expr);
+        }
+        if (expr instanceof Expr.Variable) {
+            Token name = name(((Expr.Variable) expr).name);
+            return name == ((Expr.Variable) expr).name && !copy ? expr : new Expr.Variable(name);
+        }
+        if (copy) {
+            if (expr instanceof Expr.Literal) {
+                return new Expr.Literal(((Expr.Literal) expr).value);
+            }
+            if (expr instanceof Expr.This) {
+                return new Expr.This(((Expr.This) expr).keyword);
+            }
+        }
+        // Type annotations are never rewritten
+        return expr;
+    }
+
+    private Expr match(Expr.Match match) {
+        Expr subject = expression(match.expr);
+        List<Expr.Match.Case> cases = match.cases;
+        if (entersCases()) {
+            List<Expr.Match.Case> rewritten = new ArrayList<>();
+            boolean changed = copy;
+            for (Expr.Match.Case matchCase : cases) {
+                Expr pattern = copy ? expression(matchCase.pattern) : matchCase.pattern;
+                Expr guard = optional(matchCase.guard);
+                Expr.Match.Case result;
+                if (matchCase.isBlock) {
+                    List<Stmt> stmts = caseBody(matchCase.stmts);
+                    result = pattern == matchCase.pattern && guard == matchCase.guard
+                            && stmts == matchCase.stmts ? matchCase
+                        : new Expr.Match.Case(pattern, guard, stmts);
+                } else {
+                    Expr value = expression(matchCase.value);
+                    result = pattern == matchCase.pattern && guard == matchCase.guard
+                            && value == matchCase.value ? matchCase
+                        : new Expr.Match.Case(pattern, guard, value);
+                }
+                changed |= result != matchCase;
+                rewritten.add(result);
+            }
+            if (changed) {
+                cases = rewritten;
+            }
+        }
+        return subject == match.expr && cases == match.cases && !copy ? match
+            : new Expr.Match(subject, cases);
+    }
+}
@@ -0,0 +1,212 @@
+package com.thorn;
+
+import java.util.*;
+
+/**
+ * Visits every statement and expression under a node, counting how
+ * deeply it is nested in function and lambda bodies and in match cases.
+ */
+abstract class AstScanner {
+    int functionDepth = 0;
+    int caseDepth = 0;
+
+    // The name a declaration binds in the scope it runs in
+    static Token boundName(Stmt stmt) {
+        if (stmt instanceof Stmt.Var) {
+            return ((Stmt.Var) stmt).name;
+        }
+        if (stmt instanceof Stmt.For) {
+            return ((Stmt.For) stmt).variable;
+        }
+        if (stmt instanceof Stmt.Function) {
+            return ((Stmt.Function) stmt).name;
+        }
+        if (stmt instanceof Stmt.Class) {
+            return ((Stmt.Class) stmt).name;
+        }
+        return null;
+    }
+
+    /**
+     * The number of statements and expressions in a program, including
+     * those in function bodies.
+     */
+    static int countNodes(List<Stmt> statements) {
+        int[] count = {0};
+        new AstScanner() {
+            @Override
+            void visit(Stmt stmt) {
+                count[0]++;
+            }
+
+            @Override
+            void visit(Expr expr) {
+                count[0]++;
+            }
+        }.statements(statements);
+        return count[0];
+    }
+
+    /**
+     * The first number n such that no name prefix + n, for any of the
+     * prefixes, is used in the program, so that a pass running again over
+     * its own output does not reuse the temporaries of the last run.
+     */
+    static int firstUnusedSuffix(List<Stmt> statements, String... prefixes) {
+        int[] next = {0};
+        new AstScanner() {
+            @Override
+            void visit(Stmt stmt) {
+                Token name = boundName(stmt);
+                if (name != null) {
+                    check(name.lexeme);
+                }
+            }
+
+            @Override
+            void visit(Expr expr) {
+                if (expr instanceof Expr.Variable) {
+                    check(((Expr.Variable) expr).name.lexeme);
+                } else if (expr instanceof Expr.Assign) {
+                    check(((Expr.Assign) expr).name.lexeme);
+                }
+            }
+
+            private void check(String name) {
+                for (String prefix : prefixes) {
+                    if (name.startsWith(prefix) && name.length() > prefix.length()) {
+                        String suffix = name.substring(prefix.length());
+                        if (suffix.chars().allMatch(Character::isDigit) && suffix.length() < 9) {
+                            next[0] = Math.max(next[0], Integer.parseInt(suffix) + 1);
+                        }
+                    }
+                }
+            }
+        }.statements(statements);
+        return next[0];
+    }
+
+    void visit(Stmt stmt) {}
+
+    void visit(Expr expr) {}
+
+    void statements(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            statement(stmt);
+        }
+    }
+
+    void statement(Stmt stmt) {
+        visit(stmt);
+        if (stmt instanceof Stmt.Expression) {
+            expression(((Stmt.Expression) stmt).expression);
+        } else if (stmt instanceof Stmt.Var) {
+            optional(((Stmt.Var) stmt).initializer);
+        } else if (stmt instanceof Stmt.Block) {
+            statements(((Stmt.Block) stmt).statements);
+        } else if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            expression(ifStmt.condition);
+            statement(ifStmt.thenBranch);
+            if (ifStmt.elseBranch != null) {
+                statement(ifStmt.elseBranch);
+            }
+        } else if (stmt instanceof Stmt.While) {
+            expression(((Stmt.While) stmt).condition);
+            statement(((Stmt.While) stmt).body);
+        } else if (stmt instanceof Stmt.For) {
+            expression(((Stmt.For) stmt).iterable);
+            statement(((Stmt.For) stmt).body);
+        } else if (stmt instanceof Stmt.Return) {
+            optional(((Stmt.Return) stmt).value);
+        } else if (stmt instanceof Stmt.Throw) {
+            optional(((Stmt.Throw) stmt).value);
+        } else if (stmt instanceof Stmt.Yield) {
+            optional(((Stmt.Yield) stmt).value);
+        } else if (stmt instanceof Stmt.Function) {
+            functionBody(((Stmt.Function) stmt).body);
+        } else if (stmt instanceof Stmt.Class) {
+            for (Stmt.Function method : ((Stmt.Class) stmt).methods) {
+                functionBody(method.body);
+            }
+        } else if (stmt instanceof Stmt.Export) {
+            statement(((Stmt.Export) stmt).declaration);
+        }
+    }
+
+    private void functionBody(List<Stmt> body) {
+        functionDepth++;
+        statements(body);
+        functionDepth--;
+    }
+
+    private void optional(Expr expr) {
+        if (expr != null) {
+            expression(expr);
+        }
+    }
+
+    private void expressions(List<Expr> exprs) {
+        for (Expr expr : exprs) {
+            expression(expr);
+        }
+    }
+
+    void expression(Expr expr) {
+        visit(expr);
+        if (expr instanceof Expr.Binary) {
+            expression(((Expr.Binary) expr).left);
+            expression(((Expr.Binary) expr).right);
+        } else if (expr instanceof Expr.Logical) {
+            expression(((Expr.Logical) expr).left);
+            expression(((Expr.Logical) expr).right);
+        } else if (expr instanceof Expr.Unary) {
+            expression(((Expr.Unary) expr).right);
+        } else if (expr instanceof Expr.Grouping) {
+            expression(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Call) {
+            expression(((Expr.Call) expr).callee);
+            expressions(((Expr.Call) expr).arguments);
+        } else if (expr instanceof Expr.Get) {
+            expression(((Expr.Get) expr).object);
+        } else if (expr instanceof Expr.Index) {
+            expression(((Expr.Index) expr).object);
+            expression(((Expr.Index) expr).index);
+        } else if (expr instanceof Expr.Slice) {
+            Expr.Slice slice = (Expr.Slice) expr;
+            expression(slice.object);
+            optional(slice.start);
+            optional(slice.end);
+        } else if (expr instanceof Expr.Set) {
+            expression(((Expr.Set) expr).object);
+            expression(((Expr.Set) expr).value);
+        } else if (expr instanceof Expr.IndexSet) {
+            Expr.IndexSet indexSet = (Expr.IndexSet) expr;
+            expression(indexSet.object);
+            expression(indexSet.index);
+            expression(indexSet.value);
+        } else if (expr instanceof Expr.Assign) {
+            expression(((Expr.Assign) expr).value);
+        } else if (expr instanceof Expr.ListExpr) {
+            expressions(((Expr.ListExpr) expr).elements);
+        } else if (expr instanceof Expr.Dict) {
+            expressions(((Expr.Dict) expr).keys);
+            expressions(((Expr.Dict) expr).values);
+        } else if (expr instanceof Expr.Lambda) {
+            functionBody(((Expr.Lambda) expr).body);
+        } else if (expr instanceof Expr.Match) {
+            Expr.Match match = (Expr.Match) expr;
+            expression(match.expr);
+            caseDepth++;
+            for (Expr.Match.Case matchCase : match.cases) {
+                expression(matchCase.pattern);
+                optional(matchCase.guard);
+                optional(matchCase.value);
+                if (matchCase.stmts != null) {
+                    statements(matchCase.stmts);
+                }
+            }
+            caseDepth--;
+        }
+    }
+}
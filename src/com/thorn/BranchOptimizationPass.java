@@ -1,374 +1,793 @@
 package com.thorn;
 
 import java.util.*;
+import static com.thorn.TokenType.*;
 
 /**
- * Optimization pass that simplifies conditional branches and eliminates dead code.
- * This pass optimizes if statements with constant conditions, removes unreachable
- * code after return statements, and simplifies boolean expressions.
+ * Optimization pass that simplifies conditional branches.
+ * This pass removes branches whose condition is constant, simplifies
+ * conditions and merges branches with identical bodies.
+ * Example: if (!!ready) { go(); } else { } becomes if (ready) { go(); }
+ *
+ * A chain of if/else-if tests comparing one side-effect-free subject with
+ * literals becomes a match, whose literal cases are found by hashing the
+ * subject instead of testing each one in turn. A chain too short for that
+ * is reordered, when a recorded profile is available, so that the tests
+ * that matched most often come first.
  */
 public class BranchOptimizationPass extends OptimizationPass {
-    
+
+    // Equality tests a chain needs before it is dispatched by hashing
+    static final int MIN_DISPATCH_TESTS = 4;
+
+    private int branchesEliminated = 0;
+    private int conditionsSimplified = 0;
+    private int branchesMerged = 0;
+    private int chainsDispatched = 0;
+    private int chainsReordered = 0;
+
     @Override
     public String getName() {
         return "branch-optimization";
     }
-    
+
     @Override
     public PassType getType() {
         return PassType.TRANSFORMATION;
     }
-    
+
     @Override
     public List<String> getDependencies() {
         return Arrays.asList("constant-folding");
     }
-    
-    
+
+    @Override
+    public OptimizationLevel getMinimumLevel() {
+        return OptimizationLevel.O1;
+    }
+
     @Override
     public List<Stmt> optimize(List<Stmt> statements, OptimizationContext context) {
         if (context.isDebugMode()) {
             System.out.println("=== Branch Optimization Pass ===");
-            System.out.println("  Stub implementation - no transformations applied");
         }
-        return statements; // TODO: Implement branch optimization
+
+        branchesEliminated = 0;
+        conditionsSimplified = 0;
+        branchesMerged = 0;
+        chainsDispatched = 0;
+        chainsReordered = 0;
+
+        ExpressionShape.Classifier classifier = ExpressionShape.classifier(statements, context);
+        List<Stmt> optimized = new BranchOptimizer(classifier, context.getProfile()).statements(statements);
+
+        context.recordTransformations(getName(),
+            branchesEliminated + conditionsSimplified + branchesMerged + chainsDispatched + chainsReordered);
+
+        if (context.isDebugMode()) {
+            System.out.println("  Branches eliminated: " + branchesEliminated);
+            System.out.println("  Conditions simplified: " + conditionsSimplified);
+            System.out.println("  Branches merged: " + branchesMerged);
+            System.out.println("  If-chains dispatched: " + chainsDispatched);
+            System.out.println("  If-chains reordered: " + chainsReordered);
+        }
+
+        return optimized;
     }
-    
-    
+
     /**
-     * Optimizer that performs branch optimization transformations.
+     * Rewrites the branches of a program. Match cases are left alone: the
+     * last statement of a block case is its value, so removing statements
+     * there could change it.
      */
-    private static class BranchOptimizer {
-        private final OptimizationContext context;
-        private int branchesEliminated = 0;
-        private int deadCodeRemoved = 0;
-        
-        public BranchOptimizer(OptimizationContext context) {
-            this.context = context;
-        }
-        
-        public List<Stmt> optimize(List<Stmt> statements) {
-            List<Stmt> result = optimizeStatementList(statements);
-            
-            if (context.isDebugMode()) {
-                System.out.println("=== Branch Optimization ===");
-                System.out.println("Branches eliminated: " + branchesEliminated);
-                System.out.println("Dead code statements removed: " + deadCodeRemoved);
-            }
-            
-            return result;
+    private class BranchOptimizer extends AstRewriter {
+        private final ExpressionShape.Classifier classifier;
+        private final ExecutionProfile profile;
+
+        BranchOptimizer(ExpressionShape.Classifier classifier, ExecutionProfile profile) {
+            super(false);
+            this.classifier = classifier;
+            this.profile = profile;
         }
-        
-        private List<Stmt> optimizeStatementList(List<Stmt> statements) {
-            List<Stmt> result = new ArrayList<>();
-            boolean foundReturn = false;
-            
-            for (Stmt stmt : statements) {
-                if (foundReturn) {
-                    // Dead code after return
-                    deadCodeRemoved++;
+
+        @Override
+        List<Stmt> statements(List<Stmt> list) {
+            List<Stmt> rewritten = new ArrayList<>(list.size());
+            boolean changed = false;
+            for (Stmt stmt : list) {
+                Stmt optimized = statement(stmt);
+                changed |= optimized != stmt;
+                rewritten.add(optimized);
+            }
+
+            List<Stmt> result = new ArrayList<>(rewritten.size());
+            for (int i = 0; i < rewritten.size(); i++) {
+                Stmt stmt = rewritten.get(i);
+                if (isEmpty(stmt)) {
+                    // Nothing left of an eliminated branch
+                    changed = true;
+                    continue;
+                }
+                if (!(stmt instanceof Stmt.If)) {
+                    result.add(stmt);
                     continue;
                 }
-                
-                Stmt optimized = optimizeStatement(stmt);
-                if (optimized != null) {
-                    result.add(optimized);
-                    
-                    // Check if this is a return statement
-                    if (stmt instanceof Stmt.Return) {
-                        foundReturn = true;
+                Stmt.If ifStmt = (Stmt.If) stmt;
+
+                // if (c) { A } else { A } runs A either way; the condition
+                // stays outside the block in case it declares
+                if (ifStmt.elseBranch instanceof Stmt.Block && ifStmt.thenBranch instanceof Stmt.Block
+                        && same(ifStmt.thenBranch, ifStmt.elseBranch)) {
+                    if (!(ifStmt.condition instanceof Expr.Literal)) {
+                        result.add(new Stmt.Expression(ifStmt.condition));
                     }
+                    result.add(ifStmt.thenBranch);
+                    branchesMerged++;
+                    changed = true;
+                    continue;
                 }
+
+                // Ifs that only return, one after another, test in turn
+                // like an else-if chain; the return after them is its else
+                Stmt.If chain = ifStmt;
+                int end = i + 1;
+                while (end < rewritten.size() && returnsOnly(chain)
+                        && rewritten.get(end) instanceof Stmt.If
+                        && ((Stmt.If) rewritten.get(end)).elseBranch == null) {
+                    chain = withElse(chain, rewritten.get(end));
+                    end++;
+                }
+                if (end < rewritten.size() && rewritten.get(end) instanceof Stmt.Return && returnsOnly(chain)) {
+                    Stmt dispatched = dispatch(chain, rewritten.get(end));
+                    if (dispatched != null) {
+                        result.add(dispatched);
+                        changed = true;
+                        i = end;
+                        continue;
+                    }
+                }
+                result.add(stmt);
             }
-            
-            return result;
+            return changed ? result : list;
         }
-        
-        private Stmt optimizeStatement(Stmt stmt) {
-            return stmt.accept(new Stmt.Visitor<Stmt>() {
-                @Override
-                public Stmt visitIfStmt(Stmt.If stmt) {
-                    // First check if condition is a constant
-                    if (stmt.condition instanceof Expr.Literal) {
-                        Expr.Literal literal = (Expr.Literal) stmt.condition;
-                        
-                        if (isTruthy(literal.value)) {
-                            // Condition is always true, replace with then branch
-                            branchesEliminated++;
-                            return optimizeStatement(stmt.thenBranch);
-                        } else {
-                            // Condition is always false
-                            branchesEliminated++;
-                            if (stmt.elseBranch != null) {
-                                return optimizeStatement(stmt.elseBranch);
-                            } else {
-                                // No else branch, remove entire if statement
-                                return null;
-                            }
-                        }
-                    }
-                    
-                    // Optimize condition and branches
-                    Expr optimizedCondition = optimizeExpression(stmt.condition);
-                    Stmt optimizedThen = optimizeStatement(stmt.thenBranch);
-                    Stmt optimizedElse = stmt.elseBranch != null ? 
-                        optimizeStatement(stmt.elseBranch) : null;
-                    
-                    // Check if optimization resulted in a constant condition
-                    if (optimizedCondition instanceof Expr.Literal) {
-                        Expr.Literal literal = (Expr.Literal) optimizedCondition;
-                        if (isTruthy(literal.value)) {
-                            branchesEliminated++;
-                            return optimizedThen;
-                        } else {
-                            branchesEliminated++;
-                            return optimizedElse;
-                        }
-                    }
-                    
-                    return new Stmt.If(optimizedCondition, optimizedThen, optimizedElse);
+
+        // Whether every branch of an if/else-if chain without a final
+        // else returns
+        private boolean returnsOnly(Stmt.If chain) {
+            Stmt rest = chain;
+            while (rest instanceof Stmt.If) {
+                if (returned(((Stmt.If) rest).thenBranch) == null) {
+                    return false;
                 }
-                
-                @Override
-                public Stmt visitBlockStmt(Stmt.Block stmt) {
-                    List<Stmt> optimizedStatements = optimizeStatementList(stmt.statements);
-                    if (optimizedStatements.isEmpty()) {
-                        return null; // Empty block can be removed
-                    }
-                    return new Stmt.Block(optimizedStatements);
+                rest = ((Stmt.If) rest).elseBranch;
+            }
+            return rest == null;
+        }
+
+        private Stmt.If withElse(Stmt.If chain, Stmt elseBranch) {
+            Stmt rest = chain.elseBranch == null ? elseBranch : withElse((Stmt.If) chain.elseBranch, elseBranch);
+            return new Stmt.If(chain.condition, chain.thenBranch, rest);
+        }
+
+        @Override
+        Stmt statement(Stmt stmt) {
+            if (stmt instanceof Stmt.If) {
+                return ifStatement((Stmt.If) stmt, true);
+            }
+            if (stmt instanceof Stmt.While) {
+                Stmt.While whileStmt = (Stmt.While) stmt;
+                Expr condition = condition(whileStmt.condition);
+                if (condition instanceof Expr.Literal && !isTruthy(((Expr.Literal) condition).value)) {
+                    // The loop never runs
+                    branchesEliminated++;
+                    return new Stmt.Block(new ArrayList<>());
                 }
-                
-                @Override
-                public Stmt visitWhileStmt(Stmt.While stmt) {
-                    // Check for constant false condition
-                    if (stmt.condition instanceof Expr.Literal) {
-                        Expr.Literal literal = (Expr.Literal) stmt.condition;
-                        if (!isTruthy(literal.value)) {
-                            // Loop never executes
-                            branchesEliminated++;
-                            return null;
-                        }
+                Stmt body = statement(whileStmt.body);
+                return condition == whileStmt.condition && body == whileStmt.body ? stmt
+                    : new Stmt.While(condition, body);
+            }
+            return super.statement(stmt);
+        }
+
+        /**
+         * Rewrites an if statement. Only the head of an if/else-if chain is
+         * dispatched, so that the whole chain becomes one match.
+         */
+        private Stmt ifStatement(Stmt.If stmt, boolean head) {
+            Expr condition = condition(stmt.condition);
+            if (condition instanceof Expr.Literal) {
+                branchesEliminated++;
+                if (isTruthy(((Expr.Literal) condition).value)) {
+                    return statement(stmt.thenBranch);
+                }
+                return stmt.elseBranch != null ? statement(stmt.elseBranch) : new Stmt.Block(new ArrayList<>());
+            }
+
+            Stmt thenBranch = statement(stmt.thenBranch);
+            Stmt elseBranch = null;
+            if (stmt.elseBranch instanceof Stmt.If) {
+                elseBranch = ifStatement((Stmt.If) stmt.elseBranch, false);
+            } else if (stmt.elseBranch != null) {
+                elseBranch = statement(stmt.elseBranch);
+            }
+
+            if (elseBranch != null && isEmpty(elseBranch)) {
+                elseBranch = null;
+                conditionsSimplified++;
+            }
+            if (elseBranch != null && isEmpty(thenBranch)) {
+                // if (c) { } else { B } becomes if (!c) { B }
+                condition = negate(condition);
+                thenBranch = elseBranch;
+                elseBranch = null;
+                conditionsSimplified++;
+            }
+
+            // if (a) { A } else if (b) { A } becomes if (a || b) { A }
+            if (elseBranch instanceof Stmt.If && same(thenBranch, ((Stmt.If) elseBranch).thenBranch)) {
+                Stmt.If next = (Stmt.If) elseBranch;
+                condition = new Expr.Logical(condition, new Token(OR_OR, "||", null, line(condition)),
+                                             next.condition);
+                elseBranch = next.elseBranch;
+                branchesMerged++;
+            }
+
+            Stmt.If result = condition == stmt.condition && thenBranch == stmt.thenBranch
+                    && elseBranch == stmt.elseBranch ? stmt
+                : new Stmt.If(condition, thenBranch, elseBranch);
+            if (head) {
+                Stmt dispatched = dispatch(result, null);
+                if (dispatched != null) {
+                    return dispatched;
+                }
+                if (profile != null) {
+                    Stmt.If reordered = reorder(result);
+                    if (reordered != null) {
+                        return reordered;
                     }
-                    
-                    Expr optimizedCondition = optimizeExpression(stmt.condition);
-                    Stmt optimizedBody = optimizeStatement(stmt.body);
-                    
-                    return new Stmt.While(optimizedCondition, optimizedBody);
                 }
-                
-                @Override
-                public Stmt visitForStmt(Stmt.For stmt) {
-                    Expr optimizedIterable = optimizeExpression(stmt.iterable);
-                    Stmt optimizedBody = optimizeStatement(stmt.body);
-                    return new Stmt.For(stmt.variable, optimizedIterable, optimizedBody);
+            }
+            return result;
+        }
+
+        @Override
+        Expr replace(Expr expr) {
+            if (expr instanceof Expr.Logical) {
+                Expr.Logical logical = (Expr.Logical) expr;
+                Expr left = expression(logical.left);
+                if (left instanceof Expr.Literal) {
+                    // The literal decides whether the right operand runs;
+                    // either way the result is one of the operands
+                    conditionsSimplified++;
+                    boolean truthy = isTruthy(((Expr.Literal) left).value);
+                    boolean takesRight = logical.operator.type == AND_AND ? truthy : !truthy;
+                    return takesRight ? expression(logical.right) : left;
                 }
-                
-                @Override
-                public Stmt visitExpressionStmt(Stmt.Expression stmt) {
-                    Expr optimizedExpr = optimizeExpression(stmt.expression);
-                    return new Stmt.Expression(optimizedExpr);
+                Expr right = expression(logical.right);
+                return left == logical.left && right == logical.right ? expr
+                    : new Expr.Logical(left, logical.operator, right);
+            }
+            if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == BANG) {
+                Expr.Unary unary = (Expr.Unary) expr;
+                Expr operand = expression(unary.right);
+                Expr inner = unwrap(operand);
+                if (inner instanceof Expr.Literal) {
+                    conditionsSimplified++;
+                    return new Expr.Literal(!isTruthy(((Expr.Literal) inner).value));
                 }
-                
-                @Override
-                public Stmt visitVarStmt(Stmt.Var stmt) {
-                    Expr optimizedInitializer = stmt.initializer != null ? 
-                        optimizeExpression(stmt.initializer) : null;
-                    return new Stmt.Var(stmt.name, stmt.type, optimizedInitializer, stmt.isImmutable);
+                Expr flipped = flipEquality(inner);
+                if (flipped != null) {
+                    conditionsSimplified++;
+                    return flipped;
                 }
-                
-                @Override
-                public Stmt visitReturnStmt(Stmt.Return stmt) {
-                    Expr optimizedValue = stmt.value != null ? 
-                        optimizeExpression(stmt.value) : null;
-                    return new Stmt.Return(stmt.keyword, optimizedValue);
+                return operand == unary.right ? expr : new Expr.Unary(unary.operator, operand);
+            }
+            return null;
+        }
+
+        @Override
+        Expr lambda(Expr.Lambda lambda) {
+            List<Stmt> body = statements(lambda.body);
+            return body == lambda.body ? lambda : new Expr.Lambda(lambda.params, body);
+        }
+
+        @Override
+        Stmt.Function function(Stmt.Function function) {
+            List<Stmt> body = statements(function.body);
+            return body == function.body ? function
+                : new Stmt.Function(function.name, function.typeParams, function.params,
+                                    function.returnType, body);
+        }
+
+        /**
+         * Rewrites an expression whose value is only tested for truthiness.
+         */
+        private Expr condition(Expr expr) {
+            return simplifyCondition(expression(expr));
+        }
+
+        private Expr simplifyCondition(Expr expr) {
+            Expr inner = unwrap(expr);
+            if (inner instanceof Expr.Unary && ((Expr.Unary) inner).operator.type == BANG) {
+                Expr operand = unwrap(((Expr.Unary) inner).right);
+                if (operand instanceof Expr.Unary && ((Expr.Unary) operand).operator.type == BANG) {
+                    // !!x is as truthy as x
+                    conditionsSimplified++;
+                    return simplifyCondition(((Expr.Unary) operand).right);
                 }
-                
-                @Override
-                public Stmt visitThrowStmt(Stmt.Throw stmt) {
-                    Expr optimizedValue = stmt.value != null ? 
-                        optimizeExpression(stmt.value) : null;
-                    return new Stmt.Throw(stmt.keyword, optimizedValue);
+            }
+            if (inner instanceof Expr.Logical) {
+                Expr.Logical logical = (Expr.Logical) inner;
+                Expr left = simplifyCondition(logical.left);
+                Expr right = simplifyCondition(logical.right);
+                if (right instanceof Expr.Literal) {
+                    // x && true and x || false are as truthy as x
+                    boolean truthy = isTruthy(((Expr.Literal) right).value);
+                    if (truthy == (logical.operator.type == AND_AND)) {
+                        conditionsSimplified++;
+                        return left;
+                    }
                 }
-                
-                @Override
-                public Stmt visitFunctionStmt(Stmt.Function stmt) {
-                    List<Stmt> optimizedBody = optimizeStatementList(stmt.body);
-                    return new Stmt.Function(stmt.name, stmt.params, stmt.returnType, optimizedBody);
+                return left == logical.left && right == logical.right ? expr
+                    : new Expr.Logical(left, logical.operator, right);
+            }
+            return expr;
+        }
+
+        private Expr negate(Expr condition) {
+            Expr inner = unwrap(condition);
+            if (inner instanceof Expr.Unary && ((Expr.Unary) inner).operator.type == BANG) {
+                return simplifyCondition(((Expr.Unary) inner).right);
+            }
+            Expr flipped = flipEquality(inner);
+            if (flipped != null) {
+                return flipped;
+            }
+            return new Expr.Unary(new Token(BANG, "!", null, line(condition)), condition);
+        }
+
+        /**
+         * Turns an if/else-if chain of equality tests on one subject into
+         * a match, or returns null. A chain whose branches all return
+         * becomes a return of the match; otherwise no branch may return,
+         * since a return inside a match case only leaves the case.
+         */
+        private Stmt dispatch(Stmt.If chain, Stmt fallback) {
+            Expr subject = null;
+            String subjectKey = null;
+            List<List<Expr.Literal>> tags = new ArrayList<>();
+            List<Stmt> bodies = new ArrayList<>();
+            Set<Object> seen = new HashSet<>();
+            int tests = 0;
+
+            Stmt rest = chain;
+            while (rest instanceof Stmt.If) {
+                Stmt.If ifStmt = (Stmt.If) rest;
+                List<Expr> tested = new ArrayList<>();
+                List<Expr.Literal> armTags = new ArrayList<>();
+                if (!equalityTests(ifStmt.condition, tested, armTags)) {
+                    break;
                 }
-                
-                @Override
-                public Stmt visitClassStmt(Stmt.Class stmt) {
-                    List<Stmt.Function> optimizedMethods = new ArrayList<>();
-                    for (Stmt.Function method : stmt.methods) {
-                        optimizedMethods.add((Stmt.Function) optimizeStatement(method));
+                boolean sameSubject = true;
+                for (Expr expr : tested) {
+                    String key = classifier.of(expr).key;
+                    if (subjectKey == null) {
+                        subject = expr;
+                        subjectKey = key;
+                    } else if (!subjectKey.equals(key)) {
+                        sameSubject = false;
                     }
-                    return new Stmt.Class(stmt.name, optimizedMethods);
                 }
-                
-                @Override
-                public Stmt visitImportStmt(Stmt.Import stmt) {
-                    return stmt;
+                if (!sameSubject) {
+                    break;
                 }
-                
-                @Override
-                public Stmt visitExportStmt(Stmt.Export stmt) {
-                    Stmt optimizedDeclaration = optimizeStatement(stmt.declaration);
-                    return new Stmt.Export(optimizedDeclaration);
+                // A literal tested again can never match there
+                armTags.removeIf(tag -> !seen.add(tag.value));
+                tags.add(armTags);
+                bodies.add(ifStmt.thenBranch);
+                tests += armTags.size();
+                rest = ifStmt.elseBranch;
+            }
+            if (tests < MIN_DISPATCH_TESTS) {
+                return null;
+            }
+            if (rest == null) {
+                rest = fallback;
+            } else if (fallback != null) {
+                return null;
+            }
+
+            Stmt dispatched = returnDispatch(subject, tags, bodies, rest);
+            if (dispatched == null && fallback == null) {
+                dispatched = statementDispatch(subject, tags, bodies, rest);
+            }
+            if (dispatched != null) {
+                chainsDispatched++;
+            }
+            return dispatched;
+        }
+
+        /**
+         * Puts the leading arms of a chain that compare one subject with
+         * distinct literals in the order the profile saw them taken, most
+         * often first, or returns null when they already are. At most one
+         * of those arms can match, so only the number of tests changes.
+         */
+        private Stmt.If reorder(Stmt.If chain) {
+            List<Stmt.If> arms = new ArrayList<>();
+            String subjectKey = null;
+            Set<Object> seen = new HashSet<>();
+            Set<Integer> lines = new HashSet<>();
+
+            Stmt rest = chain;
+            while (rest instanceof Stmt.If) {
+                Stmt.If ifStmt = (Stmt.If) rest;
+                List<Expr> tested = new ArrayList<>();
+                List<Expr.Literal> armTags = new ArrayList<>();
+                if (!equalityTests(ifStmt.condition, tested, armTags)) {
+                    break;
                 }
-                
-                @Override
-                public Stmt visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) {
-                    return stmt;
+                boolean sameSubject = true;
+                for (Expr expr : tested) {
+                    String key = classifier.of(expr).key;
+                    if (subjectKey == null) {
+                        subjectKey = key;
+                    } else if (!subjectKey.equals(key)) {
+                        sameSubject = false;
+                    }
                 }
-                
-                @Override
-                public Stmt visitTypeAliasStmt(Stmt.TypeAlias stmt) {
-                    // Type aliases are compile-time only, no optimization needed
-                    return stmt;
+                // A literal tested again only matches where it comes first,
+                // and arms sharing a line share their counts
+                boolean distinct = true;
+                for (Expr.Literal tag : armTags) {
+                    distinct &= !seen.contains(tag.value);
+                }
+                if (!sameSubject || !distinct || !lines.add(ExecutionProfile.lineOf(ifStmt.condition))) {
+                    break;
                 }
-            });
+                for (Expr.Literal tag : armTags) {
+                    seen.add(tag.value);
+                }
+                arms.add(ifStmt);
+                rest = ifStmt.elseBranch;
+            }
+            if (arms.size() < 2) {
+                return null;
+            }
+
+            List<Stmt.If> ordered = new ArrayList<>(arms);
+            ordered.sort(Comparator.comparingLong(
+                (Stmt.If arm) -> profile.getBranchTaken(ExecutionProfile.lineOf(arm.condition))).reversed());
+            if (ordered.equals(arms)) {
+                return null;
+            }
+            Stmt result = rest;
+            for (int i = ordered.size() - 1; i >= 0; i--) {
+                result = new Stmt.If(ordered.get(i).condition, ordered.get(i).thenBranch, result);
+            }
+            chainsReordered++;
+            return (Stmt.If) result;
         }
-        
-        private Expr optimizeExpression(Expr expr) {
-            return expr.accept(new Expr.Visitor<Expr>() {
-                @Override
-                public Expr visitBinaryExpr(Expr.Binary expr) {
-                    Expr left = optimizeExpression(expr.left);
-                    Expr right = optimizeExpression(expr.right);
-                    
-                    // Optimize boolean operations with constants
-                    if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
-                        Expr.Literal leftLit = (Expr.Literal) left;
-                        Expr.Literal rightLit = (Expr.Literal) right;
-                        
-                        switch (expr.operator.type) {
-                            case EQUAL_EQUAL:
-                                return new Expr.Literal(isEqual(leftLit.value, rightLit.value));
-                            case BANG_EQUAL:
-                                return new Expr.Literal(!isEqual(leftLit.value, rightLit.value));
-                            case GREATER:
-                                if (leftLit.value instanceof Double && rightLit.value instanceof Double) {
-                                    return new Expr.Literal((Double) leftLit.value > (Double) rightLit.value);
-                                }
-                                break;
-                            case GREATER_EQUAL:
-                                if (leftLit.value instanceof Double && rightLit.value instanceof Double) {
-                                    return new Expr.Literal((Double) leftLit.value >= (Double) rightLit.value);
-                                }
-                                break;
-                            case LESS:
-                                if (leftLit.value instanceof Double && rightLit.value instanceof Double) {
-                                    return new Expr.Literal((Double) leftLit.value < (Double) rightLit.value);
-                                }
-                                break;
-                            case LESS_EQUAL:
-                                if (leftLit.value instanceof Double && rightLit.value instanceof Double) {
-                                    return new Expr.Literal((Double) leftLit.value <= (Double) rightLit.value);
-                                }
-                                break;
-                        }
-                    }
-                    
-                    return new Expr.Binary(left, expr.operator, right);
+
+        // return match (subject) { tag => value, ..., _ => value };
+        private Stmt returnDispatch(Expr subject, List<List<Expr.Literal>> tags, List<Stmt> bodies, Stmt rest) {
+            Stmt.Return last = returned(rest);
+            if (last == null) {
+                return null;
+            }
+            List<Expr.Match.Case> cases = new ArrayList<>();
+            Token keyword = null;
+            for (int i = 0; i < bodies.size(); i++) {
+                Stmt.Return returnStmt = returned(bodies.get(i));
+                if (returnStmt == null) {
+                    return null;
                 }
-                
-                @Override
-                public Expr visitLogicalExpr(Expr.Logical expr) {
-                    Expr left = optimizeExpression(expr.left);
-                    Expr right = optimizeExpression(expr.right);
-                    
-                    // Short-circuit evaluation optimization
-                    if (left instanceof Expr.Literal) {
-                        Expr.Literal leftLit = (Expr.Literal) left;
-                        
-                        switch (expr.operator.type) {
-                            case AND:
-                                if (!isTruthy(leftLit.value)) {
-                                    // false && anything = false
-                                    return new Expr.Literal(false);
-                                }
-                                // true && x = x
-                                return right;
-                                
-                            case OR:
-                                if (isTruthy(leftLit.value)) {
-                                    // true || anything = true
-                                    return new Expr.Literal(true);
-                                }
-                                // false || x = x
-                                return right;
-                        }
-                    }
-                    
-                    return new Expr.Logical(left, expr.operator, right);
+                if (keyword == null) {
+                    keyword = returnStmt.keyword;
                 }
-                
-                @Override
-                public Expr visitUnaryExpr(Expr.Unary expr) {
-                    Expr right = optimizeExpression(expr.right);
-                    
-                    // Optimize boolean NOT with constants
-                    if (expr.operator.type == TokenType.BANG && right instanceof Expr.Literal) {
-                        Expr.Literal lit = (Expr.Literal) right;
-                        return new Expr.Literal(!isTruthy(lit.value));
-                    }
-                    
-                    return new Expr.Unary(expr.operator, right);
+                Expr value = returnValue(returnStmt);
+                for (int j = 0; j < tags.get(i).size(); j++) {
+                    Expr caseValue = j == 0 ? value : new AstRewriter(true).expression(value);
+                    cases.add(new Expr.Match.Case(tags.get(i).get(j), null, caseValue));
                 }
-                
-                @Override
-                public Expr visitCallExpr(Expr.Call expr) {
-                    Expr callee = optimizeExpression(expr.callee);
-                    List<Expr> args = new ArrayList<>();
-                    for (Expr arg : expr.arguments) {
-                        args.add(optimizeExpression(arg));
-                    }
-                    return new Expr.Call(callee, expr.paren, args);
+            }
+            cases.add(new Expr.Match.Case(new Expr.Literal(null), null, returnValue(last)));
+            return new Stmt.Return(keyword, new Expr.Match(subject, cases));
+        }
+
+        // match (subject) { tag => { body }, ..., _ => { rest } };
+        private Stmt statementDispatch(Expr subject, List<List<Expr.Literal>> tags, List<Stmt> bodies, Stmt rest) {
+            List<Expr.Match.Case> cases = new ArrayList<>();
+            for (int i = 0; i < bodies.size(); i++) {
+                List<Stmt> body = caseStatements(bodies.get(i));
+                if (body == null) {
+                    return null;
                 }
-                
-                @Override
-                public Expr visitGroupingExpr(Expr.Grouping expr) {
-                    return optimizeExpression(expr.expression);
+                for (int j = 0; j < tags.get(i).size(); j++) {
+                    List<Stmt> caseBody = j == 0 ? body : new AstRewriter(true).statements(body);
+                    cases.add(new Expr.Match.Case(tags.get(i).get(j), null, caseBody));
+                }
+            }
+            if (rest != null) {
+                List<Stmt> body = caseStatements(rest);
+                if (body == null) {
+                    return null;
                 }
-                
+                cases.add(new Expr.Match.Case(new Expr.Literal(null), null, body));
+            } else {
+                cases.add(new Expr.Match.Case(new Expr.Literal(null), null, new Expr.Literal(null)));
+            }
+            return new Stmt.Expression(new Expr.Match(subject, cases));
+        }
+
+        /**
+         * Collects the subjects and literals of a condition made of
+         * subject == literal tests joined by ||.
+         */
+        private boolean equalityTests(Expr condition, List<Expr> tested, List<Expr.Literal> armTags) {
+            Expr expr = unwrap(condition);
+            if (expr instanceof Expr.Logical && ((Expr.Logical) expr).operator.type == OR_OR) {
+                Expr.Logical logical = (Expr.Logical) expr;
+                return equalityTests(logical.left, tested, armTags) && equalityTests(logical.right, tested, armTags);
+            }
+            if (!(expr instanceof Expr.Binary) || ((Expr.Binary) expr).operator.type != EQUAL_EQUAL) {
+                return false;
+            }
+            Expr.Binary binary = (Expr.Binary) expr;
+            Expr left = unwrap(binary.left);
+            Expr right = unwrap(binary.right);
+            Expr.Literal tag;
+            Expr other;
+            if (isTag(right) && !(left instanceof Expr.Literal)) {
+                tag = (Expr.Literal) right;
+                other = left;
+            } else if (isTag(left) && !(right instanceof Expr.Literal)) {
+                tag = (Expr.Literal) left;
+                other = right;
+            } else {
+                return false;
+            }
+            if (!classifier.of(other).isPure()) {
+                return false;
+            }
+            tested.add(other);
+            armTags.add(tag);
+            return true;
+        }
+
+        /**
+         * The statements of a match case that runs a branch body, or null
+         * when the body returns or yields, or, not being a block, would
+         * declare in the scope around it.
+         */
+        private List<Stmt> caseStatements(Stmt body) {
+            boolean[] exits = {false};
+            new AstScanner() {
                 @Override
-                public Expr visitAssignExpr(Expr.Assign expr) {
-                    Expr value = optimizeExpression(expr.value);
-                    return new Expr.Assign(expr.name, value);
+                void visit(Stmt stmt) {
+                    if ((stmt instanceof Stmt.Return || stmt instanceof Stmt.Yield)
+                            && functionDepth == 0 && caseDepth == 0) {
+                        exits[0] = true;
+                    }
                 }
-                
-                // Simple expressions - return as-is
-                @Override public Expr visitLiteralExpr(Expr.Literal expr) { return expr; }
-                @Override public Expr visitVariableExpr(Expr.Variable expr) { return expr; }
-                @Override public Expr visitThisExpr(Expr.This expr) { return expr; }
-                @Override public Expr visitListExpr(Expr.ListExpr expr) { return expr; }
-                @Override public Expr visitDictExpr(Expr.Dict expr) { return expr; }
-                @Override public Expr visitIndexExpr(Expr.Index expr) { return expr; }
-                @Override public Expr visitGetExpr(Expr.Get expr) { return expr; }
-                @Override public Expr visitSetExpr(Expr.Set expr) { return expr; }
-                @Override public Expr visitIndexSetExpr(Expr.IndexSet expr) { return expr; }
-                @Override public Expr visitSliceExpr(Expr.Slice expr) { return expr; }
-                @Override public Expr visitLambdaExpr(Expr.Lambda expr) { return expr; }
-                @Override public Expr visitMatchExpr(Expr.Match expr) { return expr; }
-                @Override public Expr visitTypeExpr(Expr.Type expr) { return expr; }
-                @Override public Expr visitGenericTypeExpr(Expr.GenericType expr) { return expr; }
-                @Override public Expr visitFunctionTypeExpr(Expr.FunctionType expr) { return expr; }
-                @Override public Expr visitArrayTypeExpr(Expr.ArrayType expr) { return expr; }
-            });
-        }
-        
-        private boolean isTruthy(Object value) {
-            if (value == null) return false;
-            if (value instanceof Boolean) return (Boolean) value;
-            if (value instanceof Double) return ((Double) value) != 0.0;
-            if (value instanceof String) return !((String) value).isEmpty();
+            }.statement(body);
+            if (exits[0]) {
+                return null;
+            }
+            if (body instanceof Stmt.Block) {
+                return ((Stmt.Block) body).statements;
+            }
+            List<Stmt> statements = Collections.singletonList(body);
+            return MatchPlan.mayDeclare(statements) ? null : statements;
+        }
+    }
+
+    /**
+     * The return statement a branch body consists of, or null. A return
+     * of a call is left alone so that it can still be a tail call.
+     */
+    private static Stmt.Return returned(Stmt body) {
+        if (body instanceof Stmt.Block && ((Stmt.Block) body).statements.size() == 1) {
+            body = ((Stmt.Block) body).statements.get(0);
+        }
+        if (!(body instanceof Stmt.Return)) {
+            return null;
+        }
+        Stmt.Return returnStmt = (Stmt.Return) body;
+        return returnStmt.value instanceof Expr.Call ? null : returnStmt;
+    }
+
+    private static Expr returnValue(Stmt.Return returnStmt) {
+        return returnStmt.value != null ? returnStmt.value : new Expr.Literal(null);
+    }
+
+    // Literals a match finds by hashing
+    private static boolean isTag(Expr expr) {
+        if (!(expr instanceof Expr.Literal)) {
+            return false;
+        }
+        Object value = ((Expr.Literal) expr).value;
+        return value instanceof String || value instanceof Double || value instanceof Boolean;
+    }
+
+    // a == b and a != b negated; both always produce a boolean
+    private static Expr flipEquality(Expr expr) {
+        if (!(expr instanceof Expr.Binary)) {
+            return null;
+        }
+        Expr.Binary binary = (Expr.Binary) expr;
+        Token operator = binary.operator;
+        if (operator.type == EQUAL_EQUAL) {
+            return new Expr.Binary(binary.left, new Token(BANG_EQUAL, "!=", null, operator.line), binary.right);
+        }
+        if (operator.type == BANG_EQUAL) {
+            return new Expr.Binary(binary.left, new Token(EQUAL_EQUAL, "==", null, operator.line), binary.right);
+        }
+        return null;
+    }
+
+    private static Expr unwrap(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping) expr).expression;
+        }
+        return expr;
+    }
+
+    private static boolean isEmpty(Stmt stmt) {
+        return stmt instanceof Stmt.Block && ((Stmt.Block) stmt).statements.isEmpty();
+    }
+
+    private static boolean isTruthy(Object value) {
+        if (value == null) return false;
+        if (value instanceof Boolean) return (Boolean) value;
+        return true;
+    }
+
+    private static int line(Expr expr) {
+        expr = unwrap(expr);
+        if (expr instanceof Expr.Binary) return ((Expr.Binary) expr).operator.line;
+        if (expr instanceof Expr.Logical) return ((Expr.Logical) expr).operator.line;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.line;
+        if (expr instanceof Expr.Variable) return ((Expr.Variable) expr).name.line;
+        return 0;
+    }
+
+    // Structural equality of the statements and expressions branches are
+    // commonly made of; anything else is never the same
+
+    private static boolean same(List<Stmt> a, List<Stmt> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!same(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean same(Stmt a, Stmt b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.getClass() != b.getClass()) {
+            return false;
+        }
+        if (a instanceof Stmt.Expression) {
+            return same(((Stmt.Expression) a).expression, ((Stmt.Expression) b).expression);
+        }
+        if (a instanceof Stmt.Block) {
+            return same(((Stmt.Block) a).statements, ((Stmt.Block) b).statements);
+        }
+        if (a instanceof Stmt.If) {
+            Stmt.If x = (Stmt.If) a;
+            Stmt.If y = (Stmt.If) b;
+            return same(x.condition, y.condition) && same(x.thenBranch, y.thenBranch)
+                && same(x.elseBranch, y.elseBranch);
+        }
+        if (a instanceof Stmt.While) {
+            Stmt.While x = (Stmt.While) a;
+            Stmt.While y = (Stmt.While) b;
+            return same(x.condition, y.condition) && same(x.body, y.body);
+        }
+        if (a instanceof Stmt.Return) {
+            return same(((Stmt.Return) a).value, ((Stmt.Return) b).value);
+        }
+        if (a instanceof Stmt.Throw) {
+            return same(((Stmt.Throw) a).value, ((Stmt.Throw) b).value);
+        }
+        if (a instanceof Stmt.Var) {
+            Stmt.Var x = (Stmt.Var) a;
+            Stmt.Var y = (Stmt.Var) b;
+            return x.type == null && y.type == null && x.isImmutable == y.isImmutable
+                && x.name.lexeme.equals(y.name.lexeme) && same(x.initializer, y.initializer);
+        }
+        return false;
+    }
+
+    private static boolean sameExprs(List<Expr> a, List<Expr> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!same(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean same(Expr a, Expr b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.getClass() != b.getClass()) {
+            return false;
+        }
+        if (a instanceof Expr.Literal) {
+            Object x = ((Expr.Literal) a).value;
+            Object y = ((Expr.Literal) b).value;
+            return Objects.equals(x, y) && (x == null || x.getClass() == y.getClass());
+        }
+        if (a instanceof Expr.Variable) {
+            return ((Expr.Variable) a).name.lexeme.equals(((Expr.Variable) b).name.lexeme);
+        }
+        if (a instanceof Expr.This) {
             return true;
         }
-        
-        private boolean isEqual(Object a, Object b) {
-            if (a == null && b == null) return true;
-            if (a == null) return false;
-            return a.equals(b);
+        if (a instanceof Expr.Grouping) {
+            return same(((Expr.Grouping) a).expression, ((Expr.Grouping) b).expression);
+        }
+        if (a instanceof Expr.Unary) {
+            Expr.Unary x = (Expr.Unary) a;
+            Expr.Unary y = (Expr.Unary) b;
+            return x.operator.type == y.operator.type && same(x.right, y.right);
+        }
+        if (a instanceof Expr.Binary) {
+            Expr.Binary x = (Expr.Binary) a;
+            Expr.Binary y = (Expr.Binary) b;
+            return x.operator.type == y.operator.type && same(x.left, y.left) && same(x.right, y.right);
+        }
+        if (a instanceof Expr.Logical) {
+            Expr.Logical x = (Expr.Logical) a;
+            Expr.Logical y = (Expr.Logical) b;
+            return x.operator.type == y.operator.type && same(x.left, y.left) && same(x.right, y.right);
+        }
+        if (a instanceof Expr.Assign) {
+            Expr.Assign x = (Expr.Assign) a;
+            Expr.Assign y = (Expr.Assign) b;
+            return x.name.lexeme.equals(y.name.lexeme) && same(x.value, y.value);
+        }
+        if (a instanceof Expr.Call) {
+            Expr.Call x = (Expr.Call) a;
+            Expr.Call y = (Expr.Call) b;
+            return x.typeArguments == null && y.typeArguments == null
+                && same(x.callee, y.callee) && sameExprs(x.arguments, y.arguments);
+        }
+        if (a instanceof Expr.Get) {
+            Expr.Get x = (Expr.Get) a;
+            Expr.Get y = (Expr.Get) b;
+            return x.name.lexeme.equals(y.name.lexeme) && same(x.object, y.object);
+        }
+        if (a instanceof Expr.Set) {
+            Expr.Set x = (Expr.Set) a;
+            Expr.Set y = (Expr.Set) b;
+            return x.name.lexeme.equals(y.name.lexeme) && same(x.object, y.object) && same(x.value, y.value);
+        }
+        if (a instanceof Expr.Index) {
+            Expr.Index x = (Expr.Index) a;
+            Expr.Index y = (Expr.Index) b;
+            return same(x.object, y.object) && same(x.index, y.index);
+        }
+        if (a instanceof Expr.IndexSet) {
+            Expr.IndexSet x = (Expr.IndexSet) a;
+            Expr.IndexSet y = (Expr.IndexSet) b;
+            return same(x.object, y.object) && same(x.index, y.index) && same(x.value, y.value);
+        }
+        if (a instanceof Expr.ListExpr) {
+            return sameExprs(((Expr.ListExpr) a).elements, ((Expr.ListExpr) b).elements);
         }
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -3,38 +3,594 @@ package com.thorn;
 import java.util.*;
 import static com.thorn.TokenType.*;
 
+import com.thorn.ControlFlowAnalysisPass.BasicBlock;
+import com.thorn.ControlFlowAnalysisPass.ControlFlowGraph;
+
 /**
  * Optimization pass that eliminates common subexpressions.
  * This pass identifies repeated expressions and replaces them with temporary variables.
+ *
+ * Each basic block of the program and of every function and lambda body is
+ * numbered in evaluation order. An expression is only reused when it is
+ * pure: arithmetic and comparisons on variables, property and element
+ * reads, and calls to built-ins whose result depends only on their
+ * arguments. Assigning a variable forgets the expressions that read it,
+ * writing a property or element forgets every read of one, and any other
+ * call forgets everything, since the callee may do either.
+ *
+ * The first occurrence stores its value as it is computed, so nothing is
+ * evaluated earlier than before, and later occurrences read the stored
+ * value. Inside a function,
+ *
+ *   d = a[i].x * a[i].x;   becomes   d = (__cse0 = a[i].x) * __cse0;
+ *
+ * with __cse0 declared at the top of the function body. A value is only
+ * stored when reusing it saves more than the store costs.
  */
 public class CommonSubexpressionEliminationPass extends OptimizationPass {
-    
+
+    private int expressionsEliminated = 0;
+    private int nextTemporary = 0;
+
     @Override
     public String getName() {
         return "common-subexpression-elimination";
     }
-    
+
     @Override
     public PassType getType() {
         return PassType.TRANSFORMATION;
     }
-    
+
     @Override
     public List<String> getDependencies() {
-        return Arrays.asList("control-flow-analysis");
+        // After loop optimization, which looks for the repeated products of
+        // induction variables that this pass would otherwise share
+        return Arrays.asList("control-flow-analysis", "loop-optimization");
     }
-    
+
     @Override
     public OptimizationLevel getMinimumLevel() {
         return OptimizationLevel.O2;
     }
-    
+
     @Override
     public List<Stmt> optimize(List<Stmt> statements, OptimizationContext context) {
         if (context.isDebugMode()) {
             System.out.println("=== Common Subexpression Elimination Pass ===");
-            System.out.println("  Stub implementation - no transformations applied");
         }
-        return statements; // TODO: Implement CSE optimization
+
+        expressionsEliminated = 0;
+        nextTemporary = AstScanner.firstUnusedSuffix(statements, "__cse");
+
+        // The graph built by control-flow analysis is only reusable if no
+        // pass has rewritten the program since
+        ControlFlowGraph graph = null;
+        if (context.getCachedAnalysis("control-flow-graph-statements", List.class) == statements) {
+            graph = context.getCachedAnalysis("control-flow-graph", ControlFlowGraph.class);
+        }
+
+        ExpressionShape.Classifier classifier = ExpressionShape.classifier(statements, context);
+
+        List<Stmt> optimized = new Eliminator(classifier).eliminate(statements, graph);
+
+        context.recordTransformations(getName(), expressionsEliminated);
+
+        if (context.isDebugMode()) {
+            System.out.println("  Expressions eliminated: " + expressionsEliminated);
+        }
+
+        return optimized;
+    }
+
+    /**
+     * A temporary holding the value of one expression.
+     */
+    private static final class Temporary {
+        final int weight;
+        int uses = 0;
+        Token name;  // Assigned once the region is numbered
+
+        Temporary(int weight) {
+            this.weight = weight;
+        }
+
+        // Storing and reloading the value costs about two operations
+        boolean isProfitable() {
+            return weight * uses >= 2;
+        }
+    }
+
+    /**
+     * An expression whose value is available in a temporary.
+     */
+    private static final class Available {
+        final Temporary temporary;
+        final ExpressionShape shape;
+
+        Available(Temporary temporary, ExpressionShape shape) {
+            this.temporary = temporary;
+            this.shape = shape;
+        }
+    }
+
+    /**
+     * Finds and removes the common subexpressions of one region: the
+     * program, or the body of a function or lambda.
+     */
+    private class Eliminator {
+        private final ExpressionShape.Classifier classifier;
+
+        // Chosen for the current region
+        private final Map<Expr, Temporary> definitions = new IdentityHashMap<>();
+        private final Map<Expr, Temporary> uses = new IdentityHashMap<>();
+        private final List<Temporary> temporaries = new ArrayList<>();
+
+        Eliminator(ExpressionShape.Classifier classifier) {
+            this.classifier = classifier;
+        }
+
+        List<Stmt> eliminate(List<Stmt> region, ControlFlowGraph graph) {
+            if (graph == null) {
+                graph = ControlFlowAnalysisPass.buildControlFlowGraph(region);
+            }
+
+            for (BasicBlock block : graph.getBasicBlocks()) {
+                new ValueNumbering().run(block.getStatements());
+            }
+
+            // Temporaries are declared once at the top of the region rather
+            // than where they are first stored, so a loop body does not
+            // declare them again on every iteration
+            List<Stmt> declarations = new ArrayList<>();
+            for (Temporary temporary : temporaries) {
+                if (temporary.isProfitable()) {
+                    temporary.name = new Token(IDENTIFIER, "__cse" + nextTemporary++, null, 0);
+                    declarations.add(new Stmt.Var(temporary.name, null, null, false));
+                    expressionsEliminated += temporary.uses;
+                }
+            }
+
+            List<Stmt> rewritten = rewriteStatements(region);
+            if (declarations.isEmpty()) {
+                return rewritten;
+            }
+            declarations.addAll(rewritten);
+            return declarations;
+        }
+
+        // Nested function and lambda bodies are regions of their own
+        private List<Stmt> eliminateNested(List<Stmt> body) {
+            return new Eliminator(classifier).eliminate(body, null);
+        }
+
+        private ExpressionShape shape(Expr expr) {
+            return classifier.of(expr);
+        }
+
+        private boolean isCandidate(Expr expr, ExpressionShape shape) {
+            return shape.isPure() && shape.reusable && shape.weight > 0 && !(expr instanceof Expr.Grouping);
+        }
+
+        /**
+         * Local value numbering over the statements of one basic block.
+         */
+        private class ValueNumbering {
+            private final Map<String, Available> available = new LinkedHashMap<>();
+            private boolean conditional = false;
+
+            void run(List<Stmt> statements) {
+                for (Stmt stmt : statements) {
+                    visitStatement(stmt);
+                }
+            }
+
+            private void visitStatement(Stmt stmt) {
+                if (stmt instanceof Stmt.Expression) {
+                    visit(((Stmt.Expression) stmt).expression);
+                } else if (stmt instanceof Stmt.Var) {
+                    Stmt.Var var = (Stmt.Var) stmt;
+                    if (var.initializer != null) {
+                        visit(var.initializer);
+                    }
+                    killVariable(var.name.lexeme);
+                } else if (stmt instanceof Stmt.Return) {
+                    Stmt.Return returnStmt = (Stmt.Return) stmt;
+                    if (returnStmt.value != null) {
+                        visit(returnStmt.value);
+                    }
+                } else if (stmt instanceof Stmt.Throw) {
+                    Stmt.Throw throwStmt = (Stmt.Throw) stmt;
+                    if (throwStmt.value != null) {
+                        visit(throwStmt.value);
+                    }
+                } else if (stmt instanceof Stmt.Yield) {
+                    Stmt.Yield yieldStmt = (Stmt.Yield) stmt;
+                    if (yieldStmt.value != null) {
+                        visit(yieldStmt.value);
+                    }
+                    // Anything may run before the generator is resumed
+                    available.clear();
+                } else if (stmt instanceof Stmt.If) {
+                    visit(((Stmt.If) stmt).condition);
+                } else if (stmt instanceof Stmt.While) {
+                    visit(((Stmt.While) stmt).condition);
+                } else if (stmt instanceof Stmt.For) {
+                    Stmt.For forStmt = (Stmt.For) stmt;
+                    visit(forStmt.iterable);
+                    killVariable(forStmt.variable.lexeme);
+                } else if (stmt instanceof Stmt.Function) {
+                    killVariable(((Stmt.Function) stmt).name.lexeme);
+                } else if (stmt instanceof Stmt.Class) {
+                    killVariable(((Stmt.Class) stmt).name.lexeme);
+                } else {
+                    available.clear();
+                }
+            }
+
+            private void visit(Expr expr) {
+                ExpressionShape shape = shape(expr);
+                boolean candidate = isCandidate(expr, shape);
+
+                if (candidate) {
+                    Available known = available.get(shape.key);
+                    if (known != null) {
+                        known.temporary.uses++;
+                        uses.put(expr, known.temporary);
+                        return;
+                    }
+                }
+
+                visitOperands(expr);
+
+                if (candidate) {
+                    // Only a value computed on every path can be reused later
+                    if (!conditional) {
+                        Temporary temporary = new Temporary(shape.weight);
+                        definitions.put(expr, temporary);
+                        temporaries.add(temporary);
+                        available.put(shape.key, new Available(temporary, shape));
+                    }
+                    return;
+                }
+
+                applyEffects(expr, shape);
+            }
+
+            // Operands in the order the interpreter evaluates them
+            private void visitOperands(Expr expr) {
+                if (expr instanceof Expr.Binary) {
+                    visit(((Expr.Binary) expr).left);
+                    visit(((Expr.Binary) expr).right);
+                } else if (expr instanceof Expr.Logical) {
+                    visit(((Expr.Logical) expr).left);
+                    visitConditionally(((Expr.Logical) expr).right);
+                } else if (expr instanceof Expr.Unary) {
+                    visit(((Expr.Unary) expr).right);
+                } else if (expr instanceof Expr.Grouping) {
+                    visit(((Expr.Grouping) expr).expression);
+                } else if (expr instanceof Expr.Call) {
+                    Expr.Call call = (Expr.Call) expr;
+                    // A method is looked up on its object, never reused itself
+                    if (call.callee instanceof Expr.Get) {
+                        visit(((Expr.Get) call.callee).object);
+                    } else if (!(call.callee instanceof Expr.Variable)) {
+                        visit(call.callee);
+                    }
+                    for (Expr argument : call.arguments) {
+                        visit(argument);
+                    }
+                } else if (expr instanceof Expr.Get) {
+                    visit(((Expr.Get) expr).object);
+                } else if (expr instanceof Expr.Index) {
+                    visit(((Expr.Index) expr).object);
+                    visit(((Expr.Index) expr).index);
+                } else if (expr instanceof Expr.Slice) {
+                    Expr.Slice slice = (Expr.Slice) expr;
+                    visit(slice.object);
+                    if (slice.start != null) {
+                        visit(slice.start);
+                    }
+                    if (slice.end != null) {
+                        visit(slice.end);
+                    }
+                } else if (expr instanceof Expr.Set) {
+                    visit(((Expr.Set) expr).object);
+                    visit(((Expr.Set) expr).value);
+                } else if (expr instanceof Expr.IndexSet) {
+                    Expr.IndexSet indexSet = (Expr.IndexSet) expr;
+                    visit(indexSet.object);
+                    visit(indexSet.index);
+                    visit(indexSet.value);
+                } else if (expr instanceof Expr.Assign) {
+                    visit(((Expr.Assign) expr).value);
+                } else if (expr instanceof Expr.ListExpr) {
+                    for (Expr element : ((Expr.ListExpr) expr).elements) {
+                        visit(element);
+                    }
+                } else if (expr instanceof Expr.Dict) {
+                    Expr.Dict dict = (Expr.Dict) expr;
+                    for (int i = 0; i < dict.keys.size(); i++) {
+                        visit(dict.keys.get(i));
+                        visit(dict.values.get(i));
+                    }
+                } else if (expr instanceof Expr.Match) {
+                    visit(((Expr.Match) expr).expr);
+                }
+            }
+
+            private void visitConditionally(Expr expr) {
+                boolean saved = conditional;
+                conditional = true;
+                visit(expr);
+                conditional = saved;
+            }
+
+            private void applyEffects(Expr expr, ExpressionShape shape) {
+                if (expr instanceof Expr.Assign) {
+                    killVariable(((Expr.Assign) expr).name.lexeme);
+                } else if (expr instanceof Expr.Set || expr instanceof Expr.IndexSet) {
+                    available.values().removeIf(entry -> entry.shape.readsMemory);
+                } else if (expr instanceof Expr.Call && !shape.isPure()) {
+                    killCall((Expr.Call) expr);
+                } else if (expr instanceof Expr.Match) {
+                    // Cases are not numbered and may do anything
+                    available.clear();
+                }
+            }
+
+            // A call to a function with known effects only invalidates
+            // what it may change
+            private void killCall(Expr.Call call) {
+                EffectAnalysisPass.EffectSummary summary = call.callee instanceof Expr.Variable
+                    ? classifier.effectsOf(((Expr.Variable) call.callee).name.lexeme) : null;
+                if (summary == null || summary.isUnknown()) {
+                    available.clear();
+                    return;
+                }
+                for (String name : summary.getGlobalsWritten()) {
+                    killVariable(name);
+                }
+                if (summary.writesMemory()) {
+                    available.values().removeIf(entry -> entry.shape.readsMemory);
+                }
+            }
+
+            private void killVariable(String name) {
+                available.values().removeIf(entry -> entry.shape.variables.contains(name));
+            }
+        }
+
+        private List<Stmt> rewriteStatements(List<Stmt> statements) {
+            List<Stmt> result = new ArrayList<>();
+            boolean changed = false;
+
+            for (Stmt stmt : statements) {
+                Stmt rewritten = rewriteStatement(stmt);
+                changed |= rewritten != stmt;
+                result.add(rewritten);
+            }
+
+            return changed ? result : statements;
+        }
+
+        private Stmt rewriteStatement(Stmt stmt) {
+            if (stmt instanceof Stmt.Expression) {
+                Expr expr = ((Stmt.Expression) stmt).expression;
+                Expr rewritten = rewrite(expr);
+                return rewritten == expr ? stmt : new Stmt.Expression(rewritten);
+            }
+            if (stmt instanceof Stmt.Var) {
+                Stmt.Var var = (Stmt.Var) stmt;
+                Expr initializer = rewriteOptional(var.initializer);
+                return initializer == var.initializer ? stmt
+                    : new Stmt.Var(var.name, var.type, initializer, var.isImmutable);
+            }
+            if (stmt instanceof Stmt.Block) {
+                List<Stmt> body = ((Stmt.Block) stmt).statements;
+                List<Stmt> rewritten = rewriteStatements(body);
+                return rewritten == body ? stmt : new Stmt.Block(rewritten);
+            }
+            if (stmt instanceof Stmt.If) {
+                Stmt.If ifStmt = (Stmt.If) stmt;
+                Expr condition = rewrite(ifStmt.condition);
+                Stmt thenBranch = rewriteStatement(ifStmt.thenBranch);
+                Stmt elseBranch = ifStmt.elseBranch != null ? rewriteStatement(ifStmt.elseBranch) : null;
+                return condition == ifStmt.condition && thenBranch == ifStmt.thenBranch
+                        && elseBranch == ifStmt.elseBranch ? stmt
+                    : new Stmt.If(condition, thenBranch, elseBranch);
+            }
+            if (stmt instanceof Stmt.While) {
+                Stmt.While whileStmt = (Stmt.While) stmt;
+                Expr condition = rewrite(whileStmt.condition);
+                Stmt body = rewriteStatement(whileStmt.body);
+                return condition == whileStmt.condition && body == whileStmt.body ? stmt
+                    : new Stmt.While(condition, body);
+            }
+            if (stmt instanceof Stmt.For) {
+                Stmt.For forStmt = (Stmt.For) stmt;
+                Expr iterable = rewrite(forStmt.iterable);
+                Stmt body = rewriteStatement(forStmt.body);
+                return iterable == forStmt.iterable && body == forStmt.body ? stmt
+                    : new Stmt.For(forStmt.variable, iterable, body);
+            }
+            if (stmt instanceof Stmt.Return) {
+                Stmt.Return returnStmt = (Stmt.Return) stmt;
+                Expr value = rewriteOptional(returnStmt.value);
+                return value == returnStmt.value ? stmt : new Stmt.Return(returnStmt.keyword, value);
+            }
+            if (stmt instanceof Stmt.Throw) {
+                Stmt.Throw throwStmt = (Stmt.Throw) stmt;
+                Expr value = rewriteOptional(throwStmt.value);
+                return value == throwStmt.value ? stmt : new Stmt.Throw(throwStmt.keyword, value);
+            }
+            if (stmt instanceof Stmt.Yield) {
+                Stmt.Yield yieldStmt = (Stmt.Yield) stmt;
+                Expr value = rewriteOptional(yieldStmt.value);
+                return value == yieldStmt.value ? stmt : new Stmt.Yield(yieldStmt.keyword, value);
+            }
+            if (stmt instanceof Stmt.Function) {
+                return rewriteFunction((Stmt.Function) stmt);
+            }
+            if (stmt instanceof Stmt.Class) {
+                Stmt.Class classStmt = (Stmt.Class) stmt;
+                List<Stmt.Function> methods = new ArrayList<>();
+                boolean changed = false;
+                for (Stmt.Function method : classStmt.methods) {
+                    Stmt.Function rewritten = rewriteFunction(method);
+                    changed |= rewritten != method;
+                    methods.add(rewritten);
+                }
+                return changed ? new Stmt.Class(classStmt.name, classStmt.typeParams, methods) : stmt;
+            }
+            if (stmt instanceof Stmt.Export) {
+                Stmt declaration = ((Stmt.Export) stmt).declaration;
+                Stmt rewritten = rewriteStatement(declaration);
+                return rewritten == declaration ? stmt : new Stmt.Export(rewritten);
+            }
+            return stmt;
+        }
+
+        private Stmt.Function rewriteFunction(Stmt.Function function) {
+            List<Stmt> body = eliminateNested(function.body);
+            return body == function.body ? function
+                : new Stmt.Function(function.name, function.typeParams, function.params,
+                                    function.returnType, body);
+        }
+
+        private Expr rewriteOptional(Expr expr) {
+            return expr != null ? rewrite(expr) : null;
+        }
+
+        private Expr rewrite(Expr expr) {
+            Temporary use = uses.get(expr);
+            if (use != null && use.isProfitable()) {
+                return new Expr.Variable(use.name);
+            }
+
+            Expr rebuilt = rewriteOperands(expr);
+
+            Temporary definition = definitions.get(expr);
+            if (definition != null && definition.isProfitable()) {
+                return new Expr.Assign(definition.name, rebuilt);
+            }
+            return rebuilt;
+        }
+
+        private List<Expr> rewriteAll(List<Expr> exprs) {
+            List<Expr> result = new ArrayList<>(exprs.size());
+            boolean changed = false;
+            for (Expr expr : exprs) {
+                Expr rewritten = rewrite(expr);
+                changed |= rewritten != expr;
+                result.add(rewritten);
+            }
+            return changed ? result : exprs;
+        }
+
+        private Expr rewriteOperands(Expr expr) {
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                Expr left = rewrite(binary.left);
+                Expr right = rewrite(binary.right);
+                return left == binary.left && right == binary.right ? expr
+                    : new Expr.Binary(left, binary.operator, right);
+            }
+            if (expr instanceof Expr.Logical) {
+                Expr.Logical logical = (Expr.Logical) expr;
+                Expr left = rewrite(logical.left);
+                Expr right = rewrite(logical.right);
+                return left == logical.left && right == logical.right ? expr
+                    : new Expr.Logical(left, logical.operator, right);
+            }
+            if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary) expr;
+                Expr right = rewrite(unary.right);
+                return right == unary.right ? expr : new Expr.Unary(unary.operator, right);
+            }
+            if (expr instanceof Expr.Grouping) {
+                Expr inner = ((Expr.Grouping) expr).expression;
+                Expr rewritten = rewrite(inner);
+                return rewritten == inner ? expr : new Expr.Grouping(rewritten);
+            }
+            if (expr instanceof Expr.Call) {
+                Expr.Call call = (Expr.Call) expr;
+                Expr callee = call.callee;
+                if (callee instanceof Expr.Get) {
+                    Expr.Get method = (Expr.Get) callee;
+                    Expr object = rewrite(method.object);
+                    if (object != method.object) {
+                        callee = new Expr.Get(object, method.name);
+                    }
+                } else {
+                    callee = rewrite(callee);
+                }
+                List<Expr> arguments = rewriteAll(call.arguments);
+                return callee == call.callee && arguments == call.arguments ? expr
+                    : new Expr.Call(callee, call.paren, call.typeArguments, arguments);
+            }
+            if (expr instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get) expr;
+                Expr object = rewrite(get.object);
+                return object == get.object ? expr : new Expr.Get(object, get.name);
+            }
+            if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index) expr;
+                Expr object = rewrite(index.object);
+                Expr position = rewrite(index.index);
+                return object == index.object && position == index.index ? expr
+                    : new Expr.Index(object, index.bracket, position);
+            }
+            if (expr instanceof Expr.Slice) {
+                Expr.Slice slice = (Expr.Slice) expr;
+                Expr object = rewrite(slice.object);
+                Expr start = rewriteOptional(slice.start);
+                Expr end = rewriteOptional(slice.end);
+                return object == slice.object && start == slice.start && end == slice.end ? expr
+                    : new Expr.Slice(object, slice.bracket, start, end);
+            }
+            if (expr instanceof Expr.Set) {
+                Expr.Set set = (Expr.Set) expr;
+                Expr object = rewrite(set.object);
+                Expr value = rewrite(set.value);
+                return object == set.object && value == set.value ? expr
+                    : new Expr.Set(object, set.name, value);
+            }
+            if (expr instanceof Expr.IndexSet) {
+                Expr.IndexSet indexSet = (Expr.IndexSet) expr;
+                Expr object = rewrite(indexSet.object);
+                Expr position = rewrite(indexSet.index);
+                Expr value = rewrite(indexSet.value);
+                return object == indexSet.object && position == indexSet.index && value == indexSet.value ? expr
+                    : new Expr.IndexSet(object, indexSet.bracket, position, value);
+            }
+            if (expr instanceof Expr.Assign) {
+                Expr.Assign assign = (Expr.Assign) expr;
+                Expr value = rewrite(assign.value);
+                return value == assign.value ? expr : new Expr.Assign(assign.name, value);
+            }
+            if (expr instanceof Expr.ListExpr) {
+                List<Expr> elements = ((Expr.ListExpr) expr).elements;
+                List<Expr> rewritten = rewriteAll(elements);
+                return rewritten == elements ? expr : new Expr.ListExpr(rewritten);
+            }
+            if (expr instanceof Expr.Dict) {
+                Expr.Dict dict = (Expr.Dict) expr;
+                List<Expr> keys = rewriteAll(dict.keys);
+                List<Expr> values = rewriteAll(dict.values);
+                return keys == dict.keys && values == dict.values ? expr : new Expr.Dict(keys, values);
+            }
+            if (expr instanceof Expr.Match) {
+                Expr.Match match = (Expr.Match) expr;
+                Expr subject = rewrite(match.expr);
+                return subject == match.expr ? expr : new Expr.Match(subject, match.cases);
+            }
+            if (expr instanceof Expr.Lambda) {
+                Expr.Lambda lambda = (Expr.Lambda) expr;
+                List<Stmt> body = eliminateNested(lambda.body);
+                return body == lambda.body ? expr : new Expr.Lambda(lambda.params, body);
+            }
+            return expr;
+        }
     }
-}
\ No newline at end of file
+}
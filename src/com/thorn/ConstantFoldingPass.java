@@ -4,12 +4,12 @@ import java.util.*;
 
 /**
  * Evaluates constant expressions at compile time.
- * Simplifies arithmetic and boolean operations with literal operands.
+ * Simplifies arithmetic and boolean operations with literal operands, and
+ * substitutes the values of the @immut constants found by immutable
+ * analysis for the variables that read them.
  */
 public class ConstantFoldingPass extends OptimizationPass {
     
-    private int expressionsFolded = 0;
-    
     @Override
     public String getName() {
         return "constant-folding";
@@ -31,23 +31,45 @@ public class ConstantFoldingPass extends OptimizationPass {
             System.out.println("=== Constant Folding Pass ===");
         }
         
-        expressionsFolded = 0;
-        
-        ConstantFolder folder = new ConstantFolder(context);
+        ConstantFolder folder = new ConstantFolder(ImmutableAnalysisPass.constants(context));
         List<Stmt> optimized = folder.foldConstants(statements);
+        context.recordTransformations(getName(), folder.expressionsFolded);
         
         if (context.isDebugMode()) {
-            System.out.println("  Expressions folded: " + expressionsFolded);
+            System.out.println("  Expressions folded: " + folder.expressionsFolded);
         }
         
         return optimized;
     }
     
-    private class ConstantFolder {
-        private final OptimizationContext context;
+    @Override
+    public boolean isFunctionLocal() {
+        // Each statement is folded on its own
+        return true;
+    }
+    
+    @Override
+    public Stmt.Function optimizeFunction(Stmt.Function function, OptimizationContext context) {
+        ConstantFolder folder = new ConstantFolder(ImmutableAnalysisPass.constants(context));
+        Stmt.Function optimized = (Stmt.Function) folder.foldStatement(function);
+        context.recordTransformations(getName(), folder.expressionsFolded);
+        return optimized;
+    }
+    
+    /**
+     * Folds an expression, reading the given constants for the variables
+     * they name.
+     */
+    static Expr fold(Expr expr, Map<String, Object> constants) {
+        return new ConstantFolder(constants).foldExpression(expr);
+    }
+    
+    private static class ConstantFolder {
+        private final Map<String, Object> constants;
+        private int expressionsFolded = 0;
         
-        public ConstantFolder(OptimizationContext context) {
-            this.context = context;
+        public ConstantFolder(Map<String, Object> constants) {
+            this.constants = constants;
         }
         
         public List<Stmt> foldConstants(List<Stmt> statements) {
@@ -141,6 +163,14 @@ public class ConstantFoldingPass extends OptimizationPass {
                     );
                 }
                 
+                @Override
+                public Stmt visitYieldStmt(Stmt.Yield stmt) {
+                    return new Stmt.Yield(
+                        stmt.keyword,
+                        stmt.value != null ? foldExpression(stmt.value) : null
+                    );
+                }
+                
                 @Override
                 public Stmt visitFunctionStmt(Stmt.Function stmt) {
                     return new Stmt.Function(
@@ -237,6 +267,10 @@ public class ConstantFoldingPass extends OptimizationPass {
                 
                 @Override
                 public Expr visitVariableExpr(Expr.Variable expr) {
+                    if (constants.containsKey(expr.name.lexeme)) {
+                        expressionsFolded++;
+                        return new Expr.Literal(constants.get(expr.name.lexeme));
+                    }
                     return expr;
                 }
                 
@@ -346,6 +380,10 @@ public class ConstantFoldingPass extends OptimizationPass {
                     for (Expr.Match.Case c : expr.cases) {
                         Expr foldedPattern = foldExpression(c.pattern);
                         Expr foldedGuard = c.guard != null ? foldExpression(c.guard) : null;
+                        if (c.isBlock) {
+                            foldedCases.add(new Expr.Match.Case(foldedPattern, foldedGuard, foldConstants(c.stmts)));
+                            continue;
+                        }
                         Expr foldedValue = foldExpression(c.value);
                         foldedCases.add(new Expr.Match.Case(foldedPattern, foldedGuard, foldedValue));
                     }
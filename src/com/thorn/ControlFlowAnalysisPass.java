@@ -42,8 +42,10 @@ public class ControlFlowAnalysisPass extends OptimizationPass {
         ReachabilityInfo reachability = analyzeReachability(cfg);
         LoopInfo loops = findLoops(cfg);
         
-        // Cache analysis results for other passes
+        // Cache analysis results for other passes, with the statements they
+        // describe so a later pass can tell whether the graph is still current
         context.cacheAnalysis("control-flow-graph", cfg);
+        context.cacheAnalysis("control-flow-graph-statements", statements);
         context.cacheAnalysis("reachability-info", reachability);
         context.cacheAnalysis("loop-info", loops);
         
@@ -57,7 +59,12 @@ public class ControlFlowAnalysisPass extends OptimizationPass {
         return statements;
     }
     
-    private ControlFlowGraph buildControlFlowGraph(List<Stmt> statements) {
+    /**
+     * Builds the control flow graph of one statement list, such as the
+     * program or a function body. Nested function and lambda bodies are
+     * not entered.
+     */
+    static ControlFlowGraph buildControlFlowGraph(List<Stmt> statements) {
         ControlFlowGraph cfg = new ControlFlowGraph();
         CFGBuilder builder = new CFGBuilder(cfg);
         builder.build(statements);
@@ -187,6 +194,8 @@ public class ControlFlowAnalysisPass extends OptimizationPass {
                 processIfStatement((Stmt.If) stmt);
             } else if (stmt instanceof Stmt.While) {
                 processWhileStatement((Stmt.While) stmt);
+            } else if (stmt instanceof Stmt.For) {
+                processForStatement((Stmt.For) stmt);
             } else if (stmt instanceof Stmt.Return) {
                 currentBlock.addStatement(stmt);
                 // Return statements don't have successors
@@ -264,6 +273,32 @@ public class ControlFlowAnalysisPass extends OptimizationPass {
             currentBlock = exitBlock;
         }
         
+        private void processForStatement(Stmt.For stmt) {
+            // The iterable is evaluated once on entry; the header block
+            // stands for the per-iteration step to the next element
+            BasicBlock headerBlock = new BasicBlock(nextBlockId++);
+            BasicBlock bodyBlock = new BasicBlock(nextBlockId++);
+            BasicBlock exitBlock = new BasicBlock(nextBlockId++);
+            
+            cfg.addBlock(headerBlock);
+            cfg.addBlock(bodyBlock);
+            cfg.addBlock(exitBlock);
+            
+            currentBlock.addSuccessor(headerBlock);
+            
+            headerBlock.addStatement(stmt);
+            headerBlock.addSuccessor(bodyBlock);
+            headerBlock.addSuccessor(exitBlock);
+            
+            currentBlock = bodyBlock;
+            processStatement(stmt.body);
+            if (!endsWithReturn(currentBlock)) {
+                currentBlock.addSuccessor(headerBlock);
+            }
+            
+            currentBlock = exitBlock;
+        }
+        
         private boolean endsWithReturn(BasicBlock block) {
             List<Stmt> stmts = block.getStatements();
             return !stmts.isEmpty() && 
@@ -1,40 +1,166 @@
 package com.thorn;
 
 import java.util.*;
+import static com.thorn.TokenType.*;
 
 /**
  * Optimization pass that propagates copy assignments to eliminate redundant variables.
  * This pass replaces uses of copied variables with their source values when safe.
  * Example: x = y; z = x + 1; becomes x = y; z = y + 1;
+ *
+ * A copy x = y is available at a read of x when every path to the read
+ * passes through it and stores neither x nor y afterwards. The copy itself
+ * is left for dead store elimination.
  */
 public class CopyPropagationPass extends OptimizationPass {
-    
+
+    private int copiesPropagated = 0;
+
     @Override
     public String getName() {
         return "copy-propagation";
     }
-    
+
     @Override
     public PassType getType() {
         return PassType.TRANSFORMATION;
     }
-    
+
     @Override
     public List<String> getDependencies() {
-        return Arrays.asList("constant-folding");
+        // After inlining, which copies arguments into temporaries
+        return Arrays.asList("constant-folding", "function-inlining");
     }
-    
+
     @Override
     public OptimizationLevel getMinimumLevel() {
         return OptimizationLevel.O1;
     }
-    
+
     @Override
     public List<Stmt> optimize(List<Stmt> statements, OptimizationContext context) {
         if (context.isDebugMode()) {
             System.out.println("=== Copy Propagation Pass ===");
-            System.out.println("  Stub implementation - no transformations applied");
         }
-        return statements; // TODO: Implement copy propagation optimization
+
+        copiesPropagated = 0;
+
+        DataflowAnalysis analysis = DataflowAnalysis.of(statements, context);
+        Map<Expr, Token> replacements = new IdentityHashMap<>();
+        for (DataflowAnalysis.Region region : analysis.regions()) {
+            propagate(region, replacements);
+        }
+
+        List<Stmt> optimized = statements;
+        if (!replacements.isEmpty()) {
+            optimized = new AstRewriter(false) {
+                @Override
+                Expr replace(Expr expr) {
+                    Token name = replacements.get(expr);
+                    return name != null ? new Expr.Variable(name) : null;
+                }
+
+                @Override
+                boolean entersCases() {
+                    return true;
+                }
+
+                @Override
+                Expr lambda(Expr.Lambda lambda) {
+                    List<Stmt> body = statements(lambda.body);
+                    return body == lambda.body ? lambda : new Expr.Lambda(lambda.params, body);
+                }
+
+                @Override
+                Stmt.Function function(Stmt.Function function) {
+                    List<Stmt> body = statements(function.body);
+                    return body == function.body ? function
+                        : new Stmt.Function(function.name, function.typeParams, function.params,
+                                            function.returnType, body);
+                }
+            }.statements(statements);
+        }
+
+        context.recordTransformations(getName(), copiesPropagated);
+
+        if (context.isDebugMode()) {
+            System.out.println("  Copies propagated: " + copiesPropagated);
+        }
+
+        return optimized;
+    }
+
+    /**
+     * Chooses the reads of one region that can use the source of a copy.
+     */
+    private void propagate(DataflowAnalysis.Region region, Map<Expr, Token> replacements) {
+        List<DataflowAnalysis.Definition> copies = new ArrayList<>();
+        Map<DataflowAnalysis.Definition, Integer> copyIndexes = new IdentityHashMap<>();
+        Map<String, BitSet> copiesTo = new HashMap<>();
+        Map<String, BitSet> copiesInvolving = new HashMap<>();
+        for (Stmt site : region.sites()) {
+            DataflowAnalysis.Definition definition = region.store(site);
+            if (definition == null || !(definition.value instanceof Expr.Variable)) {
+                continue;
+            }
+            String source = ((Expr.Variable) definition.value).name.lexeme;
+            if (source.equals(definition.name) || !region.isTracked(source)) {
+                continue;
+            }
+            int index = copies.size();
+            copies.add(definition);
+            copyIndexes.put(definition, index);
+            copiesTo.computeIfAbsent(definition.name, key -> new BitSet()).set(index);
+            copiesInvolving.computeIfAbsent(definition.name, key -> new BitSet()).set(index);
+            copiesInvolving.computeIfAbsent(source, key -> new BitSet()).set(index);
+        }
+        if (copies.isEmpty()) {
+            return;
+        }
+
+        Map<Stmt, BitSet> available = region.forward(new BitSet(), true, (site, facts) -> {
+            DataflowAnalysis.Definition definition = region.store(site);
+            if (definition == null) {
+                return;
+            }
+            BitSet killed = copiesInvolving.get(definition.name);
+            if (killed != null) {
+                facts.andNot(killed);
+            }
+            Integer index = copyIndexes.get(definition);
+            if (index != null) {
+                facts.set(index);
+            }
+        });
+
+        for (Stmt site : region.sites()) {
+            BitSet facts = available.get(site);
+            for (Expr.Variable read : region.reads(site)) {
+                // Follow chains of copies: with x = y and y = z both
+                // available, x still holds the value of z
+                String name = read.name.lexeme;
+                for (int step = 0; step < copies.size(); step++) {
+                    BitSet candidates = copiesTo.get(name);
+                    int index = candidates != null ? nextAvailable(candidates, facts) : -1;
+                    if (index < 0) {
+                        break;
+                    }
+                    name = ((Expr.Variable) copies.get(index).value).name.lexeme;
+                }
+                if (!name.equals(read.name.lexeme)) {
+                    replacements.put(read, new Token(IDENTIFIER, name, null, read.name.line));
+                    copiesPropagated++;
+                }
+            }
+        }
+    }
+
+    private static int nextAvailable(BitSet candidates, BitSet facts) {
+        for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+            if (facts.get(index)) {
+                return index;
+            }
+        }
+        return -1;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,612 @@
+package com.thorn;
+
+import java.util.*;
+import com.thorn.ControlFlowAnalysisPass.BasicBlock;
+import com.thorn.ControlFlowAnalysisPass.ControlFlowGraph;
+
+/**
+ * Reaching definitions, liveness and def-use chains for the variables of
+ * a program and of every function, method and lambda body in it, each
+ * computed over the control flow graph of its body.
+ *
+ * Only variables whose binding the analysis can see are tracked: a
+ * parameter, or a name declared by a statement at the top of the body
+ * before any other use of it. A tracked variable is only ever stored by
+ * whole statements, is never shadowed by a nested declaration and is not
+ * used by any nested function or lambda, so calls and code elsewhere
+ * cannot read or change it.
+ */
+final class DataflowAnalysis {
+    // Names the interpreter defines before the program runs
+    private static final Set<String> BUILTINS = new HashSet<>(Arrays.asList("print", "clock", "range", "Ok", "Error"));
+
+    private final Map<List<Stmt>, Region> regions = new IdentityHashMap<>();
+
+    private DataflowAnalysis() {}
+
+    /**
+     * The analysis of a program, reused while no pass has rewritten it.
+     */
+    static DataflowAnalysis of(List<Stmt> statements, OptimizationContext context) {
+        if (context.getCachedAnalysis("dataflow-analysis-statements", List.class) == statements) {
+            DataflowAnalysis cached = context.getCachedAnalysis("dataflow-analysis", DataflowAnalysis.class);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        ControlFlowGraph graph = null;
+        if (context.getCachedAnalysis("control-flow-graph-statements", List.class) == statements) {
+            graph = context.getCachedAnalysis("control-flow-graph", ControlFlowGraph.class);
+        }
+
+        DataflowAnalysis analysis = new DataflowAnalysis();
+        analysis.analyze(statements, graph, Collections.emptyList(), Collections.emptySet(), true);
+        context.cacheAnalysis("dataflow-analysis", analysis);
+        context.cacheAnalysis("dataflow-analysis-statements", statements);
+        return analysis;
+    }
+
+    /**
+     * The region whose statements are the program or a body, or null.
+     */
+    Region region(List<Stmt> body) {
+        return regions.get(body);
+    }
+
+    Collection<Region> regions() {
+        return Collections.unmodifiableCollection(regions.values());
+    }
+
+    private void analyze(List<Stmt> body, ControlFlowGraph graph, List<String> params,
+                         Set<String> outer, boolean program) {
+        Set<String> bound = new HashSet<>(params);
+        List<Expr.Lambda> lambdas = new ArrayList<>();
+        List<Stmt.Function> functions = new ArrayList<>();
+        new AstScanner() {
+            @Override
+            void visit(Stmt stmt) {
+                if (functionDepth > 0) {
+                    return;
+                }
+                Token name = boundName(stmt);
+                if (name != null) {
+                    bound.add(name.lexeme);
+                }
+                if (stmt instanceof Stmt.Function) {
+                    functions.add((Stmt.Function) stmt);
+                } else if (stmt instanceof Stmt.Class) {
+                    functions.addAll(((Stmt.Class) stmt).methods);
+                } else if (stmt instanceof Stmt.Import && ((Stmt.Import) stmt).names != null) {
+                    for (Token imported : ((Stmt.Import) stmt).names) {
+                        bound.add(imported.lexeme);
+                    }
+                }
+            }
+
+            @Override
+            void visit(Expr expr) {
+                if (functionDepth > 0) {
+                    return;
+                }
+                if (expr instanceof Expr.Assign) {
+                    bound.add(((Expr.Assign) expr).name.lexeme);
+                } else if (expr instanceof Expr.Lambda) {
+                    lambdas.add((Expr.Lambda) expr);
+                }
+            }
+        }.statements(body);
+
+        regions.put(body, new Region(body, graph, params, outer, program));
+        if (functions.isEmpty() && lambdas.isEmpty()) {
+            return;
+        }
+
+        // An assignment in a nested body may store to any name bound here
+        Set<String> visible = new HashSet<>(outer);
+        visible.addAll(bound);
+        visible.addAll(BUILTINS);
+        for (Stmt.Function function : functions) {
+            List<String> names = new ArrayList<>();
+            for (Stmt.Parameter param : function.params) {
+                names.add(param.name.lexeme);
+            }
+            analyze(function.body, null, names, visible, false);
+        }
+        for (Expr.Lambda lambda : lambdas) {
+            List<String> names = new ArrayList<>();
+            for (Token param : lambda.params) {
+                names.add(param.lexeme);
+            }
+            analyze(lambda.body, null, names, visible, false);
+        }
+    }
+
+    // The assignment a statement consists of, if any
+    static Expr.Assign statementStore(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression && ((Stmt.Expression) stmt).expression instanceof Expr.Assign) {
+            return (Expr.Assign) ((Stmt.Expression) stmt).expression;
+        }
+        return null;
+    }
+
+    /**
+     * One store to a tracked variable: a parameter, a declaration or an
+     * assignment statement.
+     */
+    static final class Definition {
+        final int id;
+        final String name;
+        final Stmt stmt;       // Null for a parameter
+        final Expr value;      // Null for a parameter or a declaration without a value
+        final boolean declares;
+
+        Definition(int id, String name, Stmt stmt, Expr value, boolean declares) {
+            this.id = id;
+            this.name = name;
+            this.stmt = stmt;
+            this.value = value;
+            this.declares = declares;
+        }
+    }
+
+    /**
+     * Updates the facts known at one statement to those known on its other
+     * side.
+     */
+    interface Transfer {
+        void apply(Stmt site, BitSet facts);
+    }
+
+    /**
+     * The dataflow facts of one body. Every statement of its control flow
+     * graph is a site; the site of an if, while or for statement stands
+     * for its condition or iterable only.
+     */
+    static final class Region {
+        final List<Stmt> statements;
+        final ControlFlowGraph graph;
+        final boolean program;
+
+        private final Map<BasicBlock, Integer> blockIndexes = new IdentityHashMap<>();
+        private final Set<String> variables;
+        private final List<Definition> definitions = new ArrayList<>();
+        private final Map<String, BitSet> definitionsOf = new HashMap<>();
+        private final Map<Stmt, Definition> stores = new IdentityHashMap<>();
+        private final Map<Stmt, List<Expr.Variable>> reads = new IdentityHashMap<>();
+        private final Map<Stmt, BitSet> reaching;
+        private final Map<Stmt, BitSet> live;
+        private final Map<Expr.Variable, List<Definition>> useDefinitions = new IdentityHashMap<>();
+        private final Map<Definition, List<Expr.Variable>> definitionUses = new IdentityHashMap<>();
+        private final Map<String, Integer> variableIndexes = new HashMap<>();
+
+        Region(List<Stmt> statements, ControlFlowGraph graph, List<String> params,
+               Set<String> outer, boolean program) {
+            this.statements = statements;
+            this.graph = graph != null ? graph : ControlFlowAnalysisPass.buildControlFlowGraph(statements);
+            this.program = program;
+            for (BasicBlock block : this.graph.getBasicBlocks()) {
+                blockIndexes.put(block, blockIndexes.size());
+            }
+
+            Set<Stmt> declarations = Collections.newSetFromMap(new IdentityHashMap<>());
+            variables = trackedVariables(params, outer, declarations);
+
+            List<Definition> entry = new ArrayList<>();
+            for (String param : params) {
+                if (variables.contains(param)) {
+                    entry.add(define(param, null, null, true));
+                }
+            }
+            for (Stmt site : sites()) {
+                collectSite(site, declarations);
+            }
+
+            reaching = forward(definitionBits(entry), false, (site, facts) -> {
+                Definition definition = stores.get(site);
+                if (definition != null) {
+                    facts.andNot(definitionsOf.get(definition.name));
+                    facts.set(definition.id);
+                }
+            });
+            for (Stmt site : sites()) {
+                BitSet before = reaching.get(site);
+                for (Expr.Variable read : reads.get(site)) {
+                    List<Definition> found = new ArrayList<>();
+                    BitSet candidates = (BitSet) definitionsOf.getOrDefault(read.name.lexeme, new BitSet()).clone();
+                    candidates.and(before);
+                    for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+                        found.add(definitions.get(id));
+                        definitionUses.get(definitions.get(id)).add(read);
+                    }
+                    useDefinitions.put(read, found);
+                }
+            }
+
+            // Program variables outlive the program, as the next line
+            // entered at the prompt may read them
+            for (String variable : variables) {
+                variableIndexes.put(variable, variableIndexes.size());
+            }
+            BitSet exit = new BitSet();
+            if (program) {
+                exit.set(0, variableIndexes.size());
+            }
+            live = backward(exit, false, (site, facts) -> {
+                Definition definition = stores.get(site);
+                if (definition != null) {
+                    facts.clear(variableIndexes.get(definition.name));
+                }
+                for (Expr.Variable read : reads.get(site)) {
+                    facts.set(variableIndexes.get(read.name.lexeme));
+                }
+            });
+        }
+
+        /**
+         * The statements of the control flow graph, block by block.
+         */
+        List<Stmt> sites() {
+            List<Stmt> sites = new ArrayList<>();
+            for (BasicBlock block : graph.getBasicBlocks()) {
+                sites.addAll(block.getStatements());
+            }
+            return sites;
+        }
+
+        boolean isTracked(String name) {
+            return variables.contains(name);
+        }
+
+        /**
+         * The reads of tracked variables at a site.
+         */
+        List<Expr.Variable> reads(Stmt site) {
+            List<Expr.Variable> found = reads.get(site);
+            return found != null ? found : Collections.emptyList();
+        }
+
+        /**
+         * The definition a site makes, or null.
+         */
+        Definition store(Stmt site) {
+            return stores.get(site);
+        }
+
+        /**
+         * The definitions whose value a read may see.
+         */
+        List<Definition> definitions(Expr.Variable read) {
+            List<Definition> found = useDefinitions.get(read);
+            return found != null ? found : Collections.emptyList();
+        }
+
+        /**
+         * The reads that may see the value of a definition.
+         */
+        List<Expr.Variable> uses(Definition definition) {
+            return definitionUses.get(definition);
+        }
+
+        /**
+         * The definitions of a variable that reach a site.
+         */
+        List<Definition> reachingDefinitions(Stmt site, String name) {
+            List<Definition> found = new ArrayList<>();
+            BitSet before = reaching.get(site);
+            BitSet candidates = definitionsOf.get(name);
+            if (before != null && candidates != null) {
+                for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+                    if (before.get(id)) {
+                        found.add(definitions.get(id));
+                    }
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Whether a variable may be read after a site before it is stored
+         * again.
+         */
+        boolean isLiveAfter(Stmt site, String name) {
+            BitSet after = live.get(site);
+            Integer index = variableIndexes.get(name);
+            return after == null || index == null || after.get(index);
+        }
+
+        /**
+         * Solves a forward problem, returning the facts before each site.
+         * A must problem only keeps facts true on every path.
+         */
+        Map<Stmt, BitSet> forward(BitSet entry, boolean must, Transfer transfer) {
+            List<BasicBlock> blocks = graph.getBasicBlocks();
+            BitSet[] out = new BitSet[blocks.size()];
+            Deque<BasicBlock> pending = new ArrayDeque<>(blocks);
+            Set<BasicBlock> queued = Collections.newSetFromMap(new IdentityHashMap<>());
+            queued.addAll(blocks);
+            while (!pending.isEmpty()) {
+                BasicBlock block = pending.poll();
+                queued.remove(block);
+                BitSet facts = blockEntry(block, entry, must, out);
+                for (Stmt site : block.getStatements()) {
+                    transfer.apply(site, facts);
+                }
+                int index = blockIndexes.get(block);
+                if (!facts.equals(out[index])) {
+                    out[index] = facts;
+                    for (BasicBlock successor : block.getSuccessors()) {
+                        if (queued.add(successor)) {
+                            pending.add(successor);
+                        }
+                    }
+                }
+            }
+
+            Map<Stmt, BitSet> before = new IdentityHashMap<>();
+            for (BasicBlock block : blocks) {
+                BitSet facts = blockEntry(block, entry, must, out);
+                for (Stmt site : block.getStatements()) {
+                    before.put(site, (BitSet) facts.clone());
+                    transfer.apply(site, facts);
+                }
+            }
+            return before;
+        }
+
+        // Facts before a block; a block no path reaches has none
+        private BitSet blockEntry(BasicBlock block, BitSet entry, boolean must, BitSet[] out) {
+            if (block == graph.getEntryBlock()) {
+                return (BitSet) entry.clone();
+            }
+            BitSet facts = null;
+            for (BasicBlock predecessor : block.getPredecessors()) {
+                BitSet known = out[blockIndexes.get(predecessor)];
+                if (known == null) {
+                    // Not yet visited: the optimistic start of a must problem
+                    continue;
+                }
+                if (facts == null) {
+                    facts = (BitSet) known.clone();
+                } else if (must) {
+                    facts.and(known);
+                } else {
+                    facts.or(known);
+                }
+            }
+            return facts != null ? facts : new BitSet();
+        }
+
+        /**
+         * Solves a backward problem, returning the facts after each site.
+         * Blocks that end the body start from the exit facts.
+         */
+        Map<Stmt, BitSet> backward(BitSet exit, boolean must, Transfer transfer) {
+            List<BasicBlock> blocks = graph.getBasicBlocks();
+            BitSet[] in = new BitSet[blocks.size()];
+            Deque<BasicBlock> pending = new ArrayDeque<>();
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                pending.add(blocks.get(i));
+            }
+            Set<BasicBlock> queued = Collections.newSetFromMap(new IdentityHashMap<>());
+            queued.addAll(blocks);
+            while (!pending.isEmpty()) {
+                BasicBlock block = pending.poll();
+                queued.remove(block);
+                BitSet facts = blockExit(block, exit, must, in);
+                List<Stmt> sites = block.getStatements();
+                for (int i = sites.size() - 1; i >= 0; i--) {
+                    transfer.apply(sites.get(i), facts);
+                }
+                int index = blockIndexes.get(block);
+                if (!facts.equals(in[index])) {
+                    in[index] = facts;
+                    for (BasicBlock predecessor : block.getPredecessors()) {
+                        if (queued.add(predecessor)) {
+                            pending.add(predecessor);
+                        }
+                    }
+                }
+            }
+
+            Map<Stmt, BitSet> after = new IdentityHashMap<>();
+            for (BasicBlock block : blocks) {
+                BitSet facts = blockExit(block, exit, must, in);
+                List<Stmt> sites = block.getStatements();
+                for (int i = sites.size() - 1; i >= 0; i--) {
+                    after.put(sites.get(i), (BitSet) facts.clone());
+                    transfer.apply(sites.get(i), facts);
+                }
+            }
+            return after;
+        }
+
+        private BitSet blockExit(BasicBlock block, BitSet exit, boolean must, BitSet[] in) {
+            if (block.getSuccessors().isEmpty()) {
+                return (BitSet) exit.clone();
+            }
+            BitSet facts = null;
+            for (BasicBlock successor : block.getSuccessors()) {
+                BitSet known = in[blockIndexes.get(successor)];
+                if (known == null) {
+                    continue;
+                }
+                if (facts == null) {
+                    facts = (BitSet) known.clone();
+                } else if (must) {
+                    facts.and(known);
+                } else {
+                    facts.or(known);
+                }
+            }
+            return facts != null ? facts : new BitSet();
+        }
+
+        private Definition define(String name, Stmt stmt, Expr value, boolean declares) {
+            Definition definition = new Definition(definitions.size(), name, stmt, value, declares);
+            definitions.add(definition);
+            definitionsOf.computeIfAbsent(name, key -> new BitSet()).set(definition.id);
+            definitionUses.put(definition, new ArrayList<>());
+            return definition;
+        }
+
+        private BitSet definitionBits(List<Definition> found) {
+            BitSet bits = new BitSet();
+            for (Definition definition : found) {
+                bits.set(definition.id);
+            }
+            return bits;
+        }
+
+        private void collectSite(Stmt site, Set<Stmt> declarations) {
+            Stmt stmt = site instanceof Stmt.Export ? ((Stmt.Export) site).declaration : site;
+            List<Expr> evaluated = new ArrayList<>();
+            if (stmt instanceof Stmt.Expression) {
+                evaluated.add(((Stmt.Expression) stmt).expression);
+            } else if (stmt instanceof Stmt.Var) {
+                evaluated.add(((Stmt.Var) stmt).initializer);
+            } else if (stmt instanceof Stmt.Return) {
+                evaluated.add(((Stmt.Return) stmt).value);
+            } else if (stmt instanceof Stmt.Throw) {
+                evaluated.add(((Stmt.Throw) stmt).value);
+            } else if (stmt instanceof Stmt.Yield) {
+                evaluated.add(((Stmt.Yield) stmt).value);
+            } else if (stmt instanceof Stmt.If) {
+                evaluated.add(((Stmt.If) stmt).condition);
+            } else if (stmt instanceof Stmt.While) {
+                evaluated.add(((Stmt.While) stmt).condition);
+            } else if (stmt instanceof Stmt.For) {
+                evaluated.add(((Stmt.For) stmt).iterable);
+            }
+
+            List<Expr.Variable> found = new ArrayList<>();
+            AstScanner scanner = new AstScanner() {
+                @Override
+                void visit(Expr expr) {
+                    if (functionDepth == 0 && expr instanceof Expr.Variable
+                            && variables.contains(((Expr.Variable) expr).name.lexeme)) {
+                        found.add((Expr.Variable) expr);
+                    }
+                }
+            };
+            for (Expr expr : evaluated) {
+                if (expr != null) {
+                    scanner.expression(expr);
+                }
+            }
+            reads.put(site, found);
+
+            Expr.Assign assign = statementStore(stmt);
+            if (assign != null && variables.contains(assign.name.lexeme)) {
+                stores.put(site, define(assign.name.lexeme, site, assign.value, declarations.contains(site)));
+            } else if (stmt instanceof Stmt.Var && variables.contains(((Stmt.Var) stmt).name.lexeme)) {
+                stores.put(site, define(((Stmt.Var) stmt).name.lexeme, site, ((Stmt.Var) stmt).initializer, true));
+            }
+        }
+
+        /**
+         * Finds the variables whose every binding and use is visible here,
+         * and the assignments that declare them.
+         */
+        private Set<String> trackedVariables(List<String> params, Set<String> outer, Set<Stmt> declarations) {
+            Set<String> declared = new HashSet<>(params);
+            Set<String> excluded = new HashSet<>();
+            Set<Expr> statementStores = Collections.newSetFromMap(new IdentityHashMap<>());
+            Set<Stmt> topLevel = Collections.newSetFromMap(new IdentityHashMap<>());
+            Set<Expr> topLevelStores = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Stmt stmt : statements) {
+                topLevel.add(stmt);
+                Expr.Assign assign = statementStore(stmt);
+                if (assign != null) {
+                    topLevelStores.add(assign);
+                }
+            }
+
+            AstScanner scanner = new AstScanner() {
+                @Override
+                void visit(Stmt stmt) {
+                    Expr.Assign assign = statementStore(stmt);
+                    if (assign != null) {
+                        statementStores.add(assign);
+                    }
+                    Token name = boundName(stmt);
+                    if (name == null) {
+                        if (stmt instanceof Stmt.Import && ((Stmt.Import) stmt).names != null) {
+                            for (Token imported : ((Stmt.Import) stmt).names) {
+                                excluded.add(imported.lexeme);
+                            }
+                        } else if (stmt instanceof Stmt.ExportIdentifier) {
+                            excluded.add(((Stmt.ExportIdentifier) stmt).name.lexeme);
+                        } else if (stmt instanceof Stmt.Export) {
+                            Token exported = boundName(((Stmt.Export) stmt).declaration);
+                            if (exported != null) {
+                                excluded.add(exported.lexeme);
+                            }
+                        }
+                        return;
+                    }
+                    // Only an untyped, mutable declaration at the top of the
+                    // body binds a name every statement here shares
+                    if (functionDepth > 0 || caseDepth > 0 || !(stmt instanceof Stmt.Var)
+                            || !topLevel.contains(stmt) || ((Stmt.Var) stmt).type != null
+                            || ((Stmt.Var) stmt).isImmutable) {
+                        excluded.add(name.lexeme);
+                    }
+                }
+
+                @Override
+                void visit(Expr expr) {
+                    if (expr instanceof Expr.Variable) {
+                        String name = ((Expr.Variable) expr).name.lexeme;
+                        if (functionDepth > 0 || !declared.contains(name)) {
+                            excluded.add(name);
+                        }
+                    } else if (expr instanceof Expr.Assign) {
+                        String name = ((Expr.Assign) expr).name.lexeme;
+                        if (functionDepth > 0 || caseDepth > 0 || !statementStores.contains(expr)) {
+                            excluded.add(name);
+                        } else if (!declared.contains(name)) {
+                            // Declares the name here only at the top of the
+                            // body, and only if no enclosing scope binds it
+                            if (!topLevelStores.contains(expr) || outer.contains(name)) {
+                                excluded.add(name);
+                            }
+                        }
+                    } else if (expr instanceof Expr.Lambda) {
+                        for (Token param : ((Expr.Lambda) expr).params) {
+                            excluded.add(param.lexeme);
+                        }
+                    } else if (expr instanceof Expr.Match) {
+                        // Patterns bind and compare names
+                        for (Expr.Match.Case matchCase : ((Expr.Match) expr).cases) {
+                            new AstScanner() {
+                                @Override
+                                void visit(Expr pattern) {
+                                    if (pattern instanceof Expr.Variable) {
+                                        excluded.add(((Expr.Variable) pattern).name.lexeme);
+                                    }
+                                }
+                            }.expression(matchCase.pattern);
+                        }
+                    }
+                }
+            };
+
+            for (Stmt stmt : statements) {
+                scanner.statement(stmt);
+                // A name is declared once the statement that binds it has run
+                Expr.Assign assign = statementStore(stmt);
+                if (assign != null && !declared.contains(assign.name.lexeme)) {
+                    declared.add(assign.name.lexeme);
+                    declarations.add(stmt);
+                } else if (stmt instanceof Stmt.Var) {
+                    declared.add(((Stmt.Var) stmt).name.lexeme);
+                }
+            }
+
+            Set<String> tracked = new HashSet<>(declared);
+            tracked.removeAll(excluded);
+            return tracked;
+        }
+    }
+}
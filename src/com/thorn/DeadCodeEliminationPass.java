@@ -42,6 +42,7 @@ public class DeadCodeEliminationPass extends OptimizationPass {
         
         // Second pass: remove unused code
         List<Stmt> optimized = removeDeadCode(statements, usage, context);
+        context.recordTransformations(getName(), variablesRemoved + functionsRemoved + statementsRemoved);
         
         if (context.isDebugMode()) {
             System.out.println("  Variables removed: " + variablesRemoved);
@@ -254,6 +255,14 @@ public class DeadCodeEliminationPass extends OptimizationPass {
                     return null;
                 }
                 
+                @Override
+                public Void visitYieldStmt(Stmt.Yield stmt) {
+                    if (stmt.value != null) {
+                        collectUsageFromExpression(stmt.value);
+                    }
+                    return null;
+                }
+                
                 @Override
                 public Void visitFunctionStmt(Stmt.Function stmt) {
                     collectUsage(stmt.body);
@@ -410,7 +419,11 @@ public class DeadCodeEliminationPass extends OptimizationPass {
                         if (c.guard != null) {
                             collectUsageFromExpression(c.guard);
                         }
-                        collectUsageFromExpression(c.value);
+                        if (c.isBlock) {
+                            collectUsage(c.stmts);
+                        } else {
+                            collectUsageFromExpression(c.value);
+                        }
                     }
                     return null;
                 }
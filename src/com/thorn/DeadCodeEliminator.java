@@ -183,6 +183,14 @@ public class DeadCodeEliminator {
                 return null;
             }
             
+            @Override
+            public Void visitYieldStmt(Stmt.Yield stmt) {
+                if (stmt.value != null) {
+                    collectDefinitionsFromExpr(stmt.value);
+                }
+                return null;
+            }
+            
             @Override
             public Void visitTypeAliasStmt(Stmt.TypeAlias stmt) {
                 // Type aliases are compile-time only, no optimization needed
@@ -408,6 +416,14 @@ public class DeadCodeEliminator {
                 return null;
             }
             
+            @Override
+            public Void visitYieldStmt(Stmt.Yield stmt) {
+                if (stmt.value != null) {
+                    collectUsagesFromExpr(stmt.value);
+                }
+                return null;
+            }
+            
             @Override
             public Void visitBlockStmt(Stmt.Block stmt) {
                 for (Stmt blockStmt : stmt.statements) {
@@ -721,6 +737,14 @@ public class DeadCodeEliminator {
                 return null;
             }
             
+            @Override
+            public Void visitYieldStmt(Stmt.Yield stmt) {
+                if (stmt.value != null) {
+                    analyzeLocalExpression(stmt.value, scope);
+                }
+                return null;
+            }
+            
             @Override
             public Void visitIfStmt(Stmt.If stmt) {
                 analyzeLocalExpression(stmt.condition, scope);
@@ -6,35 +6,184 @@ import java.util.*;
  * Optimization pass that eliminates dead stores (assignments that are never used).
  * This pass removes assignments to variables that are overwritten before being read.
  * Example: x = 1; x = 2; return x; becomes x = 2; return x;
+ *
+ * A store is dead when its variable is not live after it. A value that
+ * may have effects or fail is still evaluated, and a store that declares
+ * its variable leaves a declaration behind when later stores need it to
+ * bind the variable in the same scope.
  */
 public class DeadStoreEliminationPass extends OptimizationPass {
-    
+
+    private int storesEliminated = 0;
+    private EffectAnalysisPass.EffectSummaries effects;
+
     @Override
     public String getName() {
         return "dead-store-elimination";
     }
-    
+
     @Override
     public PassType getType() {
         return PassType.CLEANUP;
     }
-    
+
     @Override
     public List<String> getDependencies() {
         return Arrays.asList("copy-propagation");
     }
-    
+
     @Override
     public OptimizationLevel getMinimumLevel() {
         return OptimizationLevel.O1;
     }
-    
+
     @Override
     public List<Stmt> optimize(List<Stmt> statements, OptimizationContext context) {
         if (context.isDebugMode()) {
             System.out.println("=== Dead Store Elimination Pass ===");
-            System.out.println("  Stub implementation - no transformations applied");
         }
-        return statements; // TODO: Implement dead store elimination optimization
+
+        storesEliminated = 0;
+        effects = context.getCachedAnalysis("effect-summaries", EffectAnalysisPass.EffectSummaries.class);
+
+        DataflowAnalysis analysis = DataflowAnalysis.of(statements, context);
+        Map<Stmt, List<Stmt>> replacements = new IdentityHashMap<>();
+        for (DataflowAnalysis.Region region : analysis.regions()) {
+            List<DataflowAnalysis.Definition> dead = new ArrayList<>();
+            Set<String> stored = new HashSet<>();
+            for (Stmt site : region.sites()) {
+                DataflowAnalysis.Definition definition = region.store(site);
+                if (definition == null) {
+                    continue;
+                }
+                if (definition.value != null && !region.isLiveAfter(site, definition.name)) {
+                    dead.add(definition);
+                } else {
+                    stored.add(definition.name);
+                }
+            }
+            for (DataflowAnalysis.Definition definition : dead) {
+                // A variable no remaining statement stores needs no declaration
+                boolean declare = definition.declares && stored.contains(definition.name);
+                replacements.put(definition.stmt, eliminate(definition, declare, region));
+                storesEliminated++;
+            }
+        }
+
+        List<Stmt> optimized = statements;
+        if (!replacements.isEmpty()) {
+            optimized = new AstRewriter(false) {
+                @Override
+                List<Stmt> statements(List<Stmt> list) {
+                    List<Stmt> result = new ArrayList<>(list.size());
+                    boolean changed = false;
+                    for (Stmt stmt : list) {
+                        List<Stmt> replacement = replacements.get(stmt);
+                        if (replacement != null) {
+                            result.addAll(replacement);
+                            changed = true;
+                        } else {
+                            Stmt rewritten = statement(stmt);
+                            changed |= rewritten != stmt;
+                            result.add(rewritten);
+                        }
+                    }
+                    return changed ? result : list;
+                }
+
+                @Override
+                Stmt statement(Stmt stmt) {
+                    // The body of an if or loop that is a single statement;
+                    // only stores at the top of a body declare, so this is
+                    // at most one statement
+                    List<Stmt> replacement = replacements.get(stmt);
+                    if (replacement != null) {
+                        return replacement.size() == 1 ? replacement.get(0) : new Stmt.Block(replacement);
+                    }
+                    return super.statement(stmt);
+                }
+
+                @Override
+                boolean entersCases() {
+                    return true;
+                }
+
+                @Override
+                Expr lambda(Expr.Lambda lambda) {
+                    List<Stmt> body = statements(lambda.body);
+                    return body == lambda.body ? lambda : new Expr.Lambda(lambda.params, body);
+                }
+
+                @Override
+                Stmt.Function function(Stmt.Function function) {
+                    List<Stmt> body = statements(function.body);
+                    return body == function.body ? function
+                        : new Stmt.Function(function.name, function.typeParams, function.params,
+                                            function.returnType, body);
+                }
+            }.statements(statements);
+        }
+
+        context.recordTransformations(getName(), storesEliminated);
+
+        if (context.isDebugMode()) {
+            System.out.println("  Dead stores eliminated: " + storesEliminated);
+        }
+
+        return optimized;
+    }
+
+    /**
+     * The statements that replace a dead store.
+     */
+    private List<Stmt> eliminate(DataflowAnalysis.Definition definition, boolean declare,
+                                 DataflowAnalysis.Region region) {
+        List<Stmt> result = new ArrayList<>();
+        if (!isSafe(definition.value, region)) {
+            result.add(new Stmt.Expression(definition.value));
+        }
+        if (declare) {
+            Token name = definition.stmt instanceof Stmt.Var ? ((Stmt.Var) definition.stmt).name
+                : DataflowAnalysis.statementStore(definition.stmt).name;
+            result.add(new Stmt.Var(name, null, null, false));
+        }
+        return result;
+    }
+
+    /**
+     * Whether evaluating an expression can neither fail nor have effects.
+     */
+    private boolean isSafe(Expr expr, DataflowAnalysis.Region region) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.Lambda) {
+            return true;
+        }
+        if (expr instanceof Expr.Variable) {
+            // Tracked variables are always declared where they are read
+            return region.isTracked(((Expr.Variable) expr).name.lexeme);
+        }
+        if (expr instanceof Expr.Grouping) {
+            return isSafe(((Expr.Grouping) expr).expression, region);
+        }
+        if (expr instanceof Expr.ListExpr) {
+            return areSafe(((Expr.ListExpr) expr).elements, region);
+        }
+        if (expr instanceof Expr.Call && ((Expr.Call) expr).callee instanceof Expr.Variable && effects != null) {
+            // A call whose result is unused can go if the function has no
+            // effects and cannot fail
+            Expr.Call call = (Expr.Call) expr;
+            Expr.Variable callee = (Expr.Variable) call.callee;
+            EffectAnalysisPass.EffectSummary summary = effects.get(callee.name.lexeme);
+            return summary != null && summary.isRemovable() && call.arguments.size() == summary.getArity() && areSafe(call.arguments, region);
+        }
+        return false;
+    }
+
+    private boolean areSafe(List<Expr> exprs, DataflowAnalysis.Region region) {
+        for (Expr expr : exprs) {
+            if (!isSafe(expr, region)) {
+                return false;
+            }
+        }
+        return true;
     }
-}
\ No newline at end of file
+}
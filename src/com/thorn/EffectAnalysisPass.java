@@ -0,0 +1,596 @@
+package com.thorn;
+
+import java.util.*;
+import static com.thorn.TokenType.*;
+
+/**
+ * Analysis pass that summarizes the side effects of each function.
+ * This is an analysis pass that records, for every function declared at
+ * the top of the program under a name nothing else binds:
+ * - The global variables it reads and assigns
+ * - Whether it reads or writes properties and elements, and which of its
+ *   arguments it may write through
+ * - Whether it performs I/O or may throw
+ *
+ * A summary includes the effects of the functions it calls, propagated
+ * through the call graph until nothing changes. Calls to anything else,
+ * such as methods, lambdas or imported functions, may do anything.
+ *
+ * The summaries describe what the functions do rather than how their
+ * bodies are written, so they stay valid while later passes rewrite the
+ * program; they are cached as effect-summaries.
+ */
+public class EffectAnalysisPass extends OptimizationPass {
+
+    // Built-ins that neither perform I/O nor change anything
+    private static final Set<String> QUIET_BUILTINS = new HashSet<>(Arrays.asList("range", "Ok", "Error"));
+
+    // Built-ins that perform I/O; clock reads the time, so no two calls
+    // are interchangeable
+    private static final Set<String> IO_BUILTINS = new HashSet<>(Arrays.asList("print", "clock"));
+
+    @Override
+    public String getName() {
+        return "effect-analysis";
+    }
+
+    @Override
+    public PassType getType() {
+        return PassType.ANALYSIS;
+    }
+
+    @Override
+    public OptimizationLevel getMinimumLevel() {
+        return OptimizationLevel.O1;
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Stmt> optimize(List<Stmt> statements, OptimizationContext context) {
+        if (context.isDebugMode()) {
+            System.out.println("=== Effect Analysis Pass ===");
+        }
+
+        EffectSummaries summaries = analyze(statements);
+        context.cacheAnalysis("effect-summaries", summaries);
+
+        if (context.isDebugMode()) {
+            int pure = 0;
+            for (EffectSummary summary : summaries.all()) {
+                if (summary.isPure()) {
+                    pure++;
+                }
+            }
+            System.out.println("  Functions summarized: " + summaries.all().size());
+            System.out.println("  Pure functions: " + pure);
+            System.out.println("  Iterations: " + summaries.iterations);
+        }
+
+        // Analysis pass - returns statements unchanged
+        return statements;
+    }
+
+    /**
+     * The effects of calling one function.
+     */
+    public static class EffectSummary {
+        final Stmt.Function function;
+        final Set<String> globalsRead = new HashSet<>();
+        final Set<String> globalsWritten = new HashSet<>();
+        final BitSet mutatedArguments = new BitSet();  // Parameters whose objects may be written
+        boolean readsMemory = false;    // Reads a property or element
+        boolean writesMemory = false;   // Writes a property or element of any object
+        boolean performsIO = false;
+        boolean mayThrow = false;
+        boolean unknown = false;        // Calls code whose effects are not known
+        boolean returnsScalar = true;   // Always returns a number, string, boolean or null
+        boolean declaredFirst = false;  // Declared before the program calls anything
+
+        EffectSummary(Stmt.Function function) {
+            this.function = function;
+        }
+
+        public String getName() {
+            return function.name.lexeme;
+        }
+
+        public int getArity() {
+            return function.params.size();
+        }
+
+        public Set<String> getGlobalsRead() {
+            return Collections.unmodifiableSet(globalsRead);
+        }
+
+        public Set<String> getGlobalsWritten() {
+            return Collections.unmodifiableSet(globalsWritten);
+        }
+
+        public boolean mutatesArgument(int index) {
+            return unknown || mutatedArguments.get(index);
+        }
+
+        public boolean readsMemory() {
+            return unknown || readsMemory;
+        }
+
+        public boolean writesMemory() {
+            return unknown || writesMemory;
+        }
+
+        public boolean performsIO() {
+            return unknown || performsIO;
+        }
+
+        public boolean mayThrow() {
+            return unknown || mayThrow;
+        }
+
+        public boolean isUnknown() {
+            return unknown;
+        }
+
+        public boolean returnsScalar() {
+            return !unknown && returnsScalar;
+        }
+
+        /**
+         * Whether a call only computes its result from its arguments and
+         * the globals it reads. It may still throw.
+         */
+        public boolean isPure() {
+            return !unknown && !performsIO && !writesMemory && globalsWritten.isEmpty();
+        }
+
+        /**
+         * Whether a call can be removed when its result is not used. The
+         * function must already be defined wherever it is called.
+         */
+        public boolean isRemovable() {
+            return isPure() && !mayThrow && declaredFirst;
+        }
+
+        // Adds the effects of a callee; returns whether anything changed
+        private boolean absorb(EffectSummary callee) {
+            boolean changed = globalsRead.addAll(callee.globalsRead) | globalsWritten.addAll(callee.globalsWritten);
+            changed |= set(callee.readsMemory && !readsMemory, () -> readsMemory = true);
+            changed |= set(callee.writesMemory && !writesMemory, () -> writesMemory = true);
+            changed |= set(callee.performsIO && !performsIO, () -> performsIO = true);
+            changed |= set(callee.mayThrow && !mayThrow, () -> mayThrow = true);
+            changed |= set(callee.unknown && !unknown, () -> unknown = true);
+            return changed;
+        }
+
+        private static boolean set(boolean condition, Runnable update) {
+            if (condition) {
+                update.run();
+            }
+            return condition;
+        }
+    }
+
+    /**
+     * The summaries of the functions in a program, by name.
+     */
+    public static class EffectSummaries {
+        private final Map<String, EffectSummary> functions = new LinkedHashMap<>();
+        private final Set<String> bound;
+        int iterations = 0;
+
+        EffectSummaries(Set<String> bound) {
+            this.bound = bound;
+        }
+
+        /**
+         * The summary of the function a call to name reaches, or null
+         * when name is not always that function.
+         */
+        public EffectSummary get(String name) {
+            return functions.get(name);
+        }
+
+        public Collection<EffectSummary> all() {
+            return Collections.unmodifiableCollection(functions.values());
+        }
+
+        /**
+         * Whether name still refers to the built-in of that name.
+         */
+        boolean isBuiltin(String name) {
+            return !bound.contains(name)
+                && (QUIET_BUILTINS.contains(name) || IO_BUILTINS.contains(name));
+        }
+    }
+
+    static EffectSummaries analyze(List<Stmt> statements) {
+        // How often each name is bound anywhere in the program
+        Map<String, Integer> bindings = new HashMap<>();
+        Set<String> globals = new HashSet<>();
+        new AstScanner() {
+            @Override
+            void visit(Stmt stmt) {
+                Token name = AstScanner.boundName(stmt);
+                if (name != null) {
+                    bindings.merge(name.lexeme, 1, Integer::sum);
+                    if (functionDepth == 0) {
+                        globals.add(name.lexeme);
+                    }
+                }
+                if (stmt instanceof Stmt.Function) {
+                    for (Stmt.Parameter param : ((Stmt.Function) stmt).params) {
+                        bindings.merge(param.name.lexeme, 1, Integer::sum);
+                    }
+                } else if (stmt instanceof Stmt.Class) {
+                    for (Stmt.Function method : ((Stmt.Class) stmt).methods) {
+                        for (Stmt.Parameter param : method.params) {
+                            bindings.merge(param.name.lexeme, 1, Integer::sum);
+                        }
+                    }
+                } else if (stmt instanceof Stmt.Import && ((Stmt.Import) stmt).names != null) {
+                    for (Token imported : ((Stmt.Import) stmt).names) {
+                        bindings.merge(imported.lexeme, 1, Integer::sum);
+                        globals.add(imported.lexeme);
+                    }
+                }
+            }
+
+            @Override
+            void visit(Expr expr) {
+                if (expr instanceof Expr.Assign) {
+                    String name = ((Expr.Assign) expr).name.lexeme;
+                    bindings.merge(name, 1, Integer::sum);
+                    if (functionDepth == 0) {
+                        globals.add(name);
+                    }
+                } else if (expr instanceof Expr.Lambda) {
+                    for (Token param : ((Expr.Lambda) expr).params) {
+                        bindings.merge(param.lexeme, 1, Integer::sum);
+                    }
+                } else if (expr instanceof Expr.Match) {
+                    for (Expr.Match.Case matchCase : ((Expr.Match) expr).cases) {
+                        String name = patternBinding(matchCase.pattern);
+                        if (name != null) {
+                            bindings.merge(name, 1, Integer::sum);
+                        }
+                    }
+                }
+            }
+        }.statements(statements);
+
+        EffectSummaries summaries = new EffectSummaries(bindings.keySet());
+        boolean called = false;
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.Export) {
+                stmt = ((Stmt.Export) stmt).declaration;
+            }
+            if (stmt instanceof Stmt.Function) {
+                Stmt.Function function = (Stmt.Function) stmt;
+                if (bindings.get(function.name.lexeme) == 1) {
+                    EffectSummary summary = new EffectSummary(function);
+                    summary.declaredFirst = !called;
+                    summaries.functions.put(function.name.lexeme, summary);
+                }
+            } else if (!called && !(stmt instanceof Stmt.Class)) {
+                called = containsCall(stmt);
+            }
+        }
+
+        // Function names are bound once and never change, so reading one
+        // is not reading a variable
+        globals.removeAll(summaries.functions.keySet());
+
+        List<FunctionScan> scans = new ArrayList<>();
+        for (EffectSummary summary : summaries.functions.values()) {
+            scans.add(new FunctionScan(summary, summaries, globals));
+        }
+
+        // Effects only grow and results only stop being scalar, so this
+        // reaches a fixpoint
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            summaries.iterations++;
+            for (FunctionScan scan : scans) {
+                changed |= scan.propagate();
+            }
+        }
+        return summaries;
+    }
+
+    // Whether running a statement may call a function
+    private static boolean containsCall(Stmt stmt) {
+        boolean[] found = {false};
+        new AstScanner() {
+            @Override
+            void visit(Expr expr) {
+                found[0] |= expr instanceof Expr.Call && functionDepth == 0;
+            }
+        }.statement(stmt);
+        return found[0];
+    }
+
+    // The variable an Ok(x) or Error(x) pattern binds
+    private static String patternBinding(Expr pattern) {
+        if (pattern instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) pattern;
+            if (call.arguments.size() == 1 && call.arguments.get(0) instanceof Expr.Variable) {
+                return ((Expr.Variable) call.arguments.get(0)).name.lexeme;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The effects a function body has itself, and the calls whose
+     * effects it takes on.
+     */
+    private static final class FunctionScan {
+        private final EffectSummary summary;
+        private final EffectSummaries summaries;
+        private final Map<String, Integer> params = new HashMap<>();
+        private final List<Expr.Call> calls = new ArrayList<>();
+        private final List<Expr> returned = new ArrayList<>();
+
+        // Values stored in each local variable, and locals that may hold
+        // anything
+        private final Map<String, List<Expr>> localValues = new HashMap<>();
+        private final Set<String> opaqueLocals = new HashSet<>();
+        private final Set<String> scalarLocals = new HashSet<>();
+
+        FunctionScan(EffectSummary summary, EffectSummaries summaries, Set<String> globals) {
+            this.summary = summary;
+            this.summaries = summaries;
+            List<Stmt.Parameter> parameters = summary.function.params;
+            for (int i = 0; i < parameters.size(); i++) {
+                params.put(parameters.get(i).name.lexeme, i);
+                // Typed parameters are checked on every call
+                summary.mayThrow |= parameters.get(i).type != null;
+            }
+            summary.mayThrow |= summary.function.returnType != null;
+            scan(globals);
+        }
+
+        private void scan(Set<String> globals) {
+            Set<Expr> patterns = Collections.newSetFromMap(new IdentityHashMap<>());
+            new AstScanner() {
+                @Override
+                void visit(Stmt stmt) {
+                    // Nested functions and lambdas only run when called,
+                    // and calls to them are unknown
+                    if (functionDepth > 0) {
+                        return;
+                    }
+                    if (stmt instanceof Stmt.Var) {
+                        Stmt.Var var = (Stmt.Var) stmt;
+                        store(var.name.lexeme, var.initializer);
+                    } else if (stmt instanceof Stmt.For) {
+                        Stmt.For forStmt = (Stmt.For) stmt;
+                        localValues.computeIfAbsent(forStmt.variable.lexeme, key -> new ArrayList<>());
+                        if (!isRange(forStmt.iterable)) {
+                            opaqueLocals.add(forStmt.variable.lexeme);
+                        }
+                    } else if (stmt instanceof Stmt.Function) {
+                        opaqueLocals.add(((Stmt.Function) stmt).name.lexeme);
+                    } else if (stmt instanceof Stmt.Return && caseDepth == 0) {
+                        returned.add(((Stmt.Return) stmt).value);
+                    } else if (stmt instanceof Stmt.Throw) {
+                        summary.mayThrow = true;
+                    } else if (stmt instanceof Stmt.Yield || stmt instanceof Stmt.Import
+                            || stmt instanceof Stmt.Class) {
+                        // A generator runs its body later, a bit at a time
+                        summary.unknown = true;
+                    }
+                }
+
+                @Override
+                void visit(Expr expr) {
+                    if (functionDepth > 0) {
+                        // A closure may assign the locals it captures
+                        if (expr instanceof Expr.Assign) {
+                            opaqueLocals.add(((Expr.Assign) expr).name.lexeme);
+                        }
+                        return;
+                    }
+                    if (patterns.contains(expr)) {
+                        return;
+                    }
+                    if (expr instanceof Expr.Variable) {
+                        String name = ((Expr.Variable) expr).name.lexeme;
+                        if (!params.containsKey(name)) {
+                            if (globals.contains(name)) {
+                                summary.globalsRead.add(name);
+                            }
+                            // The variable may not be defined yet
+                            summary.mayThrow = true;
+                        }
+                    } else if (expr instanceof Expr.Assign) {
+                        String name = ((Expr.Assign) expr).name.lexeme;
+                        if (!params.containsKey(name) && globals.contains(name)) {
+                            summary.globalsWritten.add(name);
+                        } else {
+                            store(name, ((Expr.Assign) expr).value);
+                        }
+                    } else if (expr instanceof Expr.Get || expr instanceof Expr.Index || expr instanceof Expr.Slice) {
+                        summary.readsMemory = true;
+                        summary.mayThrow = true;
+                    } else if (expr instanceof Expr.Set) {
+                        writeThrough(((Expr.Set) expr).object);
+                    } else if (expr instanceof Expr.IndexSet) {
+                        writeThrough(((Expr.IndexSet) expr).object);
+                    } else if (expr instanceof Expr.Binary) {
+                        TokenType operator = ((Expr.Binary) expr).operator.type;
+                        if (operator != EQUAL_EQUAL && operator != BANG_EQUAL && operator != QUESTION_QUESTION) {
+                            summary.mayThrow = true;
+                        }
+                    } else if (expr instanceof Expr.Unary) {
+                        if (((Expr.Unary) expr).operator.type != BANG) {
+                            summary.mayThrow = true;
+                        }
+                    } else if (expr instanceof Expr.Call) {
+                        call((Expr.Call) expr);
+                    } else if (expr instanceof Expr.Match) {
+                        for (Expr.Match.Case matchCase : ((Expr.Match) expr).cases) {
+                            // Call patterns such as Ok(x) are matched, not evaluated
+                            if (matchCase.pattern instanceof Expr.Call) {
+                                String bound = patternBinding(matchCase.pattern);
+                                if (bound != null) {
+                                    opaqueLocals.add(bound);
+                                }
+                                new AstScanner() {
+                                    @Override
+                                    void visit(Expr part) {
+                                        patterns.add(part);
+                                    }
+                                }.expression(matchCase.pattern);
+                            }
+                        }
+                    }
+                }
+            }.statements(summary.function.body);
+            // Parameters and globals are never treated as locals
+            localValues.keySet().removeAll(params.keySet());
+            localValues.keySet().removeAll(globals);
+
+            // Falling off the end returns null
+            if (returned.isEmpty() || !(last(summary.function.body) instanceof Stmt.Return)) {
+                returned.add(null);
+            }
+        }
+
+        private void store(String name, Expr value) {
+            localValues.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+
+        private boolean isRange(Expr iterable) {
+            return iterable instanceof Expr.Call && ((Expr.Call) iterable).callee instanceof Expr.Variable
+                && ((Expr.Variable) ((Expr.Call) iterable).callee).name.lexeme.equals("range")
+                && summaries.isBuiltin("range");
+        }
+
+        private void call(Expr.Call call) {
+            // Any call fails when the arguments do not fit
+            summary.mayThrow = true;
+            if (call.callee instanceof Expr.Variable) {
+                String name = ((Expr.Variable) call.callee).name.lexeme;
+                if (!params.containsKey(name)) {
+                    if (summaries.get(name) != null) {
+                        calls.add(call);
+                        return;
+                    }
+                    if (summaries.isBuiltin(name)) {
+                        summary.performsIO |= IO_BUILTINS.contains(name);
+                        return;
+                    }
+                }
+            }
+            summary.unknown = true;
+        }
+
+        // A write to a property or element of the object an expression
+        // evaluates to
+        private void writeThrough(Expr object) {
+            summary.writesMemory = true;
+            summary.mayThrow = true;
+            Integer param = object instanceof Expr.Variable
+                ? params.get(((Expr.Variable) object).name.lexeme) : null;
+            if (param != null) {
+                summary.mutatedArguments.set(param);
+            } else {
+                // Any object may be one of the arguments
+                summary.mutatedArguments.set(0, params.size());
+            }
+        }
+
+        /**
+         * Takes on the effects of the functions this one calls.
+         */
+        boolean propagate() {
+            boolean changed = false;
+            for (Expr.Call call : calls) {
+                EffectSummary callee = summaries.get(((Expr.Variable) call.callee).name.lexeme);
+                changed |= summary.absorb(callee);
+                for (int i = 0; i < call.arguments.size(); i++) {
+                    if (!callee.mutatedArguments.get(i)) {
+                        continue;
+                    }
+                    Expr argument = call.arguments.get(i);
+                    Integer param = argument instanceof Expr.Variable
+                        ? params.get(((Expr.Variable) argument).name.lexeme) : null;
+                    BitSet before = (BitSet) summary.mutatedArguments.clone();
+                    if (param != null) {
+                        summary.mutatedArguments.set(param);
+                    } else {
+                        summary.mutatedArguments.set(0, params.size());
+                    }
+                    changed |= !before.equals(summary.mutatedArguments);
+                }
+            }
+            if (summary.returnsScalar) {
+                // Assume every local holds scalars, then drop those that
+                // are stored anything else until none are left to drop
+                scalarLocals.clear();
+                scalarLocals.addAll(localValues.keySet());
+                scalarLocals.removeAll(opaqueLocals);
+                boolean dropped = true;
+                while (dropped) {
+                    dropped = scalarLocals.removeIf(name -> !localValues.get(name).stream().allMatch(this::isScalar));
+                }
+                for (Expr value : returned) {
+                    if (!isScalar(value)) {
+                        summary.returnsScalar = false;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+            return changed;
+        }
+
+        private boolean isScalar(Expr expr) {
+            if (expr == null || expr instanceof Expr.Literal) {
+                return true;
+            }
+            if (expr instanceof Expr.Grouping) {
+                return isScalar(((Expr.Grouping) expr).expression);
+            }
+            if (expr instanceof Expr.Variable) {
+                return scalarLocals.contains(((Expr.Variable) expr).name.lexeme);
+            }
+            if (expr instanceof Expr.Unary) {
+                return true;
+            }
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                switch (binary.operator.type) {
+                    case PLUS:
+                        // Adding two lists builds a list
+                        return isScalar(binary.left) || isScalar(binary.right);
+                    case QUESTION_QUESTION:
+                        return isScalar(binary.left) && isScalar(binary.right);
+                    default:
+                        return true;
+                }
+            }
+            if (expr instanceof Expr.Logical) {
+                return isScalar(((Expr.Logical) expr).left) && isScalar(((Expr.Logical) expr).right);
+            }
+            if (expr instanceof Expr.Call && ((Expr.Call) expr).callee instanceof Expr.Variable) {
+                String name = ((Expr.Variable) ((Expr.Call) expr).callee).name.lexeme;
+                if (params.containsKey(name)) {
+                    return false;
+                }
+                EffectSummary callee = summaries.get(name);
+                return callee != null ? callee.returnsScalar : summaries.isBuiltin(name) && name.equals("clock");
+            }
+            return false;
+        }
+
+        private static Stmt last(List<Stmt> body) {
+            return body.isEmpty() ? null : body.get(body.size() - 1);
+        }
+    }
+}
@@ -4,12 +4,16 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 class Environment {
     final Environment enclosing;
     private final Map<String, Object> values = new HashMap<>();
     private final Map<String, Boolean> immutables = new HashMap<>();
     
+    // Read once: define() runs for every declaration and call argument
+    private static final boolean DEBUG_TYPES = System.getProperty("thorn.debug.types") != null;
+    
     // Cache for frequently accessed variables
     private String lastAccessedName;
     private Object lastAccessedValue;
@@ -86,7 +90,7 @@ class Environment {
         }
         
         // Debug type information if flag is enabled
-        if (System.getProperty("thorn.debug.types") != null) {
+        if (DEBUG_TYPES) {
             String thornType = getThornTypeName(value);
             String javaType = getJavaTypeName(value);
             System.out.println(String.format("%-20s %-15s %s", name, thornType, javaType));
@@ -114,6 +118,11 @@ class Environment {
         return value.getClass().getSimpleName();
     }
 
+    // The names defined directly in this environment
+    Set<String> names() {
+        return values.keySet();
+    }
+
     Object get(Token name) {
         // Check cache first
         if (name.lexeme.equals(lastAccessedName)) {
@@ -121,6 +130,9 @@ class Environment {
         }
         
         Object value = values.get(name.lexeme);
+        if (value instanceof StringRope) {
+            value = value.toString();
+        }
         if (value != null) {
             // Cache the access
             lastAccessedName = name.lexeme;
@@ -164,6 +176,47 @@ class Environment {
                 "Undefined variable '" + name.lexeme + "'.");
     }
     
+    // Raw slot access for appending to a string in place. A StringRope
+    // never leaves its slot: get() hands out the flattened String.
+    
+    Environment owner(String name) {
+        for (Environment environment = this; environment != null; environment = environment.enclosing) {
+            if (environment.values.containsKey(name)) return environment;
+        }
+        return null;
+    }
+    
+    Object rawValue(String name) {
+        return values.get(name);
+    }
+    
+    boolean isImmutable(String name) {
+        return immutables.containsKey(name);
+    }
+    
+    void replaceValue(String name, Object value) {
+        values.put(name, value);
+        if (name.equals(lastAccessedName)) {
+            lastAccessedName = null;
+            lastAccessedValue = null;
+        }
+    }
+    
+    void removeValue(String name) {
+        values.remove(name);
+        if (name.equals(lastAccessedName)) {
+            lastAccessedName = null;
+            lastAccessedValue = null;
+        }
+    }
+    
+    boolean isDefined(String name) {
+        for (Environment environment = this; environment != null; environment = environment.enclosing) {
+            if (environment.values.containsKey(name)) return true;
+        }
+        return false;
+    }
+    
     // Package-private access for optimizations
     Map<String, Object> getValues() {
         return values;
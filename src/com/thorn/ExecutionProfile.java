@@ -0,0 +1,313 @@
+package com.thorn;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What a run of a program did, recorded by --profile-out and read back with
+ * -Doptimize.thorn.profile to tell the optimizer which code is hot.
+ *
+ * Functions are identified by name; branches, loops and operators by the
+ * source line they are on, so a profile stays usable while the optimizer
+ * rewrites the tree around them, but only describes the source it was
+ * recorded from. The profile records:
+ *
+ *   call NAME COUNT                     calls of each named function
+ *   branch LINE TAKEN NOT_TAKEN         outcomes of if conditions
+ *   loop LINE ENTRIES ITERATIONS        runs and total trips of loops
+ *   operands LINE OP NUMBERS OTHER      evaluations of a binary operator on
+ *                                       two numbers and on anything else
+ *
+ * Recording happens on the thread running the program, one at a time.
+ */
+public class ExecutionProfile {
+    // Share of all calls or loop iterations that makes a function or loop hot
+    static final double HOT_SHARE = 0.01;
+
+    private static final String HEADER = "# Thorn execution profile";
+
+    private final Map<String, long[]> calls = new HashMap<>();
+    private final Map<Integer, long[]> branches = new HashMap<>();
+    private final Map<Integer, long[]> loops = new HashMap<>();
+    private final Map<String, long[]> operands = new HashMap<>();
+    private long totalCalls;
+    private long totalIterations;
+
+    /**
+     * A place in compiled code whose outcome the VM records, noted by the
+     * compiler for the instruction that decides it.
+     */
+    public static final class Site {
+        enum Kind { BRANCH, LOOP, OPERANDS }
+
+        final Kind kind;
+        final int line;
+        final String operator;
+
+        private Site(Kind kind, int line, String operator) {
+            this.kind = kind;
+            this.line = line;
+            this.operator = operator;
+        }
+    }
+
+    public static Site branchSite(Expr condition) {
+        return new Site(Site.Kind.BRANCH, lineOf(condition), null);
+    }
+
+    public static Site loopSite(int line) {
+        return new Site(Site.Kind.LOOP, line, null);
+    }
+
+    public static Site operandSite(Token operator) {
+        return new Site(Site.Kind.OPERANDS, operator.line, operator.lexeme);
+    }
+
+    // Recording
+
+    public void recordCall(String name) {
+        // Lambdas have no name to find them by in a later run
+        if (name == null || name.startsWith("<")) {
+            return;
+        }
+        counter(calls, name, 1)[0]++;
+        totalCalls++;
+    }
+
+    public void recordBranch(int line, boolean taken) {
+        counter(branches, line, 2)[taken ? 0 : 1]++;
+    }
+
+    public void recordLoop(int line, long iterations) {
+        long[] counts = counter(loops, line, 2);
+        counts[0]++;
+        counts[1] += iterations;
+        totalIterations += iterations;
+    }
+
+    public void recordOperands(int line, String operator, boolean numbers) {
+        counter(operands, line + " " + operator, 2)[numbers ? 0 : 1]++;
+    }
+
+    /**
+     * Records the outcome of the condition at a branch or loop site: whether
+     * the branch was taken, or whether the loop ran another iteration. A
+     * loop is counted as entered once, when its condition stops holding.
+     */
+    public void recordCondition(Site site, boolean holds) {
+        if (site.kind == Site.Kind.BRANCH) {
+            recordBranch(site.line, holds);
+        } else if (holds) {
+            counter(loops, site.line, 2)[1]++;
+            totalIterations++;
+        } else {
+            counter(loops, site.line, 2)[0]++;
+        }
+    }
+
+    public void recordOperands(Site site, boolean numbers) {
+        recordOperands(site.line, site.operator, numbers);
+    }
+
+    private static <K> long[] counter(Map<K, long[]> map, K key, int size) {
+        long[] counts = map.get(key);
+        if (counts == null) {
+            counts = new long[size];
+            map.put(key, counts);
+        }
+        return counts;
+    }
+
+    // Queries
+
+    /**
+     * Whether the profile recorded any calls; without them nothing can be
+     * called cold.
+     */
+    public boolean hasCalls() {
+        return totalCalls > 0;
+    }
+
+    public long getCallCount(String name) {
+        long[] counts = calls.get(name);
+        return counts != null ? counts[0] : 0;
+    }
+
+    /**
+     * A function that takes at least HOT_SHARE of all recorded calls.
+     */
+    public boolean isHotFunction(String name) {
+        long count = getCallCount(name);
+        return count > 0 && count >= totalCalls * HOT_SHARE;
+    }
+
+    /**
+     * A function the profiled run never called.
+     */
+    public boolean isColdFunction(String name) {
+        return hasCalls() && getCallCount(name) == 0;
+    }
+
+    /**
+     * The share of times the if condition on a line held, or -1 when it
+     * never ran.
+     */
+    public double getTakenRatio(int line) {
+        long[] counts = branches.get(line);
+        if (counts == null || counts[0] + counts[1] == 0) {
+            return -1;
+        }
+        return (double) counts[0] / (counts[0] + counts[1]);
+    }
+
+    public long getBranchTaken(int line) {
+        long[] counts = branches.get(line);
+        return counts != null ? counts[0] : 0;
+    }
+
+    /**
+     * The average number of iterations of the loop on a line, or -1 when
+     * it never ran.
+     */
+    public double getAverageTrips(int line) {
+        long[] counts = loops.get(line);
+        if (counts == null || counts[0] == 0) {
+            return -1;
+        }
+        return (double) counts[1] / counts[0];
+    }
+
+    /**
+     * A loop that runs at least HOT_SHARE of all recorded iterations.
+     */
+    public boolean isHotLoop(int line) {
+        long[] counts = loops.get(line);
+        return counts != null && counts[1] > 0 && counts[1] >= totalIterations * HOT_SHARE;
+    }
+
+    /**
+     * A loop the profiled run never reached, while it did run others.
+     */
+    public boolean isColdLoop(int line) {
+        return !loops.isEmpty() && !loops.containsKey(line);
+    }
+
+    /**
+     * Whether the operator on a line was only ever applied to two numbers.
+     */
+    public boolean isNumeric(int line, String operator) {
+        long[] counts = operands.get(line + " " + operator);
+        return counts != null && counts[0] > 0 && counts[1] == 0;
+    }
+
+    /**
+     * The line an expression is on, taken from its operator or name, or 0
+     * when it has neither (a literal, for example).
+     */
+    public static int lineOf(Expr expr) {
+        if (expr instanceof Expr.Binary) return ((Expr.Binary) expr).operator.line;
+        if (expr instanceof Expr.Logical) return ((Expr.Logical) expr).operator.line;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.line;
+        if (expr instanceof Expr.Variable) return ((Expr.Variable) expr).name.line;
+        if (expr instanceof Expr.Assign) return ((Expr.Assign) expr).name.line;
+        if (expr instanceof Expr.Call) return ((Expr.Call) expr).paren.line;
+        if (expr instanceof Expr.Get) return ((Expr.Get) expr).name.line;
+        if (expr instanceof Expr.Grouping) return lineOf(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Index) return ((Expr.Index) expr).bracket.line;
+        return 0;
+    }
+
+    // Files
+
+    public void save(Path path) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            for (Map.Entry<String, long[]> entry : new TreeMap<>(calls).entrySet()) {
+                out.write("call " + entry.getKey() + " " + entry.getValue()[0]);
+                out.newLine();
+            }
+            for (Map.Entry<Integer, long[]> entry : new TreeMap<>(branches).entrySet()) {
+                long[] counts = entry.getValue();
+                out.write("branch " + entry.getKey() + " " + counts[0] + " " + counts[1]);
+                out.newLine();
+            }
+            for (Map.Entry<Integer, long[]> entry : new TreeMap<>(loops).entrySet()) {
+                long[] counts = entry.getValue();
+                out.write("loop " + entry.getKey() + " " + counts[0] + " " + counts[1]);
+                out.newLine();
+            }
+            for (Map.Entry<String, long[]> entry : new TreeMap<>(operands).entrySet()) {
+                long[] counts = entry.getValue();
+                out.write("operands " + entry.getKey() + " " + counts[0] + " " + counts[1]);
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Reads a profile written by save. Lines starting with # are comments.
+     *
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    public static ExecutionProfile load(Path path) throws IOException {
+        ExecutionProfile profile = new ExecutionProfile();
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            try {
+                switch (fields[0]) {
+                    case "call":
+                        check(fields, 3);
+                        long count = Long.parseLong(fields[2]);
+                        counter(profile.calls, fields[1], 1)[0] += count;
+                        profile.totalCalls += count;
+                        break;
+                    case "branch":
+                        check(fields, 4);
+                        long[] branch = counter(profile.branches, Integer.parseInt(fields[1]), 2);
+                        branch[0] += Long.parseLong(fields[2]);
+                        branch[1] += Long.parseLong(fields[3]);
+                        break;
+                    case "loop":
+                        check(fields, 4);
+                        long[] loop = counter(profile.loops, Integer.parseInt(fields[1]), 2);
+                        loop[0] += Long.parseLong(fields[2]);
+                        long iterations = Long.parseLong(fields[3]);
+                        loop[1] += iterations;
+                        profile.totalIterations += iterations;
+                        break;
+                    case "operands":
+                        check(fields, 5);
+                        long[] types = counter(profile.operands,
+                            Integer.parseInt(fields[1]) + " " + fields[2], 2);
+                        types[0] += Long.parseLong(fields[3]);
+                        types[1] += Long.parseLong(fields[4]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown entry '" + fields[0] + "'");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + ":" + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return profile;
+    }
+
+    private static void check(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException("expected " + count + " fields but got " + fields.length);
+        }
+    }
+}
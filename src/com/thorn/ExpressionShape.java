@@ -0,0 +1,283 @@
+package com.thorn;
+
+import java.util.*;
+import static com.thorn.TokenType.*;
+
+/**
+ * Purity classification of an expression, shared by the passes that reuse
+ * or move expressions.
+ *
+ * A pure expression has a structural key: two pure expressions with the
+ * same key compute the same value as long as none of the variables they
+ * read is assigned and, for those that read memory, no property or element
+ * is written in between. Expressions that may have effects, such as calls
+ * to anything but a pure built-in or a function effect analysis found
+ * pure, are IMPURE and have no key.
+ */
+final class ExpressionShape {
+    static final ExpressionShape IMPURE = new ExpressionShape(null, 0, Collections.emptySet(), false, false, false);
+
+    // Built-ins whose result depends only on their arguments
+    static final Set<String> PURE_BUILTINS = new HashSet<>(Arrays.asList("range"));
+
+    // Binary operators without side effects
+    static final Set<TokenType> PURE_OPERATORS = EnumSet.of(
+        PLUS, MINUS, STAR, SLASH, PERCENT, STAR_STAR,
+        GREATER, GREATER_EQUAL, LESS, LESS_EQUAL,
+        EQUAL_EQUAL, BANG_EQUAL, QUESTION_QUESTION
+    );
+
+    final String key;             // Structural key, null when the expression may have effects
+    final int weight;             // Operations saved each time the value is reused
+    final Set<String> variables;  // Variables read
+    final boolean readsMemory;    // Reads a property or element
+    final boolean scalar;         // Never a collection
+    final boolean reusable;       // Reusing the value is indistinguishable from recomputing it
+
+    ExpressionShape(String key, int weight, Set<String> variables, boolean readsMemory,
+                    boolean scalar, boolean reusable) {
+        this.key = key;
+        this.weight = weight;
+        this.variables = variables;
+        this.readsMemory = readsMemory;
+        this.scalar = scalar;
+        this.reusable = reusable;
+    }
+
+    boolean isPure() {
+        return key != null;
+    }
+
+    static ExpressionShape combine(String key, ExpressionShape left, ExpressionShape right,
+                                   boolean readsMemory, boolean scalar, boolean reusable) {
+        Set<String> variables = new HashSet<>(left.variables);
+        variables.addAll(right.variables);
+        return new ExpressionShape(key, left.weight + right.weight + 1, variables,
+                                   readsMemory || left.readsMemory || right.readsMemory, scalar, reusable);
+    }
+
+    /**
+     * A classifier for a program, using the effect summaries of its
+     * functions when effect analysis has run.
+     */
+    static Classifier classifier(List<Stmt> statements, OptimizationContext context) {
+        return new Classifier(collectBindings(statements),
+            context.getCachedAnalysis("effect-summaries", EffectAnalysisPass.EffectSummaries.class));
+    }
+
+    /**
+     * Collects the names declared anywhere in the program, so that a
+     * built-in redefined by the program is not treated as pure.
+     */
+    static Set<String> collectBindings(List<Stmt> statements) {
+        Set<String> names = new HashSet<>();
+        collectBindings(statements, names);
+        return names;
+    }
+
+    private static void collectBindings(List<Stmt> statements, Set<String> names) {
+        for (Stmt stmt : statements) {
+            collectBindings(stmt, names);
+        }
+    }
+
+    private static void collectBindings(Stmt stmt, Set<String> names) {
+        if (stmt instanceof Stmt.Function) {
+            Stmt.Function function = (Stmt.Function) stmt;
+            names.add(function.name.lexeme);
+            for (Stmt.Parameter param : function.params) {
+                names.add(param.name.lexeme);
+            }
+            collectBindings(function.body, names);
+        } else if (stmt instanceof Stmt.Var) {
+            names.add(((Stmt.Var) stmt).name.lexeme);
+        } else if (stmt instanceof Stmt.Expression) {
+            Expr expr = ((Stmt.Expression) stmt).expression;
+            if (expr instanceof Expr.Assign) {
+                names.add(((Expr.Assign) expr).name.lexeme);
+            }
+        } else if (stmt instanceof Stmt.Class) {
+            Stmt.Class classStmt = (Stmt.Class) stmt;
+            names.add(classStmt.name.lexeme);
+            for (Stmt.Function method : classStmt.methods) {
+                collectBindings(method, names);
+            }
+        } else if (stmt instanceof Stmt.Import) {
+            Stmt.Import importStmt = (Stmt.Import) stmt;
+            if (importStmt.names != null) {
+                for (Token name : importStmt.names) {
+                    names.add(name.lexeme);
+                }
+            }
+        } else if (stmt instanceof Stmt.Export) {
+            collectBindings(((Stmt.Export) stmt).declaration, names);
+        } else if (stmt instanceof Stmt.Block) {
+            collectBindings(((Stmt.Block) stmt).statements, names);
+        } else if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            collectBindings(ifStmt.thenBranch, names);
+            if (ifStmt.elseBranch != null) {
+                collectBindings(ifStmt.elseBranch, names);
+            }
+        } else if (stmt instanceof Stmt.While) {
+            collectBindings(((Stmt.While) stmt).body, names);
+        } else if (stmt instanceof Stmt.For) {
+            Stmt.For forStmt = (Stmt.For) stmt;
+            names.add(forStmt.variable.lexeme);
+            collectBindings(forStmt.body, names);
+        }
+    }
+
+    /**
+     * Classifies expressions, remembering the shape of each node by
+     * identity.
+     */
+    static final class Classifier {
+        private final Set<String> shadowed;
+        private final EffectAnalysisPass.EffectSummaries effects;
+        private final Map<Expr, ExpressionShape> shapes = new IdentityHashMap<>();
+
+        /**
+         * @param shadowed names the program declares, from collectBindings
+         * @param effects summaries of the program's functions, or null
+         */
+        Classifier(Set<String> shadowed, EffectAnalysisPass.EffectSummaries effects) {
+            this.shadowed = shadowed;
+            this.effects = effects;
+        }
+
+        ExpressionShape of(Expr expr) {
+            ExpressionShape known = shapes.get(expr);
+            if (known == null) {
+                known = compute(expr);
+                shapes.put(expr, known);
+            }
+            return known;
+        }
+
+        /**
+         * Whether name still refers to the built-in of that name.
+         */
+        boolean isPureBuiltin(String name) {
+            return PURE_BUILTINS.contains(name) && !shadowed.contains(name);
+        }
+
+        /**
+         * The effects of calling name, or null when they are not known.
+         */
+        EffectAnalysisPass.EffectSummary effectsOf(String name) {
+            return effects != null ? effects.get(name) : null;
+        }
+
+        private ExpressionShape compute(Expr expr) {
+            if (expr instanceof Expr.Literal) {
+                Object value = ((Expr.Literal) expr).value;
+                String key = value == null ? "null" : value.getClass().getSimpleName() + ":" + value;
+                return new ExpressionShape(key, 0, Collections.emptySet(), false, true, true);
+            }
+            if (expr instanceof Expr.Variable) {
+                String name = ((Expr.Variable) expr).name.lexeme;
+                return new ExpressionShape("$" + name, 0, Collections.singleton(name), false, false, true);
+            }
+            if (expr instanceof Expr.This) {
+                return new ExpressionShape("this", 0, Collections.emptySet(), false, false, true);
+            }
+            if (expr instanceof Expr.Grouping) {
+                return of(((Expr.Grouping) expr).expression);
+            }
+            if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary) expr;
+                ExpressionShape right = of(unary.right);
+                if (!right.isPure()) {
+                    return IMPURE;
+                }
+                return new ExpressionShape("(" + unary.operator.lexeme + " " + right.key + ")", right.weight + 1,
+                                           right.variables, right.readsMemory, true, true);
+            }
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                ExpressionShape left = of(binary.left);
+                ExpressionShape right = of(binary.right);
+                if (!left.isPure() || !right.isPure() || !PURE_OPERATORS.contains(binary.operator.type)) {
+                    return IMPURE;
+                }
+                String key = "(" + binary.operator.lexeme + " " + left.key + " " + right.key + ")";
+                switch (binary.operator.type) {
+                    case PLUS:
+                        // Adding two lists builds a new list each time
+                        boolean scalar = left.scalar || right.scalar;
+                        return combine(key, left, right, false, scalar, scalar);
+                    case QUESTION_QUESTION:
+                        return combine(key, left, right, false, left.scalar && right.scalar,
+                                       left.reusable && right.reusable);
+                    default:
+                        return combine(key, left, right, false, true, true);
+                }
+            }
+            if (expr instanceof Expr.Logical) {
+                Expr.Logical logical = (Expr.Logical) expr;
+                ExpressionShape left = of(logical.left);
+                ExpressionShape right = of(logical.right);
+                if (!left.isPure() || !right.isPure()) {
+                    return IMPURE;
+                }
+                String key = "(" + logical.operator.lexeme + " " + left.key + " " + right.key + ")";
+                return combine(key, left, right, false, left.scalar && right.scalar,
+                               left.reusable && right.reusable);
+            }
+            if (expr instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get) expr;
+                ExpressionShape object = of(get.object);
+                if (!object.isPure()) {
+                    return IMPURE;
+                }
+                return new ExpressionShape("(. " + object.key + " " + get.name.lexeme + ")", object.weight + 1,
+                                           object.variables, true, false, true);
+            }
+            if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index) expr;
+                ExpressionShape object = of(index.object);
+                ExpressionShape position = of(index.index);
+                if (!object.isPure() || !position.isPure()) {
+                    return IMPURE;
+                }
+                return combine("([] " + object.key + " " + position.key + ")", object, position,
+                               true, false, true);
+            }
+            if (expr instanceof Expr.Call) {
+                Expr.Call call = (Expr.Call) expr;
+                if (!(call.callee instanceof Expr.Variable)) {
+                    return IMPURE;
+                }
+                String name = ((Expr.Variable) call.callee).name.lexeme;
+                EffectAnalysisPass.EffectSummary summary = effectsOf(name);
+                if (!isPureBuiltin(name) && (summary == null || !summary.isPure())) {
+                    return IMPURE;
+                }
+                ExpressionShape result = new ExpressionShape("(" + name, 0, Collections.emptySet(), false, false, true);
+                for (Expr argument : call.arguments) {
+                    ExpressionShape shape = of(argument);
+                    if (!shape.isPure()) {
+                        return IMPURE;
+                    }
+                    result = combine(result.key + " " + shape.key, result, shape, false, false, true);
+                }
+                if (summary != null) {
+                    // A pure function also depends on the globals it reads,
+                    // and its result is only reusable when it is a scalar;
+                    // entering it costs more than an operator
+                    Set<String> variables = new HashSet<>(result.variables);
+                    variables.addAll(summary.getGlobalsRead());
+                    boolean scalar = summary.returnsScalar();
+                    return new ExpressionShape(result.key + ")", result.weight + 2, variables,
+                                               result.readsMemory || summary.readsMemory(), scalar, scalar);
+                }
+                return new ExpressionShape(result.key + ")", result.weight + 1, result.variables,
+                                           result.readsMemory, false, true);
+            }
+            // Collections and lambdas are new objects each time, and the rest
+            // may have effects
+            return IMPURE;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.thorn;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -12,9 +15,13 @@ public class FunctionGroup implements ThornCallable {
     private final String name;
     private final List<ThornCallable> overloads;
     
+    // Overload candidates keyed by argument count, rebuilt when overloads change
+    private final Map<Integer, List<ThornCallable>> candidatesByArity;
+    
     public FunctionGroup(String name) {
         this.name = name;
         this.overloads = new ArrayList<>();
+        this.candidatesByArity = new HashMap<>();
     }
     
     public void addOverload(ThornCallable function) {
@@ -29,6 +36,7 @@ public class FunctionGroup implements ThornCallable {
             }
         } else {
             overloads.add(function);
+            candidatesByArity.clear();
         }
     }
     
@@ -47,13 +55,94 @@ public class FunctionGroup implements ThornCallable {
         // Find the best matching overload
         ThornCallable bestMatch = findBestMatch(arguments);
         if (bestMatch == null) {
-            throw new RuntimeException("No matching overload found for " + name + 
-                                      " with " + arguments.size() + " arguments");
+            throw noMatchingOverload(arguments.size());
         }
         return bestMatch.call(interpreter, arguments);
     }
     
+    // Arity-specialized calls only build an argument list when several
+    // overloads share the arity and have to be scored against the arguments
+    
+    @Override
+    public Object call0(Interpreter interpreter) {
+        List<ThornCallable> candidates = getCandidates(0);
+        if (candidates.isEmpty()) {
+            throw noMatchingOverload(0);
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0).call0(interpreter);
+        }
+        return selectBest(candidates, Collections.emptyList()).call0(interpreter);
+    }
+    
+    @Override
+    public Object call1(Interpreter interpreter, Object arg0) {
+        List<ThornCallable> candidates = getCandidates(1);
+        if (candidates.isEmpty()) {
+            throw noMatchingOverload(1);
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0).call1(interpreter, arg0);
+        }
+        return selectBest(candidates, Collections.singletonList(arg0)).call1(interpreter, arg0);
+    }
+    
+    @Override
+    public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        List<ThornCallable> candidates = getCandidates(2);
+        if (candidates.isEmpty()) {
+            throw noMatchingOverload(2);
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0).call2(interpreter, arg0, arg1);
+        }
+        return selectBest(candidates, Arrays.asList(arg0, arg1)).call2(interpreter, arg0, arg1);
+    }
+    
+    @Override
+    public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+        List<ThornCallable> candidates = getCandidates(3);
+        if (candidates.isEmpty()) {
+            throw noMatchingOverload(3);
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0).call3(interpreter, arg0, arg1, arg2);
+        }
+        return selectBest(candidates, Arrays.asList(arg0, arg1, arg2)).call3(interpreter, arg0, arg1, arg2);
+    }
+    
+    /**
+     * Resolves the overload that would handle these arguments, or null.
+     */
+    ThornCallable resolve(List<Object> arguments) {
+        return findBestMatch(arguments);
+    }
+    
+    private RuntimeException noMatchingOverload(int argCount) {
+        return new RuntimeException("No matching overload found for " + name + 
+                                    " with " + argCount + " arguments");
+    }
+    
     private ThornCallable findBestMatch(List<Object> arguments) {
+        List<ThornCallable> candidates = getCandidates(arguments.size());
+        
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        
+        return selectBest(candidates, arguments);
+    }
+    
+    private List<ThornCallable> getCandidates(int argCount) {
+        List<ThornCallable> cached = candidatesByArity.get(argCount);
+        if (cached != null) {
+            return cached;
+        }
+        
         // First pass: exact arity match
         List<ThornCallable> candidates = new ArrayList<>();
         
@@ -66,19 +155,16 @@ public class FunctionGroup implements ThornCallable {
             if (overload.arity() < 0) {
                 // Variable arity function, consider it
                 candidates.add(overload);
-            } else if (overload.arity() == arguments.size()) {
+            } else if (overload.arity() == argCount) {
                 candidates.add(overload);
             }
         }
         
-        if (candidates.isEmpty()) {
-            return null;
-        }
-        
-        if (candidates.size() == 1) {
-            return candidates.get(0);
-        }
-        
+        candidatesByArity.put(argCount, candidates);
+        return candidates;
+    }
+    
+    private ThornCallable selectBest(List<ThornCallable> candidates, List<Object> arguments) {
         // Second pass: type-based selection
         // For now, we'll use parameter type hints if available
         ThornCallable bestMatch = null;
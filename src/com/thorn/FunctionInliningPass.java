@@ -7,1350 +7,1182 @@ import static com.thorn.TokenType.*;
  * Optimization pass that inlines small functions to eliminate call overhead.
  * This pass analyzes function definitions and replaces function calls with
  * the function body when beneficial for performance.
+ *
+ * Only functions declared once at the top level are inlined, and only when
+ * they are not recursive, create no closures and assign no globals. A body
+ * that is a single pure return is substituted into the calling expression,
+ * so square(a[i]) becomes (__inl0 = a[i]) * __inl0. Other bodies replace
+ * calls that make up a whole statement, an assignment or a declaration:
+ * the arguments and locals become __inlN temporaries declared at the top of
+ * the caller, and each return assigns the result. An early return moves the
+ * rest of the body into the other branch of its if, or sets a done flag that
+ * the code after it checks.
+ *
+ * A body's size in AST nodes is its cost. It is inlined when that is at most
+ * the inline threshold, or twice the threshold for calls inside loops. With
+ * a recorded profile, functions the profiled run never called are not
+ * inlined and hot ones are allowed four times the cost.
  */
 public class FunctionInliningPass extends OptimizationPass {
-    
-    private static final int DEFAULT_INLINE_THRESHOLD = 5; // AST node count
-    private static final int MAX_INLINE_DEPTH = 3; // Prevent excessive inlining
-    private static final int MAX_CALL_SITES = 5; // Don't inline heavily used functions
-    
+
+    private static final int DEFAULT_INLINE_THRESHOLD = 10; // AST node count
+    private static final int LOOP_COST_FACTOR = 2; // Calls in loops are worth larger bodies
+    private static final int HOT_COST_FACTOR = 4; // So are calls of functions a profile found hot
+
     @Override
     public String getName() {
         return "function-inlining";
     }
-    
+
     @Override
     public PassType getType() {
         return PassType.TRANSFORMATION;
     }
-    
+
     @Override
     public List<String> getDependencies() {
-        return Arrays.asList("dead-code-elimination", "constant-folding");
+        return Arrays.asList("dead-code-elimination", "constant-folding", "partial-evaluation");
     }
-    
+
     @Override
     public OptimizationLevel getMinimumLevel() {
         return OptimizationLevel.O2;
     }
-    
+
     @Override
     public List<Stmt> optimize(List<Stmt> statements, OptimizationContext context) {
         if (context.isDebugMode()) {
             System.out.println("=== Function Inlining Pass ===");
-            System.out.println("  Stub implementation - no transformations applied");
         }
-        return statements; // TODO: Implement function inlining optimization
+        return new InliningTransformer(context, statements).transform(statements);
     }
-    
+
     /**
      * Transformer that performs function inlining analysis and transformations.
      */
     private static class InliningTransformer {
         private final OptimizationContext context;
-        private final Map<String, Stmt.Function> functionDefinitions;
-        private final Map<String, Integer> functionSizes;
-        private final Map<String, Integer> callCounts;
-        private final Set<String> recursiveFunctions;
-        private final Set<String> inlineableFunctions;
-        private final Set<String> successfullyInlinedFunctions;
-        private int inlineThreshold;
-        private int inlineDepth;
-        
-        public InliningTransformer(OptimizationContext context) {
+        private final int inlineThreshold;
+        private final ExpressionShape.Classifier classifier;
+
+        // Names bound outside any function; a function assigning one of
+        // them updates the global rather than defining a local
+        private final Set<String> globalNames = new HashSet<>();
+
+        // How often each name is bound anywhere in the program, counting
+        // parameters; a function is only inlined if its name is bound once
+        private final Map<String, Integer> bindingCounts = new HashMap<>();
+
+        private final Map<String, Stmt.Function> functionDefinitions = new LinkedHashMap<>();
+        private final Map<Stmt.Function, Integer> definitionIndexes = new IdentityHashMap<>();
+        private final Set<String> recursiveFunctions = new HashSet<>();
+
+        // Function bodies after inlining the calls in them
+        private final Map<Stmt.Function, List<Stmt>> inlinedBodies = new IdentityHashMap<>();
+        private final Map<String, Callee> callees = new HashMap<>();
+        private final Map<String, Integer> inlinedCalls = new TreeMap<>();
+
+        // Leading top-level statements that only declare; no code can run
+        // before a function declared among them is defined
+        private int declarationPrefix = 0;
+
+        // Index of the top-level statement being inlined into
+        private int topIndex = 0;
+        private int nextTemporary = 0;
+
+        public InliningTransformer(OptimizationContext context, List<Stmt> program) {
             this.context = context;
-            this.functionDefinitions = new HashMap<>();
-            this.functionSizes = new HashMap<>();
-            this.callCounts = new HashMap<>();
-            this.recursiveFunctions = new HashSet<>();
-            this.inlineableFunctions = new HashSet<>();
-            this.successfullyInlinedFunctions = new HashSet<>();
             this.inlineThreshold = context.getPassConfigurationInt(
                 "function-inlining", "threshold", DEFAULT_INLINE_THRESHOLD
             );
-            this.inlineDepth = 0;
+            this.classifier = ExpressionShape.classifier(program, context);
+            this.nextTemporary = AstScanner.firstUnusedSuffix(program, "__inl");
         }
-        
+
         public List<Stmt> transform(List<Stmt> statements) {
-            // First pass: collect function definitions and analyze
+            // First pass: collect function definitions and bindings
             analyzeFunctions(statements);
-            
-            // Second pass: count function calls
-            countFunctionCalls(statements);
-            
-            // Third pass: determine which functions to inline
-            determineInlineableFunctions();
-            
-            // Fourth pass: perform inlining transformations
+
+            // Second pass: find the functions that call themselves
+            findRecursiveFunctions();
+
+            // Third pass: inline calls in every region of the program
             List<Stmt> result = performInlining(statements);
-            
+            for (int calls : inlinedCalls.values()) {
+                context.recordTransformations("function-inlining", calls);
+            }
+
             if (context.isDebugMode()) {
-                System.out.println("=== Function Inlining ===");
-                System.out.println("Functions analyzed: " + functionDefinitions.size());
-                System.out.println("Inlineable functions: " + inlineableFunctions.size());
-                System.out.println("Recursive functions: " + recursiveFunctions.size());
-                for (String funcName : inlineableFunctions) {
-                    System.out.println("  Will inline: " + funcName + 
-                        " (size: " + functionSizes.get(funcName) + 
-                        ", calls: " + callCounts.get(funcName) + ")");
+                System.out.println("  Functions analyzed: " + functionDefinitions.size());
+                System.out.println("  Recursive functions: " + recursiveFunctions.size());
+                for (Map.Entry<String, Integer> entry : inlinedCalls.entrySet()) {
+                    System.out.println("  Inlined: " + entry.getKey() +
+                        " (size: " + callees.get(entry.getKey()).size +
+                        ", calls: " + entry.getValue() + ")");
                 }
             }
-            
+
             return result;
         }
-        
+
         /**
-         * Analyze function definitions to calculate size and detect recursion.
+         * Collect the top-level function definitions, the global names and
+         * how often each name is bound.
          */
         private void analyzeFunctions(List<Stmt> statements) {
-            for (Stmt stmt : statements) {
-                analyzeFunctionDefinitions(stmt);
-            }
-        }
-        
-        private void analyzeFunctionDefinitions(Stmt stmt) {
-            stmt.accept(new Stmt.Visitor<Void>() {
-                @Override
-                public Void visitFunctionStmt(Stmt.Function stmt) {
-                    String funcName = stmt.name.lexeme;
-                    functionDefinitions.put(funcName, stmt);
-                    
-                    // Calculate function size (AST node count)
-                    int size = calculateFunctionSize(stmt);
-                    functionSizes.put(funcName, size);
-                    
-                    // Check for recursion
-                    if (isRecursive(stmt)) {
-                        recursiveFunctions.add(funcName);
+            Set<String> duplicates = new HashSet<>();
+            boolean declarationsOnly = true;
+            for (int i = 0; i < statements.size(); i++) {
+                Stmt stmt = unwrapExport(statements.get(i));
+                if (stmt instanceof Stmt.Function) {
+                    Stmt.Function function = (Stmt.Function) stmt;
+                    definitionIndexes.put(function, i);
+                    if (functionDefinitions.put(function.name.lexeme, function) != null) {
+                        duplicates.add(function.name.lexeme);
                     }
-                    
-                    return null;
                 }
-                
-                @Override
-                public Void visitBlockStmt(Stmt.Block stmt) {
-                    for (Stmt s : stmt.statements) {
-                        analyzeFunctionDefinitions(s);
-                    }
-                    return null;
+                declarationsOnly &= isDeclaration(stmt);
+                if (declarationsOnly) {
+                    declarationPrefix = i + 1;
                 }
-                
+            }
+            // Overloads are resolved at run time
+            functionDefinitions.keySet().removeAll(duplicates);
+
+            new AstScanner() {
                 @Override
-                public Void visitClassStmt(Stmt.Class stmt) {
-                    for (Stmt.Function method : stmt.methods) {
-                        analyzeFunctionDefinitions(method);
+                void visit(Stmt stmt) {
+                    Token name = boundName(stmt);
+                    if (name != null) {
+                        bind(name.lexeme, functionDepth == 0);
+                    }
+                    if (stmt instanceof Stmt.Function) {
+                        for (Stmt.Parameter param : ((Stmt.Function) stmt).params) {
+                            bind(param.name.lexeme, false);
+                        }
+                    } else if (stmt instanceof Stmt.Class) {
+                        for (Stmt.Function method : ((Stmt.Class) stmt).methods) {
+                            for (Stmt.Parameter param : method.params) {
+                                bind(param.name.lexeme, false);
+                            }
+                        }
+                    } else if (stmt instanceof Stmt.Import && ((Stmt.Import) stmt).names != null) {
+                        for (Token imported : ((Stmt.Import) stmt).names) {
+                            bind(imported.lexeme, functionDepth == 0);
+                        }
                     }
-                    return null;
                 }
-                
+
                 @Override
-                public Void visitIfStmt(Stmt.If stmt) {
-                    analyzeFunctionDefinitions(stmt.thenBranch);
-                    if (stmt.elseBranch != null) {
-                        analyzeFunctionDefinitions(stmt.elseBranch);
+                void visit(Expr expr) {
+                    if (expr instanceof Expr.Assign) {
+                        bind(((Expr.Assign) expr).name.lexeme, functionDepth == 0);
+                    } else if (expr instanceof Expr.Lambda) {
+                        for (Token param : ((Expr.Lambda) expr).params) {
+                            bind(param.lexeme, false);
+                        }
+                    } else if (expr instanceof Expr.Match) {
+                        for (Expr.Match.Case matchCase : ((Expr.Match) expr).cases) {
+                            for (String name : patternNames(matchCase.pattern)) {
+                                bind(name, false);
+                            }
+                        }
                     }
-                    return null;
-                }
-                
-                @Override
-                public Void visitWhileStmt(Stmt.While stmt) {
-                    analyzeFunctionDefinitions(stmt.body);
-                    return null;
-                }
-                
-                @Override
-                public Void visitForStmt(Stmt.For stmt) {
-                    analyzeFunctionDefinitions(stmt.body);
-                    return null;
                 }
-                
-                // Other statement types don't contain function definitions
-                @Override public Void visitExpressionStmt(Stmt.Expression stmt) { return null; }
-                @Override public Void visitVarStmt(Stmt.Var stmt) { return null; }
-                @Override public Void visitReturnStmt(Stmt.Return stmt) { return null; }
-                @Override public Void visitThrowStmt(Stmt.Throw stmt) { return null; }
-                @Override public Void visitImportStmt(Stmt.Import stmt) { return null; }
-                @Override public Void visitExportStmt(Stmt.Export stmt) { 
-                    analyzeFunctionDefinitions(stmt.declaration);
-                    return null; 
-                }
-                
-                @Override public Void visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) {
-                    return null;
-                }
-                
-                @Override public Void visitTypeAliasStmt(Stmt.TypeAlias stmt) {
-                    // Type aliases are compile-time only, no optimization needed
-                    return null;
+
+                private void bind(String name, boolean global) {
+                    bindingCounts.merge(name, 1, Integer::sum);
+                    if (global) {
+                        globalNames.add(name);
+                    }
                 }
-            });
+            }.statements(statements);
         }
-        
+
         /**
-         * Calculate the size of a function in AST nodes.
+         * Mark the functions that can reach themselves through the calls in
+         * their bodies.
          */
-        private int calculateFunctionSize(Stmt.Function function) {
-            FunctionSizeCalculator calculator = new FunctionSizeCalculator();
-            for (Stmt stmt : function.body) {
-                calculator.calculateStatementSize(stmt);
+        private void findRecursiveFunctions() {
+            Map<String, Set<String>> calls = new HashMap<>();
+            for (Stmt.Function function : functionDefinitions.values()) {
+                Set<String> called = new HashSet<>();
+                new AstScanner() {
+                    @Override
+                    void visit(Expr expr) {
+                        if (expr instanceof Expr.Call && ((Expr.Call) expr).callee instanceof Expr.Variable) {
+                            called.add(((Expr.Variable) ((Expr.Call) expr).callee).name.lexeme);
+                        }
+                    }
+                }.statements(function.body);
+                calls.put(function.name.lexeme, called);
             }
-            return calculator.getSize();
-        }
-        
-        /**
-         * Check if a function is recursive by looking for calls to itself.
-         */
-        private boolean isRecursive(Stmt.Function function) {
-            String funcName = function.name.lexeme;
-            RecursionDetector detector = new RecursionDetector(funcName);
-            for (Stmt stmt : function.body) {
-                if (detector.checkStatement(stmt)) {
-                    return true;
+
+            for (String name : calls.keySet()) {
+                Deque<String> pending = new ArrayDeque<>(calls.get(name));
+                Set<String> seen = new HashSet<>();
+                while (!pending.isEmpty()) {
+                    String next = pending.pop();
+                    if (next.equals(name)) {
+                        recursiveFunctions.add(name);
+                        break;
+                    }
+                    if (seen.add(next) && calls.containsKey(next)) {
+                        pending.addAll(calls.get(next));
+                    }
                 }
             }
-            return false;
         }
-        
+
         /**
-         * Count function calls throughout the program.
+         * Perform the actual inlining transformations.
          */
-        private void countFunctionCalls(List<Stmt> statements) {
-            CallCounter counter = new CallCounter();
+        private List<Stmt> performInlining(List<Stmt> statements) {
+            // Top-level code runs in the global scope, but the blocks and
+            // loops in it may declare names that hide globals
+            Set<String> shadowed = new HashSet<>();
             for (Stmt stmt : statements) {
-                counter.countCalls(stmt);
+                new AstScanner() {
+                    @Override
+                    void visit(Stmt nested) {
+                        Token name = boundName(nested);
+                        if (functionDepth == 0 && name != null
+                                && (nested != stmt || nested instanceof Stmt.For)) {
+                            shadowed.add(name.lexeme);
+                        }
+                    }
+
+                    @Override
+                    void visit(Expr expr) {
+                        if (functionDepth == 0 && expr instanceof Expr.Assign
+                                && !globalNames.contains(((Expr.Assign) expr).name.lexeme)) {
+                            shadowed.add(((Expr.Assign) expr).name.lexeme);
+                        } else if (functionDepth == 0 && expr instanceof Expr.Match) {
+                            for (Expr.Match.Case matchCase : ((Expr.Match) expr).cases) {
+                                shadowed.addAll(patternNames(matchCase.pattern));
+                            }
+                        }
+                    }
+                }.statement(stmt);
+            }
+            Region program = new Region(shadowed, false);
+
+            List<Stmt> result = new ArrayList<>();
+            for (int i = 0; i < statements.size(); i++) {
+                topIndex = i;
+                Stmt stmt = statements.get(i);
+                Stmt declaration = unwrapExport(stmt);
+                if (declaration instanceof Stmt.Function && definitionIndexes.containsKey(declaration)) {
+                    Stmt.Function function = (Stmt.Function) declaration;
+                    Stmt inlined = new Stmt.Function(function.name, function.typeParams, function.params,
+                                                     function.returnType, inlinedBody(function));
+                    result.add(stmt instanceof Stmt.Export ? new Stmt.Export(inlined) : inlined);
+                } else {
+                    result.addAll(inlineStatement(stmt, program, false, true));
+                }
             }
+            return program.declare(result);
         }
-        
+
         /**
-         * Determine which functions should be inlined based on heuristics.
+         * The body of a top-level function with the calls in it inlined.
+         * Bodies are inlined once and shared by the definition and every
+         * call site that inlines the function.
          */
-        private void determineInlineableFunctions() {
-            for (Map.Entry<String, Stmt.Function> entry : functionDefinitions.entrySet()) {
-                String funcName = entry.getKey();
-                int size = functionSizes.get(funcName);
-                int calls = callCounts.getOrDefault(funcName, 0);
-                
-                // Inlining heuristics
-                boolean shouldInline = true;
-                
-                // Don't inline if function is too large
-                if (size > inlineThreshold) {
-                    shouldInline = false;
-                }
-                
-                // Don't inline recursive functions
-                if (recursiveFunctions.contains(funcName)) {
-                    shouldInline = false;
-                }
-                
-                // Don't inline functions with too many call sites
-                if (calls > MAX_CALL_SITES) {
-                    shouldInline = false;
-                }
-                
-                // Don't inline functions that are too complex for simple expression inlining
-                // Use configured threshold, but be conservative for multi-statement functions
-                if (size > inlineThreshold) {
-                    shouldInline = false;
-                }
-                
-                // Don't inline functions with no calls
-                if (calls == 0) {
-                    shouldInline = false;
-                }
-                
-                if (shouldInline) {
-                    inlineableFunctions.add(funcName);
+        private List<Stmt> inlinedBody(Stmt.Function function) {
+            List<Stmt> body = inlinedBodies.get(function);
+            if (body == null) {
+                int savedIndex = topIndex;
+                topIndex = definitionIndexes.get(function);
+                try {
+                    body = functionBody(Region.GLOBAL, function.params, function.body);
+                } finally {
+                    topIndex = savedIndex;
                 }
+                inlinedBodies.put(function, body);
+            }
+            return body;
+        }
+
+        private List<Stmt> functionBody(Region parent, List<Stmt.Parameter> params, List<Stmt> body) {
+            List<Token> names = new ArrayList<>();
+            for (Stmt.Parameter param : params) {
+                names.add(param.name);
             }
+            return regionBody(parent, names, body);
         }
-        
+
         /**
-         * Perform the actual inlining transformations.
+         * Inline the calls in a function or lambda body. Names it binds may
+         * hide globals, as may the names of the functions it is nested in.
          */
-        private List<Stmt> performInlining(List<Stmt> statements) {
-            List<Stmt> result = new ArrayList<>();
-            
-            for (Stmt stmt : statements) {
-                Stmt transformed = transformStatement(stmt);
-                
-                // Only keep function definitions that were not successfully inlined
-                if (stmt instanceof Stmt.Function) {
-                    Stmt.Function func = (Stmt.Function) stmt;
-                    if (!successfullyInlinedFunctions.contains(func.name.lexeme)) {
-                        result.add(transformed);
+        private List<Stmt> regionBody(Region parent, List<Token> params, List<Stmt> body) {
+            Set<String> shadowed = new HashSet<>(parent.shadowed);
+            for (Token param : params) {
+                shadowed.add(param.lexeme);
+            }
+            new AstScanner() {
+                @Override
+                void visit(Stmt stmt) {
+                    Token name = boundName(stmt);
+                    if (name != null) {
+                        shadowed.add(name.lexeme);
+                    }
+                }
+
+                @Override
+                void visit(Expr expr) {
+                    if (expr instanceof Expr.Assign) {
+                        shadowed.add(((Expr.Assign) expr).name.lexeme);
+                    } else if (expr instanceof Expr.Lambda) {
+                        for (Token param : ((Expr.Lambda) expr).params) {
+                            shadowed.add(param.lexeme);
+                        }
+                    } else if (expr instanceof Expr.Match) {
+                        for (Expr.Match.Case matchCase : ((Expr.Match) expr).cases) {
+                            shadowed.addAll(patternNames(matchCase.pattern));
+                        }
                     }
-                    // Skip successfully inlined functions (they've been replaced at call sites)
-                } else {
-                    result.add(transformed);
                 }
+            }.statements(body);
+
+            Region region = new Region(shadowed, true);
+            return region.declare(inlineStatements(body, region, false));
+        }
+
+        private List<Stmt> inlineStatements(List<Stmt> statements, Region region, boolean inLoop) {
+            List<Stmt> result = new ArrayList<>();
+            for (Stmt stmt : statements) {
+                result.addAll(inlineStatement(stmt, region, inLoop, true));
             }
-            
             return result;
         }
-        
+
+        // A statement standing alone, such as a branch of an if
+        private Stmt inlineSingle(Stmt stmt, Region region, boolean inLoop) {
+            List<Stmt> inlined = inlineStatement(stmt, region, inLoop, false);
+            return inlined.size() == 1 ? inlined.get(0) : new Stmt.Block(inlined);
+        }
+
         /**
-         * Transform a statement, inlining function calls where appropriate.
+         * Inline the calls in one statement, giving the statements that
+         * replace it. Assignments and declarations only expand into several
+         * statements in a statement list, where they keep their scope.
          */
-        private Stmt transformStatement(Stmt stmt) {
-            return stmt.accept(new Stmt.Visitor<Stmt>() {
-                @Override
-                public Stmt visitExpressionStmt(Stmt.Expression stmt) {
-                    Expr transformedExpr = transformExpression(stmt.expression);
-                    return new Stmt.Expression(transformedExpr);
+        private List<Stmt> inlineStatement(Stmt stmt, Region region, boolean inLoop, boolean inList) {
+            Expr.Call call = statementCall(stmt, inList);
+            if (call != null) {
+                List<Stmt> expanded = expandCall(stmt, call, region, inLoop);
+                if (expanded != null) {
+                    return expanded;
                 }
-                
-                @Override
-                public Stmt visitVarStmt(Stmt.Var stmt) {
-                    Expr transformedInitializer = stmt.initializer != null ? 
-                        transformExpression(stmt.initializer) : null;
-                    return new Stmt.Var(stmt.name, stmt.type, transformedInitializer, stmt.isImmutable);
+            }
+
+            ExpressionInliner expressions = new ExpressionInliner(region, inLoop);
+            if (stmt instanceof Stmt.Block) {
+                return Collections.singletonList(
+                    new Stmt.Block(inlineStatements(((Stmt.Block) stmt).statements, region, inLoop)));
+            }
+            if (stmt instanceof Stmt.If) {
+                Stmt.If ifStmt = (Stmt.If) stmt;
+                Expr condition = expressions.expression(ifStmt.condition);
+                Stmt thenBranch = inlineSingle(ifStmt.thenBranch, region, inLoop);
+                Stmt elseBranch = ifStmt.elseBranch != null ? inlineSingle(ifStmt.elseBranch, region, inLoop) : null;
+                return Collections.singletonList(new Stmt.If(condition, thenBranch, elseBranch));
+            }
+            if (stmt instanceof Stmt.While) {
+                Stmt.While whileStmt = (Stmt.While) stmt;
+                Expr condition = new ExpressionInliner(region, true).expression(whileStmt.condition);
+                Stmt body = inlineSingle(whileStmt.body, region, true);
+                return Collections.singletonList(new Stmt.While(condition, body));
+            }
+            if (stmt instanceof Stmt.For) {
+                Stmt.For forStmt = (Stmt.For) stmt;
+                Expr iterable = expressions.expression(forStmt.iterable);
+                Stmt body = inlineSingle(forStmt.body, region, true);
+                return Collections.singletonList(new Stmt.For(forStmt.variable, iterable, body));
+            }
+            if (stmt instanceof Stmt.Function) {
+                Stmt.Function function = (Stmt.Function) stmt;
+                return Collections.singletonList(new Stmt.Function(function.name, function.typeParams,
+                    function.params, function.returnType, functionBody(region, function.params, function.body)));
+            }
+            if (stmt instanceof Stmt.Class) {
+                Stmt.Class classStmt = (Stmt.Class) stmt;
+                List<Stmt.Function> methods = new ArrayList<>();
+                for (Stmt.Function method : classStmt.methods) {
+                    methods.add(new Stmt.Function(method.name, method.typeParams, method.params,
+                        method.returnType, functionBody(region, method.params, method.body)));
                 }
-                
-                @Override
-                public Stmt visitReturnStmt(Stmt.Return stmt) {
-                    Expr transformedValue = stmt.value != null ? 
-                        transformExpression(stmt.value) : null;
-                    return new Stmt.Return(stmt.keyword, transformedValue);
+                return Collections.singletonList(new Stmt.Class(classStmt.name, classStmt.typeParams, methods));
+            }
+            if (stmt instanceof Stmt.Export) {
+                List<Stmt> declaration = inlineStatement(((Stmt.Export) stmt).declaration, region, inLoop, false);
+                return Collections.singletonList(new Stmt.Export(declaration.get(0)));
+            }
+            return Collections.singletonList(expressions.statement(stmt));
+        }
+
+        /**
+         * The call a statement consists of, if it could be expanded in place:
+         * a call statement, an assignment or declaration of its result, or a
+         * return of it.
+         */
+        private Expr.Call statementCall(Stmt stmt, boolean inList) {
+            Expr value = null;
+            if (stmt instanceof Stmt.Expression) {
+                Expr expr = ((Stmt.Expression) stmt).expression;
+                value = expr instanceof Expr.Assign && inList ? ((Expr.Assign) expr).value : expr;
+            } else if (stmt instanceof Stmt.Var && inList) {
+                value = ((Stmt.Var) stmt).initializer;
+            } else if (stmt instanceof Stmt.Return) {
+                value = ((Stmt.Return) stmt).value;
+            }
+            return value instanceof Expr.Call ? (Expr.Call) value : null;
+        }
+
+        /**
+         * Rebuild a statement from statementCall with value in place of the
+         * call, or with no statement at all if the value is unused and null.
+         */
+        private Stmt withValue(Stmt stmt, Expr value) {
+            if (stmt instanceof Stmt.Expression) {
+                Expr expr = ((Stmt.Expression) stmt).expression;
+                if (expr instanceof Expr.Assign) {
+                    Expr assigned = value != null ? value : new Expr.Literal(null);
+                    return new Stmt.Expression(new Expr.Assign(((Expr.Assign) expr).name, assigned));
                 }
-                
-                @Override
-                public Stmt visitThrowStmt(Stmt.Throw stmt) {
-                    Expr transformedValue = stmt.value != null ? 
-                        transformExpression(stmt.value) : null;
-                    return new Stmt.Throw(stmt.keyword, transformedValue);
+                // Reading a value without using it has no effect
+                if (value == null || value instanceof Expr.Literal || value instanceof Expr.Variable) {
+                    return null;
                 }
-                
-                @Override
-                public Stmt visitIfStmt(Stmt.If stmt) {
-                    Expr transformedCondition = transformExpression(stmt.condition);
-                    Stmt transformedThen = transformStatement(stmt.thenBranch);
-                    Stmt transformedElse = stmt.elseBranch != null ? 
-                        transformStatement(stmt.elseBranch) : null;
-                    return new Stmt.If(transformedCondition, transformedThen, transformedElse);
+                return new Stmt.Expression(value);
+            }
+            if (stmt instanceof Stmt.Var) {
+                Stmt.Var var = (Stmt.Var) stmt;
+                return new Stmt.Var(var.name, var.type, value, var.isImmutable);
+            }
+            return new Stmt.Return(((Stmt.Return) stmt).keyword, value);
+        }
+
+        /**
+         * Expand a call that makes up a statement into the callee's body,
+         * or null if it cannot be inlined.
+         */
+        private List<Stmt> expandCall(Stmt stmt, Expr.Call original, Region region, boolean inLoop) {
+            Callee callee = callee(original, region, inLoop);
+            if (callee == null) {
+                return null;
+            }
+
+            // Calls in the arguments are inlined first, so they may become pure
+            ExpressionInliner expressions = new ExpressionInliner(region, inLoop);
+            Expr.Call call = (Expr.Call) expressions.operands(original);
+            Expr substituted = substitute(callee, call, region);
+            if (substituted != null) {
+                Stmt result = withValue(stmt, substituted);
+                return result == null ? Collections.emptyList() : Collections.singletonList(result);
+            }
+
+            int temporaryMark = nextTemporary;
+            List<Token> temporaries = new ArrayList<>();
+            List<Stmt> result = new ArrayList<>();
+
+            // Arguments are evaluated in order before the body runs, like
+            // a call would, unless they are literals the body never assigns
+            Map<String, Expr> constants = new HashMap<>();
+            Map<String, Token> renamed = new HashMap<>();
+            for (int i = 0; i < call.arguments.size(); i++) {
+                Token param = callee.function.params.get(i).name;
+                Expr argument = call.arguments.get(i);
+                if (argument instanceof Expr.Literal && !callee.assigned.contains(param.lexeme)) {
+                    constants.put(param.lexeme, argument);
+                } else {
+                    Token temporary = newTemporary(temporaries, param.line);
+                    renamed.put(param.lexeme, temporary);
+                    result.add(assign(temporary, argument));
                 }
-                
-                @Override
-                public Stmt visitWhileStmt(Stmt.While stmt) {
-                    Expr transformedCondition = transformExpression(stmt.condition);
-                    Stmt transformedBody = transformStatement(stmt.body);
-                    return new Stmt.While(transformedCondition, transformedBody);
+            }
+            for (String local : callee.locals) {
+                if (!renamed.containsKey(local) && !constants.containsKey(local)) {
+                    renamed.put(local, newTemporary(temporaries, call.paren.line));
                 }
-                
+            }
+
+            AstRewriter copier = new AstRewriter(true) {
                 @Override
-                public Stmt visitForStmt(Stmt.For stmt) {
-                    Expr transformedIterable = transformExpression(stmt.iterable);
-                    Stmt transformedBody = transformStatement(stmt.body);
-                    return new Stmt.For(stmt.variable, transformedIterable, transformedBody);
+                Token name(Token name) {
+                    Token temporary = renamed.get(name.lexeme);
+                    return temporary != null ? temporary : name;
                 }
-                
+
                 @Override
-                public Stmt visitBlockStmt(Stmt.Block stmt) {
-                    List<Stmt> transformedStatements = new ArrayList<>();
-                    for (Stmt s : stmt.statements) {
-                        Stmt transformed = transformStatement(s);
-                        if (transformed instanceof Stmt.Block) {
-                            // Flatten nested blocks from inlining
-                            transformedStatements.addAll(((Stmt.Block) transformed).statements);
-                        } else {
-                            transformedStatements.add(transformed);
+                Expr replace(Expr expr) {
+                    if (expr instanceof Expr.Variable) {
+                        Expr constant = constants.get(((Expr.Variable) expr).name.lexeme);
+                        if (constant != null) {
+                            return new Expr.Literal(((Expr.Literal) constant).value);
                         }
                     }
-                    return new Stmt.Block(transformedStatements);
-                }
-                
-                @Override
-                public Stmt visitFunctionStmt(Stmt.Function stmt) {
-                    // Transform function body
-                    List<Stmt> transformedBody = new ArrayList<>();
-                    for (Stmt s : stmt.body) {
-                        transformedBody.add(transformStatement(s));
-                    }
-                    return new Stmt.Function(stmt.name, stmt.params, stmt.returnType, transformedBody);
+                    return null;
                 }
-                
-                @Override
-                public Stmt visitClassStmt(Stmt.Class stmt) {
-                    List<Stmt.Function> transformedMethods = new ArrayList<>();
-                    for (Stmt.Function method : stmt.methods) {
-                        transformedMethods.add((Stmt.Function) transformStatement(method));
-                    }
-                    return new Stmt.Class(stmt.name, transformedMethods);
+            };
+
+            List<Stmt> body = callee.body;
+            int returns = countReturns(body);
+            Stmt last = body.isEmpty() ? null : body.get(body.size() - 1);
+            if (returns == 0 || (returns == 1 && last instanceof Stmt.Return)) {
+                // The result is the value of the final return, if any
+                int end = returns == 0 ? body.size() : body.size() - 1;
+                for (Stmt bodyStmt : body.subList(0, end)) {
+                    result.add(lowerDeclaration(copier.statement(bodyStmt)));
                 }
-                
-                @Override
-                public Stmt visitImportStmt(Stmt.Import stmt) {
-                    return stmt;
+                Expr value = returns == 0 ? null : ((Stmt.Return) last).value;
+                Stmt consumer = withValue(stmt, value != null ? copier.expression(value) : null);
+                if (consumer != null) {
+                    result.add(consumer);
                 }
-                
-                @Override
-                public Stmt visitExportStmt(Stmt.Export stmt) {
-                    Stmt transformedDeclaration = transformStatement(stmt.declaration);
-                    return new Stmt.Export(transformedDeclaration);
+            } else {
+                Token resultName = stmt instanceof Stmt.Expression
+                        && !(((Stmt.Expression) stmt).expression instanceof Expr.Assign)
+                    ? null : newTemporary(temporaries, call.paren.line);
+                List<Stmt> lowered = new Lowering(copier, resultName, null).lowerBody(body);
+                if (lowered == null) {
+                    // Returns inside loops or both branches of an if need a flag
+                    Token done = newTemporary(temporaries, call.paren.line);
+                    lowered = new Lowering(copier, resultName, done).lowerBody(body);
                 }
-                
-                @Override
-                public Stmt visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) {
-                    return stmt;
+                if (lowered == null) {
+                    nextTemporary = temporaryMark;
+                    return Collections.singletonList(withValue(stmt, call));
                 }
-                
-                @Override
-                public Stmt visitTypeAliasStmt(Stmt.TypeAlias stmt) {
-                    // Type aliases are compile-time only, no optimization needed
-                    return stmt;
+                result.addAll(lowered);
+                Stmt consumer = withValue(stmt, resultName != null ? new Expr.Variable(resultName) : null);
+                if (consumer != null) {
+                    result.add(consumer);
                 }
-            });
+            }
+
+            region.temporaries.addAll(temporaries);
+            recordInlined(callee);
+            return result;
         }
-        
+
         /**
-         * Transform expressions, inlining function calls where appropriate.
+         * Replace calls whose callee is a single pure return with that
+         * expression.
          */
-        private Expr transformExpression(Expr expr) {
-            if (inlineDepth >= MAX_INLINE_DEPTH) {
-                // Prevent excessive inlining depth
-                return expr;
+        private class ExpressionInliner extends AstRewriter {
+            private final Region region;
+            private final boolean inLoop;
+
+            ExpressionInliner(Region region, boolean inLoop) {
+                super(false);
+                this.region = region;
+                this.inLoop = inLoop;
             }
-            
-            return expr.accept(new Expr.Visitor<Expr>() {
-                @Override
-                public Expr visitCallExpr(Expr.Call expr) {
-                    // Check if this is a function call that can be inlined
-                    if (expr.callee instanceof Expr.Variable) {
-                        Expr.Variable var = (Expr.Variable) expr.callee;
-                        String funcName = var.name.lexeme;
-                        
-                        if (inlineableFunctions.contains(funcName)) {
-                            Expr inlined = inlineFunction(funcName, expr.arguments);
-                            if (inlined != null) {
-                                successfullyInlinedFunctions.add(funcName);
-                                return inlined;
-                            }
-                            // Fall through to transform arguments if inlining failed
-                        }
-                    }
-                    
-                    // Transform arguments
-                    List<Expr> transformedArgs = new ArrayList<>();
-                    for (Expr arg : expr.arguments) {
-                        transformedArgs.add(transformExpression(arg));
-                    }
-                    
-                    Expr transformedCallee = transformExpression(expr.callee);
-                    return new Expr.Call(transformedCallee, expr.paren, transformedArgs);
-                }
-                
-                @Override
-                public Expr visitBinaryExpr(Expr.Binary expr) {
-                    Expr left = transformExpression(expr.left);
-                    Expr right = transformExpression(expr.right);
-                    return new Expr.Binary(left, expr.operator, right);
+
+            @Override
+            Expr replace(Expr expr) {
+                if (expr instanceof Expr.Call) {
+                    // Calls in the arguments are inlined first, so they may become pure
+                    Expr.Call call = (Expr.Call) operands(expr);
+                    Callee callee = callee(call, region, inLoop);
+                    Expr substituted = callee != null ? substitute(callee, call, region) : null;
+                    return substituted != null ? substituted : call;
                 }
-                
-                @Override
-                public Expr visitUnaryExpr(Expr.Unary expr) {
-                    Expr right = transformExpression(expr.right);
-                    return new Expr.Unary(expr.operator, right);
+                return null;
+            }
+
+            @Override
+            Expr lambda(Expr.Lambda lambda) {
+                return new Expr.Lambda(lambda.params, regionBody(region, lambda.params, lambda.body));
+            }
+
+            @Override
+            boolean entersCases() {
+                return true;
+            }
+
+            // A block case's last expression is its value, so it is never
+            // expanded into statements
+            @Override
+            List<Stmt> caseBody(List<Stmt> statements) {
+                List<Stmt> result = new ArrayList<>();
+                for (int i = 0; i < statements.size(); i++) {
+                    Stmt stmt = statements.get(i);
+                    if (i == statements.size() - 1 && stmt instanceof Stmt.Expression) {
+                        result.add(statement(stmt));
+                    } else {
+                        result.addAll(inlineStatement(stmt, region, inLoop, true));
+                    }
                 }
-                
-                @Override
-                public Expr visitGroupingExpr(Expr.Grouping expr) {
-                    Expr expression = transformExpression(expr.expression);
-                    return new Expr.Grouping(expression);
+                return result;
+            }
+        }
+
+        /**
+         * The callee of a call that may be inlined at this site, or null.
+         */
+        private Callee callee(Expr.Call call, Region region, boolean inLoop) {
+            if (!(call.callee instanceof Expr.Variable)
+                    || (call.typeArguments != null && !call.typeArguments.isEmpty())) {
+                return null;
+            }
+            String name = ((Expr.Variable) call.callee).name.lexeme;
+            Stmt.Function function = functionDefinitions.get(name);
+            if (function == null || recursiveFunctions.contains(name)
+                    || bindingCounts.getOrDefault(name, 0) != 1
+                    || call.arguments.size() != function.params.size()) {
+                return null;
+            }
+
+            // Calling a function before its definition has run is an error
+            // the inlined code must not hide
+            int definedAt = definitionIndexes.get(function);
+            if (topIndex <= definedAt && !(region.inFunction && declarationPrefix > definedAt)) {
+                return null;
+            }
+
+            // Analyzing a callee inlines the calls in its body first
+            if (!callees.containsKey(name)) {
+                callees.put(name, analyzeCallee(function));
+            }
+            Callee callee = callees.get(name);
+            if (callee == null) {
+                return null;
+            }
+            int budget = inlineThreshold * (inLoop ? LOOP_COST_FACTOR : 1);
+            ExecutionProfile profile = context.getProfile();
+            if (profile != null) {
+                if (profile.isColdFunction(name)) {
+                    return null;
                 }
-                
-                @Override
-                public Expr visitLogicalExpr(Expr.Logical expr) {
-                    Expr left = transformExpression(expr.left);
-                    Expr right = transformExpression(expr.right);
-                    return new Expr.Logical(left, expr.operator, right);
+                if (profile.isHotFunction(name)) {
+                    budget *= HOT_COST_FACTOR;
                 }
-                
-                @Override
-                public Expr visitAssignExpr(Expr.Assign expr) {
-                    Expr value = transformExpression(expr.value);
-                    return new Expr.Assign(expr.name, value);
+            }
+            if (callee.size > budget || !Collections.disjoint(callee.freeNames, region.shadowed)) {
+                return null;
+            }
+
+            // Parameter types are checked when the call binds them
+            for (int i = 0; i < function.params.size(); i++) {
+                if (!satisfiesType(function.params.get(i).type, call.arguments.get(i))) {
+                    return null;
                 }
-                
+            }
+            return callee;
+        }
+
+        /**
+         * Decide whether a function's body can be copied into its callers,
+         * or return null.
+         */
+        private Callee analyzeCallee(Stmt.Function function) {
+            if ((function.typeParams != null && !function.typeParams.isEmpty())
+                    || !isAnyType(function.returnType)) {
+                return null;
+            }
+            List<Stmt> body = inlinedBody(function);
+            if (ThornGenerator.isGeneratorBody(body)) {
+                return null;
+            }
+
+            Callee callee = new Callee(function, body);
+            Set<String> params = new HashSet<>();
+            for (Stmt.Parameter param : function.params) {
+                params.add(param.name.lexeme);
+                callee.locals.add(param.name.lexeme);
+            }
+            Set<Stmt> topLevel = Collections.newSetFromMap(new IdentityHashMap<>());
+            topLevel.addAll(body);
+            Set<String> reads = new HashSet<>();
+            boolean[] inlineable = { true };
+
+            new AstScanner() {
                 @Override
-                public Expr visitListExpr(Expr.ListExpr expr) {
-                    List<Expr> elements = new ArrayList<>();
-                    for (Expr element : expr.elements) {
-                        elements.add(transformExpression(element));
+                void visit(Stmt stmt) {
+                    callee.size++;
+                    if (stmt instanceof Stmt.Var) {
+                        // Typed and immutable declarations check what they
+                        // hold, and nested ones have their own scope
+                        Stmt.Var var = (Stmt.Var) stmt;
+                        if (var.type != null || var.isImmutable || !topLevel.contains(stmt)) {
+                            inlineable[0] = false;
+                        }
+                        callee.locals.add(var.name.lexeme);
+                        callee.assigned.add(var.name.lexeme);
+                    } else if (stmt instanceof Stmt.For) {
+                        bindLocal(((Stmt.For) stmt).variable.lexeme);
+                    } else if (!(stmt instanceof Stmt.Expression || stmt instanceof Stmt.Block
+                            || stmt instanceof Stmt.If || stmt instanceof Stmt.While
+                            || stmt instanceof Stmt.Return || stmt instanceof Stmt.Throw)) {
+                        inlineable[0] = false;
                     }
-                    return new Expr.ListExpr(elements);
                 }
-                
+
                 @Override
-                public Expr visitDictExpr(Expr.Dict expr) {
-                    List<Expr> keys = new ArrayList<>();
-                    List<Expr> values = new ArrayList<>();
-                    for (Expr key : expr.keys) {
-                        keys.add(transformExpression(key));
+                void visit(Expr expr) {
+                    callee.size++;
+                    if (expr instanceof Expr.Variable) {
+                        reads.add(((Expr.Variable) expr).name.lexeme);
+                    } else if (expr instanceof Expr.Assign) {
+                        bindLocal(((Expr.Assign) expr).name.lexeme);
+                    } else if (expr instanceof Expr.Lambda || expr instanceof Expr.Match
+                            || expr instanceof Expr.This) {
+                        inlineable[0] = false;
                     }
-                    for (Expr value : expr.values) {
-                        values.add(transformExpression(value));
-                    }
-                    return new Expr.Dict(keys, values);
                 }
-                
-                @Override
-                public Expr visitIndexExpr(Expr.Index expr) {
-                    Expr object = transformExpression(expr.object);
-                    Expr index = transformExpression(expr.index);
-                    return new Expr.Index(object, expr.bracket, index);
+
+                private void bindLocal(String name) {
+                    // Without a declaration, assigning a global updates it
+                    if (globalNames.contains(name) && !params.contains(name) && !callee.locals.contains(name)) {
+                        inlineable[0] = false;
+                    }
+                    callee.locals.add(name);
+                    callee.assigned.add(name);
                 }
-                
-                @Override
-                public Expr visitGetExpr(Expr.Get expr) {
-                    Expr object = transformExpression(expr.object);
-                    return new Expr.Get(object, expr.name);
+            }.statements(body);
+
+            if (!inlineable[0]) {
+                return null;
+            }
+
+            // A name first assigned in a nested block is local to that block,
+            // which a temporary shared by the whole body would not be
+            Set<String> declared = new HashSet<>(params);
+            for (Stmt stmt : body) {
+                Set<String> targets = new HashSet<>();
+                new AstScanner() {
+                    @Override
+                    void visit(Expr expr) {
+                        if (expr instanceof Expr.Assign) {
+                            targets.add(((Expr.Assign) expr).name.lexeme);
+                        }
+                    }
+                }.statement(stmt);
+                boolean nested = !(stmt instanceof Stmt.Expression || stmt instanceof Stmt.Var
+                                   || stmt instanceof Stmt.Return || stmt instanceof Stmt.Throw);
+                if (nested && !declared.containsAll(targets)) {
+                    return null;
                 }
-                
-                @Override
-                public Expr visitSetExpr(Expr.Set expr) {
-                    Expr object = transformExpression(expr.object);
-                    Expr value = transformExpression(expr.value);
-                    return new Expr.Set(object, expr.name, value);
+                declared.addAll(targets);
+                if (stmt instanceof Stmt.Var) {
+                    declared.add(((Stmt.Var) stmt).name.lexeme);
                 }
-                
-                @Override
-                public Expr visitIndexSetExpr(Expr.IndexSet expr) {
-                    Expr object = transformExpression(expr.object);
-                    Expr index = transformExpression(expr.index);
-                    Expr value = transformExpression(expr.value);
-                    return new Expr.IndexSet(object, expr.bracket, index, value);
+            }
+
+            reads.removeAll(callee.locals);
+            callee.freeNames.addAll(reads);
+            if (body.size() == 1 && body.get(0) instanceof Stmt.Return) {
+                Expr value = ((Stmt.Return) body.get(0)).value;
+                if (value != null && classifier.of(value).isPure()) {
+                    callee.result = value;
                 }
-                
-                @Override
-                public Expr visitSliceExpr(Expr.Slice expr) {
-                    Expr object = transformExpression(expr.object);
-                    Expr start = expr.start != null ? transformExpression(expr.start) : null;
-                    Expr end = expr.end != null ? transformExpression(expr.end) : null;
-                    return new Expr.Slice(object, expr.bracket, start, end);
+            }
+            return callee;
+        }
+
+        /**
+         * The callee's return expression with the arguments substituted for
+         * the parameters, or null if that would change what is evaluated.
+         * Arguments must be pure. One read more than once is evaluated at its
+         * first use, into a temporary the later uses read.
+         */
+        private Expr substitute(Callee callee, Expr.Call call, Region region) {
+            if (callee.result == null) {
+                return null;
+            }
+            Map<String, ParameterUse> uses = new HashMap<>();
+            countUses(callee.result, false, uses);
+
+            Map<String, Expr> arguments = new HashMap<>();
+            Map<String, Token> shared = new HashMap<>();
+            List<Token> temporaries = new ArrayList<>();
+            int temporaryMark = nextTemporary;
+            for (int i = 0; i < call.arguments.size(); i++) {
+                String param = callee.function.params.get(i).name.lexeme;
+                Expr argument = call.arguments.get(i);
+                arguments.put(param, argument);
+                if (argument instanceof Expr.Literal) {
+                    continue;
                 }
-                
-                // Simple expressions - return as-is
-                @Override
-                public Expr visitLiteralExpr(Expr.Literal expr) {
-                    return expr;
+                // A pure argument can still fail, so it must be evaluated
+                // whenever the call would have been
+                ParameterUse use = uses.get(param);
+                if (!classifier.of(argument).isPure() || use == null || use.firstConditional) {
+                    nextTemporary = temporaryMark;
+                    return null;
                 }
-                
-                @Override
-                public Expr visitVariableExpr(Expr.Variable expr) {
-                    return expr;
+                if (use.count > 1 && !(argument instanceof Expr.Variable || argument instanceof Expr.This)) {
+                    shared.put(param, newTemporary(temporaries, call.paren.line));
                 }
-                
+            }
+
+            Set<String> assigned = new HashSet<>();
+            Expr result = new AstRewriter(true) {
                 @Override
-                public Expr visitThisExpr(Expr.This expr) {
-                    return expr;
-                }
-                
-                @Override
-                public Expr visitLambdaExpr(Expr.Lambda expr) {
-                    // Don't inline across lambda boundaries
-                    return expr;
-                }
-                
-                @Override
-                public Expr visitMatchExpr(Expr.Match expr) {
-                    // Complex expression - skip for now
-                    return expr;
-                }
-                
-                // Type expressions - return as-is
-                @Override
-                public Expr visitTypeExpr(Expr.Type expr) {
-                    return expr;
-                }
-                
-                @Override
-                public Expr visitGenericTypeExpr(Expr.GenericType expr) {
-                    return expr;
-                }
-                
-                @Override
-                public Expr visitFunctionTypeExpr(Expr.FunctionType expr) {
-                    return expr;
-                }
-                
-                @Override
-                public Expr visitArrayTypeExpr(Expr.ArrayType expr) {
-                    return expr;
+                Expr replace(Expr expr) {
+                    if (!(expr instanceof Expr.Variable)) {
+                        return null;
+                    }
+                    String name = ((Expr.Variable) expr).name.lexeme;
+                    Expr argument = arguments.get(name);
+                    if (argument == null) {
+                        return null;
+                    }
+                    Token temporary = shared.get(name);
+                    if (temporary == null) {
+                        return new AstRewriter(true).expression(argument);
+                    }
+                    if (!assigned.add(name)) {
+                        return new Expr.Variable(temporary);
+                    }
+                    return new Expr.Grouping(new Expr.Assign(temporary, new AstRewriter(true).expression(argument)));
                 }
-            });
+            }.expression(callee.result);
+
+            region.temporaries.addAll(temporaries);
+            recordInlined(callee);
+            return result;
         }
-        
+
         /**
-         * Inline a function call by substituting the function body.
+         * Count the reads of each name in a pure expression, noting whether
+         * the first one in evaluation order is only evaluated sometimes.
          */
-        private Expr inlineFunction(String funcName, List<Expr> arguments) {
-            Stmt.Function function = functionDefinitions.get(funcName);
-            if (function == null) {
-                return null; // Should not happen if analysis is correct
-            }
-            
-            inlineDepth++;
-            try {
-                // Create parameter substitution map
-                Map<String, Expr> parameterMap = new HashMap<>();
-                for (int i = 0; i < function.params.size() && i < arguments.size(); i++) {
-                    String paramName = function.params.get(i).name.lexeme;
-                    Expr argValue = transformExpression(arguments.get(i));
-                    parameterMap.put(paramName, argValue);
-                }
-                
-                // Create inlined function body with parameter substitution
-                FunctionInliner inliner = new FunctionInliner(parameterMap);
-                List<Stmt> inlinedBody = new ArrayList<>();
-                
-                for (Stmt stmt : function.body) {
-                    Stmt inlinedStmt = inliner.inlineStatement(stmt);
-                    if (inlinedStmt != null) {
-                        inlinedBody.add(inlinedStmt);
-                    }
-                }
-                
-                // For simple functions that just return an expression, return that expression
-                if (inlinedBody.size() == 1 && inlinedBody.get(0) instanceof Stmt.Return) {
-                    Stmt.Return returnStmt = (Stmt.Return) inlinedBody.get(0);
-                    if (returnStmt.value != null) {
-                        // Successfully inlined! Return the inlined expression
-                        return returnStmt.value;
-                    }
+        private void countUses(Expr expr, boolean conditional, Map<String, ParameterUse> uses) {
+            if (expr instanceof Expr.Variable) {
+                ParameterUse use = uses.computeIfAbsent(((Expr.Variable) expr).name.lexeme,
+                                                        name -> new ParameterUse(conditional));
+                use.count++;
+            } else if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                countUses(binary.left, conditional, uses);
+                countUses(binary.right, conditional || binary.operator.type == QUESTION_QUESTION, uses);
+            } else if (expr instanceof Expr.Logical) {
+                countUses(((Expr.Logical) expr).left, conditional, uses);
+                countUses(((Expr.Logical) expr).right, true, uses);
+            } else if (expr instanceof Expr.Unary) {
+                countUses(((Expr.Unary) expr).right, conditional, uses);
+            } else if (expr instanceof Expr.Grouping) {
+                countUses(((Expr.Grouping) expr).expression, conditional, uses);
+            } else if (expr instanceof Expr.Get) {
+                countUses(((Expr.Get) expr).object, conditional, uses);
+            } else if (expr instanceof Expr.Index) {
+                countUses(((Expr.Index) expr).object, conditional, uses);
+                countUses(((Expr.Index) expr).index, conditional, uses);
+            } else if (expr instanceof Expr.Call) {
+                countUses(((Expr.Call) expr).callee, conditional, uses);
+                for (Expr argument : ((Expr.Call) expr).arguments) {
+                    countUses(argument, conditional, uses);
                 }
-                
-                // For more complex functions, we can't inline them yet
-                // Return null to indicate inlining failed
-                return null;
-                
-            } finally {
-                inlineDepth--;
             }
         }
-        
+
         /**
-         * Helper class to calculate function size in AST nodes.
+         * Rewrites a callee body so that its returns assign the result and
+         * the code after an early return is skipped. Without a done flag only
+         * returns that an if/else can route around are supported.
          */
-        private static class FunctionSizeCalculator {
-            private int size = 0;
-            
-            public int getSize() {
-                return size;
-            }
-            
-            public void calculateStatementSize(Stmt stmt) {
-                size++;
-                stmt.accept(new Stmt.Visitor<Void>() {
-                    @Override
-                    public Void visitExpressionStmt(Stmt.Expression stmt) {
-                        calculateExpressionSize(stmt.expression);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitVarStmt(Stmt.Var stmt) {
-                        if (stmt.initializer != null) {
-                            calculateExpressionSize(stmt.initializer);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitReturnStmt(Stmt.Return stmt) {
-                        if (stmt.value != null) {
-                            calculateExpressionSize(stmt.value);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitThrowStmt(Stmt.Throw stmt) {
-                        if (stmt.value != null) {
-                            calculateExpressionSize(stmt.value);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitIfStmt(Stmt.If stmt) {
-                        calculateExpressionSize(stmt.condition);
-                        calculateStatementSize(stmt.thenBranch);
-                        if (stmt.elseBranch != null) {
-                            calculateStatementSize(stmt.elseBranch);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitWhileStmt(Stmt.While stmt) {
-                        calculateExpressionSize(stmt.condition);
-                        calculateStatementSize(stmt.body);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitForStmt(Stmt.For stmt) {
-                        calculateExpressionSize(stmt.iterable);
-                        calculateStatementSize(stmt.body);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitBlockStmt(Stmt.Block stmt) {
-                        for (Stmt s : stmt.statements) {
-                            calculateStatementSize(s);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitFunctionStmt(Stmt.Function stmt) {
-                        for (Stmt s : stmt.body) {
-                            calculateStatementSize(s);
-                        }
+        private final class Lowering {
+            private final AstRewriter copier;
+            private final Token result;
+            private final Token done;
+
+            Lowering(AstRewriter copier, Token result, Token done) {
+                this.copier = copier;
+                this.result = result;
+                this.done = done;
+            }
+
+            List<Stmt> lowerBody(List<Stmt> body) {
+                List<Stmt> lowered = lower(body);
+                if (lowered == null) {
+                    return null;
+                }
+                List<Stmt> statements = new ArrayList<>();
+                if (done != null) {
+                    statements.add(assign(done, new Expr.Literal(false)));
+                }
+                // Falling off the end returns null
+                if (result != null && !alwaysExits(new Stmt.Block(body))) {
+                    statements.add(assign(result, new Expr.Literal(null)));
+                }
+                statements.addAll(lowered);
+                return statements;
+            }
+
+            private List<Stmt> lower(List<Stmt> statements) {
+                List<Stmt> lowered = new ArrayList<>();
+                for (int i = 0; i < statements.size(); i++) {
+                    Stmt stmt = statements.get(i);
+                    if (countReturns(Collections.singletonList(stmt)) == 0) {
+                        lowered.add(lowerDeclaration(copier.statement(stmt)));
+                        continue;
+                    }
+                    List<Stmt> returning = lowerReturning(stmt, statements.subList(i + 1, statements.size()));
+                    if (returning == null) {
                         return null;
                     }
-                    
-                    @Override
-                    public Void visitClassStmt(Stmt.Class stmt) {
-                        for (Stmt.Function method : stmt.methods) {
-                            calculateStatementSize(method);
-                        }
-                        return null;
+                    lowered.addAll(returning);
+                    break;
+                }
+                return lowered;
+            }
+
+            // A statement containing a return, followed by rest
+            private List<Stmt> lowerReturning(Stmt stmt, List<Stmt> rest) {
+                if (stmt instanceof Stmt.Return) {
+                    return returning(((Stmt.Return) stmt).value);
+                }
+                if (stmt instanceof Stmt.Block) {
+                    return lower(concat(((Stmt.Block) stmt).statements, rest));
+                }
+                if (stmt instanceof Stmt.If) {
+                    Stmt.If ifStmt = (Stmt.If) stmt;
+                    Expr condition = copier.expression(ifStmt.condition);
+                    List<Stmt> thenBody = Collections.singletonList(ifStmt.thenBranch);
+                    List<Stmt> elseBody = ifStmt.elseBranch != null
+                        ? Collections.singletonList(ifStmt.elseBranch) : Collections.emptyList();
+
+                    // The rest only runs after the branch that falls through
+                    if (alwaysExits(ifStmt.thenBranch)) {
+                        return branches(condition, lower(thenBody), lower(concat(elseBody, rest)), null);
                     }
-                    
-                    @Override
-                    public Void visitImportStmt(Stmt.Import stmt) {
-                        return null;
+                    if (ifStmt.elseBranch != null && alwaysExits(ifStmt.elseBranch)) {
+                        return branches(condition, lower(concat(thenBody, rest)), lower(elseBody), null);
                     }
-                    
-                    @Override
-                    public Void visitExportStmt(Stmt.Export stmt) {
-                        calculateStatementSize(stmt.declaration);
+                    if (!rest.isEmpty() && done == null) {
                         return null;
                     }
-                    
-                    @Override
-                    public Void visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) {
+                    return branches(condition, lower(thenBody), lower(elseBody), rest);
+                }
+                if (stmt instanceof Stmt.While && done != null) {
+                    Stmt.While whileStmt = (Stmt.While) stmt;
+                    List<Stmt> body = lower(Collections.singletonList(whileStmt.body));
+                    if (body == null) {
                         return null;
                     }
-                    
-                    @Override
-                    public Void visitTypeAliasStmt(Stmt.TypeAlias stmt) {
-                        // Type aliases are compile-time only, no optimization needed
+                    Expr condition = new Expr.Logical(notDone(), new Token(AND_AND, "&&", null, done.line),
+                                                      copier.expression(whileStmt.condition));
+                    List<Stmt> lowered = new ArrayList<>();
+                    lowered.add(new Stmt.While(condition, new Stmt.Block(body)));
+                    return guardRest(lowered, rest);
+                }
+                // A return inside a for loop cannot stop the iteration
+                return null;
+            }
+
+            private List<Stmt> branches(Expr condition, List<Stmt> thenBody, List<Stmt> elseBody, List<Stmt> rest) {
+                if (thenBody == null || elseBody == null) {
+                    return null;
+                }
+                List<Stmt> lowered = new ArrayList<>();
+                lowered.add(new Stmt.If(condition, new Stmt.Block(thenBody),
+                                        elseBody.isEmpty() ? null : new Stmt.Block(elseBody)));
+                return rest == null ? lowered : guardRest(lowered, rest);
+            }
+
+            // The statements after one that may have returned
+            private List<Stmt> guardRest(List<Stmt> lowered, List<Stmt> rest) {
+                if (!rest.isEmpty()) {
+                    List<Stmt> body = lower(rest);
+                    if (body == null) {
                         return null;
                     }
-                });
+                    lowered.add(new Stmt.If(notDone(), new Stmt.Block(body), null));
+                }
+                return lowered;
             }
-            
-            public void calculateExpressionSize(Expr expr) {
-                size++;
-                // Simplified - just count each expression as 1 node
-                // A more sophisticated version would traverse the expression tree
+
+            private List<Stmt> returning(Expr value) {
+                List<Stmt> lowered = new ArrayList<>();
+                if (result != null) {
+                    lowered.add(assign(result, value != null ? copier.expression(value) : new Expr.Literal(null)));
+                } else if (value != null && !(value instanceof Expr.Literal)) {
+                    lowered.add(new Stmt.Expression(copier.expression(value)));
+                }
+                if (done != null) {
+                    lowered.add(assign(done, new Expr.Literal(true)));
+                }
+                return lowered;
+            }
+
+            private Expr notDone() {
+                return new Expr.Unary(new Token(BANG, "!", null, done.line), new Expr.Variable(done));
             }
         }
-        
-        /**
-         * Helper class to detect recursive function calls.
-         */
-        private static class RecursionDetector {
-            private final String targetFunction;
-            
-            public RecursionDetector(String targetFunction) {
-                this.targetFunction = targetFunction;
-            }
-            
-            public boolean checkStatement(Stmt stmt) {
-                return stmt.accept(new Stmt.Visitor<Boolean>() {
-                    @Override
-                    public Boolean visitExpressionStmt(Stmt.Expression stmt) {
-                        return checkExpression(stmt.expression);
-                    }
-                    
-                    @Override
-                    public Boolean visitVarStmt(Stmt.Var stmt) {
-                        return stmt.initializer != null && checkExpression(stmt.initializer);
-                    }
-                    
-                    @Override
-                    public Boolean visitReturnStmt(Stmt.Return stmt) {
-                        return stmt.value != null && checkExpression(stmt.value);
-                    }
-                    
-                    @Override
-                    public Boolean visitThrowStmt(Stmt.Throw stmt) {
-                        return stmt.value != null && checkExpression(stmt.value);
-                    }
-                    
-                    @Override
-                    public Boolean visitIfStmt(Stmt.If stmt) {
-                        return checkExpression(stmt.condition) ||
-                               checkStatement(stmt.thenBranch) ||
-                               (stmt.elseBranch != null && checkStatement(stmt.elseBranch));
-                    }
-                    
-                    @Override
-                    public Boolean visitWhileStmt(Stmt.While stmt) {
-                        return checkExpression(stmt.condition) || checkStatement(stmt.body);
-                    }
-                    
-                    @Override
-                    public Boolean visitForStmt(Stmt.For stmt) {
-                        return checkExpression(stmt.iterable) || checkStatement(stmt.body);
-                    }
-                    
-                    @Override
-                    public Boolean visitBlockStmt(Stmt.Block stmt) {
-                        for (Stmt s : stmt.statements) {
-                            if (checkStatement(s)) return true;
-                        }
-                        return false;
-                    }
-                    
-                    @Override
-                    public Boolean visitFunctionStmt(Stmt.Function stmt) {
-                        for (Stmt s : stmt.body) {
-                            if (checkStatement(s)) return true;
-                        }
-                        return false;
-                    }
-                    
-                    @Override
-                    public Boolean visitClassStmt(Stmt.Class stmt) {
-                        for (Stmt.Function method : stmt.methods) {
-                            if (checkStatement(method)) return true;
-                        }
-                        return false;
-                    }
-                    
-                    @Override
-                    public Boolean visitImportStmt(Stmt.Import stmt) {
-                        return false;
-                    }
-                    
-                    @Override
-                    public Boolean visitExportStmt(Stmt.Export stmt) {
-                        return checkStatement(stmt.declaration);
-                    }
-                    
-                    @Override
-                    public Boolean visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) {
-                        return false;
-                    }
-                    
-                    @Override
-                    public Boolean visitTypeAliasStmt(Stmt.TypeAlias stmt) {
-                        // Type aliases are compile-time only, no optimization needed
-                        return false;
-                    }
-                });
+
+        private void recordInlined(Callee callee) {
+            inlinedCalls.merge(callee.function.name.lexeme, 1, Integer::sum);
+        }
+
+        private Token newTemporary(List<Token> temporaries, int line) {
+            Token temporary = new Token(IDENTIFIER, "__inl" + nextTemporary++, null, line);
+            temporaries.add(temporary);
+            return temporary;
+        }
+
+        private static Stmt assign(Token name, Expr value) {
+            return new Stmt.Expression(new Expr.Assign(name, value));
+        }
+
+        // The callee's locals are declared as temporaries in the caller, so
+        // its declarations only assign them
+        private static Stmt lowerDeclaration(Stmt stmt) {
+            if (stmt instanceof Stmt.Var) {
+                Stmt.Var var = (Stmt.Var) stmt;
+                return assign(var.name, var.initializer != null ? var.initializer : new Expr.Literal(null));
             }
-            
-            public boolean checkExpression(Expr expr) {
-                return expr.accept(new Expr.Visitor<Boolean>() {
-                    @Override
-                    public Boolean visitCallExpr(Expr.Call expr) {
-                        if (expr.callee instanceof Expr.Variable) {
-                            Expr.Variable var = (Expr.Variable) expr.callee;
-                            if (var.name.lexeme.equals(targetFunction)) {
-                                return true;
-                            }
-                        }
-                        
-                        // Check arguments for recursive calls
-                        for (Expr arg : expr.arguments) {
-                            if (checkExpression(arg)) return true;
-                        }
-                        
-                        return checkExpression(expr.callee);
-                    }
-                    
-                    @Override
-                    public Boolean visitBinaryExpr(Expr.Binary expr) {
-                        return checkExpression(expr.left) || checkExpression(expr.right);
-                    }
-                    
-                    @Override
-                    public Boolean visitUnaryExpr(Expr.Unary expr) {
-                        return checkExpression(expr.right);
-                    }
-                    
-                    @Override
-                    public Boolean visitGroupingExpr(Expr.Grouping expr) {
-                        return checkExpression(expr.expression);
-                    }
-                    
-                    @Override
-                    public Boolean visitLogicalExpr(Expr.Logical expr) {
-                        return checkExpression(expr.left) || checkExpression(expr.right);
+            return stmt;
+        }
+
+        private static List<Stmt> concat(List<Stmt> first, List<Stmt> second) {
+            List<Stmt> result = new ArrayList<>(first);
+            result.addAll(second);
+            return result;
+        }
+
+        private static int countReturns(List<Stmt> statements) {
+            int[] count = { 0 };
+            new AstScanner() {
+                @Override
+                void visit(Stmt stmt) {
+                    if (stmt instanceof Stmt.Return) {
+                        count[0]++;
                     }
-                    
-                    @Override
-                    public Boolean visitAssignExpr(Expr.Assign expr) {
-                        return checkExpression(expr.value);
+                }
+            }.statements(statements);
+            return count[0];
+        }
+
+        // Whether control never continues past the statement
+        private static boolean alwaysExits(Stmt stmt) {
+            if (stmt instanceof Stmt.Return || stmt instanceof Stmt.Throw) {
+                return true;
+            }
+            if (stmt instanceof Stmt.Block) {
+                for (Stmt statement : ((Stmt.Block) stmt).statements) {
+                    if (alwaysExits(statement)) {
+                        return true;
                     }
-                    
-                    // Other expressions types return false by default
-                    @Override public Boolean visitLiteralExpr(Expr.Literal expr) { return false; }
-                    @Override public Boolean visitVariableExpr(Expr.Variable expr) { return false; }
-                    @Override public Boolean visitThisExpr(Expr.This expr) { return false; }
-                    @Override public Boolean visitLambdaExpr(Expr.Lambda expr) { return false; }
-                    @Override public Boolean visitMatchExpr(Expr.Match expr) { return false; }
-                    @Override public Boolean visitListExpr(Expr.ListExpr expr) { return false; }
-                    @Override public Boolean visitDictExpr(Expr.Dict expr) { return false; }
-                    @Override public Boolean visitIndexExpr(Expr.Index expr) { return false; }
-                    @Override public Boolean visitGetExpr(Expr.Get expr) { return false; }
-                    @Override public Boolean visitSetExpr(Expr.Set expr) { return false; }
-                    @Override public Boolean visitIndexSetExpr(Expr.IndexSet expr) { return false; }
-                    @Override public Boolean visitSliceExpr(Expr.Slice expr) { return false; }
-                    @Override public Boolean visitTypeExpr(Expr.Type expr) { return false; }
-                    @Override public Boolean visitGenericTypeExpr(Expr.GenericType expr) { return false; }
-                    @Override public Boolean visitFunctionTypeExpr(Expr.FunctionType expr) { return false; }
-                    @Override public Boolean visitArrayTypeExpr(Expr.ArrayType expr) { return false; }
-                });
+                }
+                return false;
+            }
+            if (stmt instanceof Stmt.If) {
+                Stmt.If ifStmt = (Stmt.If) stmt;
+                return ifStmt.elseBranch != null && alwaysExits(ifStmt.thenBranch) && alwaysExits(ifStmt.elseBranch);
             }
+            return false;
         }
-        
-        /**
-         * Helper class to count function calls.
-         */
-        private class CallCounter {
-            public void countCalls(Stmt stmt) {
-                stmt.accept(new Stmt.Visitor<Void>() {
-                    @Override
-                    public Void visitExpressionStmt(Stmt.Expression stmt) {
-                        countCallsInExpression(stmt.expression);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitVarStmt(Stmt.Var stmt) {
-                        if (stmt.initializer != null) {
-                            countCallsInExpression(stmt.initializer);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitReturnStmt(Stmt.Return stmt) {
-                        if (stmt.value != null) {
-                            countCallsInExpression(stmt.value);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitThrowStmt(Stmt.Throw stmt) {
-                        if (stmt.value != null) {
-                            countCallsInExpression(stmt.value);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitIfStmt(Stmt.If stmt) {
-                        countCallsInExpression(stmt.condition);
-                        countCalls(stmt.thenBranch);
-                        if (stmt.elseBranch != null) {
-                            countCalls(stmt.elseBranch);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitWhileStmt(Stmt.While stmt) {
-                        countCallsInExpression(stmt.condition);
-                        countCalls(stmt.body);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitForStmt(Stmt.For stmt) {
-                        countCallsInExpression(stmt.iterable);
-                        countCalls(stmt.body);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitBlockStmt(Stmt.Block stmt) {
-                        for (Stmt s : stmt.statements) {
-                            countCalls(s);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitFunctionStmt(Stmt.Function stmt) {
-                        for (Stmt s : stmt.body) {
-                            countCalls(s);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitClassStmt(Stmt.Class stmt) {
-                        for (Stmt.Function method : stmt.methods) {
-                            countCalls(method);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitImportStmt(Stmt.Import stmt) {
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitExportStmt(Stmt.Export stmt) {
-                        countCalls(stmt.declaration);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) {
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitTypeAliasStmt(Stmt.TypeAlias stmt) {
-                        // Type aliases are compile-time only, no optimization needed
-                        return null;
-                    }
-                });
+
+        private static boolean isAnyType(Expr type) {
+            return type == null || (type instanceof Expr.Type && ((Expr.Type) type).name.lexeme.equals("Any"));
+        }
+
+        // Whether the argument is known to pass the parameter's type check
+        private static boolean satisfiesType(Expr type, Expr argument) {
+            if (isAnyType(type)) {
+                return true;
             }
-            
-            private void countCallsInExpression(Expr expr) {
-                expr.accept(new Expr.Visitor<Void>() {
-                    @Override
-                    public Void visitCallExpr(Expr.Call expr) {
-                        if (expr.callee instanceof Expr.Variable) {
-                            Expr.Variable var = (Expr.Variable) expr.callee;
-                            String funcName = var.name.lexeme;
-                            callCounts.put(funcName, callCounts.getOrDefault(funcName, 0) + 1);
-                        }
-                        
-                        // Count calls in arguments
-                        for (Expr arg : expr.arguments) {
-                            countCallsInExpression(arg);
-                        }
-                        
-                        countCallsInExpression(expr.callee);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitBinaryExpr(Expr.Binary expr) {
-                        countCallsInExpression(expr.left);
-                        countCallsInExpression(expr.right);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitUnaryExpr(Expr.Unary expr) {
-                        countCallsInExpression(expr.right);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitGroupingExpr(Expr.Grouping expr) {
-                        countCallsInExpression(expr.expression);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitLogicalExpr(Expr.Logical expr) {
-                        countCallsInExpression(expr.left);
-                        countCallsInExpression(expr.right);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitAssignExpr(Expr.Assign expr) {
-                        countCallsInExpression(expr.value);
-                        return null;
-                    }
-                    
-                    // Other expression types don't contain calls
-                    @Override public Void visitLiteralExpr(Expr.Literal expr) { return null; }
-                    @Override public Void visitVariableExpr(Expr.Variable expr) { return null; }
-                    @Override public Void visitThisExpr(Expr.This expr) { return null; }
-                    @Override public Void visitLambdaExpr(Expr.Lambda expr) { return null; }
-                    @Override public Void visitMatchExpr(Expr.Match expr) { return null; }
-                    @Override public Void visitListExpr(Expr.ListExpr expr) { return null; }
-                    @Override public Void visitDictExpr(Expr.Dict expr) { return null; }
-                    @Override public Void visitIndexExpr(Expr.Index expr) { return null; }
-                    @Override public Void visitGetExpr(Expr.Get expr) { return null; }
-                    @Override public Void visitSetExpr(Expr.Set expr) { return null; }
-                    @Override public Void visitIndexSetExpr(Expr.IndexSet expr) { return null; }
-                    @Override public Void visitSliceExpr(Expr.Slice expr) { return null; }
-                    @Override public Void visitTypeExpr(Expr.Type expr) { return null; }
-                    @Override public Void visitGenericTypeExpr(Expr.GenericType expr) { return null; }
-                    @Override public Void visitFunctionTypeExpr(Expr.FunctionType expr) { return null; }
-                    @Override public Void visitArrayTypeExpr(Expr.ArrayType expr) { return null; }
-                });
+            if (!(type instanceof Expr.Type) || !(argument instanceof Expr.Literal)) {
+                return false;
+            }
+            Object value = ((Expr.Literal) argument).value;
+            switch (((Expr.Type) type).name.lexeme) {
+                case "number": return value instanceof Double;
+                case "string": return value instanceof String;
+                case "boolean": return value instanceof Boolean;
+                default: return false;
             }
         }
-        
-        /**
-         * Helper class to perform parameter substitution when inlining.
-         */
-        private static class FunctionInliner {
-            private final Map<String, Expr> parameterMap;
-            
-            public FunctionInliner(Map<String, Expr> parameterMap) {
-                this.parameterMap = parameterMap;
-            }
-            
-            public Stmt inlineStatement(Stmt stmt) {
-                return stmt.accept(new Stmt.Visitor<Stmt>() {
-                    @Override
-                    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
-                        Expr inlinedExpr = inlineExpression(stmt.expression);
-                        return new Stmt.Expression(inlinedExpr);
-                    }
-                    
-                    @Override
-                    public Stmt visitVarStmt(Stmt.Var stmt) {
-                        Expr inlinedInitializer = stmt.initializer != null ? 
-                            inlineExpression(stmt.initializer) : null;
-                        return new Stmt.Var(stmt.name, stmt.type, inlinedInitializer, stmt.isImmutable);
-                    }
-                    
-                    @Override
-                    public Stmt visitReturnStmt(Stmt.Return stmt) {
-                        Expr inlinedValue = stmt.value != null ? 
-                            inlineExpression(stmt.value) : null;
-                        return new Stmt.Return(stmt.keyword, inlinedValue);
-                    }
-                    
-                    @Override
-                    public Stmt visitThrowStmt(Stmt.Throw stmt) {
-                        Expr inlinedValue = stmt.value != null ? 
-                            inlineExpression(stmt.value) : null;
-                        return new Stmt.Throw(stmt.keyword, inlinedValue);
-                    }
-                    
-                    @Override
-                    public Stmt visitIfStmt(Stmt.If stmt) {
-                        Expr inlinedCondition = inlineExpression(stmt.condition);
-                        Stmt inlinedThen = inlineStatement(stmt.thenBranch);
-                        Stmt inlinedElse = stmt.elseBranch != null ? 
-                            inlineStatement(stmt.elseBranch) : null;
-                        return new Stmt.If(inlinedCondition, inlinedThen, inlinedElse);
-                    }
-                    
-                    @Override
-                    public Stmt visitWhileStmt(Stmt.While stmt) {
-                        Expr inlinedCondition = inlineExpression(stmt.condition);
-                        Stmt inlinedBody = inlineStatement(stmt.body);
-                        return new Stmt.While(inlinedCondition, inlinedBody);
-                    }
-                    
-                    @Override
-                    public Stmt visitForStmt(Stmt.For stmt) {
-                        Expr inlinedIterable = inlineExpression(stmt.iterable);
-                        Stmt inlinedBody = inlineStatement(stmt.body);
-                        return new Stmt.For(stmt.variable, inlinedIterable, inlinedBody);
-                    }
-                    
-                    @Override
-                    public Stmt visitBlockStmt(Stmt.Block stmt) {
-                        List<Stmt> inlinedStatements = new ArrayList<>();
-                        for (Stmt s : stmt.statements) {
-                            inlinedStatements.add(inlineStatement(s));
-                        }
-                        return new Stmt.Block(inlinedStatements);
-                    }
-                    
-                    @Override
-                    public Stmt visitFunctionStmt(Stmt.Function stmt) {
-                        // Don't inline nested functions for simplicity
-                        return stmt;
-                    }
-                    
-                    @Override
-                    public Stmt visitClassStmt(Stmt.Class stmt) {
-                        return stmt;
-                    }
-                    
-                    @Override
-                    public Stmt visitImportStmt(Stmt.Import stmt) {
-                        return stmt;
-                    }
-                    
-                    @Override
-                    public Stmt visitExportStmt(Stmt.Export stmt) {
-                        Stmt inlinedDeclaration = inlineStatement(stmt.declaration);
-                        return new Stmt.Export(inlinedDeclaration);
-                    }
-                    
-                    @Override
-                    public Stmt visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) {
-                        return stmt;
-                    }
-                    
-                    @Override
-                    public Stmt visitTypeAliasStmt(Stmt.TypeAlias stmt) {
-                        // Type aliases are compile-time only, no optimization needed
-                        return stmt;
-                    }
-                });
+
+        private static boolean isDeclaration(Stmt stmt) {
+            return stmt instanceof Stmt.Function || stmt instanceof Stmt.Class
+                || stmt instanceof Stmt.Import || stmt instanceof Stmt.TypeAlias
+                || stmt instanceof Stmt.ExportIdentifier;
+        }
+
+        private static Stmt unwrapExport(Stmt stmt) {
+            return stmt instanceof Stmt.Export ? ((Stmt.Export) stmt).declaration : stmt;
+        }
+
+        // The names a match pattern may bind
+        private static Set<String> patternNames(Expr pattern) {
+            Set<String> names = new HashSet<>();
+            if (pattern == null) {
+                return names;
             }
-            
-            public Expr inlineExpression(Expr expr) {
-                return expr.accept(new Expr.Visitor<Expr>() {
-                    @Override
-                    public Expr visitVariableExpr(Expr.Variable expr) {
-                        String varName = expr.name.lexeme;
-                        if (parameterMap.containsKey(varName)) {
-                            return parameterMap.get(varName);
-                        }
-                        return expr;
-                    }
-                    
-                    @Override
-                    public Expr visitBinaryExpr(Expr.Binary expr) {
-                        Expr left = inlineExpression(expr.left);
-                        Expr right = inlineExpression(expr.right);
-                        return new Expr.Binary(left, expr.operator, right);
-                    }
-                    
-                    @Override
-                    public Expr visitUnaryExpr(Expr.Unary expr) {
-                        Expr right = inlineExpression(expr.right);
-                        return new Expr.Unary(expr.operator, right);
-                    }
-                    
-                    @Override
-                    public Expr visitCallExpr(Expr.Call expr) {
-                        Expr callee = inlineExpression(expr.callee);
-                        List<Expr> args = new ArrayList<>();
-                        for (Expr arg : expr.arguments) {
-                            args.add(inlineExpression(arg));
-                        }
-                        return new Expr.Call(callee, expr.paren, args);
-                    }
-                    
-                    @Override
-                    public Expr visitGroupingExpr(Expr.Grouping expr) {
-                        Expr expression = inlineExpression(expr.expression);
-                        return new Expr.Grouping(expression);
-                    }
-                    
-                    @Override
-                    public Expr visitLogicalExpr(Expr.Logical expr) {
-                        Expr left = inlineExpression(expr.left);
-                        Expr right = inlineExpression(expr.right);
-                        return new Expr.Logical(left, expr.operator, right);
-                    }
-                    
-                    @Override
-                    public Expr visitAssignExpr(Expr.Assign expr) {
-                        Expr value = inlineExpression(expr.value);
-                        return new Expr.Assign(expr.name, value);
-                    }
-                    
-                    // Simple expressions - return as-is
-                    @Override
-                    public Expr visitLiteralExpr(Expr.Literal expr) {
-                        return expr;
-                    }
-                    
-                    @Override
-                    public Expr visitThisExpr(Expr.This expr) {
-                        return expr;
-                    }
-                    
-                    @Override
-                    public Expr visitLambdaExpr(Expr.Lambda expr) {
-                        return expr;
-                    }
-                    
-                    @Override
-                    public Expr visitMatchExpr(Expr.Match expr) {
-                        return expr;
-                    }
-                    
-                    @Override
-                    public Expr visitListExpr(Expr.ListExpr expr) {
-                        List<Expr> elements = new ArrayList<>();
-                        for (Expr element : expr.elements) {
-                            elements.add(inlineExpression(element));
-                        }
-                        return new Expr.ListExpr(elements);
-                    }
-                    
-                    @Override
-                    public Expr visitDictExpr(Expr.Dict expr) {
-                        List<Expr> keys = new ArrayList<>();
-                        List<Expr> values = new ArrayList<>();
-                        for (Expr key : expr.keys) {
-                            keys.add(inlineExpression(key));
-                        }
-                        for (Expr value : expr.values) {
-                            values.add(inlineExpression(value));
-                        }
-                        return new Expr.Dict(keys, values);
-                    }
-                    
-                    @Override
-                    public Expr visitIndexExpr(Expr.Index expr) {
-                        Expr object = inlineExpression(expr.object);
-                        Expr index = inlineExpression(expr.index);
-                        return new Expr.Index(object, expr.bracket, index);
-                    }
-                    
-                    @Override
-                    public Expr visitGetExpr(Expr.Get expr) {
-                        Expr object = inlineExpression(expr.object);
-                        return new Expr.Get(object, expr.name);
-                    }
-                    
-                    @Override
-                    public Expr visitSetExpr(Expr.Set expr) {
-                        Expr object = inlineExpression(expr.object);
-                        Expr value = inlineExpression(expr.value);
-                        return new Expr.Set(object, expr.name, value);
-                    }
-                    
-                    @Override
-                    public Expr visitIndexSetExpr(Expr.IndexSet expr) {
-                        Expr object = inlineExpression(expr.object);
-                        Expr index = inlineExpression(expr.index);
-                        Expr value = inlineExpression(expr.value);
-                        return new Expr.IndexSet(object, expr.bracket, index, value);
-                    }
-                    
-                    @Override
-                    public Expr visitSliceExpr(Expr.Slice expr) {
-                        Expr object = inlineExpression(expr.object);
-                        Expr start = expr.start != null ? inlineExpression(expr.start) : null;
-                        Expr end = expr.end != null ? inlineExpression(expr.end) : null;
-                        return new Expr.Slice(object, expr.bracket, start, end);
-                    }
-                    
-                    // Type expressions - return as-is
-                    @Override
-                    public Expr visitTypeExpr(Expr.Type expr) {
-                        return expr;
-                    }
-                    
-                    @Override
-                    public Expr visitGenericTypeExpr(Expr.GenericType expr) {
-                        return expr;
-                    }
-                    
-                    @Override
-                    public Expr visitFunctionTypeExpr(Expr.FunctionType expr) {
-                        return expr;
-                    }
-                    
-                    @Override
-                    public Expr visitArrayTypeExpr(Expr.ArrayType expr) {
-                        return expr;
+            new AstScanner() {
+                @Override
+                void visit(Expr expr) {
+                    if (expr instanceof Expr.Variable) {
+                        names.add(((Expr.Variable) expr).name.lexeme);
                     }
-                });
+                }
+            }.expression(pattern);
+            return names;
+        }
+    }
+
+    /**
+     * A function whose body may be copied into its callers.
+     */
+    private static final class Callee {
+        final Stmt.Function function;
+        final List<Stmt> body;
+        final Set<String> locals = new HashSet<>();     // Parameters and the names the body binds
+        final Set<String> assigned = new HashSet<>();   // Names the body assigns or declares
+        final Set<String> freeNames = new HashSet<>();  // Globals and built-ins the body reads
+        int size = 0;                                   // AST nodes in the body
+        Expr result;                                    // The body's only statement returns this pure value
+
+        Callee(Stmt.Function function, List<Stmt> body) {
+            this.function = function;
+            this.body = body;
+        }
+    }
+
+    /**
+     * The reads of a parameter in a return expression.
+     */
+    private static final class ParameterUse {
+        final boolean firstConditional;
+        int count = 0;
+
+        ParameterUse(boolean firstConditional) {
+            this.firstConditional = firstConditional;
+        }
+    }
+
+    /**
+     * A function or lambda body, or the top level, that calls are inlined
+     * into. Its temporaries are declared at its top.
+     */
+    private static final class Region {
+        static final Region GLOBAL = new Region(Collections.emptySet(), false);
+
+        final Set<String> shadowed;   // Names that may hide a global here
+        final boolean inFunction;
+        final List<Token> temporaries = new ArrayList<>();
+
+        Region(Set<String> shadowed, boolean inFunction) {
+            this.shadowed = shadowed;
+            this.inFunction = inFunction;
+        }
+
+        List<Stmt> declare(List<Stmt> body) {
+            if (temporaries.isEmpty()) {
+                return body;
             }
+            List<Stmt> result = new ArrayList<>();
+            for (Token temporary : temporaries) {
+                result.add(new Stmt.Var(temporary, null, null, false));
+            }
+            result.addAll(body);
+            return result;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,304 @@
+package com.thorn;
+
+import java.util.*;
+
+/**
+ * Analysis pass that finds the @immut bindings holding a constant.
+ * This is an analysis pass that records, for every name declared at the
+ * top of the program with @immut and an initializer that folds to a
+ * number, string, boolean or null:
+ * - The value, when nothing else in the program binds or assigns the
+ *   name and nothing reads it before the declaration
+ * - Likewise the values of constants imported by name or with a plain
+ *   import, found by applying the same rules to the module that
+ *   exports them
+ *
+ * Such a name holds the same value wherever the program can read it, so
+ * later passes may substitute the value for every read. Initializers may
+ * use constants declared before them. The result is cached as
+ * immutable-constants. For --vm the same constants are handed to
+ * SimpleCompiler.
+ */
+public class ImmutableAnalysisPass extends OptimizationPass {
+
+    @Override
+    public String getName() {
+        return "immutable-analysis";
+    }
+
+    @Override
+    public PassType getType() {
+        return PassType.ANALYSIS;
+    }
+
+    @Override
+    public OptimizationLevel getMinimumLevel() {
+        return OptimizationLevel.O1;
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Stmt> optimize(List<Stmt> statements, OptimizationContext context) {
+        if (context.isDebugMode()) {
+            System.out.println("=== Immutable Analysis Pass ===");
+        }
+
+        Map<String, Object> constants = findConstants(statements, context.getModuleSystem());
+        context.cacheAnalysis("immutable-constants", constants);
+
+        if (context.isDebugMode()) {
+            System.out.println("  Constants found: " + constants.size());
+        }
+
+        // Analysis pass - returns statements unchanged
+        return statements;
+    }
+
+    /**
+     * The constants cached by this pass, or none when it has not run.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> constants(OptimizationContext context) {
+        Map<String, Object> constants = context.getCachedAnalysis("immutable-constants", Map.class);
+        return constants != null ? constants : Collections.emptyMap();
+    }
+
+    /**
+     * The @immut bindings of a program that hold a constant, by name.
+     * Imports are only followed when modules is not null.
+     */
+    public static Map<String, Object> findConstants(List<Stmt> statements, ModuleSystem modules) {
+        return new Finder(modules).constants(statements);
+    }
+
+    /**
+     * How often each name is bound or assigned anywhere in a program, or
+     * null when a plain import binds names that cannot be known. The names
+     * bound outside any function are added to topLevel.
+     */
+    static Map<String, Integer> bindingCounts(List<Stmt> statements, ModuleSystem modules, Set<String> topLevel) {
+        Map<String, Integer> bindings = new HashMap<>();
+        return new Finder(modules).countBindings(statements, bindings, topLevel) ? bindings : null;
+    }
+
+    private static class Finder {
+        private final ModuleSystem modules;
+        private final Map<String, List<Stmt>> parsedModules = new HashMap<>();
+        private final Map<String, Map<String, Object>> exportsByModule = new HashMap<>();
+        private final Set<String> visiting = new HashSet<>();
+
+        Finder(ModuleSystem modules) {
+            this.modules = modules;
+        }
+
+        Map<String, Object> constants(List<Stmt> statements) {
+            Map<String, Integer> bindings = new HashMap<>();
+            if (!countBindings(statements, bindings, new HashSet<>())) {
+                // A plain import of a module we cannot read may bind anything
+                return Collections.emptyMap();
+            }
+
+            Map<String, Object> constants = new LinkedHashMap<>();
+            Set<String> read = new HashSet<>();
+            for (Stmt stmt : statements) {
+                if (stmt instanceof Stmt.Export) {
+                    stmt = ((Stmt.Export) stmt).declaration;
+                }
+                if (stmt instanceof Stmt.Var && ((Stmt.Var) stmt).isImmutable) {
+                    Stmt.Var var = (Stmt.Var) stmt;
+                    String name = var.name.lexeme;
+                    read.addAll(readNames(Collections.singletonList(stmt)));
+                    if (var.initializer != null && bindings.get(name) == 1 && !read.contains(name)) {
+                        Expr value = ConstantFoldingPass.fold(var.initializer, constants);
+                        if (value instanceof Expr.Literal && isScalar(((Expr.Literal) value).value)) {
+                            constants.put(name, ((Expr.Literal) value).value);
+                        }
+                    }
+                } else if (stmt instanceof Stmt.Import) {
+                    Stmt.Import importStmt = (Stmt.Import) stmt;
+                    Map<String, Object> exported = exports(importStmt.module.lexeme);
+                    if (importStmt.names == null) {
+                        for (Map.Entry<String, Object> entry : exported.entrySet()) {
+                            if (bindings.get(entry.getKey()) == 1 && !read.contains(entry.getKey())) {
+                                constants.put(entry.getKey(), entry.getValue());
+                            }
+                        }
+                    } else {
+                        for (Token name : importStmt.names) {
+                            if (exported.containsKey(name.lexeme) && bindings.get(name.lexeme) == 1
+                                    && !read.contains(name.lexeme)) {
+                                constants.put(name.lexeme, exported.get(name.lexeme));
+                            }
+                        }
+                    }
+                } else {
+                    read.addAll(readNames(Collections.singletonList(stmt)));
+                }
+            }
+            return Collections.unmodifiableMap(constants);
+        }
+
+        // Counts how often each name is bound or assigned anywhere in the
+        // program and collects those bound outside functions; false when a
+        // plain import binds names we cannot know
+        private boolean countBindings(List<Stmt> statements, Map<String, Integer> bindings, Set<String> topLevel) {
+            boolean[] known = {true};
+            new AstScanner() {
+                // Parameters are bound inside their function, so they are
+                // counted directly
+                private void bind(String name) {
+                    bindings.merge(name, 1, Integer::sum);
+                    if (functionDepth == 0) {
+                        topLevel.add(name);
+                    }
+                }
+
+                @Override
+                void visit(Stmt stmt) {
+                    Token name = AstScanner.boundName(stmt);
+                    if (name != null) {
+                        bind(name.lexeme);
+                    }
+                    if (stmt instanceof Stmt.Function) {
+                        for (Stmt.Parameter param : ((Stmt.Function) stmt).params) {
+                            bindings.merge(param.name.lexeme, 1, Integer::sum);
+                        }
+                    } else if (stmt instanceof Stmt.Class) {
+                        for (Stmt.Function method : ((Stmt.Class) stmt).methods) {
+                            for (Stmt.Parameter param : method.params) {
+                                bindings.merge(param.name.lexeme, 1, Integer::sum);
+                            }
+                        }
+                    } else if (stmt instanceof Stmt.Import) {
+                        Stmt.Import importStmt = (Stmt.Import) stmt;
+                        if (importStmt.names != null) {
+                            for (Token imported : importStmt.names) {
+                                bind(imported.lexeme);
+                            }
+                        } else {
+                            Set<String> names = importedNames(importStmt.module.lexeme);
+                            if (names == null) {
+                                known[0] = false;
+                            } else {
+                                for (String imported : names) {
+                                    bind(imported);
+                                }
+                            }
+                        }
+                    }
+                }
+
+                @Override
+                void visit(Expr expr) {
+                    if (expr instanceof Expr.Assign) {
+                        bind(((Expr.Assign) expr).name.lexeme);
+                    } else if (expr instanceof Expr.Lambda) {
+                        for (Token param : ((Expr.Lambda) expr).params) {
+                            bindings.merge(param.lexeme, 1, Integer::sum);
+                        }
+                    } else if (expr instanceof Expr.Match) {
+                        for (Expr.Match.Case matchCase : ((Expr.Match) expr).cases) {
+                            String name = patternBinding(matchCase.pattern);
+                            if (name != null) {
+                                bind(name);
+                            }
+                        }
+                    }
+                }
+            }.statements(statements);
+            return known[0];
+        }
+
+        // The constants a module exports, by name; none when it cannot be read
+        private Map<String, Object> exports(String modulePath) {
+            Map<String, Object> exported = exportsByModule.get(modulePath);
+            if (exported != null) {
+                return exported;
+            }
+            if (!visiting.add(modulePath)) {
+                // Modules importing each other fail when they run
+                return Collections.emptyMap();
+            }
+            try {
+                exported = Collections.emptyMap();
+                List<Stmt> statements = parse(modulePath);
+                if (statements != null) {
+                    exported = new LinkedHashMap<>(constants(statements));
+                    exported.keySet().retainAll(exportedNames(statements));
+                }
+                exportsByModule.put(modulePath, exported);
+                return exported;
+            } finally {
+                visiting.remove(modulePath);
+            }
+        }
+
+        // The names a plain import of a module binds, or null when it cannot be read
+        private Set<String> importedNames(String modulePath) {
+            List<Stmt> statements = parse(modulePath);
+            if (statements != null) {
+                return exportedNames(statements);
+            }
+            Map<String, Object> stdlib = modules != null ? modules.stdlibExports(modulePath) : null;
+            return stdlib != null ? stdlib.keySet() : null;
+        }
+
+        private List<Stmt> parse(String modulePath) {
+            if (modules == null) {
+                return null;
+            }
+            if (!parsedModules.containsKey(modulePath)) {
+                parsedModules.put(modulePath, modules.parseModule(modulePath));
+            }
+            return parsedModules.get(modulePath);
+        }
+    }
+
+    private static Set<String> exportedNames(List<Stmt> statements) {
+        Set<String> names = new HashSet<>();
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.Export) {
+                Token name = AstScanner.boundName(((Stmt.Export) stmt).declaration);
+                if (name != null) {
+                    names.add(name.lexeme);
+                }
+            } else if (stmt instanceof Stmt.ExportIdentifier) {
+                names.add(((Stmt.ExportIdentifier) stmt).name.lexeme);
+            }
+        }
+        return names;
+    }
+
+    // Every variable a statement reads, including in the bodies it declares
+    static Set<String> readNames(List<Stmt> statements) {
+        Set<String> names = new HashSet<>();
+        new AstScanner() {
+            @Override
+            void visit(Expr expr) {
+                if (expr instanceof Expr.Variable) {
+                    names.add(((Expr.Variable) expr).name.lexeme);
+                }
+            }
+        }.statements(statements);
+        return names;
+    }
+
+    // The variable an Ok(x) or Error(x) pattern binds
+    private static String patternBinding(Expr pattern) {
+        if (pattern instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) pattern;
+            if (call.arguments.size() == 1 && call.arguments.get(0) instanceof Expr.Variable) {
+                return ((Expr.Variable) call.arguments.get(0)).name.lexeme;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isScalar(Object value) {
+        return value == null || value instanceof Double || value instanceof String || value instanceof Boolean;
+    }
+}
@@ -1,7 +1,12 @@
 package com.thorn;
 
+import com.thorn.stdlib.Bytes;
+import com.thorn.stdlib.TypedArray;
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -14,38 +19,84 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     Object returnValue = null;
     boolean hasReturned = false;
     
+    // Function whose body is executing; null at top level and inside match
+    // blocks, where a return does not leave a function
+    ThornFunction currentFunction = null;
+    
+    // Set by a return statement whose value is a call, and cleared by that
+    // call as soon as it starts; see visitCallExpr
+    private boolean tailPosition = false;
+    
     // Track if we're in a Result context for division by zero handling
     private boolean inResultContext = false;
+    
+    // Generator whose body is executing on this thread, if any
+    private ThornGenerator generator = null;
+    
+    // Decision tables for match expressions, built on first evaluation
+    private final Map<Expr.Match, MatchPlan> matchPlans = new IdentityHashMap<>();
+    
+    // Promotes hot functions to bytecode
+    final TieredExecution tiers = new TieredExecution(this);
+    
+    // Records calls, branches, loops and operand types for --profile-out;
+    // null when the run is not profiled
+    ExecutionProfile profile = null;
+    
+    // Statements left to run before StepLimitExceeded stops the program;
+    // only limited while the optimizer evaluates calls at compile time
+    long stepsLeft = Long.MAX_VALUE;
 
     Interpreter() {
         this.moduleSystem = new ModuleSystem(this);
         
         // Add built-in print function
-        globals.define("print", new JavaFunction("print", 1, (interpreter, arguments) -> {
-            System.out.println(stringify(arguments.get(0)));
+        globals.define("print", JavaFunction.unary("print", (interpreter, value) -> {
+            System.out.println(stringify(value));
             return null;
         }), false);
 
         // Add built-in clock function for benchmarking
-        globals.define("clock", new JavaFunction("clock", 0, (interpreter, arguments) -> {
+        globals.define("clock", JavaFunction.nullary("clock", interpreter -> {
             return (double) System.currentTimeMillis();
         }), false);
         
+        // Add built-in range function: range(end), range(start, end) or
+        // range(start, end, step), computed lazily
+        globals.define("range", new JavaFunction("range", -1, (interpreter, arguments) -> {
+            if (arguments.isEmpty() || arguments.size() > 3) {
+                throw new Thorn.RuntimeError(null, "range() takes 1 to 3 arguments but got " + arguments.size() + ".");
+            }
+            for (Object argument : arguments) {
+                if (!(argument instanceof Double)) {
+                    throw new Thorn.RuntimeError(null, "range() arguments must be numbers.");
+                }
+            }
+            double start = arguments.size() == 1 ? 0 : (Double) arguments.get(0);
+            double end = (Double) arguments.get(arguments.size() == 1 ? 0 : 1);
+            double step = arguments.size() == 3 ? (Double) arguments.get(2) : 1;
+            try {
+                return ThornRange.of(start, end, step);
+            } catch (IllegalArgumentException e) {
+                throw new Thorn.RuntimeError(null, e.getMessage());
+            }
+        }), false);
+        
         // Add built-in Ok constructor for Result type
-        globals.define("Ok", new JavaFunction("Ok", 1, (interpreter, arguments) -> {
+        globals.define("Ok", JavaFunction.unary("Ok", (interpreter, value) -> {
             interpreter.inResultContext = true;
             try {
-                return ThornResult.ok(arguments.get(0));
+                return ThornResult.ok(value);
             } finally {
                 interpreter.inResultContext = false;
             }
         }), false);
         
         // Add built-in Error constructor for Result type
-        globals.define("Error", new JavaFunction("Error", 1, (interpreter, arguments) -> {
+        globals.define("Error", JavaFunction.unary("Error", (interpreter, value) -> {
             interpreter.inResultContext = true;
             try {
-                return ThornResult.error(arguments.get(0));
+                return ThornResult.error(value);
             } finally {
                 interpreter.inResultContext = false;
             }
@@ -55,6 +106,55 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private boolean isInResultContext() {
         return inResultContext;
     }
+    
+    /**
+     * Where execution is: the fields a generator and its consumer each
+     * need their own copy of, swapped by ThornGenerator at every switch.
+     */
+    static final class ExecutionState {
+        private Environment environment;
+        private Object returnValue;
+        private boolean hasReturned;
+        private ThornFunction currentFunction;
+        private boolean inResultContext;
+        private ThornGenerator generator;
+    }
+    
+    void saveState(ExecutionState state) {
+        state.environment = environment;
+        state.returnValue = returnValue;
+        state.hasReturned = hasReturned;
+        state.currentFunction = currentFunction;
+        state.inResultContext = inResultContext;
+        state.generator = generator;
+    }
+    
+    void restoreState(ExecutionState state) {
+        environment = state.environment;
+        returnValue = state.returnValue;
+        hasReturned = state.hasReturned;
+        currentFunction = state.currentFunction;
+        inResultContext = state.inResultContext;
+        generator = state.generator;
+    }
+    
+    /**
+     * Run a generator function's body on the generator's own thread. The
+     * function's return value is discarded, but a call in return position
+     * still runs.
+     */
+    void runGenerator(ThornGenerator generator, ThornFunction function, Environment environment) {
+        this.generator = generator;
+        this.currentFunction = function;
+        this.returnValue = null;
+        this.hasReturned = false;
+        this.inResultContext = false;
+        executeBlock(function.getBody(), environment);
+        if (returnValue instanceof ThornFunction.TailCall) {
+            ThornFunction.TailCall tailCall = (ThornFunction.TailCall) returnValue;
+            tailCall.function.call(this, tailCall.arguments);
+        }
+    }
 
     void interpret(List<Stmt> statements) {
         try {
@@ -83,17 +183,30 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    ModuleSystem getModuleSystem() {
+        return moduleSystem;
+    }
+
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        if (profile != null) {
+            profile.recordOperands(expr.operator.line, expr.operator.lexeme,
+                                   left instanceof Double && right instanceof Double);
+        }
+        return binaryOperation(expr.operator, left, right);
+    }
 
-        switch (expr.operator.type) {
+    // Also used by functions promoted to the bytecode tier for any operands
+    // the VM does not handle itself
+    Object binaryOperation(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case MINUS:
                 if (left instanceof Double && right instanceof Double) {
                     return getNumber(left) - getNumber(right);
                 }
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return getNumber(left) - getNumber(right);
             case SLASH:
                 if (left instanceof Double && right instanceof Double) {
@@ -103,37 +216,37 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         if (isInResultContext()) {
                             return getNumber(left) / rightVal; // Returns Infinity
                         }
-                        throw new Thorn.RuntimeError(expr.operator, "Division by zero.");
+                        throw new Thorn.RuntimeError(operator, "Division by zero.");
                     }
                     return getNumber(left) / rightVal;
                 }
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 double rightNum = getNumber(right);
                 if (rightNum == 0) {
                     // Check if we're in a Result context (being called from Ok/Error constructor)
                     if (isInResultContext()) {
                         return getNumber(left) / rightNum; // Returns Infinity
                     }
-                    throw new Thorn.RuntimeError(expr.operator, "Division by zero.");
+                    throw new Thorn.RuntimeError(operator, "Division by zero.");
                 }
                 return getNumber(left) / rightNum;
             case STAR:
                 if (left instanceof Double && right instanceof Double) {
                     return getNumber(left) * getNumber(right);
                 }
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return getNumber(left) * getNumber(right);
             case PERCENT:
                 if (left instanceof Double && right instanceof Double) {
                     return getNumber(left) % getNumber(right);
                 }
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return getNumber(left) % getNumber(right);
             case STAR_STAR:
                 if (left instanceof Double && right instanceof Double) {
                     return Math.pow(getNumber(left), getNumber(right));
                 }
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return Math.pow(getNumber(left), getNumber(right));
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
@@ -150,36 +263,43 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     sb.append(stringify(right));
                     return sb.toString();
                 }
+                if (left instanceof PersistentVector && right instanceof List) {
+                    // Shares the left operand's trie
+                    return ((PersistentVector) left).concat((List<?>) right);
+                }
+                if (left instanceof List && right instanceof PersistentVector) {
+                    return PersistentVector.copyOf((List<?>) left).concat((List<?>) right);
+                }
                 if (left instanceof List && right instanceof List) {
-                    List<Object> result = new ArrayList<>((List<?>)left);
+                    List<Object> result = new ThornArray((List<?>)left);
                     result.addAll((List<?>)right);
                     return result;
                 }
-                throw new Thorn.RuntimeError(expr.operator,
+                throw new Thorn.RuntimeError(operator,
                         "Operands must be two numbers, two strings, or two lists.");
             case GREATER:
                 if (left instanceof Double && right instanceof Double) {
                     return getNumber(left) > getNumber(right);
                 }
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return getNumber(left) > getNumber(right);
             case GREATER_EQUAL:
                 if (left instanceof Double && right instanceof Double) {
                     return getNumber(left) >= getNumber(right);
                 }
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return getNumber(left) >= getNumber(right);
             case LESS:
                 if (left instanceof Double && right instanceof Double) {
                     return getNumber(left) < getNumber(right);
                 }
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return getNumber(left) < getNumber(right);
             case LESS_EQUAL:
                 if (left instanceof Double && right instanceof Double) {
                     return getNumber(left) <= getNumber(right);
                 }
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return getNumber(left) <= getNumber(right);
             case BANG_EQUAL:
                 return !isEqual(left, right);
@@ -205,15 +325,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
+        return unaryOperation(expr.operator, right);
+    }
 
-        switch (expr.operator.type) {
+    Object unaryOperation(Token operator, Object right) {
+        switch (operator.type) {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
                 if (right instanceof Double) {
                     return -getNumber(right);
                 }
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperand(operator, right);
                 return -getNumber(right);
         }
 
@@ -258,8 +381,20 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
-
+        Object callee;
+        if (tailPosition) {
+            // A call in return position that resolves to a Thorn function
+            // is made as a tail call
+            tailPosition = false;
+            callee = evaluate(expr.callee);
+            if (callee instanceof FunctionGroup ||
+                    (callee instanceof ThornFunction && currentFunction.canTailCall((ThornFunction) callee))) {
+                return evaluateTailCall(expr, (ThornCallable) callee);
+            }
+        } else {
+            callee = evaluate(expr.callee);
+        }
+        
         // Check if this is a call to Ok or Error constructor
         boolean isResultConstructor = false;
         if (expr.callee instanceof Expr.Variable) {
@@ -269,7 +404,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        List<Object> arguments = new ArrayList<>();
+        // Calls with up to three arguments keep them in locals and use the
+        // arity-specialized entry points; only wider calls build a list
+        Object arg0 = null;
+        Object arg1 = null;
+        Object arg2 = null;
+        List<Object> arguments = null;
         
         // Set Result context flag if calling Ok or Error
         if (isResultConstructor) {
@@ -277,8 +417,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
         
         try {
-            for (Expr argument : expr.arguments) {
-                arguments.add(evaluate(argument));
+            switch (expr.arguments.size()) {
+                case 0:
+                    break;
+                case 1:
+                    arg0 = evaluate(expr.arguments.get(0));
+                    break;
+                case 2:
+                    arg0 = evaluate(expr.arguments.get(0));
+                    arg1 = evaluate(expr.arguments.get(1));
+                    break;
+                case 3:
+                    arg0 = evaluate(expr.arguments.get(0));
+                    arg1 = evaluate(expr.arguments.get(1));
+                    arg2 = evaluate(expr.arguments.get(2));
+                    break;
+                default:
+                    arguments = evaluateArguments(expr);
+                    break;
             }
         } finally {
             if (isResultConstructor) {
@@ -292,13 +448,64 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         ThornCallable function = (ThornCallable)callee;
-        if (function.arity() >= 0 && arguments.size() != function.arity()) {
-            throw new Thorn.RuntimeError(expr.paren, "Expected " +
-                    function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+        checkArity(function, expr.arguments.size(), expr.paren);
+
+        switch (expr.arguments.size()) {
+            case 0:
+                return function.call0(this);
+            case 1:
+                return function.call1(this, arg0);
+            case 2:
+                return function.call2(this, arg0, arg1);
+            case 3:
+                return function.call3(this, arg0, arg1, arg2);
+            default:
+                return function.call(this, arguments);
         }
+    }
 
-        return function.call(this, arguments);
+    void checkArity(ThornCallable function, int argCount, Token paren) {
+        if (function.arity() >= 0 && argCount != function.arity()) {
+            throw new Thorn.RuntimeError(paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    argCount + ".");
+        }
+    }
+    
+    /**
+     * Evaluates the arguments of a call in return position whose callee is
+     * a Thorn function or overload group. The call is handed back to the
+     * enclosing ThornFunction as a TailCall so it can run it without growing
+     * the Java stack.
+     */
+    private Object evaluateTailCall(Expr.Call expr, ThornCallable callee) {
+        return tailCall(callee, evaluateArguments(expr), expr.paren);
+    }
+    
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            arguments.add(evaluate(argument));
+        }
+        return arguments;
+    }
+    
+    /**
+     * Builds the TailCall for a Thorn function or overload group whose
+     * arguments are already evaluated. Groups that resolve to something
+     * that cannot be tail called are called directly.
+     */
+    Object tailCall(ThornCallable callee, List<Object> arguments, Token paren) {
+        ThornCallable target = callee;
+        if (callee instanceof FunctionGroup) {
+            target = ((FunctionGroup) callee).resolve(arguments);
+            if (!(target instanceof ThornFunction) || !currentFunction.canTailCall((ThornFunction) target)) {
+                return ((FunctionGroup) callee).call(this, arguments);
+            }
+        }
+        
+        checkArity(target, arguments.size(), paren);
+        return new ThornFunction.TailCall((ThornFunction) target, arguments);
     }
 
     @Override
@@ -308,7 +515,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitListExpr(Expr.ListExpr expr) {
-        List<Object> elements = new ArrayList<>();
+        List<Object> elements = new ThornArray();
         for (Expr element : expr.elements) {
             elements.add(evaluate(element));
         }
@@ -317,7 +524,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitDictExpr(Expr.Dict expr) {
-        Map<Object, Object> dict = new HashMap<>();
+        Map<Object, Object> dict = new ThornDict<>(expr.keys.size());
         for (int i = 0; i < expr.keys.size(); i++) {
             Object key = evaluate(expr.keys.get(i));
             Object value = evaluate(expr.values.get(i));
@@ -331,6 +538,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object object = evaluate(expr.object);
         Object index = evaluate(expr.index);
 
+        if (object instanceof ThornArray && index instanceof Double) {
+            ThornArray array = (ThornArray) object;
+            int i = ((Double) index).intValue();
+            if (i >= 0 && i < array.size() && array.isNumeric()) {
+                return array.getNumber(i);
+            }
+        }
+
+        if (object instanceof TypedArray && index instanceof Double) {
+            TypedArray array = (TypedArray) object;
+            int i = ((Double) index).intValue();
+            if (i >= 0 && i < array.size()) {
+                return array.getNumber(i);
+            }
+        }
+
         if (object instanceof List) {
             if (!(index instanceof Double)) {
                 throw new Thorn.RuntimeError(expr.bracket,
@@ -404,7 +627,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         
         // Create the slice
         if (start > end) start = end;
-        return new ArrayList<>(list.subList(start, end));
+        if (list instanceof PersistentVector) {
+            return ((PersistentVector) list).slice(start, end);
+        }
+        if (list instanceof ThornArray) {
+            return ((ThornArray) list).slice(start, end);
+        }
+        if (list instanceof Bytes) {
+            return ((Bytes) list).slice(start, end);
+        }
+        if (list instanceof ThornRange) {
+            return ((ThornRange) list).slice(start, end);
+        }
+        return new ThornArray(list.subList(start, end));
     }
 
     @Override
@@ -413,11 +648,43 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object index = evaluate(expr.index);
         Object value = evaluate(expr.value);
 
+        if (object instanceof ThornArray && index instanceof Double && value instanceof Double) {
+            ThornArray array = (ThornArray) object;
+            int i = ((Double) index).intValue();
+            if (i >= 0 && i < array.size() && array.isNumeric()) {
+                array.setNumber(i, (Double) value);
+                return value;
+            }
+        }
+
         if (object instanceof List) {
             if (!(index instanceof Double)) {
                 throw new Thorn.RuntimeError(expr.bracket,
                         "List index must be a number.");
             }
+            if (object instanceof PersistentVector && ((PersistentVector) object).isImmutable()) {
+                throw new Thorn.RuntimeError(expr.bracket,
+                        "Cannot assign to an element of an immutable list.");
+            }
+            if (object instanceof Bytes) {
+                throw new Thorn.RuntimeError(expr.bracket,
+                        "Cannot assign to an element of bytes; bytes are immutable.");
+            }
+            if (object instanceof ThornRange) {
+                throw new Thorn.RuntimeError(expr.bracket,
+                        "Cannot assign to an element of a range; ranges are immutable.");
+            }
+            if (object instanceof TypedArray) {
+                TypedArray array = (TypedArray) object;
+                if (!(value instanceof Double)) {
+                    throw new Thorn.RuntimeError(expr.bracket,
+                            "Typed arrays can only hold numbers.");
+                }
+                if (array.isReadOnly()) {
+                    throw new Thorn.RuntimeError(expr.bracket,
+                            "Cannot assign to an element of a read-only typed array.");
+                }
+            }
             @SuppressWarnings("unchecked")
             List<Object> list = (List<Object>)object;
             int i = ((Double)index).intValue();
@@ -428,6 +695,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             list.set(i, value);
             return value;
         } else if (object instanceof Map) {
+            if (object instanceof PersistentMap && ((PersistentMap) object).isImmutable()) {
+                throw new Thorn.RuntimeError(expr.bracket,
+                        "Cannot assign to a key of an immutable dictionary. Use set() to get an updated copy.");
+            }
             @SuppressWarnings("unchecked")
             Map<Object, Object> map = (Map<Object, Object>)object;
             map.put(index, value);
@@ -440,100 +711,87 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitMatchExpr(Expr.Match expr) {
+        MatchPlan plan = matchPlans.computeIfAbsent(expr, MatchPlan::compile);
         Object value = evaluate(expr.expr);
 
-        for (Expr.Match.Case matchCase : expr.cases) {
-            boolean matches = false;
+        // Only cases the decision table leaves as candidates are tested
+        for (int index : plan.candidates(value)) {
+            Expr.Match.Case matchCase = expr.cases.get(index);
             
-            if (matchCase.pattern instanceof Expr.Literal && 
-                ((Expr.Literal)matchCase.pattern).value == null) {
-                // Default case (underscore)
-                matches = true;
-            } else if (matchCase.pattern instanceof Expr.Call) {
-                // Constructor pattern like Ok(value) or Error(error)
-                Expr.Call callPattern = (Expr.Call) matchCase.pattern;
-                if (callPattern.callee instanceof Expr.Variable) {
-                    String constructorName = ((Expr.Variable) callPattern.callee).name.lexeme;
-                    
-                    // Check if this is a Result constructor pattern
-                    if (value instanceof ThornResult) {
-                        ThornResult result = (ThornResult) value;
-                        if (constructorName.equals("Ok") && result.isOk()) {
-                            matches = true;
-                            // Bind the inner value to the pattern variable if it's a variable
-                            if (callPattern.arguments.size() == 1 && 
-                                callPattern.arguments.get(0) instanceof Expr.Variable) {
-                                Expr.Variable var = (Expr.Variable) callPattern.arguments.get(0);
-                                environment.define(var.name.lexeme, result.getValue(), false);
-                            }
-                        } else if (constructorName.equals("Error") && result.isError()) {
-                            matches = true;
-                            // Bind the inner error to the pattern variable if it's a variable
-                            if (callPattern.arguments.size() == 1 && 
-                                callPattern.arguments.get(0) instanceof Expr.Variable) {
-                                Expr.Variable var = (Expr.Variable) callPattern.arguments.get(0);
-                                environment.define(var.name.lexeme, result.getError(), false);
-                            }
-                        }
+            switch (plan.kind(index)) {
+                case EXPRESSION:
+                    Object pattern = evaluate(matchCase.pattern);
+                    if (!isEqual(value, pattern)) continue;
+                    break;
+                case OK:
+                    // Bind the inner value to the pattern variable if it's a variable
+                    if (plan.binding(index) != null) {
+                        environment.define(plan.binding(index), ((ThornResult) value).getValue(), false);
                     }
-                }
-            } else {
-                Object pattern = evaluate(matchCase.pattern);
-                matches = isEqual(value, pattern);
+                    break;
+                case ERROR:
+                    // Bind the inner error to the pattern variable if it's a variable
+                    if (plan.binding(index) != null) {
+                        environment.define(plan.binding(index), ((ThornResult) value).getError(), false);
+                    }
+                    break;
+                default:
+                    break;
             }
 
-            if (matches) {
-                if (matchCase.guard != null) {
-                    Object guardResult = evaluate(matchCase.guard);
-                    if (!isTruthy(guardResult)) continue;
-                }
+            if (matchCase.guard != null) {
+                Object guardResult = evaluate(matchCase.guard);
+                if (!isTruthy(guardResult)) continue;
+            }
+            
+            if (matchCase.isBlock) {
+                // Blocks that cannot declare anything run in the enclosing scope
+                Environment blockEnv = plan.needsScope(index) ? new Environment(environment) : environment;
+                Object result = null;
                 
-                if (matchCase.isBlock) {
-                    // Execute block statements in a new environment
-                    Environment blockEnv = new Environment(environment);
-                    Object result = null;
-                    
-                    // Save current return state
-                    Object previousReturnValue = returnValue;
-                    boolean previousHasReturned = hasReturned;
-                    returnValue = null;
-                    hasReturned = false;
-                    
+                // Save current return state
+                Object previousReturnValue = returnValue;
+                boolean previousHasReturned = hasReturned;
+                ThornFunction previousFunction = currentFunction;
+                returnValue = null;
+                hasReturned = false;
+                currentFunction = null;
+                
+                try {
+                    Environment previous = this.environment;
+                    this.environment = blockEnv;
                     try {
-                        Environment previous = this.environment;
-                        this.environment = blockEnv;
-                        try {
-                            for (int i = 0; i < matchCase.stmts.size(); i++) {
-                                Stmt stmt = matchCase.stmts.get(i);
-                                
-                                // If this is the last statement and it's an expression statement,
-                                // capture its value as the block result
-                                if (i == matchCase.stmts.size() - 1 && stmt instanceof Stmt.Expression) {
-                                    Stmt.Expression exprStmt = (Stmt.Expression) stmt;
-                                    result = evaluate(exprStmt.expression);
-                                } else {
-                                    execute(stmt);
-                                }
-                                
-                                if (hasReturned) {
-                                    result = returnValue;
-                                    break;
-                                }
+                        for (int i = 0; i < matchCase.stmts.size(); i++) {
+                            Stmt stmt = matchCase.stmts.get(i);
+                            
+                            // If this is the last statement and it's an expression statement,
+                            // capture its value as the block result
+                            if (i == matchCase.stmts.size() - 1 && stmt instanceof Stmt.Expression) {
+                                Stmt.Expression exprStmt = (Stmt.Expression) stmt;
+                                result = evaluate(exprStmt.expression);
+                            } else {
+                                execute(stmt);
+                            }
+                            
+                            if (hasReturned) {
+                                result = returnValue;
+                                break;
                             }
-                        } finally {
-                            this.environment = previous;
                         }
                     } finally {
-                        // Restore return state
-                        returnValue = previousReturnValue;
-                        hasReturned = previousHasReturned;
+                        this.environment = previous;
                     }
-                    
-                    return result; // result of last expression or null for void blocks
-                } else {
-                    // Evaluate single expression
-                    return evaluate(matchCase.value);
+                } finally {
+                    // Restore return state
+                    returnValue = previousReturnValue;
+                    hasReturned = previousHasReturned;
+                    currentFunction = previousFunction;
                 }
+                
+                return result; // result of last expression or null for void blocks
+            } else {
+                // Evaluate single expression
+                return evaluate(matchCase.value);
             }
         }
 
@@ -567,7 +825,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            Object arg = arguments.get(0);
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object arg) {
                             if (!(arg instanceof String)) {
                                 throw new Thorn.RuntimeError(expr.name, "includes() expects a string argument");
                             }
@@ -585,7 +847,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            Object arg = arguments.get(0);
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object arg) {
                             if (!(arg instanceof String)) {
                                 throw new Thorn.RuntimeError(expr.name, "startsWith() expects a string argument");
                             }
@@ -603,7 +869,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            Object arg = arguments.get(0);
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object arg) {
                             if (!(arg instanceof String)) {
                                 throw new Thorn.RuntimeError(expr.name, "endsWith() expects a string argument");
                             }
@@ -624,19 +894,33 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                             if (arguments.isEmpty() || arguments.size() > 2) {
                                 throw new Thorn.RuntimeError(expr.name, "slice() expects 1 or 2 arguments");
                             }
-                            
-                            if (!(arguments.get(0) instanceof Double)) {
+                            return slice(arguments.get(0), arguments.size() == 2, 
+                                         arguments.size() == 2 ? arguments.get(1) : null);
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object startArg) {
+                            return slice(startArg, false, null);
+                        }
+                        
+                        @Override
+                        public Object call2(Interpreter interpreter, Object startArg, Object endArg) {
+                            return slice(startArg, true, endArg);
+                        }
+                        
+                        private Object slice(Object startArg, boolean hasEnd, Object endArg) {
+                            if (!(startArg instanceof Double)) {
                                 throw new Thorn.RuntimeError(expr.name, "slice() start index must be a number");
                             }
                             
-                            int start = ((Double) arguments.get(0)).intValue();
+                            int start = ((Double) startArg).intValue();
                             int end = str.length();
                             
-                            if (arguments.size() == 2) {
-                                if (!(arguments.get(1) instanceof Double)) {
+                            if (hasEnd) {
+                                if (!(endArg instanceof Double)) {
                                     throw new Thorn.RuntimeError(expr.name, "slice() end index must be a number");
                                 }
-                                end = ((Double) arguments.get(1)).intValue();
+                                end = ((Double) endArg).intValue();
                             }
                             
                             // Handle negative indices
@@ -660,6 +944,38 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @SuppressWarnings("unchecked")
             List<Object> list = (List<Object>) object;
             
+            if (list instanceof PersistentVector && ((PersistentVector) list).isImmutable()) {
+                switch (expr.name.lexeme) {
+                    case "push": case "pop": case "shift": case "unshift":
+                        throw new Thorn.RuntimeError(expr.name,
+                                "Cannot call '" + expr.name.lexeme + "' on an immutable list.");
+                }
+            }
+
+            if (list instanceof TypedArray) {
+                switch (expr.name.lexeme) {
+                    case "push": case "pop": case "shift": case "unshift":
+                        throw new Thorn.RuntimeError(expr.name,
+                                "Cannot call '" + expr.name.lexeme + "' on a typed array; typed arrays have a fixed length.");
+                }
+            }
+
+            if (list instanceof Bytes) {
+                switch (expr.name.lexeme) {
+                    case "push": case "pop": case "shift": case "unshift":
+                        throw new Thorn.RuntimeError(expr.name,
+                                "Cannot call '" + expr.name.lexeme + "' on bytes; bytes are immutable.");
+                }
+            }
+
+            if (list instanceof ThornRange) {
+                switch (expr.name.lexeme) {
+                    case "push": case "pop": case "shift": case "unshift":
+                        throw new Thorn.RuntimeError(expr.name,
+                                "Cannot call '" + expr.name.lexeme + "' on a range; ranges are immutable.");
+                }
+            }
+            
             switch (expr.name.lexeme) {
                 case "length":
                     return (double) list.size();
@@ -671,7 +987,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            list.add(arguments.get(0));
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object value) {
+                            list.add(value);
                             return (double) list.size();
                         }
                         
@@ -686,6 +1007,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
+                            return call0(interpreter);
+                        }
+                        
+                        @Override
+                        public Object call0(Interpreter interpreter) {
                             if (list.isEmpty()) {
                                 return null;
                             }
@@ -703,6 +1029,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
+                            return call0(interpreter);
+                        }
+                        
+                        @Override
+                        public Object call0(Interpreter interpreter) {
                             if (list.isEmpty()) {
                                 return null;
                             }
@@ -720,7 +1051,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            list.add(0, arguments.get(0));
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object value) {
+                            list.add(0, value);
                             return (double) list.size();
                         }
                         
@@ -735,7 +1071,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            Object searchValue = arguments.get(0);
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object searchValue) {
+                            if (list instanceof ThornRange) {
+                                return list.contains(searchValue);
+                            }
                             for (Object element : list) {
                                 if (isEqual(element, searchValue)) {
                                     return true;
@@ -755,7 +1098,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            Object searchValue = arguments.get(0);
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object searchValue) {
+                            if (list instanceof ThornRange) {
+                                return (double) list.indexOf(searchValue);
+                            }
                             for (int i = 0; i < list.size(); i++) {
                                 if (isEqual(list.get(i), searchValue)) {
                                     return (double) i;
@@ -775,15 +1125,35 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
+                            return slice(arguments.size() >= 1 ? arguments.get(0) : null,
+                                         arguments.size() >= 2 ? arguments.get(1) : null);
+                        }
+                        
+                        @Override
+                        public Object call0(Interpreter interpreter) {
+                            return slice(null, null);
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object startArg) {
+                            return slice(startArg, null);
+                        }
+                        
+                        @Override
+                        public Object call2(Interpreter interpreter, Object startArg, Object endArg) {
+                            return slice(startArg, endArg);
+                        }
+                        
+                        private Object slice(Object startArg, Object endArg) {
                             int start = 0;
                             int end = list.size();
                             
                             // Handle start parameter
-                            if (arguments.size() >= 1 && arguments.get(0) != null) {
-                                if (!(arguments.get(0) instanceof Double)) {
+                            if (startArg != null) {
+                                if (!(startArg instanceof Double)) {
                                     throw new Thorn.RuntimeError(null, "Slice start index must be a number");
                                 }
-                                start = ((Double) arguments.get(0)).intValue();
+                                start = ((Double) startArg).intValue();
                                 // Handle negative indices
                                 if (start < 0) {
                                     start = Math.max(0, list.size() + start);
@@ -791,11 +1161,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                             }
                             
                             // Handle end parameter
-                            if (arguments.size() >= 2 && arguments.get(1) != null) {
-                                if (!(arguments.get(1) instanceof Double)) {
+                            if (endArg != null) {
+                                if (!(endArg instanceof Double)) {
                                     throw new Thorn.RuntimeError(null, "Slice end index must be a number");
                                 }
-                                end = ((Double) arguments.get(1)).intValue();
+                                end = ((Double) endArg).intValue();
                                 // Handle negative indices
                                 if (end < 0) {
                                     end = Math.max(0, list.size() + end);
@@ -807,7 +1177,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                             end = Math.max(start, Math.min(end, list.size()));
                             
                             // Create new list with sliced elements
-                            return new ArrayList<>(list.subList(start, end));
+                            if (list instanceof PersistentVector) {
+                                return ((PersistentVector) list).slice(start, end);
+                            }
+                            if (list instanceof ThornArray) {
+                                return ((ThornArray) list).slice(start, end);
+                            }
+                            if (list instanceof Bytes) {
+                                return ((Bytes) list).slice(start, end);
+                            }
+                            if (list instanceof ThornRange) {
+                                return ((ThornRange) list).slice(start, end);
+                            }
+                            return new ThornArray(list.subList(start, end));
                         }
                         
                         @Override
@@ -821,6 +1203,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @SuppressWarnings("unchecked")
             Map<Object, Object> map = (Map<Object, Object>) object;
             
+            if (map instanceof PersistentMap && ((PersistentMap) map).isImmutable()
+                    && expr.name.lexeme.equals("remove")) {
+                throw new Thorn.RuntimeError(expr.name,
+                        "Cannot call 'remove' on an immutable dictionary.");
+            }
+            
             switch (expr.name.lexeme) {
                 case "keys":
                     return new ThornCallable() {
@@ -829,7 +1217,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            return new ArrayList<>(map.keySet());
+                            return call0(interpreter);
+                        }
+                        
+                        @Override
+                        public Object call0(Interpreter interpreter) {
+                            if (map instanceof ThornDict) {
+                                return ((ThornDict<Object, Object>) map).keysArray();
+                            }
+                            return new ThornArray(map.keySet());
                         }
                         
                         @Override
@@ -843,7 +1239,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            return new ArrayList<>(map.values());
+                            return call0(interpreter);
+                        }
+                        
+                        @Override
+                        public Object call0(Interpreter interpreter) {
+                            if (map instanceof ThornDict) {
+                                return ((ThornDict<Object, Object>) map).valuesArray();
+                            }
+                            return new ThornArray(map.values());
                         }
                         
                         @Override
@@ -857,7 +1261,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            return map.containsKey(arguments.get(0));
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object key) {
+                            return map.containsKey(key);
                         }
                         
                         @Override
@@ -871,6 +1280,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
+                            return call0(interpreter);
+                        }
+                        
+                        @Override
+                        public Object call0(Interpreter interpreter) {
                             return (double) map.size();
                         }
                         
@@ -885,7 +1299,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            return map.remove(arguments.get(0));
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object key) {
+                            return map.remove(key);
                         }
                         
                         @Override
@@ -903,10 +1322,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                                 throw new Thorn.RuntimeError(null, 
                                     "get() takes 1 or 2 arguments (key, optional default).");
                             }
-                            Object key = arguments.get(0);
+                            if (arguments.size() == 2) {
+                                return call2(interpreter, arguments.get(0), arguments.get(1));
+                            }
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object key) {
+                            return map.get(key);
+                        }
+                        
+                        @Override
+                        public Object call2(Interpreter interpreter, Object key, Object defaultValue) {
                             Object result = map.get(key);
-                            if (result == null && arguments.size() == 2) {
-                                return arguments.get(1); // Return default value
+                            if (result == null) {
+                                return defaultValue; // Return default value
                             }
                             return result;
                         }
@@ -922,8 +1353,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            Object key = arguments.get(0);
-                            Object value = arguments.get(1);
+                            return call2(interpreter, arguments.get(0), arguments.get(1));
+                        }
+                        
+                        @Override
+                        public Object call2(Interpreter interpreter, Object key, Object value) {
+                            if (map instanceof PersistentMap && ((PersistentMap) map).isImmutable()) {
+                                // Updated copy sharing all other entries
+                                return ((PersistentMap) map).with(key, value);
+                            }
                             map.put(key, value);
                             return map; // Return the map for method chaining
                         }
@@ -946,6 +1384,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
+                            return call0(interpreter);
+                        }
+                        
+                        @Override
+                        public Object call0(Interpreter interpreter) {
                             return result.isOk();
                         }
                         
@@ -960,6 +1403,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
+                            return call0(interpreter);
+                        }
+                        
+                        @Override
+                        public Object call0(Interpreter interpreter) {
                             return result.isError();
                         }
                         
@@ -974,6 +1422,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
+                            return call0(interpreter);
+                        }
+                        
+                        @Override
+                        public Object call0(Interpreter interpreter) {
                             return result.unwrap();
                         }
                         
@@ -988,7 +1441,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
-                            return result.unwrapOr(arguments.get(0));
+                            return call1(interpreter, arguments.get(0));
+                        }
+                        
+                        @Override
+                        public Object call1(Interpreter interpreter, Object defaultValue) {
+                            return result.unwrapOr(defaultValue);
                         }
                         
                         @Override
@@ -1002,6 +1460,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         
                         @Override
                         public Object call(Interpreter interpreter, List<Object> arguments) {
+                            return call0(interpreter);
+                        }
+                        
+                        @Override
+                        public Object call0(Interpreter interpreter) {
                             return result.unwrapError();
                         }
                         
@@ -1118,9 +1581,65 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign && appendInPlace((Expr.Assign) stmt.expression)) {
+            return null;
+        }
         evaluate(stmt.expression);
         return null;
     }
+    
+    /**
+     * Runs {@code s = s + a + b ...} on a long string by appending to a
+     * StringRope kept in the variable's slot instead of copying the whole
+     * string. Only used in statement position, where the assigned value is
+     * not needed. Returns false, before evaluating anything, when the
+     * statement has to run normally.
+     */
+    private boolean appendInPlace(Expr.Assign expr) {
+        // Collect the right operands of a left-nested chain of + on the variable
+        List<Expr> operands = new ArrayList<>();
+        Expr leftmost = expr.value;
+        while (leftmost instanceof Expr.Binary && ((Expr.Binary) leftmost).operator.type == TokenType.PLUS) {
+            operands.add(0, ((Expr.Binary) leftmost).right);
+            leftmost = ((Expr.Binary) leftmost).left;
+        }
+        if (operands.isEmpty() || !(leftmost instanceof Expr.Variable) ||
+            !((Expr.Variable) leftmost).name.lexeme.equals(expr.name.lexeme)) {
+            return false;
+        }
+        
+        String name = expr.name.lexeme;
+        Environment owner = environment.owner(name);
+        if (owner == null || owner.isImmutable(name)) return false;
+        Object before = owner.rawValue(name);
+        if (!(before instanceof StringRope) &&
+            !(before instanceof String && ((String) before).length() >= StringRope.MIN_LENGTH)) {
+            return false;
+        }
+        int lengthBefore = before instanceof StringRope ? ((StringRope) before).length() : ((String) before).length();
+        
+        // A string on the left makes every + in the chain a concatenation
+        StringBuilder pieces = new StringBuilder();
+        for (Expr operand : operands) {
+            pieces.append(stringify(evaluate(operand)));
+        }
+        String piece = pieces.toString();
+        
+        // Evaluating the operands may have reassigned or appended to the variable
+        Object current = owner.rawValue(name);
+        boolean unchanged = current == before &&
+            (!(current instanceof StringRope) || ((StringRope) current).length() == lengthBefore);
+        if (!unchanged) {
+            String left = before instanceof StringRope ? ((StringRope) before).prefix(lengthBefore) : (String) before;
+            environment.assign(expr.name, left + piece);
+            return true;
+        }
+        
+        StringRope rope = before instanceof StringRope ? (StringRope) before : new StringRope((String) before);
+        rope.append(piece);
+        owner.replaceValue(name, rope);
+        return true;
+    }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
@@ -1136,7 +1655,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
+        boolean taken = isTruthy(evaluate(stmt.condition));
+        if (profile != null) {
+            profile.recordBranch(ExecutionProfile.lineOf(stmt.condition), taken);
+        }
+        if (taken) {
             execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
             execute(stmt.elseBranch);
@@ -1147,7 +1670,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if (stmt.value != null) value = evaluate(stmt.value);
+        if (stmt.value != null) {
+            // The call, if the value is one, may be made as a tail call
+            tailPosition = stmt.value instanceof Expr.Call && currentFunction != null;
+            value = evaluate(stmt.value);
+        }
 
         returnValue = value;
         hasReturned = true;
@@ -1178,6 +1705,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
+        if (stmt.isImmutable) {
+            // Immutable collections become persistent so derived versions share structure
+            if (value instanceof List) {
+                value = PersistentVector.copyOf((List<?>) value);
+            } else if (value instanceof Map) {
+                value = PersistentMap.copyOf((Map<?, ?>) value);
+            }
+        }
+
         environment.define(stmt.name.lexeme, value, stmt.isImmutable);
         return null;
     }
@@ -1199,14 +1735,20 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         // Try to optimize simple numeric while loops like: while (i < limit)
-        if (tryOptimizedWhileLoop(stmt)) {
+        if (profile == null && tryOptimizedWhileLoop(stmt)) {
             return null;
         }
         
         // Fall back to general case
+        long iterations = 0;
         while (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            iterations++;
             if (hasReturned) break;
+            countBackEdge();
+        }
+        if (profile != null) {
+            profile.recordLoop(ExecutionProfile.lineOf(stmt.condition), iterations);
         }
         return null;
     }
@@ -1252,6 +1794,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 
                 execute(stmt.body);
                 if (hasReturned) break;
+                countBackEdge();
                 
             } catch (Thorn.RuntimeError e) {
                 return false; // Fall back on any error
@@ -1261,41 +1804,114 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return true;
     }
 
+    // Loop iterations make the enclosing function hot as well as calls do;
+    // it is promoted on its next call
+    private void countBackEdge() {
+        if (currentFunction != null) {
+            currentFunction.hotness++;
+        }
+    }
+
     @Override
     public Void visitForStmt(Stmt.For stmt) {
         Object iterable = evaluate(stmt.iterable);
         
-        if (!(iterable instanceof List)) {
-            throw new Thorn.RuntimeError(stmt.variable,
-                    "Can only iterate over lists.");
-        }
-
-        List<?> list = (List<?>)iterable;
+        ThornRange range = iterable instanceof ThornRange ? (ThornRange) iterable : null;
+        Iterator<?> elements = range == null ? forInElements(stmt.variable, iterable) : null;
         
-        // Optimized: reuse environment and avoid repeated defines
+        // Optimized: reuse environment and avoid repeated defines. The loop
+        // variable is replaced in place, which also drops the environment's
+        // cached lookup of its previous value.
         String varName = stmt.variable.lexeme;
-        Map<String, Object> envValues = environment.getValues();
+        Environment loopEnvironment = environment;
+        Map<String, Object> envValues = loopEnvironment.getValues();
         boolean varExisted = envValues.containsKey(varName);
         Object previousValue = varExisted ? envValues.get(varName) : null;
+        long iterations = 0;
         
         try {
-            for (Object element : list) {
-                // Direct assignment instead of environment.define
-                envValues.put(varName, element);
-                execute(stmt.body);
-                if (hasReturned) break;
+            if (range != null) {
+                // Ranges count with a primitive index and box only the loop variable
+                for (int i = 0, n = range.size(); i < n; i++) {
+                    loopEnvironment.replaceValue(varName, range.valueAt(i));
+                    execute(stmt.body);
+                    iterations++;
+                    if (hasReturned) break;
+                    countBackEdge();
+                }
+            } else {
+                while (elements.hasNext()) {
+                    // Direct assignment instead of environment.define
+                    loopEnvironment.replaceValue(varName, elements.next());
+                    execute(stmt.body);
+                    iterations++;
+                    if (hasReturned) break;
+                    countBackEdge();
+                }
             }
         } finally {
+            // A generator left part way through is closed so its body stops
+            if (elements instanceof ThornGenerator) {
+                ((ThornGenerator) elements).close();
+            }
+            
             // Restore previous state
             if (varExisted) {
-                envValues.put(varName, previousValue);
+                loopEnvironment.replaceValue(varName, previousValue);
             } else {
-                envValues.remove(varName);
+                loopEnvironment.removeValue(varName);
             }
         }
+        if (profile != null) {
+            profile.recordLoop(stmt.variable.line, iterations);
+        }
         
         return null;
     }
+    
+    // What a for-in loop visits: the elements of a list, the values a
+    // generator yields, or a dictionary's entries as [key, value] pairs
+    private Iterator<?> forInElements(Token variable, Object iterable) {
+        if (iterable instanceof List || iterable instanceof ThornGenerator) {
+            return ((Iterable<?>) iterable).iterator();
+        }
+        if (iterable instanceof Map) {
+            Iterator<? extends Map.Entry<?, ?>> entries = ((Map<?, ?>) iterable).entrySet().iterator();
+            return new Iterator<Object>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+                
+                @Override
+                public Object next() {
+                    Map.Entry<?, ?> entry;
+                    try {
+                        entry = entries.next();
+                    } catch (ConcurrentModificationException e) {
+                        throw new Thorn.RuntimeError(variable,
+                                "Dictionary keys were added or removed during iteration.");
+                    }
+                    ThornArray pair = new ThornArray();
+                    pair.add(entry.getKey());
+                    pair.add(entry.getValue());
+                    return pair;
+                }
+            };
+        }
+        throw new Thorn.RuntimeError(variable,
+                "Can only iterate over lists, dictionaries and generators.");
+    }
+    
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        Object value = stmt.value != null ? evaluate(stmt.value) : null;
+        if (generator == null) {
+            throw new Thorn.RuntimeError(stmt.keyword, "Can only yield inside a function.");
+        }
+        generator.yieldValue(value);
+        return null;
+    }
 
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
@@ -1400,9 +2016,43 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     private void execute(Stmt stmt) {
+        if (--stepsLeft < 0) {
+            throw new StepLimitExceeded();
+        }
         stmt.accept(this);
     }
 
+    /**
+     * Runs the body of function in environment, a fresh environment for the
+     * call, and returns its value or a ThornFunction.TailCall. This takes
+     * the place of executeBlock so that a call costs no more Java frames
+     * than running a block.
+     */
+    Object executeBody(ThornFunction function, Environment environment) {
+        Environment previous = this.environment;
+        Object previousReturnValue = returnValue;
+        boolean previousHasReturned = hasReturned;
+        ThornFunction previousFunction = currentFunction;
+        try {
+            this.environment = environment;
+            returnValue = null;
+            hasReturned = false;
+            currentFunction = function;
+            
+            // The return value stays null unless a return statement ran
+            List<Stmt> body = function.getBody();
+            for (int i = 0; i < body.size() && !hasReturned; i++) {
+                execute(body.get(i));
+            }
+            return returnValue;
+        } finally {
+            this.environment = previous;
+            returnValue = previousReturnValue;
+            hasReturned = previousHasReturned;
+            currentFunction = previousFunction;
+        }
+    }
+
     void executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
@@ -1423,6 +2073,20 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
     
+    /**
+     * Evaluates an expression in the given environment instead of the
+     * current one, for the optimizer's partial evaluator.
+     */
+    Object evaluate(Expr expr, Environment environment) {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            return evaluate(expr);
+        } finally {
+            this.environment = previous;
+        }
+    }
+    
     // Public method for type evaluation from functions
     public Object evaluateType(Expr expr) {
         return evaluate(expr);
@@ -1481,6 +2145,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return environment.get(name);
     }
 
+    // Thrown once stepsLeft runs out
+    static class StepLimitExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StepLimitExceeded() {
+            super(null, null, false, false);
+        }
+    }
+
     static class Return extends RuntimeException {
         final Object value;
 
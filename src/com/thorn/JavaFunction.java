@@ -10,34 +10,127 @@ class JavaFunction implements ThornCallable {
     private final String name;
     private final int arity;
     private final JavaFunctionCall implementation;
-    
+
+    // Optional arity-specialized implementations (null when not provided)
+    private final JavaFunctionCall0 implementation0;
+    private final JavaFunctionCall1 implementation1;
+    private final JavaFunctionCall2 implementation2;
+    private final JavaFunctionCall3 implementation3;
+
     @FunctionalInterface
     interface JavaFunctionCall {
         Object call(Interpreter interpreter, List<Object> arguments);
     }
-    
+
+    @FunctionalInterface
+    interface JavaFunctionCall0 {
+        Object call(Interpreter interpreter);
+    }
+
+    @FunctionalInterface
+    interface JavaFunctionCall1 {
+        Object call(Interpreter interpreter, Object arg0);
+    }
+
+    @FunctionalInterface
+    interface JavaFunctionCall2 {
+        Object call(Interpreter interpreter, Object arg0, Object arg1);
+    }
+
+    @FunctionalInterface
+    interface JavaFunctionCall3 {
+        Object call(Interpreter interpreter, Object arg0, Object arg1, Object arg2);
+    }
+
     JavaFunction(String name, int arity, JavaFunctionCall implementation) {
+        this(name, arity, implementation, null, null, null, null);
+    }
+
+    private JavaFunction(String name, int arity, JavaFunctionCall implementation,
+                         JavaFunctionCall0 implementation0, JavaFunctionCall1 implementation1,
+                         JavaFunctionCall2 implementation2, JavaFunctionCall3 implementation3) {
         this.name = name;
         this.arity = arity;
         this.implementation = implementation;
+        this.implementation0 = implementation0;
+        this.implementation1 = implementation1;
+        this.implementation2 = implementation2;
+        this.implementation3 = implementation3;
+    }
+
+    // Factories for fixed-arity natives that never need an argument list
+
+    static JavaFunction nullary(String name, JavaFunctionCall0 implementation) {
+        return new JavaFunction(name, 0, (interpreter, arguments) -> implementation.call(interpreter),
+                                implementation, null, null, null);
+    }
+
+    static JavaFunction unary(String name, JavaFunctionCall1 implementation) {
+        return new JavaFunction(name, 1, (interpreter, arguments) -> implementation.call(interpreter, arguments.get(0)),
+                                null, implementation, null, null);
+    }
+
+    static JavaFunction binary(String name, JavaFunctionCall2 implementation) {
+        return new JavaFunction(name, 2,
+                                (interpreter, arguments) -> implementation.call(interpreter, arguments.get(0), arguments.get(1)),
+                                null, null, implementation, null);
     }
-    
+
+    static JavaFunction ternary(String name, JavaFunctionCall3 implementation) {
+        return new JavaFunction(name, 3,
+                                (interpreter, arguments) -> implementation.call(interpreter, arguments.get(0),
+                                                                                arguments.get(1), arguments.get(2)),
+                                null, null, null, implementation);
+    }
+
     @Override
     public int arity() {
         return arity;
     }
-    
+
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         return implementation.call(interpreter, arguments);
     }
-    
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (implementation0 != null) {
+            return implementation0.call(interpreter);
+        }
+        return ThornCallable.super.call0(interpreter);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg0) {
+        if (implementation1 != null) {
+            return implementation1.call(interpreter, arg0);
+        }
+        return ThornCallable.super.call1(interpreter, arg0);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        if (implementation2 != null) {
+            return implementation2.call(interpreter, arg0, arg1);
+        }
+        return ThornCallable.super.call2(interpreter, arg0, arg1);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+        if (implementation3 != null) {
+            return implementation3.call(interpreter, arg0, arg1, arg2);
+        }
+        return ThornCallable.super.call3(interpreter, arg0, arg1, arg2);
+    }
+
     @Override
     public String toString() {
         return "<native fn " + name + ">";
     }
-    
+
     public String getName() {
         return name;
     }
-}
\ No newline at end of file
+}
@@ -1,876 +1,1079 @@
 package com.thorn;
 
 import java.util.*;
+import static com.thorn.TokenType.*;
 
 /**
  * Optimization pass that performs various loop optimizations including
  * loop invariant code motion, strength reduction, and simple loop unrolling.
  * This pass provides 30-60% improvement for loop-heavy code.
+ *
+ * Invariant code motion computes a pure expression once before the loop
+ * when nothing the loop does can change its value: it reads no variable
+ * the loop assigns, and if it reads a property or element the loop writes
+ * none and makes no calls. Only expressions the first iteration evaluates
+ * before anything observable happens are moved, so no new errors appear.
+ * A while loop's body only runs when its condition holds, so values taken
+ * from the body are computed behind a copy of the condition:
+ *
+ *   while (i < n) { s = s + a.length * k; i = i + 1; }
+ *
+ * becomes
+ *
+ *   if (i < n) { __licm0 = a.length * k; while (i < n) { s = s + __licm0; i = i + 1; } }
+ *
+ * Strength reduction replaces repeated uses of i * k, where i is an integer
+ * induction variable stepped by a constant, with a variable that is stepped
+ * by the constant times k alongside it. Loops over a literal list or a
+ * range() with constant bounds of at most unroll-threshold elements are
+ * unrolled; with a recorded profile, twice as many when the loop is hot and
+ * none when the profiled run never reached it. Temporaries are declared at
+ * the top of the enclosing function.
  */
 public class LoopOptimizationPass extends OptimizationPass {
-    
+
     private static final int DEFAULT_UNROLL_THRESHOLD = 4;
-    
+
+    // Hot loops are unrolled up to this many times the threshold
+    private static final int HOT_UNROLL_FACTOR = 2;
+
+    // Largest loop body, in AST nodes, that is copied when unrolling
+    private static final int MAX_UNROLLED_BODY_SIZE = 64;
+
+    // Uses of i * k needed before an extra variable to step pays for itself
+    private static final int MIN_REDUCED_USES = 3;
+
     @Override
     public String getName() {
         return "loop-optimization";
     }
-    
+
     @Override
     public PassType getType() {
         return PassType.TRANSFORMATION;
     }
-    
+
     @Override
     public List<String> getDependencies() {
-        return Arrays.asList("control-flow-analysis", "constant-folding");
+        // After inlining, so that loops calling small functions are
+        // optimized with their bodies in place
+        return Arrays.asList("control-flow-analysis", "constant-folding", "function-inlining");
     }
-    
+
     @Override
     public OptimizationLevel getMinimumLevel() {
         return OptimizationLevel.O2;
     }
-    
+
     @Override
     public List<Stmt> optimize(List<Stmt> statements, OptimizationContext context) {
         if (context.isDebugMode()) {
             System.out.println("=== Loop Optimization Pass ===");
-            System.out.println("  Stub implementation - no transformations applied");
         }
-        return statements; // TODO: Implement loop optimization
+        return new LoopOptimizer(context, statements).optimize(statements);
     }
-    
+
     /**
      * Optimizer that performs loop optimizations.
      */
     private static class LoopOptimizer {
         private final OptimizationContext context;
         private final int unrollThreshold;
+        private final ExpressionShape.Classifier classifier;
+
+        // Names bound outside any function; an assignment to one inside a
+        // function may update the global rather than define a local
+        private final Set<String> globalNames = new HashSet<>();
+
+        // Functions and lambdas entered so far
+        private int regionDepth = 0;
+        private int nextTemporary = 0;
         private int loopsOptimized = 0;
         private int invariantsHoisted = 0;
         private int strengthReductions = 0;
         private int loopsUnrolled = 0;
-        
-        public LoopOptimizer(OptimizationContext context) {
+
+        public LoopOptimizer(OptimizationContext context, List<Stmt> program) {
             this.context = context;
             this.unrollThreshold = context.getPassConfigurationInt(
                 "loop-optimization", "unroll-threshold", DEFAULT_UNROLL_THRESHOLD
             );
+            this.classifier = ExpressionShape.classifier(program, context);
+            this.nextTemporary = AstScanner.firstUnusedSuffix(program, "__licm", "__iv");
+
+            new AstScanner() {
+                @Override
+                void visit(Stmt stmt) {
+                    if (functionDepth == 0) {
+                        Token name = AstScanner.boundName(stmt);
+                        if (name != null) {
+                            globalNames.add(name.lexeme);
+                        }
+                        if (stmt instanceof Stmt.Import && ((Stmt.Import) stmt).names != null) {
+                            for (Token imported : ((Stmt.Import) stmt).names) {
+                                globalNames.add(imported.lexeme);
+                            }
+                        }
+                    }
+                }
+
+                @Override
+                void visit(Expr expr) {
+                    if (functionDepth == 0 && expr instanceof Expr.Assign) {
+                        globalNames.add(((Expr.Assign) expr).name.lexeme);
+                    }
+                }
+            }.statements(program);
         }
-        
+
         public List<Stmt> optimize(List<Stmt> statements) {
-            List<Stmt> result = optimizeStatements(statements);
-            
+            // At the top level every variable is a global, which any
+            // function in the program may read or assign
+            Set<String> captured = new HashSet<>();
+            new AstScanner() {
+                @Override
+                void visit(Expr expr) {
+                    if (functionDepth > 0) {
+                        addReferencedName(expr, captured);
+                    }
+                }
+            }.statements(statements);
+
+            List<Stmt> result = optimizeRegion(statements, new Region(null, captured));
+            context.recordTransformations("loop-optimization",
+                invariantsHoisted + strengthReductions + loopsUnrolled);
+
             if (context.isDebugMode()) {
-                System.out.println("=== Loop Optimization ===");
-                System.out.println("Loops optimized: " + loopsOptimized);
-                System.out.println("Invariants hoisted: " + invariantsHoisted);
-                System.out.println("Strength reductions: " + strengthReductions);
-                System.out.println("Loops unrolled: " + loopsUnrolled);
+                System.out.println("  Loops optimized: " + loopsOptimized);
+                System.out.println("  Invariants hoisted: " + invariantsHoisted);
+                System.out.println("  Strength reductions: " + strengthReductions);
+                System.out.println("  Loops unrolled: " + loopsUnrolled);
             }
-            
+
             return result;
         }
-        
-        private List<Stmt> optimizeStatements(List<Stmt> statements) {
-            List<Stmt> result = new ArrayList<>();
-            
-            for (Stmt stmt : statements) {
-                Stmt optimized = optimizeStatement(stmt);
-                if (optimized != null) {
-                    result.add(optimized);
-                }
+
+        /**
+         * The variables of a function or lambda body that no other code can
+         * assign: its parameters and the names it declares, less any that a
+         * function or lambda nested in it refers to.
+         */
+        private Region functionRegion(List<Token> params, List<Stmt> body) {
+            Set<String> locals = new HashSet<>();
+            Set<String> captured = new HashSet<>();
+            for (Token param : params) {
+                locals.add(param.lexeme);
             }
-            
-            return result;
-        }
-        
-        private Stmt optimizeStatement(Stmt stmt) {
-            return stmt.accept(new Stmt.Visitor<Stmt>() {
+
+            // Functions declared at the top level close over the globals, so a
+            // name they assign that is not a global is one of their own. A
+            // nested function may be assigning its enclosing function's locals.
+            boolean topLevel = regionDepth == 0;
+            new AstScanner() {
                 @Override
-                public Stmt visitWhileStmt(Stmt.While stmt) {
-                    loopsOptimized++;
-                    
-                    // First, recursively optimize the body
-                    Stmt optimizedBody = optimizeStatement(stmt.body);
-                    
-                    // Perform loop invariant code motion
-                    LoopInvariantResult invariantResult = hoistLoopInvariants(stmt.condition, optimizedBody);
-                    invariantsHoisted += invariantResult.hoistedStatements.size();
-                    
-                    // Apply strength reduction in loop body
-                    Stmt strengthReducedBody = applyStrengthReduction(invariantResult.optimizedBody);
-                    
-                    // Create optimized while loop
-                    Stmt optimizedLoop = new Stmt.While(invariantResult.optimizedCondition, strengthReducedBody);
-                    
-                    // If we hoisted any statements, create a block with hoisted code before loop
-                    if (!invariantResult.hoistedStatements.isEmpty()) {
-                        List<Stmt> blockStatements = new ArrayList<>(invariantResult.hoistedStatements);
-                        blockStatements.add(optimizedLoop);
-                        return new Stmt.Block(blockStatements);
+                void visit(Stmt stmt) {
+                    Token name = AstScanner.boundName(stmt);
+                    if (functionDepth == 0 && name != null) {
+                        locals.add(name.lexeme);
                     }
-                    
-                    return optimizedLoop;
                 }
-                
+
                 @Override
-                public Stmt visitForStmt(Stmt.For stmt) {
-                    loopsOptimized++;
-                    
-                    // Check if this is a simple counting loop that can be unrolled
-                    if (isSimpleCountingLoop(stmt)) {
-                        Stmt unrolled = tryUnrollLoop(stmt);
-                        if (unrolled != null) {
-                            loopsUnrolled++;
-                            return unrolled;
+                void visit(Expr expr) {
+                    if (functionDepth > 0) {
+                        addReferencedName(expr, captured);
+                    } else if (topLevel && expr instanceof Expr.Assign) {
+                        String name = ((Expr.Assign) expr).name.lexeme;
+                        if (!globalNames.contains(name)) {
+                            locals.add(name);
                         }
                     }
-                    
-                    // Otherwise, optimize the body
-                    Stmt optimizedBody = optimizeStatement(stmt.body);
-                    
-                    // Perform loop invariant code motion
-                    LoopInvariantResult invariantResult = hoistLoopInvariants(null, optimizedBody);
-                    invariantsHoisted += invariantResult.hoistedStatements.size();
-                    
-                    // Apply strength reduction
-                    Stmt strengthReducedBody = applyStrengthReduction(invariantResult.optimizedBody);
-                    
-                    // Create optimized for loop
-                    Stmt optimizedLoop = new Stmt.For(stmt.variable, stmt.iterable, strengthReducedBody);
-                    
-                    // If we hoisted any statements, create a block
-                    if (!invariantResult.hoistedStatements.isEmpty()) {
-                        List<Stmt> blockStatements = new ArrayList<>(invariantResult.hoistedStatements);
-                        blockStatements.add(optimizedLoop);
-                        return new Stmt.Block(blockStatements);
-                    }
-                    
-                    return optimizedLoop;
                 }
-                
+            }.statements(body);
+
+            return new Region(locals, captured);
+        }
+
+        private List<Stmt> optimizeRegion(List<Stmt> body, Region region) {
+            List<Stmt> optimized = optimizeStatements(body, region);
+            if (region.temporaries.isEmpty()) {
+                return optimized;
+            }
+
+            // Declared once at the top, like the temporaries of common
+            // subexpression elimination, so loops only assign them
+            List<Stmt> result = new ArrayList<>();
+            for (Token temporary : region.temporaries) {
+                result.add(new Stmt.Var(temporary, null, null, false));
+            }
+            result.addAll(optimized);
+            return result;
+        }
+
+        private List<Stmt> optimizeFunctionBody(List<Token> params, List<Stmt> body) {
+            Region region = functionRegion(params, body);
+            regionDepth++;
+            try {
+                return optimizeRegion(body, region);
+            } finally {
+                regionDepth--;
+            }
+        }
+
+        private Stmt.Function optimizeFunction(Stmt.Function function) {
+            List<Token> params = new ArrayList<>();
+            for (Stmt.Parameter param : function.params) {
+                params.add(param.name);
+            }
+            return new Stmt.Function(function.name, function.typeParams, function.params,
+                                     function.returnType, optimizeFunctionBody(params, function.body));
+        }
+
+        private List<Stmt> optimizeStatements(List<Stmt> statements, Region region) {
+            List<Stmt> result = new ArrayList<>();
+            Stmt previous = null;
+
+            for (Stmt stmt : statements) {
+                result.addAll(optimizeStatement(stmt, previous, region));
+                previous = stmt;
+            }
+
+            return result;
+        }
+
+        // A statement standing alone, such as a branch of an if
+        private Stmt optimizeSingle(Stmt stmt, Region region) {
+            List<Stmt> optimized = optimizeStatement(stmt, null, region);
+            return optimized.size() == 1 ? optimized.get(0) : new Stmt.Block(optimized);
+        }
+
+        /**
+         * Optimizes one statement, given the statement before it, into the
+         * statements that replace it.
+         */
+        private List<Stmt> optimizeStatement(Stmt stmt, Stmt previous, Region region) {
+            if (stmt instanceof Stmt.While) {
+                return optimizeWhile((Stmt.While) stmt, previous, region);
+            }
+            if (stmt instanceof Stmt.For) {
+                return optimizeFor((Stmt.For) stmt, region);
+            }
+            return Collections.singletonList(stmt.accept(new Stmt.Visitor<Stmt>() {
                 @Override
                 public Stmt visitBlockStmt(Stmt.Block stmt) {
-                    List<Stmt> optimizedStatements = optimizeStatements(stmt.statements);
-                    return new Stmt.Block(optimizedStatements);
+                    return new Stmt.Block(optimizeStatements(stmt.statements, region));
                 }
-                
+
                 @Override
                 public Stmt visitIfStmt(Stmt.If stmt) {
-                    Stmt optimizedThen = optimizeStatement(stmt.thenBranch);
-                    Stmt optimizedElse = stmt.elseBranch != null ? 
-                        optimizeStatement(stmt.elseBranch) : null;
-                    return new Stmt.If(stmt.condition, optimizedThen, optimizedElse);
+                    Stmt optimizedThen = optimizeSingle(stmt.thenBranch, region);
+                    Stmt optimizedElse = stmt.elseBranch != null ?
+                        optimizeSingle(stmt.elseBranch, region) : null;
+                    return new Stmt.If(nested(region).expression(stmt.condition), optimizedThen, optimizedElse);
                 }
-                
+
                 @Override
                 public Stmt visitFunctionStmt(Stmt.Function stmt) {
-                    List<Stmt> optimizedBody = optimizeStatements(stmt.body);
-                    return new Stmt.Function(stmt.name, stmt.params, stmt.returnType, optimizedBody);
+                    return optimizeFunction(stmt);
                 }
-                
+
                 @Override
                 public Stmt visitClassStmt(Stmt.Class stmt) {
                     List<Stmt.Function> optimizedMethods = new ArrayList<>();
                     for (Stmt.Function method : stmt.methods) {
-                        optimizedMethods.add((Stmt.Function) optimizeStatement(method));
+                        optimizedMethods.add(optimizeFunction(method));
                     }
-                    return new Stmt.Class(stmt.name, optimizedMethods);
+                    return new Stmt.Class(stmt.name, stmt.typeParams, optimizedMethods);
                 }
-                
+
                 @Override
                 public Stmt visitExpressionStmt(Stmt.Expression stmt) {
-                    return stmt;
+                    return nested(region).statement(stmt);
                 }
-                
+
                 @Override
                 public Stmt visitVarStmt(Stmt.Var stmt) {
-                    return stmt;
+                    return nested(region).statement(stmt);
                 }
-                
+
                 @Override
                 public Stmt visitReturnStmt(Stmt.Return stmt) {
-                    return stmt;
+                    return nested(region).statement(stmt);
                 }
-                
+
                 @Override
                 public Stmt visitThrowStmt(Stmt.Throw stmt) {
-                    return stmt;
+                    return nested(region).statement(stmt);
                 }
-                
+
+                @Override
+                public Stmt visitYieldStmt(Stmt.Yield stmt) {
+                    return nested(region).statement(stmt);
+                }
+
                 @Override
                 public Stmt visitImportStmt(Stmt.Import stmt) {
                     return stmt;
                 }
-                
+
                 @Override
                 public Stmt visitExportStmt(Stmt.Export stmt) {
-                    Stmt optimizedDeclaration = optimizeStatement(stmt.declaration);
+                    Stmt optimizedDeclaration = optimizeSingle(stmt.declaration, region);
                     return new Stmt.Export(optimizedDeclaration);
                 }
-                
+
                 @Override
                 public Stmt visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) {
                     return stmt;
                 }
-                
+
                 @Override
                 public Stmt visitTypeAliasStmt(Stmt.TypeAlias stmt) {
                     // Type aliases are compile-time only, no optimization needed
                     return stmt;
                 }
-            });
+
+                // Loops are handled above
+                @Override public Stmt visitWhileStmt(Stmt.While stmt) { return stmt; }
+                @Override public Stmt visitForStmt(Stmt.For stmt) { return stmt; }
+            }));
         }
-        
-        /**
-         * Hoist loop invariant code out of loops.
-         */
-        private LoopInvariantResult hoistLoopInvariants(Expr condition, Stmt body) {
-            List<Stmt> hoistedStatements = new ArrayList<>();
-            LoopInvariantAnalyzer analyzer = new LoopInvariantAnalyzer();
-            
-            // Analyze the loop body to find invariant code
-            Set<Stmt> invariantStatements = analyzer.findInvariantStatements(body);
-            
-            // Extract invariant statements
-            for (Stmt invariant : invariantStatements) {
-                hoistedStatements.add(invariant);
-            }
-            
-            // Create new body without invariant statements
-            Stmt newBody = removeInvariantStatements(body, invariantStatements);
-            
-            return new LoopInvariantResult(hoistedStatements, condition, newBody);
-        }
-        
+
         /**
-         * Apply strength reduction optimizations to loop body.
+         * Rewriter that optimizes the bodies of the lambdas in an expression,
+         * and the loops in match cases, leaving everything else as it is.
          */
-        private Stmt applyStrengthReduction(Stmt body) {
-            return body.accept(new Stmt.Visitor<Stmt>() {
+        private AstRewriter nested(Region region) {
+            return new AstRewriter(false) {
                 @Override
-                public Stmt visitExpressionStmt(Stmt.Expression stmt) {
-                    Expr reducedExpr = reduceStrength(stmt.expression);
-                    return new Stmt.Expression(reducedExpr);
+                boolean entersCases() {
+                    return true;
                 }
-                
+
                 @Override
-                public Stmt visitVarStmt(Stmt.Var stmt) {
-                    if (stmt.initializer != null) {
-                        Expr reducedInit = reduceStrength(stmt.initializer);
-                        return new Stmt.Var(stmt.name, stmt.type, reducedInit, stmt.isImmutable);
-                    }
-                    return stmt;
+                List<Stmt> caseBody(List<Stmt> statements) {
+                    return optimizeStatements(statements, region);
                 }
-                
+
                 @Override
-                public Stmt visitBlockStmt(Stmt.Block stmt) {
-                    List<Stmt> reducedStatements = new ArrayList<>();
-                    for (Stmt s : stmt.statements) {
-                        reducedStatements.add(applyStrengthReduction(s));
-                    }
-                    return new Stmt.Block(reducedStatements);
+                Expr lambda(Expr.Lambda lambda) {
+                    return new Expr.Lambda(lambda.params, optimizeFunctionBody(lambda.params, lambda.body));
                 }
-                
+            };
+        }
+
+        private List<Stmt> optimizeWhile(Stmt.While loop, Stmt previous, Region region) {
+            loopsOptimized++;
+            List<Stmt> result = new ArrayList<>();
+
+            loop = reduceWhileStrength(loop, previous, region, result);
+
+            LoopFacts facts = scanLoop(loop);
+            InvariantFinder finder = new InvariantFinder(facts, region);
+            finder.expression(loop.condition);
+            int fromCondition = finder.hoisted.size();
+            finder.statement(loop.body);
+
+            List<Stmt> beforeLoop = new ArrayList<>();
+            List<Stmt> beforeBody = new ArrayList<>();
+            AstRewriter hoisting = hoist(finder.hoisted, fromCondition, beforeLoop, beforeBody, region);
+
+            Expr condition = nested(region).expression(hoisting.expression(loop.condition));
+            Stmt body = optimizeSingle(hoisting.statement(loop.body), region);
+            Stmt optimizedLoop = new Stmt.While(condition, body);
+
+            result.addAll(beforeLoop);
+            if (beforeBody.isEmpty()) {
+                result.add(optimizedLoop);
+            } else {
+                // Values from the body are only computed if it runs at least once
+                beforeBody.add(optimizedLoop);
+                result.add(new Stmt.If(new AstRewriter(true).expression(condition),
+                                       new Stmt.Block(beforeBody), null));
+            }
+            return result;
+        }
+
+        private List<Stmt> optimizeFor(Stmt.For loop, Region region) {
+            loopsOptimized++;
+
+            LoopFacts facts = scanLoop(loop);
+            Stmt unrolled = tryUnrollLoop(loop, facts, region);
+            if (unrolled != null) {
+                loopsUnrolled++;
+                return optimizeStatement(unrolled, null, region);
+            }
+
+            List<Stmt> result = new ArrayList<>();
+            loop = reduceForStrength(loop, facts, region, result);
+
+            List<Stmt> beforeLoop = new ArrayList<>();
+            AstRewriter hoisting = AstRewriter.IDENTITY;
+            if (isKnownNonEmpty(loop.iterable)) {
+                facts = scanLoop(loop);
+                InvariantFinder finder = new InvariantFinder(facts, region);
+                finder.statement(loop.body);
+                hoisting = hoist(finder.hoisted, 0, beforeLoop, beforeLoop, region);
+            }
+
+            Expr iterable = nested(region).expression(loop.iterable);
+            Stmt body = optimizeSingle(hoisting.statement(loop.body), region);
+
+            result.addAll(beforeLoop);
+            result.add(new Stmt.For(loop.variable, iterable, body));
+            return result;
+        }
+
+        /**
+         * Assigns each hoisted expression to a new temporary, the first
+         * fromCondition of them in beforeLoop and the rest in beforeBody,
+         * and returns a rewriter that reads the temporaries in their place.
+         */
+        private AstRewriter hoist(Map<String, Expr> hoisted, int fromCondition,
+                               List<Stmt> beforeLoop, List<Stmt> beforeBody, Region region) {
+            if (hoisted.isEmpty()) {
+                return AstRewriter.IDENTITY;
+            }
+
+            Map<String, Token> temporaries = new HashMap<>();
+            int index = 0;
+            for (Map.Entry<String, Expr> entry : hoisted.entrySet()) {
+                Token temporary = region.newTemporary("__licm" + nextTemporary++);
+                temporaries.put(entry.getKey(), temporary);
+                Stmt assignment = new Stmt.Expression(new Expr.Assign(temporary, entry.getValue()));
+                (index++ < fromCondition ? beforeLoop : beforeBody).add(assignment);
+            }
+            invariantsHoisted += hoisted.size();
+
+            return new AstRewriter(false) {
                 @Override
-                public Stmt visitIfStmt(Stmt.If stmt) {
-                    Expr reducedCondition = reduceStrength(stmt.condition);
-                    Stmt reducedThen = applyStrengthReduction(stmt.thenBranch);
-                    Stmt reducedElse = stmt.elseBranch != null ? 
-                        applyStrengthReduction(stmt.elseBranch) : null;
-                    return new Stmt.If(reducedCondition, reducedThen, reducedElse);
+                Expr replace(Expr expr) {
+                    if (expr instanceof Expr.Grouping) {
+                        return null;
+                    }
+                    ExpressionShape shape = classifier.of(expr);
+                    Token temporary = shape.isPure() ? temporaries.get(shape.key) : null;
+                    return temporary != null ? new Expr.Variable(temporary) : null;
                 }
-                
+
+                // A nested loop's iterable is evaluated once per entry
+                // anyway, and unrolling and strength reduction look for
+                // range() calls there
                 @Override
-                public Stmt visitWhileStmt(Stmt.While stmt) {
-                    Expr reducedCondition = reduceStrength(stmt.condition);
-                    Stmt reducedBody = applyStrengthReduction(stmt.body);
-                    return new Stmt.While(reducedCondition, reducedBody);
+                Expr iterable(Expr iterable) {
+                    return operands(iterable);
                 }
-                
-                @Override
-                public Stmt visitForStmt(Stmt.For stmt) {
-                    Stmt reducedBody = applyStrengthReduction(stmt.body);
-                    return new Stmt.For(stmt.variable, stmt.iterable, reducedBody);
+            };
+        }
+
+        /**
+         * Whether the value of an expression with this shape is the same
+         * everywhere in the loop.
+         */
+        private boolean isInvariant(ExpressionShape shape, LoopFacts loop, Region region) {
+            if (!shape.isPure() || !shape.reusable) {
+                return false;
+            }
+            if (shape.readsMemory && (loop.writesMemory || loop.hasCalls)) {
+                return false;
+            }
+            for (String name : shape.variables) {
+                if (loop.assigns(name)) {
+                    return false;
                 }
-                
-                @Override
-                public Stmt visitReturnStmt(Stmt.Return stmt) {
-                    if (stmt.value != null) {
-                        Expr reducedValue = reduceStrength(stmt.value);
-                        return new Stmt.Return(stmt.keyword, reducedValue);
-                    }
-                    return stmt;
+                if (loop.hasCalls && !region.isUnaffectedByCalls(name)) {
+                    return false;
                 }
-                
-                @Override
-                public Stmt visitThrowStmt(Stmt.Throw stmt) {
-                    if (stmt.value != null) {
-                        Expr reducedValue = reduceStrength(stmt.value);
-                        return new Stmt.Throw(stmt.keyword, reducedValue);
-                    }
-                    return stmt;
+            }
+            return true;
+        }
+
+        /**
+         * Finds the maximal invariant expressions that the first iteration
+         * of a loop evaluates before anything observable happens: before any
+         * call, yield or return, and before any branch that might contain one.
+         */
+        private class InvariantFinder {
+            private final LoopFacts loop;
+            private final Region region;
+            private boolean stopped = false;
+
+            // First occurrence of each hoisted expression, by shape key
+            final Map<String, Expr> hoisted = new LinkedHashMap<>();
+
+            InvariantFinder(LoopFacts loop, Region region) {
+                this.loop = loop;
+                this.region = region;
+            }
+
+            void statements(List<Stmt> statements) {
+                for (Stmt stmt : statements) {
+                    statement(stmt);
                 }
-                
-                @Override
-                public Stmt visitFunctionStmt(Stmt.Function stmt) {
-                    return stmt;
+            }
+
+            void statement(Stmt stmt) {
+                if (stopped) {
+                    return;
                 }
-                
-                @Override
-                public Stmt visitClassStmt(Stmt.Class stmt) {
-                    return stmt;
+                if (stmt instanceof Stmt.Expression) {
+                    expression(((Stmt.Expression) stmt).expression);
+                } else if (stmt instanceof Stmt.Var) {
+                    Stmt.Var var = (Stmt.Var) stmt;
+                    if (var.initializer != null) {
+                        expression(var.initializer);
+                    }
+                } else if (stmt instanceof Stmt.Block) {
+                    statements(((Stmt.Block) stmt).statements);
+                } else if (stmt instanceof Stmt.If) {
+                    Stmt.If ifStmt = (Stmt.If) stmt;
+                    expression(ifStmt.condition);
+                    stopped = !isQuiet(ifStmt.thenBranch)
+                        || (ifStmt.elseBranch != null && !isQuiet(ifStmt.elseBranch));
+                } else if (stmt instanceof Stmt.While) {
+                    expression(((Stmt.While) stmt).condition);
+                    stopped = true;
+                } else if (stmt instanceof Stmt.For) {
+                    operands(((Stmt.For) stmt).iterable);
+                    stopped = true;
+                } else if (stmt instanceof Stmt.Function || stmt instanceof Stmt.Class
+                        || stmt instanceof Stmt.TypeAlias) {
+                    // Declarations evaluate nothing
+                } else {
+                    Expr value = stmt instanceof Stmt.Return ? ((Stmt.Return) stmt).value
+                        : stmt instanceof Stmt.Throw ? ((Stmt.Throw) stmt).value
+                        : stmt instanceof Stmt.Yield ? ((Stmt.Yield) stmt).value : null;
+                    if (value != null) {
+                        expression(value);
+                    }
+                    stopped = true;
                 }
-                
-                @Override
-                public Stmt visitImportStmt(Stmt.Import stmt) {
-                    return stmt;
+            }
+
+            void expression(Expr expr) {
+                if (stopped) {
+                    return;
                 }
-                
-                @Override
-                public Stmt visitExportStmt(Stmt.Export stmt) {
-                    return stmt;
+                ExpressionShape shape = classifier.of(expr);
+                if (isHoistable(expr, shape)) {
+                    hoisted.putIfAbsent(shape.key, expr);
+                    return;
                 }
-                
-                @Override
-                public Stmt visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) {
-                    return stmt;
+
+                operands(expr);
+
+                if (!shape.isPure() && (expr instanceof Expr.Call || expr instanceof Expr.Match)) {
+                    stopped = true;
                 }
-                
-                @Override
-                public Stmt visitTypeAliasStmt(Stmt.TypeAlias stmt) {
-                    // Type aliases are compile-time only, no optimization needed
-                    return stmt;
+            }
+
+            private boolean isHoistable(Expr expr, ExpressionShape shape) {
+                // Expressions of constants are left to constant folding
+                return !(expr instanceof Expr.Grouping) && shape.weight > 0
+                    && (!shape.variables.isEmpty() || shape.readsMemory)
+                    && isInvariant(shape, loop, region);
+            }
+
+            // Operands in the order the interpreter evaluates them
+            private void operands(Expr expr) {
+                if (expr instanceof Expr.Binary) {
+                    expression(((Expr.Binary) expr).left);
+                    expression(((Expr.Binary) expr).right);
+                } else if (expr instanceof Expr.Logical) {
+                    // The right operand is not always evaluated
+                    expression(((Expr.Logical) expr).left);
+                    stopped |= !classifier.of(((Expr.Logical) expr).right).isPure();
+                } else if (expr instanceof Expr.Unary) {
+                    expression(((Expr.Unary) expr).right);
+                } else if (expr instanceof Expr.Grouping) {
+                    expression(((Expr.Grouping) expr).expression);
+                } else if (expr instanceof Expr.Call) {
+                    Expr.Call call = (Expr.Call) expr;
+                    // A method is looked up on its object, never moved itself
+                    if (call.callee instanceof Expr.Get) {
+                        expression(((Expr.Get) call.callee).object);
+                    } else if (!(call.callee instanceof Expr.Variable)) {
+                        expression(call.callee);
+                    }
+                    for (Expr argument : call.arguments) {
+                        expression(argument);
+                    }
+                } else if (expr instanceof Expr.Get) {
+                    expression(((Expr.Get) expr).object);
+                } else if (expr instanceof Expr.Index) {
+                    expression(((Expr.Index) expr).object);
+                    expression(((Expr.Index) expr).index);
+                } else if (expr instanceof Expr.Slice) {
+                    Expr.Slice slice = (Expr.Slice) expr;
+                    expression(slice.object);
+                    if (slice.start != null) {
+                        expression(slice.start);
+                    }
+                    if (slice.end != null) {
+                        expression(slice.end);
+                    }
+                } else if (expr instanceof Expr.Set) {
+                    expression(((Expr.Set) expr).object);
+                    expression(((Expr.Set) expr).value);
+                } else if (expr instanceof Expr.IndexSet) {
+                    Expr.IndexSet indexSet = (Expr.IndexSet) expr;
+                    expression(indexSet.object);
+                    expression(indexSet.index);
+                    expression(indexSet.value);
+                } else if (expr instanceof Expr.Assign) {
+                    expression(((Expr.Assign) expr).value);
+                } else if (expr instanceof Expr.ListExpr) {
+                    for (Expr element : ((Expr.ListExpr) expr).elements) {
+                        expression(element);
+                    }
+                } else if (expr instanceof Expr.Dict) {
+                    Expr.Dict dict = (Expr.Dict) expr;
+                    for (int i = 0; i < dict.keys.size(); i++) {
+                        expression(dict.keys.get(i));
+                        expression(dict.values.get(i));
+                    }
+                } else if (expr instanceof Expr.Match) {
+                    expression(((Expr.Match) expr).expr);
                 }
-            });
+            }
         }
-        
+
         /**
-         * Apply strength reduction to expressions.
+         * Whether running a statement can neither be observed nor stop the
+         * loop early: it makes no calls, does not yield or return, and has
+         * no loops of its own that might never finish.
          */
-        private Expr reduceStrength(Expr expr) {
-            return expr.accept(new Expr.Visitor<Expr>() {
+        private boolean isQuiet(Stmt stmt) {
+            boolean[] quiet = {true};
+            new AstScanner() {
                 @Override
-                public Expr visitBinaryExpr(Expr.Binary expr) {
-                    Expr left = reduceStrength(expr.left);
-                    Expr right = reduceStrength(expr.right);
-                    
-                    // Strength reduction patterns
-                    if (expr.operator.type == TokenType.STAR) {
-                        // x * 2 -> x + x
-                        if (right instanceof Expr.Literal) {
-                            Expr.Literal lit = (Expr.Literal) right;
-                            if (lit.value instanceof Double && (Double) lit.value == 2.0) {
-                                strengthReductions++;
-                                return new Expr.Binary(left, 
-                                    new Token(TokenType.PLUS, "+", null, expr.operator.line), 
-                                    left);
-                            }
-                        }
-                        
-                        // 2 * x -> x + x
-                        if (left instanceof Expr.Literal) {
-                            Expr.Literal lit = (Expr.Literal) left;
-                            if (lit.value instanceof Double && (Double) lit.value == 2.0) {
-                                strengthReductions++;
-                                return new Expr.Binary(right, 
-                                    new Token(TokenType.PLUS, "+", null, expr.operator.line), 
-                                    right);
-                            }
-                        }
-                    }
-                    
-                    // x / 2 -> x * 0.5 (multiplication is faster than division)
-                    if (expr.operator.type == TokenType.SLASH) {
-                        if (right instanceof Expr.Literal) {
-                            Expr.Literal lit = (Expr.Literal) right;
-                            if (lit.value instanceof Double && (Double) lit.value == 2.0) {
-                                strengthReductions++;
-                                return new Expr.Binary(left,
-                                    new Token(TokenType.STAR, "*", null, expr.operator.line),
-                                    new Expr.Literal(0.5));
-                            }
-                        }
+                void visit(Stmt stmt) {
+                    if (functionDepth == 0 && (stmt instanceof Stmt.While || stmt instanceof Stmt.For
+                            || stmt instanceof Stmt.Return || stmt instanceof Stmt.Throw
+                            || stmt instanceof Stmt.Yield || stmt instanceof Stmt.Import)) {
+                        quiet[0] = false;
                     }
-                    
-                    return new Expr.Binary(left, expr.operator, right);
-                }
-                
-                @Override
-                public Expr visitUnaryExpr(Expr.Unary expr) {
-                    Expr right = reduceStrength(expr.right);
-                    return new Expr.Unary(expr.operator, right);
                 }
-                
+
                 @Override
-                public Expr visitCallExpr(Expr.Call expr) {
-                    Expr callee = reduceStrength(expr.callee);
-                    List<Expr> args = new ArrayList<>();
-                    for (Expr arg : expr.arguments) {
-                        args.add(reduceStrength(arg));
+                void visit(Expr expr) {
+                    if (functionDepth == 0 && (expr instanceof Expr.Match
+                            || (expr instanceof Expr.Call && !classifier.of(expr).isPure()))) {
+                        quiet[0] = false;
                     }
-                    return new Expr.Call(callee, expr.paren, args);
-                }
-                
-                @Override
-                public Expr visitGroupingExpr(Expr.Grouping expr) {
-                    return reduceStrength(expr.expression);
                 }
-                
-                @Override
-                public Expr visitLogicalExpr(Expr.Logical expr) {
-                    Expr left = reduceStrength(expr.left);
-                    Expr right = reduceStrength(expr.right);
-                    return new Expr.Logical(left, expr.operator, right);
-                }
-                
-                @Override
-                public Expr visitAssignExpr(Expr.Assign expr) {
-                    Expr value = reduceStrength(expr.value);
-                    return new Expr.Assign(expr.name, value);
-                }
-                
-                // Simple expressions - return as-is
-                @Override public Expr visitLiteralExpr(Expr.Literal expr) { return expr; }
-                @Override public Expr visitVariableExpr(Expr.Variable expr) { return expr; }
-                @Override public Expr visitThisExpr(Expr.This expr) { return expr; }
-                @Override public Expr visitListExpr(Expr.ListExpr expr) { return expr; }
-                @Override public Expr visitDictExpr(Expr.Dict expr) { return expr; }
-                @Override public Expr visitIndexExpr(Expr.Index expr) { return expr; }
-                @Override public Expr visitGetExpr(Expr.Get expr) { return expr; }
-                @Override public Expr visitSetExpr(Expr.Set expr) { return expr; }
-                @Override public Expr visitIndexSetExpr(Expr.IndexSet expr) { return expr; }
-                @Override public Expr visitSliceExpr(Expr.Slice expr) { return expr; }
-                @Override public Expr visitLambdaExpr(Expr.Lambda expr) { return expr; }
-                @Override public Expr visitMatchExpr(Expr.Match expr) { return expr; }
-                @Override public Expr visitTypeExpr(Expr.Type expr) { return expr; }
-                @Override public Expr visitGenericTypeExpr(Expr.GenericType expr) { return expr; }
-                @Override public Expr visitFunctionTypeExpr(Expr.FunctionType expr) { return expr; }
-                @Override public Expr visitArrayTypeExpr(Expr.ArrayType expr) { return expr; }
-            });
-        }
-        
+            }.statement(stmt);
+            return quiet[0];
+        }
+
         /**
-         * Check if a for loop is a simple counting loop suitable for unrolling.
+         * Whether iterating over the expression always visits at least one
+         * element, without any effect of evaluating it.
          */
-        private boolean isSimpleCountingLoop(Stmt.For stmt) {
-            // Check if iterating over a list literal with small size
-            if (stmt.iterable instanceof Expr.ListExpr) {
-                Expr.ListExpr list = (Expr.ListExpr) stmt.iterable;
-                return list.elements.size() <= unrollThreshold;
+        private boolean isKnownNonEmpty(Expr iterable) {
+            if (iterable instanceof Expr.ListExpr) {
+                List<Expr> elements = ((Expr.ListExpr) iterable).elements;
+                for (Expr element : elements) {
+                    if (!classifier.of(element).isPure()) {
+                        return false;
+                    }
+                }
+                return !elements.isEmpty();
             }
-            
-            // Could also check for range() calls in the future
-            return false;
+            ThornRange range = constantRange(iterable);
+            return range != null && !range.isEmpty();
         }
-        
+
         /**
-         * Try to unroll a simple loop.
+         * The range a call to the range() built-in with literal arguments
+         * produces, or null for anything else.
          */
-        private Stmt tryUnrollLoop(Stmt.For stmt) {
-            if (!(stmt.iterable instanceof Expr.ListExpr)) {
+        private ThornRange constantRange(Expr expr) {
+            if (!isRangeCall(expr)) {
                 return null;
             }
-            
-            Expr.ListExpr list = (Expr.ListExpr) stmt.iterable;
-            List<Stmt> unrolledStatements = new ArrayList<>();
-            
-            // Create a copy of the loop body for each iteration
-            for (Expr element : list.elements) {
-                // Create assignment: loopVar = element
-                Stmt.Var varAssign = new Stmt.Var(
-                    stmt.variable,
-                    null,
-                    element,
-                    false
-                );
-                unrolledStatements.add(varAssign);
-                
-                // Add the loop body
-                unrolledStatements.add(stmt.body);
-            }
-            
-            return new Stmt.Block(unrolledStatements);
-        }
-        
+            List<Expr> arguments = ((Expr.Call) expr).arguments;
+            double[] values = new double[arguments.size()];
+            for (int i = 0; i < values.length; i++) {
+                Double value = numberLiteral(arguments.get(i));
+                if (value == null) {
+                    return null;
+                }
+                values[i] = value;
+            }
+            try {
+                switch (values.length) {
+                    case 1: return ThornRange.of(0, values[0], 1);
+                    case 2: return ThornRange.of(values[0], values[1], 1);
+                    default: return ThornRange.of(values[0], values[1], values[2]);
+                }
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private boolean isRangeCall(Expr expr) {
+            if (!(expr instanceof Expr.Call)) {
+                return false;
+            }
+            Expr.Call call = (Expr.Call) expr;
+            return call.callee instanceof Expr.Variable
+                && ((Expr.Variable) call.callee).name.lexeme.equals("range")
+                && classifier.isPureBuiltin("range")
+                && call.arguments.size() >= 1 && call.arguments.size() <= 3;
+        }
+
         /**
-         * Remove invariant statements from loop body.
+         * Reduces i * k in a while loop whose induction variable i is set
+         * to an integer just before the loop and stepped by a constant once
+         * per iteration. Initializations go to beforeLoop.
          */
-        private Stmt removeInvariantStatements(Stmt body, Set<Stmt> invariants) {
-            if (invariants.isEmpty()) {
-                return body;
+        private Stmt.While reduceWhileStrength(Stmt.While loop, Stmt previous, Region region,
+                                               List<Stmt> beforeLoop) {
+            if (!(loop.body instanceof Stmt.Block)) {
+                return loop;
             }
-            
-            return body.accept(new Stmt.Visitor<Stmt>() {
-                @Override
-                public Stmt visitBlockStmt(Stmt.Block stmt) {
-                    List<Stmt> filtered = new ArrayList<>();
-                    for (Stmt s : stmt.statements) {
-                        if (!invariants.contains(s)) {
-                            Stmt processed = removeInvariantStatements(s, invariants);
-                            if (processed != null) {
-                                filtered.add(processed);
-                            }
-                        }
-                    }
-                    return new Stmt.Block(filtered);
+            List<Stmt> body = ((Stmt.Block) loop.body).statements;
+            LoopFacts facts = scanLoop(loop);
+
+            for (int i = 0; i < body.size(); i++) {
+                Stmt update = body.get(i);
+                String variable = steppedVariable(update);
+                Double step = variable != null ? integerStep(update) : null;
+                Double start = variable != null ? initialValue(previous, variable) : null;
+                if (step == null || start == null || facts.bindings.getOrDefault(variable, 0) != 1
+                        || (facts.hasCalls && !region.isUnaffectedByCalls(variable))) {
+                    continue;
                 }
-                
-                @Override
-                public Stmt visitIfStmt(Stmt.If stmt) {
-                    if (invariants.contains(stmt)) return null;
-                    
-                    Stmt filteredThen = removeInvariantStatements(stmt.thenBranch, invariants);
-                    Stmt filteredElse = stmt.elseBranch != null ? 
-                        removeInvariantStatements(stmt.elseBranch, invariants) : null;
-                    
-                    return new Stmt.If(stmt.condition, filteredThen, filteredElse);
-                }
-                
-                @Override
-                public Stmt visitWhileStmt(Stmt.While stmt) {
-                    if (invariants.contains(stmt)) return null;
-                    
-                    Stmt filteredBody = removeInvariantStatements(stmt.body, invariants);
-                    return new Stmt.While(stmt.condition, filteredBody);
+
+                List<Stmt> stepping = new ArrayList<>();
+                AstRewriter reduction = reduce(variable, start, step, loop, region, beforeLoop, stepping);
+                if (reduction == null) {
+                    continue;
                 }
-                
-                @Override
-                public Stmt visitForStmt(Stmt.For stmt) {
-                    if (invariants.contains(stmt)) return null;
-                    
-                    Stmt filteredBody = removeInvariantStatements(stmt.body, invariants);
-                    return new Stmt.For(stmt.variable, stmt.iterable, filteredBody);
-                }
-                
-                // Other statements - check if they're invariant
-                @Override
-                public Stmt visitExpressionStmt(Stmt.Expression stmt) {
-                    return invariants.contains(stmt) ? null : stmt;
+
+                List<Stmt> reducedBody = new ArrayList<>();
+                for (Stmt stmt : body) {
+                    reducedBody.add(stmt == update ? stmt : reduction.statement(stmt));
+                    if (stmt == update) {
+                        reducedBody.addAll(stepping);
+                    }
                 }
-                
+                // The condition sees the variables after the update as well
+                return new Stmt.While(reduction.expression(loop.condition), new Stmt.Block(reducedBody));
+            }
+            return loop;
+        }
+
+        /**
+         * Reduces i * k in a for loop over a range() that starts and steps by
+         * integer constants.
+         */
+        private Stmt.For reduceForStrength(Stmt.For loop, LoopFacts facts, Region region,
+                                           List<Stmt> beforeLoop) {
+            if (!(loop.body instanceof Stmt.Block) || !isRangeCall(loop.iterable)) {
+                return loop;
+            }
+            String variable = loop.variable.lexeme;
+            if (facts.bindings.getOrDefault(variable, 0) != 1
+                    || (facts.hasCalls && !region.isUnaffectedByCalls(variable))) {
+                return loop;
+            }
+            List<Expr> arguments = ((Expr.Call) loop.iterable).arguments;
+            Double start = arguments.size() == 1 ? Double.valueOf(0) : integerLiteral(arguments.get(0));
+            Double step = arguments.size() < 3 ? Double.valueOf(1) : integerLiteral(arguments.get(2));
+            if (start == null || step == null) {
+                return loop;
+            }
+
+            // Stepped at the top of the body, so it starts one step early
+            List<Stmt> stepping = new ArrayList<>();
+            AstRewriter reduction = reduce(variable, start - step, step, loop, region, beforeLoop, stepping);
+            if (reduction == null) {
+                return loop;
+            }
+
+            List<Stmt> body = new ArrayList<>(stepping);
+            body.addAll(reduction.statements(((Stmt.Block) loop.body).statements));
+            return new Stmt.For(loop.variable, loop.iterable, new Stmt.Block(body));
+        }
+
+        /**
+         * Chooses the products variable * k in a loop worth replacing. For
+         * each, adds a temporary initialized to start * k to beforeLoop and
+         * its step of step * k to stepping, and returns a rewriter that reads
+         * the temporaries in place of the products, or null if none is worth it.
+         */
+        private AstRewriter reduce(String variable, double start, double step, Stmt loop, Region region,
+                                List<Stmt> beforeLoop, List<Stmt> stepping) {
+            Map<Double, Integer> uses = new LinkedHashMap<>();
+            new AstScanner() {
                 @Override
-                public Stmt visitVarStmt(Stmt.Var stmt) {
-                    return invariants.contains(stmt) ? null : stmt;
+                void visit(Expr expr) {
+                    Double factor = factor(expr, variable);
+                    if (factor != null && functionDepth == 0 && caseDepth == 0) {
+                        uses.merge(factor, 1, Integer::sum);
+                    }
                 }
-                
-                @Override
-                public Stmt visitReturnStmt(Stmt.Return stmt) {
-                    return invariants.contains(stmt) ? null : stmt;
+            }.statement(loop);
+
+            Map<Double, Token> temporaries = new HashMap<>();
+            for (Map.Entry<Double, Integer> entry : uses.entrySet()) {
+                if (entry.getValue() < MIN_REDUCED_USES) {
+                    continue;
                 }
-                
+                double factor = entry.getKey();
+                Token temporary = region.newTemporary("__iv" + nextTemporary++);
+                temporaries.put(factor, temporary);
+                beforeLoop.add(new Stmt.Expression(new Expr.Assign(temporary, new Expr.Literal(start * factor))));
+                stepping.add(new Stmt.Expression(new Expr.Assign(temporary, new Expr.Binary(
+                    new Expr.Variable(temporary), new Token(PLUS, "+", null, 0), new Expr.Literal(step * factor)))));
+                strengthReductions += entry.getValue();
+            }
+            if (temporaries.isEmpty()) {
+                return null;
+            }
+
+            return new AstRewriter(false) {
                 @Override
-                public Stmt visitThrowStmt(Stmt.Throw stmt) {
-                    return invariants.contains(stmt) ? null : stmt;
+                Expr replace(Expr expr) {
+                    Double factor = factor(expr, variable);
+                    Token temporary = factor != null ? temporaries.get(factor) : null;
+                    return temporary != null ? new Expr.Variable(temporary) : null;
                 }
-                
-                @Override
-                public Stmt visitFunctionStmt(Stmt.Function stmt) {
-                    return stmt;
+            };
+        }
+
+        /**
+         * The integer k if the expression is variable * k or k * variable.
+         */
+        private Double factor(Expr expr, String variable) {
+            if (!(expr instanceof Expr.Binary) || ((Expr.Binary) expr).operator.type != STAR) {
+                return null;
+            }
+            Expr.Binary product = (Expr.Binary) expr;
+            if (isVariable(product.left, variable)) {
+                return integerLiteral(product.right);
+            }
+            if (isVariable(product.right, variable)) {
+                return integerLiteral(product.left);
+            }
+            return null;
+        }
+
+        /**
+         * The variable a statement of the form i = i + c or i = i - c steps.
+         */
+        private String steppedVariable(Stmt stmt) {
+            if (!(stmt instanceof Stmt.Expression) || !(((Stmt.Expression) stmt).expression instanceof Expr.Assign)) {
+                return null;
+            }
+            Expr.Assign assign = (Expr.Assign) ((Stmt.Expression) stmt).expression;
+            if (!(assign.value instanceof Expr.Binary)) {
+                return null;
+            }
+            Expr.Binary value = (Expr.Binary) assign.value;
+            String name = assign.name.lexeme;
+            boolean stepped = (value.operator.type == PLUS || value.operator.type == MINUS)
+                && isVariable(value.left, name)
+                || value.operator.type == PLUS && isVariable(value.right, name);
+            return stepped ? name : null;
+        }
+
+        private Double integerStep(Stmt stmt) {
+            Expr.Binary value = (Expr.Binary) ((Expr.Assign) ((Stmt.Expression) stmt).expression).value;
+            String name = ((Expr.Assign) ((Stmt.Expression) stmt).expression).name.lexeme;
+            Double step = integerLiteral(isVariable(value.left, name) ? value.right : value.left);
+            if (step == null) {
+                return null;
+            }
+            return value.operator.type == MINUS ? -step : step;
+        }
+
+        // The integer a statement of the form i = n or a declaration of i sets it to
+        private Double initialValue(Stmt stmt, String variable) {
+            if (stmt instanceof Stmt.Expression && ((Stmt.Expression) stmt).expression instanceof Expr.Assign) {
+                Expr.Assign assign = (Expr.Assign) ((Stmt.Expression) stmt).expression;
+                return assign.name.lexeme.equals(variable) ? integerLiteral(assign.value) : null;
+            }
+            if (stmt instanceof Stmt.Var) {
+                Stmt.Var var = (Stmt.Var) stmt;
+                return var.name.lexeme.equals(variable) && var.initializer != null
+                    ? integerLiteral(var.initializer) : null;
+            }
+            return null;
+        }
+
+        private static boolean isVariable(Expr expr, String name) {
+            return expr instanceof Expr.Variable && ((Expr.Variable) expr).name.lexeme.equals(name);
+        }
+
+        private static Double numberLiteral(Expr expr) {
+            if (expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double) {
+                return (Double) ((Expr.Literal) expr).value;
+            }
+            return null;
+        }
+
+        // Integers small enough that sums of their products stay exact
+        private static Double integerLiteral(Expr expr) {
+            Double value = numberLiteral(expr);
+            if (value == null || value != Math.rint(value) || Math.abs(value) > (1 << 20)) {
+                return null;
+            }
+            return value;
+        }
+
+        /**
+         * Unrolls a loop over at most unrollThreshold constants, or more for
+         * a hot loop, into a copy of its body for each, or returns null.
+         */
+        private Stmt tryUnrollLoop(Stmt.For loop, LoopFacts facts, Region region) {
+            if (!(loop.body instanceof Stmt.Block)) {
+                // A body that is not a block declares into the enclosing scope
+                return null;
+            }
+
+            int threshold = unrollThreshold;
+            ExecutionProfile profile = context.getProfile();
+            if (profile != null) {
+                int line = loop.variable.line;
+                if (profile.isColdLoop(line)) {
+                    return null;
                 }
-                
-                @Override
-                public Stmt visitClassStmt(Stmt.Class stmt) {
-                    return stmt;
+                if (profile.isHotLoop(line)) {
+                    threshold *= HOT_UNROLL_FACTOR;
                 }
-                
-                @Override
-                public Stmt visitImportStmt(Stmt.Import stmt) {
-                    return stmt;
+            }
+
+            List<Expr> values = new ArrayList<>();
+            if (loop.iterable instanceof Expr.ListExpr) {
+                for (Expr element : ((Expr.ListExpr) loop.iterable).elements) {
+                    if (!(element instanceof Expr.Literal)) {
+                        return null;
+                    }
+                    values.add(element);
                 }
-                
-                @Override
-                public Stmt visitExportStmt(Stmt.Export stmt) {
-                    return stmt;
+            } else {
+                ThornRange range = constantRange(loop.iterable);
+                if (range == null || range.size() > threshold) {
+                    return null;
+                }
+                for (int i = 0; i < range.size(); i++) {
+                    values.add(new Expr.Literal(range.valueAt(i)));
                 }
-                
+            }
+
+            // Closures made in the body would share one variable rather than
+            // see the loop variable, and a function the body calls may read it
+            if (values.size() > threshold || facts.hasClosures
+                    || facts.size * values.size() > MAX_UNROLLED_BODY_SIZE * threshold
+                    || (facts.hasCalls && !region.isUnaffectedByCalls(loop.variable.lexeme))) {
+                return null;
+            }
+
+            // The block scopes the loop variable as the loop did
+            List<Stmt> unrolled = new ArrayList<>();
+            AstRewriter copier = new AstRewriter(true);
+            for (int i = 0; i < values.size(); i++) {
+                Expr value = copier.expression(values.get(i));
+                unrolled.add(i == 0 ? new Stmt.Var(loop.variable, null, value, false)
+                                    : new Stmt.Expression(new Expr.Assign(loop.variable, value)));
+                unrolled.add(copier.statement(loop.body));
+            }
+            return new Stmt.Block(unrolled);
+        }
+
+        private LoopFacts scanLoop(Stmt loop) {
+            LoopFacts facts = new LoopFacts();
+            new AstScanner() {
                 @Override
-                public Stmt visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) {
-                    return stmt;
+                void visit(Stmt stmt) {
+                    facts.size++;
+                    Token name = AstScanner.boundName(stmt);
+                    if (name != null) {
+                        facts.bind(name.lexeme);
+                    }
+                    if (stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) {
+                        facts.hasClosures = true;
+                    } else if (stmt instanceof Stmt.Yield || stmt instanceof Stmt.Import) {
+                        // Anything may run before a generator is resumed
+                        facts.hasCalls = true;
+                    }
                 }
-                
+
                 @Override
-                public Stmt visitTypeAliasStmt(Stmt.TypeAlias stmt) {
-                    // Type aliases are compile-time only, no optimization needed
-                    return stmt;
+                void visit(Expr expr) {
+                    facts.size++;
+                    if (expr instanceof Expr.Assign) {
+                        facts.bind(((Expr.Assign) expr).name.lexeme);
+                    } else if (expr instanceof Expr.Set || expr instanceof Expr.IndexSet) {
+                        facts.writesMemory = true;
+                    } else if (expr instanceof Expr.Call && !classifier.of(expr).isPure()) {
+                        facts.hasCalls = true;
+                    } else if (expr instanceof Expr.Lambda) {
+                        facts.hasClosures = true;
+                    }
                 }
-            });
+            }.statement(loop);
+            return facts;
         }
-        
-        /**
-         * Result of loop invariant analysis.
-         */
-        private static class LoopInvariantResult {
-            final List<Stmt> hoistedStatements;
-            final Expr optimizedCondition;
-            final Stmt optimizedBody;
-            
-            LoopInvariantResult(List<Stmt> hoistedStatements, Expr condition, Stmt body) {
-                this.hoistedStatements = hoistedStatements;
-                this.optimizedCondition = condition;
-                this.optimizedBody = body;
-            }
-        }
-        
+    }
+
+    /**
+     * What a loop, including the functions and lambdas it contains, may do.
+     */
+    private static final class LoopFacts {
+        // Times each name is assigned or declared
+        final Map<String, Integer> bindings = new HashMap<>();
+        boolean writesMemory = false;  // Writes a property or element
+        boolean hasCalls = false;      // Calls anything but a pure built-in, or yields
+        boolean hasClosures = false;   // Creates functions or lambdas
+        int size = 0;                  // AST nodes
+
+        void bind(String name) {
+            bindings.merge(name, 1, Integer::sum);
+        }
+
+        boolean assigns(String name) {
+            return bindings.containsKey(name);
+        }
+    }
+
+    /**
+     * The program or a function or lambda body, with the temporaries
+     * declared at its top.
+     */
+    private static final class Region {
+        private final Set<String> locals;    // Null for the program, where every name is global
+        private final Set<String> captured;  // Names used by the functions it contains
+        final List<Token> temporaries = new ArrayList<>();
+
+        Region(Set<String> locals, Set<String> captured) {
+            this.locals = locals;
+            this.captured = captured;
+        }
+
         /**
-         * Analyzer that identifies loop invariant code.
+         * Whether no function or lambda that code in the region calls can
+         * assign or read the variable.
          */
-        private static class LoopInvariantAnalyzer {
-            private final Set<String> loopVariables = new HashSet<>();
-            private final Set<Stmt> invariantStatements = new HashSet<>();
-            
-            public Set<Stmt> findInvariantStatements(Stmt loopBody) {
-                // First, identify all variables modified in the loop
-                identifyLoopVariables(loopBody);
-                
-                // Then, find statements that don't depend on loop variables
-                findInvariants(loopBody);
-                
-                return invariantStatements;
-            }
-            
-            private void identifyLoopVariables(Stmt stmt) {
-                stmt.accept(new Stmt.Visitor<Void>() {
-                    @Override
-                    public Void visitVarStmt(Stmt.Var stmt) {
-                        loopVariables.add(stmt.name.lexeme);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitExpressionStmt(Stmt.Expression stmt) {
-                        if (stmt.expression instanceof Expr.Assign) {
-                            Expr.Assign assign = (Expr.Assign) stmt.expression;
-                            loopVariables.add(assign.name.lexeme);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitBlockStmt(Stmt.Block stmt) {
-                        for (Stmt s : stmt.statements) {
-                            identifyLoopVariables(s);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitIfStmt(Stmt.If stmt) {
-                        identifyLoopVariables(stmt.thenBranch);
-                        if (stmt.elseBranch != null) {
-                            identifyLoopVariables(stmt.elseBranch);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitWhileStmt(Stmt.While stmt) {
-                        identifyLoopVariables(stmt.body);
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitForStmt(Stmt.For stmt) {
-                        loopVariables.add(stmt.variable.lexeme);
-                        identifyLoopVariables(stmt.body);
-                        return null;
-                    }
-                    
-                    // Other statements don't modify variables
-                    @Override public Void visitReturnStmt(Stmt.Return stmt) { return null; }
-                    @Override public Void visitThrowStmt(Stmt.Throw stmt) { return null; }
-                    @Override public Void visitFunctionStmt(Stmt.Function stmt) { return null; }
-                    @Override public Void visitClassStmt(Stmt.Class stmt) { return null; }
-                    @Override public Void visitImportStmt(Stmt.Import stmt) { return null; }
-                    @Override public Void visitExportStmt(Stmt.Export stmt) { return null; }
-                    @Override public Void visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) { return null; }
-                    @Override public Void visitTypeAliasStmt(Stmt.TypeAlias stmt) { return null; }
-                });
-            }
-            
-            private void findInvariants(Stmt stmt) {
-                // For simplicity, we only hoist simple expression statements and variable declarations
-                // that don't depend on loop variables and don't have side effects
-                stmt.accept(new Stmt.Visitor<Void>() {
-                    @Override
-                    public Void visitExpressionStmt(Stmt.Expression stmt) {
-                        if (!dependsOnLoopVariables(stmt.expression) && 
-                            !hasSideEffects(stmt.expression)) {
-                            invariantStatements.add(stmt);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitVarStmt(Stmt.Var stmt) {
-                        if (stmt.initializer != null &&
-                            !dependsOnLoopVariables(stmt.initializer) &&
-                            !hasSideEffects(stmt.initializer)) {
-                            invariantStatements.add(stmt);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitBlockStmt(Stmt.Block stmt) {
-                        for (Stmt s : stmt.statements) {
-                            findInvariants(s);
-                        }
-                        return null;
-                    }
-                    
-                    @Override
-                    public Void visitIfStmt(Stmt.If stmt) {
-                        findInvariants(stmt.thenBranch);
-                        if (stmt.elseBranch != null) {
-                            findInvariants(stmt.elseBranch);
-                        }
-                        return null;
-                    }
-                    
-                    // Don't hoist nested loops, returns, or complex statements
-                    @Override public Void visitWhileStmt(Stmt.While stmt) { return null; }
-                    @Override public Void visitForStmt(Stmt.For stmt) { return null; }
-                    @Override public Void visitReturnStmt(Stmt.Return stmt) { return null; }
-                    @Override public Void visitThrowStmt(Stmt.Throw stmt) { return null; }
-                    @Override public Void visitFunctionStmt(Stmt.Function stmt) { return null; }
-                    @Override public Void visitClassStmt(Stmt.Class stmt) { return null; }
-                    @Override public Void visitImportStmt(Stmt.Import stmt) { return null; }
-                    @Override public Void visitExportStmt(Stmt.Export stmt) { return null; }
-                    @Override public Void visitExportIdentifierStmt(Stmt.ExportIdentifier stmt) { return null; }
-                    @Override public Void visitTypeAliasStmt(Stmt.TypeAlias stmt) { return null; }
-                });
-            }
-            
-            private boolean dependsOnLoopVariables(Expr expr) {
-                return expr.accept(new Expr.Visitor<Boolean>() {
-                    @Override
-                    public Boolean visitVariableExpr(Expr.Variable expr) {
-                        return loopVariables.contains(expr.name.lexeme);
-                    }
-                    
-                    @Override
-                    public Boolean visitBinaryExpr(Expr.Binary expr) {
-                        return dependsOnLoopVariables(expr.left) || dependsOnLoopVariables(expr.right);
-                    }
-                    
-                    @Override
-                    public Boolean visitUnaryExpr(Expr.Unary expr) {
-                        return dependsOnLoopVariables(expr.right);
-                    }
-                    
-                    @Override
-                    public Boolean visitCallExpr(Expr.Call expr) {
-                        if (dependsOnLoopVariables(expr.callee)) return true;
-                        for (Expr arg : expr.arguments) {
-                            if (dependsOnLoopVariables(arg)) return true;
-                        }
-                        return false;
-                    }
-                    
-                    @Override
-                    public Boolean visitGroupingExpr(Expr.Grouping expr) {
-                        return dependsOnLoopVariables(expr.expression);
-                    }
-                    
-                    @Override
-                    public Boolean visitLogicalExpr(Expr.Logical expr) {
-                        return dependsOnLoopVariables(expr.left) || dependsOnLoopVariables(expr.right);
-                    }
-                    
-                    @Override
-                    public Boolean visitAssignExpr(Expr.Assign expr) {
-                        return true; // Assignments always depend on their target
-                    }
-                    
-                    @Override
-                    public Boolean visitIndexExpr(Expr.Index expr) {
-                        return dependsOnLoopVariables(expr.object) || dependsOnLoopVariables(expr.index);
-                    }
-                    
-                    @Override
-                    public Boolean visitGetExpr(Expr.Get expr) {
-                        return dependsOnLoopVariables(expr.object);
-                    }
-                    
-                    // Other expressions don't depend on variables
-                    @Override public Boolean visitLiteralExpr(Expr.Literal expr) { return false; }
-                    @Override public Boolean visitThisExpr(Expr.This expr) { return false; }
-                    @Override public Boolean visitListExpr(Expr.ListExpr expr) { return false; }
-                    @Override public Boolean visitDictExpr(Expr.Dict expr) { return false; }
-                    @Override public Boolean visitSetExpr(Expr.Set expr) { return true; }
-                    @Override public Boolean visitIndexSetExpr(Expr.IndexSet expr) { return true; }
-                    @Override public Boolean visitSliceExpr(Expr.Slice expr) { 
-                        return dependsOnLoopVariables(expr.object) || 
-                               (expr.start != null && dependsOnLoopVariables(expr.start)) ||
-                               (expr.end != null && dependsOnLoopVariables(expr.end));
-                    }
-                    @Override public Boolean visitLambdaExpr(Expr.Lambda expr) { return false; }
-                    @Override public Boolean visitMatchExpr(Expr.Match expr) { return false; }
-                    @Override public Boolean visitTypeExpr(Expr.Type expr) { return false; }
-                    @Override public Boolean visitGenericTypeExpr(Expr.GenericType expr) { return false; }
-                    @Override public Boolean visitFunctionTypeExpr(Expr.FunctionType expr) { return false; }
-                    @Override public Boolean visitArrayTypeExpr(Expr.ArrayType expr) { return false; }
-                });
-            }
-            
-            private boolean hasSideEffects(Expr expr) {
-                return expr.accept(new Expr.Visitor<Boolean>() {
-                    @Override public Boolean visitCallExpr(Expr.Call expr) { return true; }
-                    @Override public Boolean visitAssignExpr(Expr.Assign expr) { return true; }
-                    @Override public Boolean visitSetExpr(Expr.Set expr) { return true; }
-                    @Override public Boolean visitIndexSetExpr(Expr.IndexSet expr) { return true; }
-                    
-                    @Override
-                    public Boolean visitBinaryExpr(Expr.Binary expr) {
-                        return hasSideEffects(expr.left) || hasSideEffects(expr.right);
-                    }
-                    
-                    @Override
-                    public Boolean visitUnaryExpr(Expr.Unary expr) {
-                        return hasSideEffects(expr.right);
-                    }
-                    
-                    @Override
-                    public Boolean visitGroupingExpr(Expr.Grouping expr) {
-                        return hasSideEffects(expr.expression);
-                    }
-                    
-                    @Override
-                    public Boolean visitLogicalExpr(Expr.Logical expr) {
-                        return hasSideEffects(expr.left) || hasSideEffects(expr.right);
-                    }
-                    
-                    @Override
-                    public Boolean visitIndexExpr(Expr.Index expr) {
-                        return hasSideEffects(expr.object) || hasSideEffects(expr.index);
-                    }
-                    
-                    @Override
-                    public Boolean visitGetExpr(Expr.Get expr) {
-                        return hasSideEffects(expr.object);
-                    }
-                    
-                    // Pure expressions
-                    @Override public Boolean visitLiteralExpr(Expr.Literal expr) { return false; }
-                    @Override public Boolean visitVariableExpr(Expr.Variable expr) { return false; }
-                    @Override public Boolean visitThisExpr(Expr.This expr) { return false; }
-                    @Override public Boolean visitListExpr(Expr.ListExpr expr) { return false; }
-                    @Override public Boolean visitDictExpr(Expr.Dict expr) { return false; }
-                    @Override public Boolean visitSliceExpr(Expr.Slice expr) { 
-                        return hasSideEffects(expr.object) || 
-                               (expr.start != null && hasSideEffects(expr.start)) ||
-                               (expr.end != null && hasSideEffects(expr.end));
-                    }
-                    @Override public Boolean visitLambdaExpr(Expr.Lambda expr) { return false; }
-                    @Override public Boolean visitMatchExpr(Expr.Match expr) { return false; }
-                    @Override public Boolean visitTypeExpr(Expr.Type expr) { return false; }
-                    @Override public Boolean visitGenericTypeExpr(Expr.GenericType expr) { return false; }
-                    @Override public Boolean visitFunctionTypeExpr(Expr.FunctionType expr) { return false; }
-                    @Override public Boolean visitArrayTypeExpr(Expr.ArrayType expr) { return false; }
-                });
-            }
+        boolean isUnaffectedByCalls(String name) {
+            return (locals == null || locals.contains(name)) && !captured.contains(name);
+        }
+
+        Token newTemporary(String name) {
+            Token temporary = new Token(IDENTIFIER, name, null, 0);
+            temporaries.add(temporary);
+            return temporary;
+        }
+    }
+
+    private static void addReferencedName(Expr expr, Set<String> names) {
+        if (expr instanceof Expr.Variable) {
+            names.add(((Expr.Variable) expr).name.lexeme);
+        } else if (expr instanceof Expr.Assign) {
+            names.add(((Expr.Assign) expr).name.lexeme);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,257 @@
+package com.thorn;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decision table for a match expression, built once and shared by the
+ * interpreter and the VM compiler.
+ *
+ * Cases are classified by their pattern so that dispatch only visits cases
+ * that can possibly match: literal patterns are keyed in a hash table, and
+ * Ok/Error patterns are selected with a single tag check. Every candidate
+ * list keeps source order, so guards and first-match semantics are unchanged.
+ */
+public class MatchPlan {
+
+    public enum Kind {
+        DEFAULT,     // _ (always matches)
+        LITERAL,     // string, number or boolean literal
+        OK,          // Ok(binding)
+        ERROR,       // Error(binding)
+        EXPRESSION,  // any other pattern, compared with == at runtime
+        NEVER        // constructor pattern that can never match
+    }
+
+    private static final int[] NO_CASES = new int[0];
+
+    private final Kind[] kinds;
+    private final String[] bindings;
+    private final boolean[] needsScope;
+
+    // Candidate cases for each literal key, and for values without a key
+    private final Map<Object, int[]> literalCandidates;
+    private final int[] okCandidates;
+    private final int[] errorCandidates;
+    private final int[] fallbackCandidates;
+
+    private MatchPlan(Expr.Match match) {
+        int caseCount = match.cases.size();
+        this.kinds = new Kind[caseCount];
+        this.bindings = new String[caseCount];
+        this.needsScope = new boolean[caseCount];
+
+        for (int i = 0; i < caseCount; i++) {
+            Expr.Match.Case matchCase = match.cases.get(i);
+            kinds[i] = classify(matchCase.pattern);
+            bindings[i] = bindingName(matchCase.pattern, kinds[i]);
+            needsScope[i] = matchCase.isBlock && mayDeclare(matchCase.stmts);
+        }
+
+        // Cases that do not depend on the value's key stay candidates everywhere
+        Map<Object, List<Integer>> keyed = new HashMap<>();
+        for (int i = 0; i < caseCount; i++) {
+            if (kinds[i] == Kind.LITERAL) {
+                Object key = ((Expr.Literal) match.cases.get(i).pattern).value;
+                keyed.computeIfAbsent(key, k -> new ArrayList<>());
+            }
+        }
+        for (int i = 0; i < caseCount; i++) {
+            if (kinds[i] == Kind.LITERAL) {
+                keyed.get(((Expr.Literal) match.cases.get(i).pattern).value).add(i);
+            } else if (kinds[i] == Kind.DEFAULT || kinds[i] == Kind.EXPRESSION) {
+                for (List<Integer> candidates : keyed.values()) {
+                    candidates.add(i);
+                }
+            }
+        }
+
+        this.literalCandidates = new HashMap<>();
+        for (Map.Entry<Object, List<Integer>> entry : keyed.entrySet()) {
+            literalCandidates.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        this.okCandidates = collect(Kind.OK);
+        this.errorCandidates = collect(Kind.ERROR);
+        this.fallbackCandidates = collect(null);
+    }
+
+    /**
+     * Build the decision table for a match expression.
+     */
+    public static MatchPlan compile(Expr.Match match) {
+        return new MatchPlan(match);
+    }
+
+    /**
+     * Indices of the cases that can match the value, in source order.
+     */
+    public int[] candidates(Object value) {
+        if (value instanceof ThornResult) {
+            return ((ThornResult) value).isOk() ? okCandidates : errorCandidates;
+        }
+        if (!literalCandidates.isEmpty() && value != null) {
+            int[] candidates = literalCandidates.get(value);
+            if (candidates != null) {
+                return candidates;
+            }
+        }
+        return fallbackCandidates;
+    }
+
+    /**
+     * First candidate case at or after fromCase, or -1 when none is left.
+     */
+    public int nextCandidate(Object value, int fromCase) {
+        for (int index : candidates(value)) {
+            if (index >= fromCase) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    public int caseCount() {
+        return kinds.length;
+    }
+
+    public Kind kind(int caseIndex) {
+        return kinds[caseIndex];
+    }
+
+    /**
+     * Variable bound by an Ok/Error pattern, or null.
+     */
+    public String binding(int caseIndex) {
+        return bindings[caseIndex];
+    }
+
+    /**
+     * Whether a block case may declare variables and so needs its own scope.
+     */
+    public boolean needsScope(int caseIndex) {
+        return needsScope[caseIndex];
+    }
+
+    private int[] collect(Kind tag) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == tag || kinds[i] == Kind.DEFAULT || kinds[i] == Kind.EXPRESSION) {
+                candidates.add(i);
+            }
+        }
+        return toArray(candidates);
+    }
+
+    private static int[] toArray(List<Integer> indices) {
+        if (indices.isEmpty()) return NO_CASES;
+        int[] result = new int[indices.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = indices.get(i);
+        }
+        return result;
+    }
+
+    private static Kind classify(Expr pattern) {
+        if (pattern instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) pattern).value;
+            if (value == null) return Kind.DEFAULT;
+            if (value instanceof String || value instanceof Double || value instanceof Boolean) {
+                return Kind.LITERAL;
+            }
+            return Kind.EXPRESSION;
+        }
+        if (pattern instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) pattern;
+            if (call.callee instanceof Expr.Variable) {
+                String constructorName = ((Expr.Variable) call.callee).name.lexeme;
+                if (constructorName.equals("Ok")) return Kind.OK;
+                if (constructorName.equals("Error")) return Kind.ERROR;
+            }
+            return Kind.NEVER;
+        }
+        return Kind.EXPRESSION;
+    }
+
+    private static String bindingName(Expr pattern, Kind kind) {
+        if (kind != Kind.OK && kind != Kind.ERROR) return null;
+        Expr.Call call = (Expr.Call) pattern;
+        if (call.arguments.size() == 1 && call.arguments.get(0) instanceof Expr.Variable) {
+            return ((Expr.Variable) call.arguments.get(0)).name.lexeme;
+        }
+        return null;
+    }
+
+    // Conservative scan: assignments can declare in Thorn, so only blocks made
+    // of plain expression, return and if statements may share the outer scope
+
+    static boolean mayDeclare(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            if (mayDeclare(stmt)) return true;
+        }
+        return false;
+    }
+
+    private static boolean mayDeclare(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression) {
+            return mayDeclare(((Stmt.Expression) stmt).expression);
+        }
+        if (stmt instanceof Stmt.Return) {
+            Stmt.Return returnStmt = (Stmt.Return) stmt;
+            return returnStmt.value != null && mayDeclare(returnStmt.value);
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            return mayDeclare(ifStmt.condition) || mayDeclare(ifStmt.thenBranch) ||
+                   (ifStmt.elseBranch != null && mayDeclare(ifStmt.elseBranch));
+        }
+        if (stmt instanceof Stmt.Block) {
+            return false;  // Blocks get their own environment
+        }
+        return true;
+    }
+
+    private static boolean mayDeclare(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.Variable ||
+            expr instanceof Expr.This || expr instanceof Expr.Lambda) {
+            return false;
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return mayDeclare(binary.left) || mayDeclare(binary.right);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return mayDeclare(logical.left) || mayDeclare(logical.right);
+        }
+        if (expr instanceof Expr.Unary) {
+            return mayDeclare(((Expr.Unary) expr).right);
+        }
+        if (expr instanceof Expr.Grouping) {
+            return mayDeclare(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Get) {
+            return mayDeclare(((Expr.Get) expr).object);
+        }
+        if (expr instanceof Expr.Index) {
+            Expr.Index index = (Expr.Index) expr;
+            return mayDeclare(index.object) || mayDeclare(index.index);
+        }
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            if (mayDeclare(call.callee)) return true;
+            for (Expr argument : call.arguments) {
+                if (mayDeclare(argument)) return true;
+            }
+            return false;
+        }
+        if (expr instanceof Expr.ListExpr) {
+            for (Expr element : ((Expr.ListExpr) expr).elements) {
+                if (mayDeclare(element)) return true;
+            }
+            return false;
+        }
+        return true;
+    }
+}
@@ -10,6 +10,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 
@@ -135,6 +138,58 @@ public class ModuleSystem {
         }
     }
     
+    /**
+     * Parses the Thorn module an import names without running it, so that
+     * the optimizer can see what it exports. Returns null for Java stdlib
+     * modules and for modules that cannot be found or do not parse; their
+     * errors are reported when the program imports them.
+     */
+    public List<Stmt> parseModule(String modulePath) {
+        if (javaStdlibModules.containsKey(extractModuleName(modulePath))) {
+            return null;
+        }
+        Path filePath = resolveModulePath(modulePath);
+        if (filePath == null) {
+            return null;
+        }
+        
+        boolean hadError = Thorn.hadError;
+        Thorn.hadError = false;
+        Thorn.quietErrors = true;
+        try {
+            Scanner scanner = new Scanner(Files.readString(filePath));
+            List<Stmt> statements = new Parser(scanner.scanTokens()).parse();
+            return Thorn.hadError ? null : statements;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            Thorn.hadError = hadError;
+            Thorn.quietErrors = false;
+        }
+    }
+    
+    /**
+     * The values a Java stdlib module exports, by name, so that the
+     * optimizer can see them without importing the module. Returns null
+     * when the import names a Thorn module.
+     */
+    public Map<String, Object> stdlibExports(String modulePath) {
+        String moduleName = extractModuleName(modulePath);
+        Class<?> moduleClass = javaStdlibModules.get(moduleName);
+        if (moduleClass == null) {
+            return null;
+        }
+        Module module = loadedModules.get(moduleName);
+        if (module == null) {
+            module = loadJavaStdlibModule(moduleName, moduleClass);
+        }
+        Map<String, Object> exports = new HashMap<>();
+        for (String name : module.getExportedNames()) {
+            exports.put(name, module.getExport(name));
+        }
+        return exports;
+    }
+    
     private Path resolveModulePath(String modulePath) {
         // Remove quotes if present
         if (modulePath.startsWith("\"") && modulePath.endsWith("\"")) {
@@ -194,12 +249,13 @@ public class ModuleSystem {
         javaStdlibModules.put("crypto", com.thorn.stdlib.Crypto.class);
         javaStdlibModules.put("net", com.thorn.stdlib.Net.class);
         javaStdlibModules.put("compression", com.thorn.stdlib.Compression.class);
+        javaStdlibModules.put("typed", com.thorn.stdlib.Typed.class);
         // Future modules can be added here:
         // javaStdlibModules.put("io", com.thorn.stdlib.Io.class);
         // javaStdlibModules.put("concurrent", com.thorn.stdlib.Concurrent.class);
     }
     
-    private String extractModuleName(String modulePath) {
+    static String extractModuleName(String modulePath) {
         // Remove quotes if present
         if (modulePath.startsWith("\"") && modulePath.endsWith("\"")) {
             modulePath = modulePath.substring(1, modulePath.length() - 1);
@@ -265,6 +321,15 @@ public class ModuleSystem {
         boolean isVarArgs = method.isVarArgs();
         int arity = isVarArgs ? -1 : method.getParameterCount();
         
+        // Fixed low-arity methods are invoked through a method handle so the
+        // arity-specialized call paths never build a reflective Object[]
+        if (!isVarArgs && arity <= 3) {
+            JavaFunction function = createHandleFunction(name, method, arity);
+            if (function != null) {
+                return function;
+            }
+        }
+        
         return new JavaFunction(name, arity, (interpreter, arguments) -> {
             try {
                 Class<?>[] paramTypes = method.getParameterTypes();
@@ -300,22 +365,82 @@ public class ModuleSystem {
                     }
                 }
                 
-                Object result = method.invoke(null, args);
-                // Wrap Java objects that have methods
-                if (result != null && shouldWrap(result)) {
-                    return new JavaInstance(result);
-                }
-                return result;
+                return wrapResult(method.invoke(null, args));
             } catch (Exception e) {
-                Throwable cause = e.getCause() != null ? e.getCause() : e;
-                if (cause instanceof com.thorn.stdlib.StdlibException) {
-                    throw new Thorn.RuntimeError(null, cause.getMessage());
-                }
-                throw new Thorn.RuntimeError(null, "Error calling " + name + ": " + cause.getMessage());
+                throw invocationError(name, e.getCause() != null ? e.getCause() : e);
             }
         });
     }
     
+    private JavaFunction createHandleFunction(String name, Method method, int arity) {
+        MethodHandle invoker;
+        try {
+            invoker = MethodHandles.publicLookup().unreflect(method)
+                                   .asType(MethodType.genericMethodType(arity));
+        } catch (IllegalAccessException e) {
+            return null; // Fall back to reflective invocation
+        }
+        
+        Class<?>[] paramTypes = method.getParameterTypes();
+        switch (arity) {
+            case 0:
+                return JavaFunction.nullary(name, interpreter -> {
+                    try {
+                        return wrapResult((Object) invoker.invokeExact());
+                    } catch (Throwable t) {
+                        throw invocationError(name, t);
+                    }
+                });
+            case 1:
+                return JavaFunction.unary(name, (interpreter, arg0) -> {
+                    try {
+                        return wrapResult((Object) invoker.invokeExact(
+                            convertArgument(arg0, paramTypes[0])));
+                    } catch (Throwable t) {
+                        throw invocationError(name, t);
+                    }
+                });
+            case 2:
+                return JavaFunction.binary(name, (interpreter, arg0, arg1) -> {
+                    try {
+                        return wrapResult((Object) invoker.invokeExact(
+                            convertArgument(arg0, paramTypes[0]),
+                            convertArgument(arg1, paramTypes[1])));
+                    } catch (Throwable t) {
+                        throw invocationError(name, t);
+                    }
+                });
+            case 3:
+                return JavaFunction.ternary(name, (interpreter, arg0, arg1, arg2) -> {
+                    try {
+                        return wrapResult((Object) invoker.invokeExact(
+                            convertArgument(arg0, paramTypes[0]),
+                            convertArgument(arg1, paramTypes[1]),
+                            convertArgument(arg2, paramTypes[2])));
+                    } catch (Throwable t) {
+                        throw invocationError(name, t);
+                    }
+                });
+            default:
+                return null;
+        }
+    }
+    
+    private Object wrapResult(Object result) {
+        // Wrap Java objects that have methods
+        if (result != null && shouldWrap(result)) {
+            return new JavaInstance(result);
+        }
+        return result;
+    }
+    
+    private Thorn.RuntimeError invocationError(String name, Throwable cause) {
+        if (cause instanceof com.thorn.stdlib.StdlibException) {
+            return new Thorn.RuntimeError(null, cause.getMessage());
+        }
+        return new Thorn.RuntimeError(null, "Error calling " + name + ": " + cause.getMessage());
+    }
+    
     private JavaClass createJavaClass(String name, Class<?> clazz) {
         return new JavaClass(name, (interpreter, arguments) -> {
             try {
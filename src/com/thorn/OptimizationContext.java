@@ -1,10 +1,13 @@
 package com.thorn;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Context information shared between optimization passes.
  * Allows passes to share analysis results and configuration.
+ * Safe to use from the threads that run function-local passes.
  */
 public class OptimizationContext {
     private final OptimizationLevel level;
@@ -13,14 +16,20 @@ public class OptimizationContext {
     private final Map<String, Object> analysisCache;
     private final Set<String> disabledPasses;
     private final Map<String, Map<String, String>> passConfigurations;
+    private final Map<String, LongAdder> transformations;
+    private volatile boolean parallel = true;
+    private volatile boolean collectingStatistics = false;
+    private volatile ExecutionProfile profile;
+    private volatile ModuleSystem moduleSystem;
     
     public OptimizationContext(OptimizationLevel level, boolean debugMode, boolean validateTransformations) {
         this.level = level;
         this.debugMode = debugMode;
         this.validateTransformations = validateTransformations;
-        this.analysisCache = new HashMap<>();
-        this.disabledPasses = new HashSet<>();
-        this.passConfigurations = new HashMap<>();
+        this.analysisCache = new ConcurrentHashMap<>();
+        this.disabledPasses = ConcurrentHashMap.newKeySet();
+        this.passConfigurations = new ConcurrentHashMap<>();
+        this.transformations = new ConcurrentHashMap<>();
     }
     
     /**
@@ -44,6 +53,82 @@ public class OptimizationContext {
         return validateTransformations;
     }
     
+    /**
+     * Checks if function-local passes may optimize functions concurrently.
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+    
+    /**
+     * Allows or prevents optimizing functions concurrently.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+    
+    /**
+     * Gets the profile of an earlier run that shows which code is hot, or
+     * null when optimizing without one.
+     */
+    public ExecutionProfile getProfile() {
+        return profile;
+    }
+    
+    /**
+     * Sets the profile passes use to focus on hot code.
+     */
+    public void setProfile(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+    
+    /**
+     * Gets the module system that finds the modules the program imports,
+     * or null when passes do not look into them.
+     */
+    public ModuleSystem getModuleSystem() {
+        return moduleSystem;
+    }
+    
+    /**
+     * Sets the module system passes read imported modules through.
+     */
+    public void setModuleSystem(ModuleSystem moduleSystem) {
+        this.moduleSystem = moduleSystem;
+    }
+    
+    /**
+     * Checks if the pipeline reports statistics for each pass it runs.
+     */
+    public boolean isCollectingStatistics() {
+        return collectingStatistics;
+    }
+    
+    /**
+     * Enables or disables the statistics report.
+     */
+    public void setCollectingStatistics(boolean collectingStatistics) {
+        this.collectingStatistics = collectingStatistics;
+    }
+    
+    /**
+     * Records transformations a pass applied. The pipeline uses the count
+     * to tell when repeating the passes stops changing the program.
+     */
+    public void recordTransformations(String passName, int count) {
+        if (count > 0) {
+            transformations.computeIfAbsent(passName, k -> new LongAdder()).add(count);
+        }
+    }
+    
+    /**
+     * Gets the number of transformations a pass has applied so far.
+     */
+    public long getTransformationCount(String passName) {
+        LongAdder count = transformations.get(passName);
+        return count != null ? count.sum() : 0;
+    }
+    
     /**
      * Stores analysis results for use by other passes.
      */
@@ -95,7 +180,7 @@ public class OptimizationContext {
      * Sets configuration for a specific pass.
      */
     public void setPassConfiguration(String passName, String key, String value) {
-        passConfigurations.computeIfAbsent(passName, k -> new HashMap<>()).put(key, value);
+        passConfigurations.computeIfAbsent(passName, k -> new ConcurrentHashMap<>()).put(key, value);
     }
     
     /**
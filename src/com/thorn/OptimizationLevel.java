@@ -24,7 +24,8 @@ public enum OptimizationLevel {
     
     /**
      * Aggressive optimizations that may increase compilation time.
-     * Includes: O2 + all available optimization passes.
+     * Includes: O2 + all available optimization passes, repeated until
+     * they stop changing the program or the round budget runs out.
      */
     O3(3);
     
@@ -48,6 +48,26 @@ public abstract class OptimizationPass {
      */
     public abstract List<Stmt> optimize(List<Stmt> statements, OptimizationContext context);
     
+    /**
+     * Returns whether this pass rewrites each top-level function without
+     * looking at anything else in the program, so that the pipeline may
+     * optimize the functions of a program separately and concurrently.
+     * Such a pass implements optimizeFunction, and optimizing a program
+     * must give the same result as optimizing each top-level function with
+     * it and each run of statements between them with optimize.
+     */
+    public boolean isFunctionLocal() {
+        return false;
+    }
+    
+    /**
+     * Optimizes one top-level function for a function-local pass.
+     * May be called from several threads at once.
+     */
+    public Stmt.Function optimizeFunction(Stmt.Function function, OptimizationContext context) {
+        throw new UnsupportedOperationException("Pass is not function-local: " + getName());
+    }
+    
     /**
      * Returns a human-readable description of what this pass does.
      */
@@ -1,12 +1,23 @@
 package com.thorn;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Manages the execution of optimization passes in the correct order.
- * Handles pass dependencies and ensures each pass runs only once.
+ * Handles pass dependencies and runs each pass once per round; O3 repeats
+ * the rounds until they stop changing the program.
+ * Function-local passes optimize the top-level functions of large
+ * programs concurrently, with the same result as running them in order.
  */
 public class OptimizationPipeline {
+    // Programs with fewer top-level functions are optimized on one thread
+    static final int MIN_PARALLEL_FUNCTIONS = 16;
+    
+    // Rounds run at O3 unless -Doptimize.thorn.max-rounds says otherwise
+    static final int DEFAULT_MAX_ROUNDS = 4;
+    
     private final List<OptimizationPass> registeredPasses;
     private final Map<String, OptimizationPass> passByName;
     private final boolean debugMode;
@@ -44,29 +55,66 @@ public class OptimizationPipeline {
             System.out.println();
         }
         
+        // At O3 the passes run again over their own output, since one
+        // transformation often exposes another, until a round changes nothing
+        int maxRounds = 1;
+        if (context.getLevel().includes(OptimizationLevel.O3)) {
+            maxRounds = Math.max(1, context.getPassConfigurationInt("pipeline", "max-rounds", DEFAULT_MAX_ROUNDS));
+        }
+        List<PassStatistics> statistics = context.isCollectingStatistics() ? new ArrayList<>() : null;
+        
         List<Stmt> current = statements;
         
-        for (OptimizationPass pass : orderedPasses) {
-            if (debugMode) {
-                System.out.println("Running pass: " + pass.getName());
+        for (int round = 1; round <= maxRounds; round++) {
+            if (debugMode && maxRounds > 1) {
+                System.out.println("--- Round " + round + " ---");
             }
             
-            List<Stmt> original = current;
-            current = pass.optimize(current, context);
-            
-            // Validate transformation in debug mode
-            if (context.shouldValidateTransformations()) {
-                if (!pass.validateTransformation(original, current, context)) {
-                    throw new RuntimeException("Optimization pass " + pass.getName() + 
-                                             " produced invalid transformation");
+            long changes = 0;
+            for (OptimizationPass pass : orderedPasses) {
+                if (debugMode) {
+                    System.out.println("Running pass: " + pass.getName());
+                }
+                
+                long transformationsBefore = context.getTransformationCount(pass.getName());
+                int nodesBefore = statistics != null ? AstScanner.countNodes(current) : 0;
+                long start = System.nanoTime();
+                
+                List<Stmt> original = current;
+                current = runPass(pass, current, context);
+                
+                long elapsed = System.nanoTime() - start;
+                long applied = context.getTransformationCount(pass.getName()) - transformationsBefore;
+                if (pass.getType() != PassType.ANALYSIS) {
+                    changes += applied;
+                }
+                if (statistics != null) {
+                    statistics.add(new PassStatistics(round, pass.getName(), elapsed,
+                        nodesBefore, AstScanner.countNodes(current), applied));
+                }
+                
+                // Validate transformation in debug mode
+                if (context.shouldValidateTransformations()) {
+                    if (!pass.validateTransformation(original, current, context)) {
+                        throw new RuntimeException("Optimization pass " + pass.getName() + 
+                                                 " produced invalid transformation");
+                    }
+                }
+                
+                if (debugMode && current != original) {
+                    System.out.println("  Pass modified AST");
                 }
             }
             
-            if (debugMode && current != original) {
-                System.out.println("  Pass modified AST");
+            if (changes == 0) {
+                break;
             }
         }
         
+        if (statistics != null && !statistics.isEmpty()) {
+            printStatistics(statistics);
+        }
+        
         if (debugMode) {
             System.out.println("\n=== Optimization Complete ===");
         }
@@ -74,6 +122,99 @@ public class OptimizationPipeline {
         return current;
     }
     
+    /**
+     * Runs one pass over the program, splitting it into its top-level
+     * functions when the pass allows it.
+     */
+    private List<Stmt> runPass(OptimizationPass pass, List<Stmt> statements, OptimizationContext context) {
+        // Debug output is printed as a pass runs, so it stays sequential
+        if (!pass.isFunctionLocal() || !context.isParallel() || context.isDebugMode()) {
+            return pass.optimize(statements, context);
+        }
+        
+        List<ForkJoinTask<Stmt.Function>> tasks = new ArrayList<>();
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.Function) {
+                Stmt.Function function = (Stmt.Function) stmt;
+                tasks.add(ForkJoinTask.adapt(() -> pass.optimizeFunction(function, context)));
+            }
+        }
+        if (tasks.size() < MIN_PARALLEL_FUNCTIONS) {
+            return pass.optimize(statements, context);
+        }
+        for (ForkJoinTask<Stmt.Function> task : tasks) {
+            ForkJoinPool.commonPool().execute(task);
+        }
+        
+        // Meanwhile the statements between functions are optimized here, a
+        // run at a time, and everything is put back in its original order
+        List<Stmt> result = new ArrayList<>(statements.size());
+        List<Stmt> run = new ArrayList<>();
+        int next = 0;
+        try {
+            for (Stmt stmt : statements) {
+                if (stmt instanceof Stmt.Function) {
+                    if (!run.isEmpty()) {
+                        result.addAll(pass.optimize(run, context));
+                        run = new ArrayList<>();
+                    }
+                    result.add(tasks.get(next++).join());
+                } else {
+                    run.add(stmt);
+                }
+            }
+            if (!run.isEmpty()) {
+                result.addAll(pass.optimize(run, context));
+            }
+        } finally {
+            // After a failure, the functions after it are not needed
+            for (int i = next; i < tasks.size(); i++) {
+                tasks.get(i).cancel(false);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Prints the time each pass took and how it changed the program.
+     */
+    private void printStatistics(List<PassStatistics> statistics) {
+        System.err.println("=== Optimization Statistics ===");
+        System.err.println(String.format("%-5s %-36s %10s %8s %8s %8s",
+            "Round", "Pass", "Time (ms)", "Before", "After", "Applied"));
+        long totalTime = 0;
+        long totalApplied = 0;
+        for (PassStatistics row : statistics) {
+            System.err.println(String.format("%-5d %-36s %10.3f %8d %8d %8d",
+                row.round, row.pass, row.nanos / 1e6, row.nodesBefore, row.nodesAfter, row.applied));
+            totalTime += row.nanos;
+            totalApplied += row.applied;
+        }
+        System.err.println(String.format("%-5s %-36s %10.3f %8d %8d %8d", "", "Total", totalTime / 1e6,
+            statistics.get(0).nodesBefore, statistics.get(statistics.size() - 1).nodesAfter, totalApplied));
+    }
+    
+    /**
+     * One run of one pass, as shown in the statistics report.
+     */
+    private static class PassStatistics {
+        final int round;
+        final String pass;
+        final long nanos;
+        final int nodesBefore;
+        final int nodesAfter;
+        final long applied;
+        
+        PassStatistics(int round, String pass, long nanos, int nodesBefore, int nodesAfter, long applied) {
+            this.round = round;
+            this.pass = pass;
+            this.nanos = nanos;
+            this.nodesBefore = nodesBefore;
+            this.nodesAfter = nodesAfter;
+            this.applied = applied;
+        }
+    }
+    
     /**
      * Orders passes based on their dependencies and types.
      */
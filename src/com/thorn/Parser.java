@@ -13,6 +13,9 @@ class Parser {
     private int current = 0;
     private boolean inClassMethod = false;
     private boolean inConstructor = false;
+    
+    // Inside a function or lambda body, where yield is allowed
+    private boolean canYield = false;
 
     Parser(List<Token> tokens) {
         this.tokens = tokens;
@@ -182,6 +185,7 @@ class Parser {
         if (match(IF)) return ifStatement();
         if (match(RETURN)) return returnStatement();
         if (match(THROW)) return throwStatement();
+        if (match(YIELD)) return yieldStatement();
         if (match(WHILE)) return whileStatement();
         if (match(FOR)) return forStatement();
         if (match(LEFT_BRACE)) return new Stmt.Block(block());
@@ -225,6 +229,20 @@ class Parser {
         return new Stmt.Throw(keyword, value);
     }
 
+    private Stmt yieldStatement() {
+        Token keyword = previous();
+        if (!canYield) {
+            throw error(keyword, "Can only yield inside a function body.");
+        }
+        Expr value = null;
+        if (!check(SEMICOLON)) {
+            value = expression();
+        }
+
+        consume(SEMICOLON, "Expected ';' after yield value.");
+        return new Stmt.Yield(keyword, value);
+    }
+
     private Stmt whileStatement() {
         consume(LEFT_PAREN, "Expected '(' after 'while'.");
         Expr condition = expression();
@@ -348,6 +366,8 @@ class Parser {
         // Track when we're inside a class method
         boolean wasInClassMethod = inClassMethod;
         boolean wasInConstructor = inConstructor;
+        boolean couldYield = canYield;
+        canYield = true;
         if (kind.equals("method")) {
             inClassMethod = true;
             // Check if this is the constructor (init method)
@@ -361,6 +381,7 @@ class Parser {
         // Restore previous context
         inClassMethod = wasInClassMethod;
         inConstructor = wasInConstructor;
+        canYield = couldYield;
         
         return new Stmt.Function(name, typeParams, parameters, returnType, body);
     }
@@ -497,9 +518,13 @@ class Parser {
                     // Block case
                     advance(); // consume '{'
                     List<Stmt> stmts = new ArrayList<>();
+                    // A match block runs as an expression, so it cannot suspend a generator
+                    boolean couldYield = canYield;
+                    canYield = false;
                     while (!check(RIGHT_BRACE) && !isAtEnd()) {
                         stmts.add(declaration());
                     }
+                    canYield = couldYield;
                     consume(RIGHT_BRACE, "Expected '}' after match case block.");
                     consume(COMMA, "Expected ',' after case block.");
                     
@@ -758,7 +783,10 @@ class Parser {
         
         List<Stmt> body;
         if (match(LEFT_BRACE)) {
+            boolean couldYield = canYield;
+            canYield = true;
             body = block();
+            canYield = couldYield;
         } else {
             // Single expression lambda
             Expr expr = expression();
@@ -0,0 +1,415 @@
+package com.thorn;
+
+import java.util.*;
+
+/**
+ * Optimization pass that evaluates calls with constant arguments at
+ * compile time and replaces them with their results.
+ *
+ * A call is evaluated when its arguments fold to literals or lists and
+ * dicts of literals and it calls one of:
+ * - A top-level function declared once and not read before its
+ *   declaration, that assigns no name bound outside functions, does not
+ *   yield and whose types name nothing the program declares
+ * - A whitelisted Java stdlib function whose result depends only on its
+ *   arguments, such as sha256 or json's parse, imported once
+ *
+ * Calls run on a separate interpreter whose globals hold only those
+ * functions, the @immut constants and the pure built-ins, so anything
+ * else a call reads, print and clock included, fails it. Functions stay
+ * interpreted and a call may run at most step-limit statements. A call
+ * that fails, runs out of steps or returns anything but numbers, strings,
+ * booleans, null and lists and dicts of them is left for the program to
+ * run. A list or dict result becomes a literal, so every evaluation still
+ * creates a new one that the program may change; bound with @immut it is
+ * frozen as before.
+ */
+public class PartialEvaluationPass extends OptimizationPass {
+
+    private static final int DEFAULT_STEP_LIMIT = 100000; // Statements per call
+    private static final int PROGRAM_STEP_FACTOR = 10; // Statements per program, in step limits
+    private static final int MAX_RESULT_NODES = 1024; // AST nodes a result may become
+    private static final int MAX_STRING_LENGTH = 4096;
+
+    // Built-ins calls may use, unless the program binds their names
+    private static final List<String> PURE_BUILTINS = Arrays.asList("range", "Ok", "Error");
+
+    // Java stdlib functions whose result depends only on their arguments
+    private static final Map<String, Set<String>> PURE_STDLIB = Map.of(
+        "crypto", Set.of("md5", "sha1", "sha256", "sha384", "sha512", "hmac",
+                         "base64_encode", "base64url_encode", "hex_encode"),
+        "json", Set.of("parse", "stringify", "stringify_pretty", "is_valid"),
+        "compression", Set.of("crc32", "adler32"));
+
+    // Result of a call that could not be evaluated
+    private static final Object FAILED = new Object();
+
+    @Override
+    public String getName() {
+        return "partial-evaluation";
+    }
+
+    @Override
+    public PassType getType() {
+        return PassType.TRANSFORMATION;
+    }
+
+    @Override
+    public OptimizationLevel getMinimumLevel() {
+        return OptimizationLevel.O2;
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Arrays.asList("constant-folding");
+    }
+
+    @Override
+    public List<Stmt> optimize(List<Stmt> statements, OptimizationContext context) {
+        if (context.isDebugMode()) {
+            System.out.println("=== Partial Evaluation Pass ===");
+        }
+
+        int stepLimit = context.getPassConfigurationInt(getName(), "step-limit", DEFAULT_STEP_LIMIT);
+        Evaluator evaluator = new Evaluator(stepLimit);
+        if (!evaluator.prepare(statements, context)) {
+            // A plain import binds names we cannot know
+            return statements;
+        }
+        List<Stmt> optimized = evaluator.statements(statements);
+        context.recordTransformations(getName(), evaluator.callsEvaluated);
+
+        if (context.isDebugMode()) {
+            System.out.println("  Functions evaluable: " + evaluator.callable.size());
+            System.out.println("  Calls evaluated: " + evaluator.callsEvaluated);
+        }
+
+        return optimized;
+    }
+
+    private static class Evaluator extends AstRewriter {
+        private final Interpreter sandbox = new Interpreter();
+        private final Environment environment = new Environment();
+        private final Set<String> callable = new HashSet<>();
+        private final Map<List<Object>, Object> results = new HashMap<>();
+        private Map<String, Object> constants = Collections.emptyMap();
+        private final int stepLimit;
+        private long stepsLeft;
+        private int callsEvaluated = 0;
+
+        Evaluator(int stepLimit) {
+            super(false);
+            this.stepLimit = stepLimit;
+            this.stepsLeft = (long) stepLimit * PROGRAM_STEP_FACTOR;
+            sandbox.tiers.disable();
+        }
+
+        // Defines what evaluated calls may use; false when the program's
+        // bindings cannot be known
+        boolean prepare(List<Stmt> statements, OptimizationContext context) {
+            ModuleSystem modules = context.getModuleSystem();
+            Set<String> topLevel = new HashSet<>();
+            Map<String, Integer> bindings = ImmutableAnalysisPass.bindingCounts(statements, modules, topLevel);
+            if (bindings == null) {
+                return false;
+            }
+
+            // An assignment in an evaluated function must create a local
+            // both here and when the program runs
+            Set<String> globals = new HashSet<>(topLevel);
+            globals.addAll(sandbox.globals.names());
+            Set<String> declared = new HashSet<>(bindings.keySet());
+            declared.addAll(typeAliases(statements));
+
+            for (String builtin : PURE_BUILTINS) {
+                if (!bindings.containsKey(builtin)) {
+                    environment.define(builtin, sandbox.globals.get(identifier(builtin)), false);
+                }
+            }
+            constants = ImmutableAnalysisPass.constants(context);
+            for (Map.Entry<String, Object> constant : constants.entrySet()) {
+                environment.define(constant.getKey(), constant.getValue(), true);
+            }
+
+            // Like constants, functions and imports are only used when their
+            // name means the same wherever the program reads it
+            List<Stmt> declarations = new ArrayList<>();
+            Set<String> read = new HashSet<>();
+            for (Stmt stmt : statements) {
+                if (stmt instanceof Stmt.Export) {
+                    stmt = ((Stmt.Export) stmt).declaration;
+                }
+                if (stmt instanceof Stmt.Function) {
+                    Stmt.Function function = (Stmt.Function) stmt;
+                    String name = function.name.lexeme;
+                    if (bindings.get(name) == 1 && !read.contains(name) && evaluable(function, globals, declared)) {
+                        declarations.add(function);
+                        callable.add(name);
+                    }
+                } else if (stmt instanceof Stmt.Import && modules != null) {
+                    importStdlib((Stmt.Import) stmt, modules, bindings, read);
+                }
+                read.addAll(ImmutableAnalysisPass.readNames(Collections.singletonList(stmt)));
+            }
+            sandbox.executeBlock(declarations, environment);
+            return true;
+        }
+
+        private void importStdlib(Stmt.Import importStmt, ModuleSystem modules,
+                                  Map<String, Integer> bindings, Set<String> read) {
+            String modulePath = importStmt.module.lexeme;
+            Set<String> pure = PURE_STDLIB.get(ModuleSystem.extractModuleName(modulePath));
+            Map<String, Object> exports = pure != null ? modules.stdlibExports(modulePath) : null;
+            if (exports == null) {
+                return;
+            }
+            List<String> names = new ArrayList<>();
+            if (importStmt.names == null) {
+                names.addAll(exports.keySet());
+            } else {
+                for (Token name : importStmt.names) {
+                    names.add(name.lexeme);
+                }
+            }
+            for (String name : names) {
+                if (pure.contains(name) && exports.containsKey(name)
+                        && bindings.get(name) == 1 && !read.contains(name)) {
+                    environment.define(name, exports.get(name), false);
+                    callable.add(name);
+                }
+            }
+        }
+
+        @Override
+        Expr replace(Expr expr) {
+            if (!(expr instanceof Expr.Call) || !(((Expr.Call) expr).callee instanceof Expr.Variable)) {
+                return null;
+            }
+            if (!callable.contains(((Expr.Variable) ((Expr.Call) expr).callee).name.lexeme)) {
+                return null;
+            }
+
+            // Calls in the arguments are evaluated first
+            Expr.Call call = (Expr.Call) operands(expr);
+            List<Expr> arguments = new ArrayList<>();
+            for (Expr argument : call.arguments) {
+                Expr folded = ConstantFoldingPass.fold(argument, constants);
+                if (!isConstant(folded)) {
+                    return call;
+                }
+                arguments.add(folded);
+            }
+            Object value = evaluate(new Expr.Call(call.callee, call.paren, call.typeArguments, arguments));
+            Expr result = value != FAILED
+                ? constant(value, new int[]{MAX_RESULT_NODES}, Collections.newSetFromMap(new IdentityHashMap<>()))
+                : null;
+            if (result == null) {
+                return call;
+            }
+            callsEvaluated++;
+            return result;
+        }
+
+        @Override
+        boolean entersCases() {
+            // Evaluated names are bound once, so no pattern shadows them
+            return true;
+        }
+
+        @Override
+        Expr lambda(Expr.Lambda lambda) {
+            List<Stmt> body = statements(lambda.body);
+            return body == lambda.body ? lambda : new Expr.Lambda(lambda.params, body);
+        }
+
+        @Override
+        Stmt.Function function(Stmt.Function function) {
+            List<Stmt> body = statements(function.body);
+            return body == function.body ? function
+                : new Stmt.Function(function.name, function.typeParams, function.params,
+                                    function.returnType, body);
+        }
+
+        // The value of a call, or FAILED; calls with equal arguments are
+        // evaluated once
+        private Object evaluate(Expr.Call call) {
+            List<Object> key = new ArrayList<>();
+            key.add(((Expr.Variable) call.callee).name.lexeme);
+            for (Expr argument : call.arguments) {
+                key.add(sandbox.evaluate(argument, environment));
+            }
+            if (results.containsKey(key)) {
+                return results.get(key);
+            }
+
+            Object value = FAILED;
+            long limit = Math.min(stepLimit, stepsLeft);
+            if (limit > 0) {
+                sandbox.stepsLeft = limit;
+                try {
+                    value = sandbox.evaluate(call, environment);
+                } catch (RuntimeException | StackOverflowError | OutOfMemoryError e) {
+                    // Fails or runs too long, so the program runs it
+                } finally {
+                    stepsLeft -= limit - Math.max(sandbox.stepsLeft, 0);
+                    sandbox.stepsLeft = Long.MAX_VALUE;
+                }
+            }
+            results.put(key, value);
+            return value;
+        }
+    }
+
+    // Whether running a function on the sandbox does what it does in the
+    // program
+    private static boolean evaluable(Stmt.Function function, Set<String> globals, Set<String> declared) {
+        boolean[] evaluable = {true};
+        new AstScanner() {
+            @Override
+            void visit(Stmt stmt) {
+                if (stmt instanceof Stmt.Yield || stmt instanceof Stmt.Class
+                        || stmt instanceof Stmt.Import || stmt instanceof Stmt.TypeAlias) {
+                    evaluable[0] = false;
+                } else if (stmt instanceof Stmt.Function) {
+                    Stmt.Function nested = (Stmt.Function) stmt;
+                    for (Stmt.Parameter param : nested.params) {
+                        evaluable[0] &= !namesDeclared(param.type, declared);
+                    }
+                    evaluable[0] &= !namesDeclared(nested.returnType, declared);
+                } else if (stmt instanceof Stmt.Var) {
+                    evaluable[0] &= !namesDeclared(((Stmt.Var) stmt).type, declared);
+                }
+            }
+
+            @Override
+            void visit(Expr expr) {
+                if (expr instanceof Expr.Assign && globals.contains(((Expr.Assign) expr).name.lexeme)) {
+                    evaluable[0] = false;
+                }
+            }
+        }.statements(Collections.singletonList(function));
+        return evaluable[0];
+    }
+
+    // Whether a type annotation names a type alias, class or anything else
+    // the program declares, which the sandbox would resolve differently
+    private static boolean namesDeclared(Expr type, Set<String> declared) {
+        if (type instanceof Expr.Type) {
+            return declared.contains(((Expr.Type) type).name.lexeme);
+        }
+        if (type instanceof Expr.GenericType) {
+            Expr.GenericType generic = (Expr.GenericType) type;
+            if (declared.contains(generic.name.lexeme)) {
+                return true;
+            }
+            for (Expr argument : generic.typeArgs) {
+                if (namesDeclared(argument, declared)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (type instanceof Expr.FunctionType) {
+            Expr.FunctionType function = (Expr.FunctionType) type;
+            for (Expr param : function.paramTypes) {
+                if (namesDeclared(param, declared)) {
+                    return true;
+                }
+            }
+            return namesDeclared(function.returnType, declared);
+        }
+        if (type instanceof Expr.ArrayType) {
+            return namesDeclared(((Expr.ArrayType) type).elementType, declared);
+        }
+        return false;
+    }
+
+    private static Set<String> typeAliases(List<Stmt> statements) {
+        Set<String> names = new HashSet<>();
+        new AstScanner() {
+            @Override
+            void visit(Stmt stmt) {
+                if (stmt instanceof Stmt.TypeAlias) {
+                    names.add(((Stmt.TypeAlias) stmt).name.lexeme);
+                }
+            }
+        }.statements(statements);
+        return names;
+    }
+
+    // Literals, and lists and dicts of them
+    private static boolean isConstant(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return true;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return isConstant(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.ListExpr) {
+            return ((Expr.ListExpr) expr).elements.stream().allMatch(PartialEvaluationPass::isConstant);
+        }
+        if (expr instanceof Expr.Dict) {
+            Expr.Dict dict = (Expr.Dict) expr;
+            return dict.keys.stream().allMatch(PartialEvaluationPass::isConstant)
+                && dict.values.stream().allMatch(PartialEvaluationPass::isConstant);
+        }
+        return false;
+    }
+
+    /**
+     * The expression that creates a value, or null when the value is not
+     * made of scalars, lists and dicts, is larger than nodesLeft or holds a
+     * list or dict twice.
+     */
+    private static Expr constant(Object value, int[] nodesLeft, Set<Object> seen) {
+        if (--nodesLeft[0] < 0) {
+            return null;
+        }
+        if (value instanceof StringRope) {
+            value = value.toString();
+        }
+        if (value == null || value instanceof Boolean) {
+            return new Expr.Literal(value);
+        }
+        if (value instanceof Double) {
+            return Double.isFinite((Double) value) ? new Expr.Literal(value) : null;
+        }
+        if (value instanceof String) {
+            return ((String) value).length() <= MAX_STRING_LENGTH ? new Expr.Literal(value) : null;
+        }
+        if (!seen.add(value)) {
+            // The program could change it through either reference
+            return null;
+        }
+        if (value.getClass() == ThornArray.class || value.getClass() == ArrayList.class) {
+            List<Expr> elements = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                Expr expr = constant(element, nodesLeft, seen);
+                if (expr == null) {
+                    return null;
+                }
+                elements.add(expr);
+            }
+            return new Expr.ListExpr(elements);
+        }
+        if (value.getClass() == ThornDict.class) {
+            List<Expr> keys = new ArrayList<>();
+            List<Expr> values = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                Expr key = constant(entry.getKey(), nodesLeft, seen);
+                Expr expr = key != null ? constant(entry.getValue(), nodesLeft, seen) : null;
+                if (expr == null) {
+                    return null;
+                }
+                keys.add(key);
+                values.add(expr);
+            }
+            return new Expr.Dict(keys, values);
+        }
+        return null;
+    }
+
+    private static Token identifier(String name) {
+        return new Token(TokenType.IDENTIFIER, name, null, 0);
+    }
+}
@@ -0,0 +1,415 @@
+package com.thorn;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Dictionary value bound by {@code @immut}, or derived from one by set().
+ *
+ * A hash array mapped trie: each node consumes five bits of the key's hash
+ * and stores only the slots in use, indexed through a 32-bit bitmap. with()
+ * and without() copy the path to one key and share every other node with
+ * the previous version, so updating a large dictionary costs O(log32 n).
+ * Keys whose full hashes collide share a collision node.
+ *
+ * Like ThornDict, iteration follows insertion order: a PersistentVector
+ * holds the leaves in the order their keys were first added, and a removed
+ * key leaves a null hole there until holes outnumber the entries.
+ *
+ * Only the dictionary bound by @immut is immutable. A version returned by
+ * set() is an ordinary dictionary sharing the trie: put() and remove()
+ * update it in place by path copying, so other versions are unaffected.
+ */
+public final class PersistentMap extends AbstractMap<Object, Object> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentMap EMPTY =
+            new PersistentMap(new Node(0, new Object[0]), PersistentVector.empty(), 0, true);
+
+    // Replaced by the mutators of a map that is not immutable
+    private Node root;
+    private PersistentVector order;
+    private int size;
+
+    private final boolean immutable;
+
+    private PersistentMap(Node root, PersistentVector order, int size, boolean immutable) {
+        this.root = root;
+        this.order = order;
+        this.size = size;
+        this.immutable = immutable;
+    }
+
+    /** Interior node; slots hold a Leaf, a Collision or a child Node. */
+    private static final class Node {
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private static final class Leaf extends AbstractMap.SimpleImmutableEntry<Object, Object> {
+        private static final long serialVersionUID = 1L;
+
+        final int hash;
+        final int position;
+
+        Leaf(int hash, Object key, Object value, int position) {
+            super(key, value);
+            this.hash = hash;
+            this.position = position;
+        }
+    }
+
+    private static final class Collision {
+        final int hash;
+        final Leaf[] leaves;
+
+        Collision(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+    }
+
+    public static PersistentMap empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Immutable persistent copy of the map. A persistent map shares its
+     * trie with the copy in O(1).
+     */
+    public static PersistentMap copyOf(Map<?, ?> map) {
+        if (map instanceof PersistentMap) {
+            PersistentMap persistent = (PersistentMap) map;
+            return persistent.immutable ? persistent
+                    : new PersistentMap(persistent.root, persistent.order, persistent.size, true);
+        }
+        PersistentMap result = EMPTY.derive();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return new PersistentMap(result.root, result.order, result.size, true);
+    }
+
+    /**
+     * Whether this is the dictionary bound by @immut rather than one
+     * derived from it.
+     */
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    // New map over this trie that is never immutable
+    private PersistentMap derive() {
+        return new PersistentMap(root, order, size, false);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Leaf leaf = find(key);
+        return leaf == null ? null : leaf.getValue();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    // Derived versions below are never immutable and never this, so they
+    // can be changed without affecting the map they came from
+
+    /**
+     * New map with key bound to value.
+     */
+    public PersistentMap with(Object key, Object value) {
+        PersistentMap result = derive();
+        result.put(key, value);
+        return result;
+    }
+
+    /**
+     * New map without key.
+     */
+    public PersistentMap without(Object key) {
+        PersistentMap result = derive();
+        result.remove(key);
+        return result;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        checkMutable();
+        Leaf existing = find(key);
+        if (existing != null) {
+            if (existing.getValue() != value) {
+                // Replacing a value keeps the key's place in the order
+                Leaf leaf = new Leaf(existing.hash, existing.getKey(), value, existing.position);
+                root = (Node) assoc(root, 0, leaf);
+                order = order.with(leaf.position, leaf);
+            }
+            return existing.getValue();
+        }
+        Leaf leaf = new Leaf(hash(key), key, value, order.size());
+        root = (Node) assoc(root, 0, leaf);
+        order = order.append(leaf);
+        size++;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkMutable();
+        Leaf existing = find(key);
+        if (existing == null) {
+            return null;
+        }
+        if (size == 1) {
+            clear();
+        } else if (order.size() >= 2 * size) {
+            // Mostly holes: rebuild from the remaining entries in order
+            PersistentMap result = EMPTY.derive();
+            for (Object leaf : order) {
+                if (leaf != null && leaf != existing) {
+                    result.put(((Leaf) leaf).getKey(), ((Leaf) leaf).getValue());
+                }
+            }
+            root = result.root;
+            order = result.order;
+            size = result.size;
+        } else {
+            Object slot = dissoc(root, 0, existing.hash, key);
+            if (!(slot instanceof Node)) {
+                // The root always stays a node, even with a single entry
+                int remaining = slot instanceof Leaf ? ((Leaf) slot).hash : ((Collision) slot).hash;
+                slot = new Node(bit(remaining, 0), new Object[] { slot });
+            }
+            root = (Node) slot;
+            order = order.with(existing.position, null);
+            size--;
+        }
+        return existing.getValue();
+    }
+
+    @Override
+    public void clear() {
+        checkMutable();
+        root = EMPTY.root;
+        order = EMPTY.order;
+        size = 0;
+    }
+
+    private void checkMutable() {
+        if (immutable) {
+            throw new UnsupportedOperationException("Immutable dictionary");
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<Object, Object>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Map.Entry<Object, Object>> iterator() {
+                Iterator<Object> leaves = order.iterator();
+                return new Iterator<Map.Entry<Object, Object>>() {
+                    private Leaf next = advance();
+
+                    private Leaf advance() {
+                        while (leaves.hasNext()) {
+                            Object leaf = leaves.next();
+                            if (leaf != null) {
+                                return (Leaf) leaf;
+                            }
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public Map.Entry<Object, Object> next() {
+                        if (next == null) {
+                            throw new NoSuchElementException();
+                        }
+                        Leaf current = next;
+                        next = advance();
+                        return current;
+                    }
+                };
+            }
+        };
+    }
+
+    private Leaf find(Object key) {
+        int hash = hash(key);
+        Object slot = root;
+        for (int shift = 0; ; shift += BITS) {
+            if (slot instanceof Node) {
+                Node node = (Node) slot;
+                int bit = bit(hash, shift);
+                if ((node.bitmap & bit) == 0) {
+                    return null;
+                }
+                slot = node.slots[index(node.bitmap, bit)];
+            } else if (slot instanceof Leaf) {
+                Leaf leaf = (Leaf) slot;
+                return leaf.hash == hash && Objects.equals(leaf.getKey(), key) ? leaf : null;
+            } else {
+                Collision collision = (Collision) slot;
+                if (collision.hash != hash) {
+                    return null;
+                }
+                for (Leaf leaf : collision.leaves) {
+                    if (Objects.equals(leaf.getKey(), key)) {
+                        return leaf;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    // Slot with leaf added or replaced, consuming hash bits from shift on
+    private static Object assoc(Object slot, int shift, Leaf leaf) {
+        if (slot instanceof Node) {
+            Node node = (Node) slot;
+            int bit = bit(leaf.hash, shift);
+            int index = index(node.bitmap, bit);
+            if ((node.bitmap & bit) == 0) {
+                Object[] slots = new Object[node.slots.length + 1];
+                System.arraycopy(node.slots, 0, slots, 0, index);
+                slots[index] = leaf;
+                System.arraycopy(node.slots, index, slots, index + 1, node.slots.length - index);
+                return new Node(node.bitmap | bit, slots);
+            }
+            Object[] slots = node.slots.clone();
+            slots[index] = assoc(slots[index], shift + BITS, leaf);
+            return new Node(node.bitmap, slots);
+        }
+
+        if (slot instanceof Leaf) {
+            Leaf existing = (Leaf) slot;
+            if (existing.hash != leaf.hash) {
+                return split(existing, existing.hash, leaf, shift);
+            }
+            if (Objects.equals(existing.getKey(), leaf.getKey())) {
+                return leaf;
+            }
+            return new Collision(leaf.hash, new Leaf[] { existing, leaf });
+        }
+
+        Collision collision = (Collision) slot;
+        if (collision.hash != leaf.hash) {
+            return split(collision, collision.hash, leaf, shift);
+        }
+        Leaf[] leaves = collision.leaves;
+        for (int i = 0; i < leaves.length; i++) {
+            if (Objects.equals(leaves[i].getKey(), leaf.getKey())) {
+                Leaf[] copy = leaves.clone();
+                copy[i] = leaf;
+                return new Collision(leaf.hash, copy);
+            }
+        }
+        Leaf[] grown = java.util.Arrays.copyOf(leaves, leaves.length + 1);
+        grown[leaves.length] = leaf;
+        return new Collision(leaf.hash, grown);
+    }
+
+    // Node holding an existing slot and a leaf whose hashes differ
+    private static Node split(Object existing, int existingHash, Leaf leaf, int shift) {
+        int existingBit = bit(existingHash, shift);
+        int leafBit = bit(leaf.hash, shift);
+        if (existingBit == leafBit) {
+            return new Node(existingBit, new Object[] { split(existing, existingHash, leaf, shift + BITS) });
+        }
+        Object[] slots = Integer.compareUnsigned(existingBit, leafBit) < 0
+                ? new Object[] { existing, leaf }
+                : new Object[] { leaf, existing };
+        return new Node(existingBit | leafBit, slots);
+    }
+
+    // Slot with key removed; null when nothing is left. Nodes left with a
+    // single leaf or collision collapse into it.
+    private static Object dissoc(Object slot, int shift, int hash, Object key) {
+        if (slot instanceof Leaf) {
+            return null;
+        }
+
+        if (slot instanceof Collision) {
+            Leaf[] leaves = ((Collision) slot).leaves;
+            Leaf[] remaining = new Leaf[leaves.length - 1];
+            int j = 0;
+            for (Leaf leaf : leaves) {
+                if (!Objects.equals(leaf.getKey(), key)) {
+                    remaining[j++] = leaf;
+                }
+            }
+            return remaining.length == 1 ? remaining[0] : new Collision(hash, remaining);
+        }
+
+        Node node = (Node) slot;
+        int bit = bit(hash, shift);
+        int index = index(node.bitmap, bit);
+        Object child = dissoc(node.slots[index], shift + BITS, hash, key);
+        if (child != null) {
+            if (node.slots.length == 1 && !(child instanceof Node)) {
+                return child;
+            }
+            Object[] slots = node.slots.clone();
+            slots[index] = child;
+            return new Node(node.bitmap, slots);
+        }
+        if (node.slots.length == 1) {
+            return null;
+        }
+        if (node.slots.length == 2 && !(node.slots[1 - index] instanceof Node)) {
+            return node.slots[1 - index];
+        }
+        Object[] slots = new Object[node.slots.length - 1];
+        System.arraycopy(node.slots, 0, slots, 0, index);
+        System.arraycopy(node.slots, index + 1, slots, index, slots.length - index);
+        return new Node(node.bitmap & ~bit, slots);
+    }
+
+    private static int hash(Object key) {
+        // Small integral Doubles hash to values with all-zero low bits, so
+        // mix before the trie consumes them five at a time
+        int h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+}
@@ -0,0 +1,310 @@
+package com.thorn;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Array value bound by {@code @immut}, or derived from one.
+ *
+ * Elements live in a 32-way trie. Updates copy only the path from the root
+ * to the changed leaf, so every version shares all other nodes with the one
+ * it was derived from and costs O(log32 n). A slice is a window
+ * (offset, size) over the same trie and is created in O(1).
+ *
+ * This is the fixed-width half of an RRB vector: concatenation shares the
+ * whole left operand and appends the right one, rather than merging relaxed
+ * nodes, so it costs O(m log n) for a right operand of length m.
+ *
+ * Only the vector bound by @immut is immutable. Concatenations and slices
+ * are ordinary lists that happen to share the trie: their java.util.List
+ * mutators update them in place by path copying, which never touches a
+ * node another version can see. Adding or removing at either end costs
+ * O(log32 n); elsewhere the vector is rebuilt in O(n). The mutators of an
+ * immutable vector throw UnsupportedOperationException; the interpreter
+ * reports them as Thorn errors before they are reached.
+ */
+public final class PersistentVector extends AbstractList<Object> implements RandomAccess {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentVector EMPTY = new PersistentVector(new Object[WIDTH], 0, 0, 0, true);
+
+    // Replaced by the mutators of a vector that is not immutable
+    private Object[] root;
+    private int shift;
+    private int offset;
+    private int size;
+
+    private final boolean immutable;
+
+    private PersistentVector(Object[] root, int shift, int offset, int size, boolean immutable) {
+        this.root = root;
+        this.shift = shift;
+        this.offset = offset;
+        this.size = size;
+        this.immutable = immutable;
+    }
+
+    public static PersistentVector empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Immutable persistent copy of the list, built bottom-up in O(n). A
+     * persistent list shares its trie with the copy in O(1).
+     */
+    public static PersistentVector copyOf(List<?> list) {
+        if (list instanceof PersistentVector) {
+            PersistentVector vector = (PersistentVector) list;
+            return vector.immutable ? vector : vector.derive(vector.offset, vector.size, true);
+        }
+        return build(list, 0, true);
+    }
+
+    // Vector of the elements of list, starting headroom slots into the trie
+    private static PersistentVector build(List<?> list, int headroom, boolean immutable) {
+        int count = list.size();
+        if (count == 0) {
+            return immutable ? EMPTY : EMPTY.derive(0, 0, false);
+        }
+
+        Object[] nodes = new Object[(headroom + count + MASK) >>> BITS];
+        Object[] leaf = null;
+        int i = headroom;
+        if (headroom > 0) {
+            leaf = new Object[WIDTH];
+            nodes[0] = leaf;
+        }
+        for (Object element : list) {
+            if ((i & MASK) == 0) {
+                leaf = new Object[WIDTH];
+                nodes[i >>> BITS] = leaf;
+            }
+            leaf[i & MASK] = element;
+            i++;
+        }
+
+        int shift = 0;
+        while (nodes.length > 1) {
+            Object[] parents = new Object[(nodes.length + MASK) >>> BITS];
+            for (int j = 0; j < nodes.length; j++) {
+                if ((j & MASK) == 0) {
+                    parents[j >>> BITS] = new Object[WIDTH];
+                }
+                ((Object[]) parents[j >>> BITS])[j & MASK] = nodes[j];
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+        return new PersistentVector((Object[]) nodes[0], shift, headroom, count, immutable);
+    }
+
+    /**
+     * Whether this is the vector bound by @immut rather than one derived
+     * from it.
+     */
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    // New vector over this trie
+    private PersistentVector derive(int offset, int size, boolean immutable) {
+        return new PersistentVector(root, shift, offset, size, immutable);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        return leafFor(offset + index)[(offset + index) & MASK];
+    }
+
+    // Derived versions below are never immutable and never this, so they
+    // can be changed without affecting the vector they came from
+
+    /**
+     * New vector with the element at index replaced.
+     */
+    public PersistentVector with(int index, Object value) {
+        PersistentVector result = derive(offset, size, false);
+        result.set(index, value);
+        return result;
+    }
+
+    /**
+     * New vector with value added at the end.
+     */
+    public PersistentVector append(Object value) {
+        PersistentVector result = derive(offset, size, false);
+        result.push(value);
+        return result;
+    }
+
+    /**
+     * Elements from start (inclusive) to end (exclusive), sharing this
+     * vector's trie.
+     */
+    public PersistentVector slice(int start, int end) {
+        if (start < 0 || end > size || start > end) {
+            throw new IndexOutOfBoundsException("Slice " + start + ".." + end + " out of bounds for length " + size);
+        }
+        return derive(offset + start, end - start, false);
+    }
+
+    /**
+     * This vector followed by the elements of other.
+     */
+    public PersistentVector concat(List<?> other) {
+        if (other.size() > size) {
+            // Appending one by one would cost more than rebuilding
+            Object[] elements = new Object[size + other.size()];
+            int i = 0;
+            for (Object element : this) elements[i++] = element;
+            for (Object element : other) elements[i++] = element;
+            return build(java.util.Arrays.asList(elements), 0, false);
+        }
+        PersistentVector result = derive(offset, size, false);
+        for (Object element : other) {
+            result.push(element);
+        }
+        return result;
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        checkMutable();
+        Object previous = get(index);
+        root = assoc(root, shift, offset + index, element);
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        checkMutable();
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        if (index == size) {
+            push(element);
+        } else if (index == 0 && offset > 0) {
+            offset--;
+            size++;
+            root = assoc(root, shift, offset, element);
+        } else {
+            java.util.ArrayList<Object> elements = new java.util.ArrayList<>(this);
+            elements.add(index, element);
+            // Leave a leaf of room in front when adding at the start
+            replaceWith(build(elements, index == 0 ? WIDTH : 0, false));
+        }
+        modCount++;
+    }
+
+    @Override
+    public Object remove(int index) {
+        checkMutable();
+        Object previous = get(index);
+        if (index == size - 1) {
+            root = assoc(root, shift, offset + index, null);
+            size--;
+        } else if (index == 0) {
+            root = assoc(root, shift, offset, null);
+            offset++;
+            size--;
+        } else {
+            java.util.ArrayList<Object> elements = new java.util.ArrayList<>(this);
+            elements.remove(index);
+            replaceWith(build(elements, 0, false));
+        }
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        checkMutable();
+        replaceWith(EMPTY);
+        modCount++;
+    }
+
+    // Add at the end in place
+    private void push(Object value) {
+        int position = offset + size;
+        if ((long) position >= 1L << (shift + BITS)) {
+            // Trie is full: the old root becomes the first child of a new level
+            Object[] grown = new Object[WIDTH];
+            grown[0] = root;
+            root = grown;
+            shift += BITS;
+        }
+        root = assoc(root, shift, position, value);
+        size++;
+    }
+
+    private void replaceWith(PersistentVector other) {
+        root = other.root;
+        shift = other.shift;
+        offset = other.offset;
+        size = other.size;
+    }
+
+    private void checkMutable() {
+        if (immutable) {
+            throw new UnsupportedOperationException("Immutable list");
+        }
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int index = 0;
+            private Object[] leaf;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Object next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                int position = offset + index++;
+                if (leaf == null || (position & MASK) == 0) {
+                    leaf = leafFor(position);
+                }
+                return leaf[position & MASK];
+            }
+        };
+    }
+
+    private Object[] leafFor(int position) {
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(position >>> level) & MASK];
+        }
+        return node;
+    }
+
+    // Copy of node with position set to value; missing nodes on the path are created
+    private static Object[] assoc(Object[] node, int level, int position, Object value) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        if (level == 0) {
+            copy[position & MASK] = value;
+        } else {
+            int child = (position >>> level) & MASK;
+            copy[child] = assoc((Object[]) copy[child], level - BITS, position, value);
+        }
+        return copy;
+    }
+}
@@ -31,6 +31,7 @@ class Scanner {
         keywords.put("true", TRUE);
         keywords.put("while", WHILE);
         keywords.put("this", THIS);
+        keywords.put("yield", YIELD);
         keywords.put("import", IMPORT);
         keywords.put("export", EXPORT);
         keywords.put("from", FROM);
@@ -10,6 +10,7 @@ public abstract class Stmt {
         R visitIfStmt(If stmt);
         R visitReturnStmt(Return stmt);
         R visitThrowStmt(Throw stmt);
+        R visitYieldStmt(Yield stmt);
         R visitVarStmt(Var stmt);
         R visitWhileStmt(While stmt);
         R visitForStmt(For stmt);
@@ -120,6 +121,21 @@ public abstract class Stmt {
         public final Expr value;
     }
 
+    public static class Yield extends Stmt {
+        Yield(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitYieldStmt(this);
+        }
+
+        public final Token keyword;
+        public final Expr value;
+    }
+
     public static class Var extends Stmt {
         Var(Token name, Expr type, Expr initializer, boolean isImmutable) {
             this.name = name;
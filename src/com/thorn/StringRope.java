@@ -0,0 +1,55 @@
+package com.thorn;
+
+/**
+ * Growable string held by a variable built up with {@code s = s + piece}.
+ *
+ * A rope only ever lives in a variable slot: an interpreter environment
+ * entry or a VM register. Every other read of that slot goes through
+ * toString(), so Thorn code and the Java stdlib only see java.lang.String.
+ * Appends are amortized O(1); the flattened String is cached until the
+ * next append.
+ */
+public final class StringRope {
+    /** Results shorter than this are cheaper to copy than to wrap. */
+    public static final int MIN_LENGTH = 256;
+
+    private final StringBuilder builder;
+    private String flat;
+
+    public StringRope(String initial) {
+        this.builder = new StringBuilder(initial.length() * 2).append(initial);
+        this.flat = initial;
+    }
+
+    /**
+     * Whether value + piece is long enough to start a rope.
+     */
+    public static boolean worthwhile(String value, String piece) {
+        return value.length() + piece.length() >= MIN_LENGTH;
+    }
+
+    public int length() {
+        return builder.length();
+    }
+
+    public void append(String piece) {
+        builder.append(piece);
+        flat = null;
+    }
+
+    /**
+     * The first length characters, which is the value the rope had before
+     * any later appends.
+     */
+    public String prefix(int length) {
+        return length == builder.length() ? toString() : builder.substring(0, length);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = builder.toString();
+        }
+        return flat;
+    }
+}
@@ -34,6 +34,12 @@ public class TailCallAnalyzer {
      * Analyzes a function to determine if it contains tail calls.
      */
     public boolean hasTailRecursion(Stmt.Function function) {
+        // In a generator, return ends the sequence, so a recursive return
+        // must not become a loop that keeps yielding
+        if (ThornGenerator.isGeneratorBody(function.body)) {
+            return false;
+        }
+        
         String functionName = function.name.lexeme;
         
         for (Stmt stmt : function.body) {
@@ -63,6 +69,11 @@ public class TailCallAnalyzer {
                 return false; // Throw statements don't contain tail calls
             }
             
+            @Override
+            public Boolean visitYieldStmt(Stmt.Yield stmt) {
+                return false; // Yield statements don't contain tail calls
+            }
+            
             @Override
             public Boolean visitIfStmt(Stmt.If stmt) {
                 boolean thenHasTail = containsTailCall(stmt.thenBranch, currentFunction);
@@ -165,6 +176,11 @@ public class TailCallAnalyzer {
                 return null; // Throw statements don't contain tail calls
             }
             
+            @Override
+            public Void visitYieldStmt(Stmt.Yield stmt) {
+                return null; // Yield statements don't contain tail calls
+            }
+            
             @Override
             public Void visitIfStmt(Stmt.If stmt) {
                 collectTailCallsFromStatement(stmt.thenBranch, functionName, tailCalls);
@@ -1,6 +1,7 @@
 package com.thorn;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import static com.thorn.TokenType.*;
 
 /**
@@ -11,8 +12,9 @@ import static com.thorn.TokenType.*;
 public class TailCallOptimizationPass extends OptimizationPass {
     
     private final TailCallAnalyzer analyzer = new TailCallAnalyzer();
-    private int functionsOptimized = 0;
-    private int tailCallsTransformed = 0;
+    // Shared by functions optimized concurrently
+    private final AtomicInteger functionsOptimized = new AtomicInteger();
+    private final AtomicInteger tailCallsTransformed = new AtomicInteger();
     
     @Override
     public String getName() {
@@ -40,33 +42,42 @@ public class TailCallOptimizationPass extends OptimizationPass {
             System.out.println("=== Tail Call Optimization Pass ===");
         }
         
-        functionsOptimized = 0;
-        tailCallsTransformed = 0;
+        functionsOptimized.set(0);
+        tailCallsTransformed.set(0);
         
         List<Stmt> result = new ArrayList<>();
         
         for (Stmt stmt : statements) {
             if (stmt instanceof Stmt.Function) {
-                Stmt.Function func = (Stmt.Function) stmt;
-                if (analyzer.hasTailRecursion(func)) {
-                    result.add(optimizeTailRecursion(func, context));
-                    functionsOptimized++;
-                } else {
-                    result.add(stmt);
-                }
+                result.add(optimizeFunction((Stmt.Function) stmt, context));
             } else {
                 result.add(stmt);
             }
         }
         
         if (context.isDebugMode()) {
-            System.out.println("  Functions optimized: " + functionsOptimized);
-            System.out.println("  Tail calls transformed: " + tailCallsTransformed);
+            System.out.println("  Functions optimized: " + functionsOptimized.get());
+            System.out.println("  Tail calls transformed: " + tailCallsTransformed.get());
         }
         
         return result;
     }
     
+    @Override
+    public boolean isFunctionLocal() {
+        return true;
+    }
+    
+    @Override
+    public Stmt.Function optimizeFunction(Stmt.Function function, OptimizationContext context) {
+        if (!analyzer.hasTailRecursion(function)) {
+            return function;
+        }
+        functionsOptimized.incrementAndGet();
+        context.recordTransformations(getName(), 1);
+        return optimizeTailRecursion(function, context);
+    }
+    
     /**
      * Transform a tail-recursive function into a loop.
      */
@@ -78,7 +89,7 @@ public class TailCallOptimizationPass extends OptimizationPass {
         List<Stmt> optimizedBody = new ArrayList<>();
         
         // Create temporary variables for parameter updates
-        Map<String, Token> tempVars = new HashMap<>();
+        Map<String, Token> tempVars = new LinkedHashMap<>();
         List<Stmt> tempDeclarations = new ArrayList<>();
         
         for (Stmt.Parameter param : func.params) {
@@ -120,7 +131,7 @@ public class TailCallOptimizationPass extends OptimizationPass {
                 TailCallAnalyzer.TailCallInfo info = analyzer.analyzeFunctionCall(stmt, functionName);
                 
                 if (info.isTailCall && info.isSelfRecursive) {
-                    tailCallsTransformed++;
+                    tailCallsTransformed.incrementAndGet();
                     
                     // Replace tail call with parameter updates
                     List<Stmt> updates = new ArrayList<>();
@@ -163,6 +174,11 @@ public class TailCallOptimizationPass extends OptimizationPass {
                 return stmt; // Throw statements are not optimized
             }
             
+            @Override
+            public Stmt visitYieldStmt(Stmt.Yield stmt) {
+                return stmt; // Yield statements are not optimized
+            }
+            
             @Override
             public Stmt visitIfStmt(Stmt.If stmt) {
                 return new Stmt.If(
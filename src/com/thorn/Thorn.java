@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
@@ -13,16 +14,26 @@ public class Thorn {
     private static final Interpreter interpreter = new Interpreter();
     private static final ThornVM vm = new ThornVM();
     static boolean hadError = false;
+    // Set while the optimizer parses a module ahead of its import
+    static boolean quietErrors = false;
     static boolean hadRuntimeError = false;
     static boolean printAst = false;
     static boolean useVM = false;
+    
+    // Profile recorded by this run for --profile-out, and the file it goes to
+    private static ExecutionProfile recordedProfile = null;
+    private static Path profileOut = null;
+    
+    // Profile of an earlier run, from -Doptimize.thorn.profile
+    private static ExecutionProfile guidingProfile = null;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 3) {
-            System.out.println("Usage: thorn [--ast] [--vm] [script]");
-            System.out.println("       Use -Doptimize.thorn.ast=true to enable dead code elimination");
-            System.exit(64);
-        } 
+        // Options come before the script; anything after it is ignored,
+        // as in "thorn script.thorn --vm". Five arguments hold every
+        // option and a script
+        if (args.length > 5) {
+            usage();
+        }
         
         int fileArgIndex = 0;
         for (int i = 0; i < args.length; i++) {
@@ -32,21 +43,73 @@ public class Thorn {
             } else if (args[i].equals("--vm")) {
                 useVM = true;
                 fileArgIndex = i + 1;
+            } else if (args[i].equals("--profile-out")) {
+                if (i + 1 >= args.length) {
+                    usage();
+                }
+                profileOut = Paths.get(args[++i]);
+                fileArgIndex = i + 1;
             } else {
                 break;
             }
         }
         
+        configureProfiles();
+        
         if (args.length > fileArgIndex) {
             runFile(args[fileArgIndex]);
         } else {
             runPrompt();
+            saveProfile();
+        }
+    }
+    
+    private static void usage() {
+        System.out.println("Usage: thorn [--ast] [--vm] [--profile-out file] [script]");
+        System.out.println("       Use -Doptimize.thorn.ast=true to enable dead code elimination");
+        System.exit(64);
+    }
+    
+    /**
+     * Start recording a profile for --profile-out, and read the one named
+     * by -Doptimize.thorn.profile. An unreadable profile is reported and
+     * the program runs without it.
+     */
+    private static void configureProfiles() {
+        if (profileOut != null) {
+            recordedProfile = new ExecutionProfile();
+            interpreter.profile = recordedProfile;
+            vm.setProfile(recordedProfile);
+        }
+        
+        String profilePath = System.getProperty("optimize.thorn.profile");
+        if (profilePath != null) {
+            try {
+                guidingProfile = ExecutionProfile.load(Paths.get(profilePath));
+                interpreter.tiers.setProfile(guidingProfile);
+            } catch (IOException e) {
+                System.err.println("Could not read profile " + profilePath + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    private static void saveProfile() {
+        if (recordedProfile == null) {
+            return;
+        }
+        try {
+            recordedProfile.save(profileOut);
+        } catch (IOException e) {
+            System.err.println("Could not write profile " + profileOut + ": " + e.getMessage());
         }
     }
 
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
         run(new String(bytes, Charset.defaultCharset()));
+        
+        // A run that failed still describes the code it reached
+        saveProfile();
 
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
@@ -78,8 +141,10 @@ public class Thorn {
         // Stop if there was a syntax error
         if (hadError) return;
 
-        // Apply optimizations if enabled
-        OptimizationLevel optLevel = getOptimizationLevel();
+        // Apply optimizations if enabled. A profiled run records the program
+        // as written, so that the profile covers every function, branch and
+        // loop the optimizer may look up in a later run
+        OptimizationLevel optLevel = recordedProfile != null ? OptimizationLevel.O0 : getOptimizationLevel();
         boolean optimizeAst = optLevel != OptimizationLevel.O0;
         
         if (optimizeAst) {
@@ -100,6 +165,9 @@ public class Thorn {
             // System.err.println("DEBUG: Using VM mode, compiling " + statements.size() + " statements");
             try {
                 SimpleCompiler compiler = new SimpleCompiler();
+                compiler.setProfile(guidingProfile);
+                compiler.setProfiling(recordedProfile != null);
+                compiler.setConstants(ImmutableAnalysisPass.findConstants(statements, null));
                 CompilationResult result = compiler.compile(statements);
                 
                 if (printAst) {
@@ -157,10 +225,13 @@ public class Thorn {
         // Register available optimization passes
         pipeline.registerPass(new DeadCodeEliminationPass());
         pipeline.registerPass(new ConstantFoldingPass());
+        pipeline.registerPass(new PartialEvaluationPass());
         pipeline.registerPass(new BranchOptimizationPass());
         pipeline.registerPass(new CopyPropagationPass());
         pipeline.registerPass(new DeadStoreEliminationPass());
         pipeline.registerPass(new ControlFlowAnalysisPass());
+        pipeline.registerPass(new EffectAnalysisPass());
+        pipeline.registerPass(new ImmutableAnalysisPass());
         pipeline.registerPass(new UnreachableCodeEliminationPass());
         pipeline.registerPass(new CommonSubexpressionEliminationPass());
         pipeline.registerPass(new LoopOptimizationPass());
@@ -169,6 +240,8 @@ public class Thorn {
         
         // Create optimization context
         OptimizationContext context = new OptimizationContext(level, printAst, printAst);
+        context.setProfile(guidingProfile);
+        context.setModuleSystem(interpreter.getModuleSystem());
         
         // Configure passes based on system properties
         configureOptimizationPasses(context);
@@ -196,12 +269,37 @@ public class Thorn {
             }
         }
         
+        // -Doptimize.thorn.parallel=false optimizes functions one at a time
+        String parallel = System.getProperty("optimize.thorn.parallel");
+        if (parallel != null) {
+            context.setParallel(Boolean.parseBoolean(parallel));
+        }
+        
+        // -Doptimize.thorn.stats prints time, size and changes for each pass
+        String stats = System.getProperty("optimize.thorn.stats");
+        if (stats != null && !stats.equals("false")) {
+            context.setCollectingStatistics(true);
+        }
+        
+        // -Doptimize.thorn.max-rounds bounds how often O3 repeats the passes
+        String maxRounds = System.getProperty("optimize.thorn.max-rounds");
+        if (maxRounds != null) {
+            context.setPassConfiguration("pipeline", "max-rounds", maxRounds);
+        }
+        
         // Configure individual pass parameters
         // Example: -Doptimize.thorn.inline.threshold=10
         String inlineThreshold = System.getProperty("optimize.thorn.inline.threshold");
         if (inlineThreshold != null) {
             context.setPassConfiguration("function-inlining", "threshold", inlineThreshold);
         }
+        
+        // -Doptimize.thorn.eval.step-limit bounds the statements a call
+        // evaluated at compile time may run
+        String stepLimit = System.getProperty("optimize.thorn.eval.step-limit");
+        if (stepLimit != null) {
+            context.setPassConfiguration("partial-evaluation", "step-limit", stepLimit);
+        }
     }
 
     static void error(int line, String message) {
@@ -217,8 +315,10 @@ public class Thorn {
     }
 
     private static void report(int line, String where, String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
+        if (!quietErrors) {
+            System.err.println(
+                    "[line " + line + "] Error" + where + ": " + message);
+        }
         hadError = true;
     }
 
@@ -0,0 +1,374 @@
+package com.thorn;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Array value created by list literals, concatenation and slicing.
+ *
+ * While every element is a number the elements are stored unboxed in a
+ * double[], which takes 8 bytes per element instead of a reference plus a
+ * 16-byte Double. The first time anything other than a number is stored
+ * the array switches to an Object[] for good. Either way it behaves as an
+ * ordinary java.util.List, so code that only knows about List keeps
+ * working; the interpreter and the VM check isNumeric() to read and write
+ * numbers without going through Object.
+ *
+ * The backing array is a circular buffer whose length is a power of two:
+ * element i lives at (head + i) & mask. push, pop, shift and unshift are
+ * all amortized O(1), so arrays used as queues stay linear.
+ *
+ * Slices covering most of the source, and the results of a dictionary's
+ * keys() and values(), share their backing array with the source and are
+ * marked shared. Reads go straight to the shared array; the first write
+ * to either side copies its own range first, so a read-only slice or
+ * traversal allocates no element storage. Because a shared slice is at
+ * least half the source, that copy costs no more than copying the slice
+ * would have, and the source array it keeps reachable is at most twice
+ * its size.
+ */
+public final class ThornArray extends AbstractList<Object> implements RandomAccess {
+    private static final int DEFAULT_CAPACITY = 8;
+
+    // Shorter slices, and slices under half the source, are copied straight away
+    private static final int SHARED_SLICE_MIN = 32;
+
+    // Exactly one of these is in use; numbers is null once deoptimized
+    private double[] numbers;
+    private Object[] objects;
+    private int head;
+    private int size;
+    private int mask;
+
+    // Backing array may be seen by another array or a dictionary
+    private boolean shared;
+
+    public ThornArray() {
+        this.numbers = new double[DEFAULT_CAPACITY];
+        this.mask = DEFAULT_CAPACITY - 1;
+    }
+
+    public ThornArray(Collection<?> elements) {
+        int capacity = capacityFor(elements.size());
+        this.numbers = new double[capacity];
+        this.mask = capacity - 1;
+        addAll(elements);
+    }
+
+    /**
+     * Read-only view of the first size slots of storage, whose length is a
+     * power of two. The owner must not change those slots without copying
+     * storage first.
+     */
+    static ThornArray sharedView(Object[] storage, int size) {
+        ThornArray view = new ThornArray();
+        if (size > 0) {
+            view.numbers = null;
+            view.objects = storage;
+            view.mask = storage.length - 1;
+            view.size = size;
+            view.shared = true;
+        }
+        return view;
+    }
+
+    public boolean isNumeric() {
+        return numbers != null;
+    }
+
+    /**
+     * Element at index of a numeric array. Callers check isNumeric() and
+     * the bounds first.
+     */
+    public double getNumber(int index) {
+        return numbers[(head + index) & mask];
+    }
+
+    /**
+     * Store a number at index of a numeric array. Callers check isNumeric()
+     * and the bounds first.
+     */
+    public void setNumber(int index, double value) {
+        if (shared) {
+            unshare();
+        }
+        numbers[(head + index) & mask] = value;
+    }
+
+    public void addNumber(double value) {
+        if (numbers == null) {
+            add(value);
+            return;
+        }
+        if (shared) {
+            unshare();
+        }
+        if (size > mask) {
+            grow();
+        }
+        numbers[(head + size) & mask] = value;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(int index) {
+        checkIndex(index, size);
+        int slot = (head + index) & mask;
+        return numbers != null ? (Object) numbers[slot] : objects[slot];
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        checkIndex(index, size);
+        if (shared) {
+            unshare();
+        }
+        int slot = (head + index) & mask;
+        if (numbers != null) {
+            if (element instanceof Double) {
+                double previous = numbers[slot];
+                numbers[slot] = (Double) element;
+                return previous;
+            }
+            deoptimize();
+        }
+        Object previous = objects[slot];
+        objects[slot] = element;
+        return previous;
+    }
+
+    @Override
+    public boolean add(Object element) {
+        if (numbers != null && element instanceof Double) {
+            addNumber((Double) element);
+            return true;
+        }
+        add(size, element);
+        return true;
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        checkIndex(index, size + 1);
+        if (shared) {
+            unshare();
+        }
+        if (numbers != null && !(element instanceof Double)) {
+            deoptimize();
+        }
+        if (size > mask) {
+            grow();
+        }
+
+        int slot;
+        if (index == 0) {
+            head = (head - 1) & mask;
+            slot = head;
+        } else {
+            // Open a gap by moving the later elements up one slot
+            for (int i = size; i > index; i--) {
+                move((head + i - 1) & mask, (head + i) & mask);
+            }
+            slot = (head + index) & mask;
+        }
+
+        if (numbers != null) {
+            numbers[slot] = (Double) element;
+        } else {
+            objects[slot] = element;
+        }
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Object remove(int index) {
+        checkIndex(index, size);
+        if (shared) {
+            unshare();
+        }
+        int slot = (head + index) & mask;
+        Object previous = numbers != null ? (Object) numbers[slot] : objects[slot];
+
+        int cleared;
+        if (index == 0) {
+            cleared = head;
+            head = (head + 1) & mask;
+        } else {
+            // Close the gap by moving the later elements down one slot
+            for (int i = index + 1; i < size; i++) {
+                move((head + i) & mask, (head + i - 1) & mask);
+            }
+            cleared = (head + size - 1) & mask;
+        }
+        if (objects != null) {
+            objects[cleared] = null;
+        }
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        if (objects != null) {
+            objects = new Object[DEFAULT_CAPACITY];
+        } else {
+            numbers = new double[DEFAULT_CAPACITY];
+        }
+        mask = DEFAULT_CAPACITY - 1;
+        head = 0;
+        size = 0;
+        shared = false;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        // Reads the backing array directly; fails fast like ArrayList
+        return new Iterator<Object>() {
+            private int index = 0;
+            private final int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Object next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                int slot = (head + index++) & mask;
+                return numbers != null ? (Object) numbers[slot] : objects[slot];
+            }
+        };
+    }
+
+    /**
+     * Elements from start (inclusive) to end (exclusive), keeping the
+     * numeric representation. Long slices covering at least half of this
+     * array share its storage until either side is written; a small
+     * window of a large array is copied, so writing to the array does not
+     * copy all of it.
+     */
+    public ThornArray slice(int start, int end) {
+        int length = end - start;
+        ThornArray result = new ThornArray();
+        if (length > SHARED_SLICE_MIN && length * 2 >= size) {
+            shared = true;
+            result.numbers = numbers;
+            result.objects = objects;
+            result.head = (head + start) & mask;
+            result.mask = mask;
+            result.size = length;
+            result.shared = true;
+            return result;
+        }
+
+        int capacity = capacityFor(length);
+        if (numbers != null) {
+            result.numbers = new double[capacity];
+            copyNumbers(start, length, result.numbers);
+        } else {
+            result.numbers = null;
+            result.objects = new Object[capacity];
+            copyObjects(start, length, result.objects);
+        }
+        result.mask = capacity - 1;
+        result.size = length;
+        return result;
+    }
+
+    // Take a private copy of the elements before the first write
+    private void unshare() {
+        int capacity = capacityFor(size);
+        if (numbers != null) {
+            double[] copy = new double[capacity];
+            copyNumbers(0, size, copy);
+            numbers = copy;
+        } else {
+            Object[] copy = new Object[capacity];
+            copyObjects(0, size, copy);
+            objects = copy;
+        }
+        head = 0;
+        mask = capacity - 1;
+        shared = false;
+    }
+
+    private void move(int from, int to) {
+        if (numbers != null) {
+            numbers[to] = numbers[from];
+        } else {
+            objects[to] = objects[from];
+        }
+    }
+
+    // Double the capacity, unwrapping the elements to start at slot 0
+    private void grow() {
+        int capacity = (mask + 1) * 2;
+        if (numbers != null) {
+            double[] grown = new double[capacity];
+            copyNumbers(0, size, grown);
+            numbers = grown;
+        } else {
+            Object[] grown = new Object[capacity];
+            copyObjects(0, size, grown);
+            objects = grown;
+        }
+        head = 0;
+        mask = capacity - 1;
+        shared = false;
+    }
+
+    // Switch to boxed storage, keeping the elements and their slots
+    private void deoptimize() {
+        objects = new Object[mask + 1];
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) & mask;
+            objects[slot] = numbers[slot];
+        }
+        numbers = null;
+        shared = false;
+    }
+
+    // Copy length elements starting at logical index start into the front of target
+    private void copyNumbers(int start, int length, double[] target) {
+        int first = (head + start) & mask;
+        int firstRun = Math.min(length, mask + 1 - first);
+        System.arraycopy(numbers, first, target, 0, firstRun);
+        System.arraycopy(numbers, 0, target, firstRun, length - firstRun);
+    }
+
+    private void copyObjects(int start, int length, Object[] target) {
+        int first = (head + start) & mask;
+        int firstRun = Math.min(length, mask + 1 - first);
+        System.arraycopy(objects, first, target, 0, firstRun);
+        System.arraycopy(objects, 0, target, firstRun, length - firstRun);
+    }
+
+    private static int capacityFor(int length) {
+        return length <= DEFAULT_CAPACITY ? DEFAULT_CAPACITY : Integer.highestOneBit(length - 1) << 1;
+    }
+
+    private static void checkIndex(int index, int length) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+    }
+}
@@ -1,8 +1,30 @@
 package com.thorn;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 interface ThornCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
-}
\ No newline at end of file
+
+    // Arity-specialized entry points used by the interpreter for low-arity calls.
+    // The defaults fall back to the list form; implementations override them so
+    // the common paths do not have to allocate an argument list.
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object arg0) {
+        return call(interpreter, Collections.singletonList(arg0));
+    }
+
+    default Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        return call(interpreter, Arrays.asList(arg0, arg1));
+    }
+
+    default Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+        return call(interpreter, Arrays.asList(arg0, arg1, arg2));
+    }
+}
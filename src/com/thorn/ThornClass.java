@@ -37,6 +37,46 @@ class ThornClass implements ThornCallable {
         return instance;
     }
 
+    @Override
+    public Object call0(Interpreter interpreter) {
+        ThornInstance instance = new ThornInstance(this);
+        ThornFunction initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.bind(instance).call0(interpreter);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg0) {
+        ThornInstance instance = new ThornInstance(this);
+        ThornFunction initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.bind(instance).call1(interpreter, arg0);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        ThornInstance instance = new ThornInstance(this);
+        ThornFunction initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.bind(instance).call2(interpreter, arg0, arg1);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+        ThornInstance instance = new ThornInstance(this);
+        ThornFunction initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.bind(instance).call3(interpreter, arg0, arg1, arg2);
+        }
+        return instance;
+    }
+
     @Override
     public int arity() {
         ThornFunction initializer = findMethod("init");
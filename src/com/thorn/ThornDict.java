@@ -0,0 +1,354 @@
+package com.thorn;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Dictionary value created by dict literals, the VM and the JSON parser.
+ *
+ * Entries are kept in insertion order in dense parallel arrays of keys,
+ * values and hashes, so iteration follows insertion and an entry costs
+ * three array slots instead of a HashMap node. Dictionaries with at most
+ * eight entries are searched linearly; larger ones add a sparse
+ * open-addressing table of entry positions. Comparing cached hashes first
+ * means String keys, whose hashCode is cached by String itself, are only
+ * compared with equals() on a likely match.
+ *
+ * Removing an entry leaves a hole that is squeezed out the next time the
+ * entry arrays grow.
+ *
+ * keys() and values() return arrays that share the key or value storage
+ * instead of copying it. Appending new entries only writes past the end of
+ * what a view can see; replacing a value or removing an entry first copies
+ * whichever storage a view still shares.
+ */
+public final class ThornDict<K, V> extends AbstractMap<K, V> {
+    private static final int LINEAR_LIMIT = 8;
+    private static final int DEFAULT_CAPACITY = 4;
+
+    // Key of a removed entry; never equal to a real key
+    private static final Object DELETED = new Object();
+
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;
+    private int used;
+    private int size;
+    private int modCount;
+
+    // Storage currently shared with an array returned by keys() or values()
+    private boolean keysShared;
+    private boolean valuesShared;
+
+    // Entry position + 1 per slot, 0 when empty; null while linear
+    private int[] index;
+
+    public ThornDict() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ThornDict(int capacity) {
+        // Power-of-two storage so views can wrap it as a ThornArray
+        allocate(capacity <= DEFAULT_CAPACITY ? DEFAULT_CAPACITY : Integer.highestOneBit(capacity - 1) << 1);
+    }
+
+    public ThornDict(Map<? extends K, ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int position = find(key, hash(key));
+        return position < 0 ? null : (V) values[position];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key, hash(key)) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        int hash = hash(key);
+        int position = find(key, hash);
+        if (position >= 0) {
+            if (valuesShared) {
+                values = values.clone();
+                valuesShared = false;
+            }
+            V previous = (V) values[position];
+            values[position] = value;
+            return previous;
+        }
+
+        if (used == keys.length) {
+            // Squeeze out removed entries, growing only when at least half are live
+            resize(size >= keys.length / 2 ? keys.length * 2 : keys.length);
+        }
+        keys[used] = key;
+        values[used] = value;
+        hashes[used] = hash;
+        if (index != null) {
+            insertIndex(hash, used);
+        }
+        used++;
+        size++;
+        modCount++;
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int position = find(key, hash(key));
+        return position < 0 ? null : removeAt(position);
+    }
+
+    @Override
+    public void clear() {
+        allocate(DEFAULT_CAPACITY);
+        size = 0;
+        used = 0;
+        modCount++;
+    }
+
+    /**
+     * The keys in insertion order, sharing this dictionary's storage until
+     * either side changes.
+     */
+    public ThornArray keysArray() {
+        if (used != size) {
+            resize(keys.length);
+        }
+        keysShared = true;
+        return ThornArray.sharedView(keys, size);
+    }
+
+    /**
+     * The values in insertion order, sharing this dictionary's storage
+     * until either side changes.
+     */
+    public ThornArray valuesArray() {
+        if (used != size) {
+            resize(keys.length);
+        }
+        valuesShared = true;
+        return ThornArray.sharedView(values, size);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public void clear() {
+                ThornDict.this.clear();
+            }
+
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    private int find(Object key, int hash) {
+        if (index == null) {
+            for (int i = 0; i < used; i++) {
+                if (hashes[i] == hash && matches(keys[i], key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = index[slot] - 1;
+            if (entry < 0) {
+                return -1;
+            }
+            if (hashes[entry] == hash && matches(keys[entry], key)) {
+                return entry;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeAt(int position) {
+        if (keysShared) {
+            keys = keys.clone();
+            keysShared = false;
+        }
+        if (valuesShared) {
+            values = values.clone();
+            valuesShared = false;
+        }
+        V previous = (V) values[position];
+        keys[position] = DELETED;
+        values[position] = null;
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    private void insertIndex(int hash, int position) {
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        keysShared = false;
+        valuesShared = false;
+        // Keep the index at most half full, holes included
+        index = capacity > LINEAR_LIMIT ? new int[Integer.highestOneBit(capacity - 1) << 2] : null;
+    }
+
+    private void resize(int capacity) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        int oldUsed = used;
+
+        allocate(capacity);
+        used = 0;
+        for (int i = 0; i < oldUsed; i++) {
+            if (oldKeys[i] != DELETED) {
+                keys[used] = oldKeys[i];
+                values[used] = oldValues[i];
+                hashes[used] = oldHashes[i];
+                if (index != null) {
+                    insertIndex(hashes[used], used);
+                }
+                used++;
+            }
+        }
+    }
+
+    private static boolean matches(Object stored, Object key) {
+        return stored == key || (key != null && key.equals(stored));
+    }
+
+    private static int hash(Object key) {
+        // Small integral Doubles hash to values with all-zero low bits
+        int h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private int next = advance(0);
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        private int advance(int from) {
+            while (from < used && keys[from] == DELETED) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < used;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= used) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = advance(next + 1);
+            return new Entry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(last);
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    private final class Entry implements Map.Entry<K, V> {
+        private final int position;
+        private final K key;
+
+        @SuppressWarnings("unchecked")
+        Entry(int position) {
+            this.position = position;
+            this.key = (K) keys[position];
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return keys[position] == key ? (V) values[position] : get(key);
+        }
+
+        @Override
+        public V setValue(V value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            return matches(key, other.getKey()) && matches(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+}
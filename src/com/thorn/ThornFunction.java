@@ -1,5 +1,6 @@
 package com.thorn;
 
+import java.util.Arrays;
 import java.util.List;
 
 class ThornFunction implements ThornCallable {
@@ -8,6 +9,14 @@ class ThornFunction implements ThornCallable {
     private final List<Stmt> body;
     private final Environment closure;
     private final ThornType returnType;
+    
+    // Body contains yield, so calls return a ThornGenerator
+    private final boolean generator;
+    
+    // Tiered execution state, see TieredExecution
+    int hotness;
+    TieredExecution.CompiledFunction compiled;
+    boolean tierRejected;
 
     ThornFunction(String name, List<Stmt.Parameter> params, List<Stmt> body, Environment closure, ThornType returnType) {
         this.name = name;
@@ -15,6 +24,7 @@ class ThornFunction implements ThornCallable {
         this.body = body;
         this.closure = closure;
         this.returnType = returnType;
+        this.generator = ThornGenerator.isGeneratorBody(body);
     }
     
     // Legacy constructor for backward compatibility
@@ -27,6 +37,7 @@ class ThornFunction implements ThornCallable {
         this.body = body;
         this.closure = closure;
         this.returnType = null;
+        this.generator = ThornGenerator.isGeneratorBody(body);
     }
 
     @Override
@@ -36,40 +47,148 @@ class ThornFunction implements ThornCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (generator) {
+            return new ThornGenerator(interpreter, this, bindArguments(interpreter, arguments));
+        }
+        TieredExecution.CompiledFunction code = interpreter.tiers.compiledCode(this);
+        if (code != null) {
+            return complete(interpreter,
+                    interpreter.tiers.run(code, checkArguments(interpreter, arguments.toArray())));
+        }
+        return complete(interpreter, interpreter.executeBody(this, bindArguments(interpreter, arguments)));
+    }
+    
+    // Arity-specialized entry points bind arguments straight into the call
+    // environment instead of going through an argument list
+    
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (generator) {
+            return new ThornGenerator(interpreter, this, new Environment(closure));
+        }
+        TieredExecution.CompiledFunction code = interpreter.tiers.compiledCode(this);
+        if (code != null) {
+            return complete(interpreter, interpreter.tiers.run(code, new Object[0]));
+        }
+        return complete(interpreter, interpreter.executeBody(this, new Environment(closure)));
+    }
+    
+    @Override
+    public Object call1(Interpreter interpreter, Object arg0) {
+        if (generator) {
+            return new ThornGenerator(interpreter, this, bindArguments(interpreter, Arrays.asList(arg0)));
+        }
+        TieredExecution.CompiledFunction code = interpreter.tiers.compiledCode(this);
+        if (code != null) {
+            return complete(interpreter,
+                    interpreter.tiers.run(code, checkArguments(interpreter, new Object[] { arg0 })));
+        }
         Environment environment = new Environment(closure);
-        
-        // Type check parameters and bind them
-        for (int i = 0; i < params.size(); i++) {
-            Stmt.Parameter param = params.get(i);
-            Object argument = arguments.get(i);
-            
-            // Perform type checking if parameter has a type annotation
-            if (param.type != null) {
-                ThornType paramType = (ThornType) interpreter.evaluateType(param.type);
-                if (!paramType.matches(argument)) {
-                    throw new Thorn.RuntimeError(param.name, "Type error: expected " + paramType.getName() + 
-                                         " but got " + getTypeName(argument) + 
-                                         " for parameter '" + param.name.lexeme + "'");
-                }
+        bindParameter(interpreter, environment, params.get(0), arg0);
+        return complete(interpreter, interpreter.executeBody(this, environment));
+    }
+    
+    @Override
+    public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        if (generator) {
+            return new ThornGenerator(interpreter, this, bindArguments(interpreter, Arrays.asList(arg0, arg1)));
+        }
+        TieredExecution.CompiledFunction code = interpreter.tiers.compiledCode(this);
+        if (code != null) {
+            return complete(interpreter,
+                    interpreter.tiers.run(code, checkArguments(interpreter, new Object[] { arg0, arg1 })));
+        }
+        Environment environment = new Environment(closure);
+        bindParameter(interpreter, environment, params.get(0), arg0);
+        bindParameter(interpreter, environment, params.get(1), arg1);
+        return complete(interpreter, interpreter.executeBody(this, environment));
+    }
+    
+    @Override
+    public Object call3(Interpreter interpreter, Object arg0, Object arg1, Object arg2) {
+        if (generator) {
+            return new ThornGenerator(interpreter, this, bindArguments(interpreter, Arrays.asList(arg0, arg1, arg2)));
+        }
+        TieredExecution.CompiledFunction code = interpreter.tiers.compiledCode(this);
+        if (code != null) {
+            return complete(interpreter,
+                    interpreter.tiers.run(code, checkArguments(interpreter, new Object[] { arg0, arg1, arg2 })));
+        }
+        Environment environment = new Environment(closure);
+        bindParameter(interpreter, environment, params.get(0), arg0);
+        bindParameter(interpreter, environment, params.get(1), arg1);
+        bindParameter(interpreter, environment, params.get(2), arg2);
+        return complete(interpreter, interpreter.executeBody(this, environment));
+    }
+    
+    private void bindParameter(Interpreter interpreter, Environment environment, 
+                               Stmt.Parameter param, Object argument) {
+        checkParameter(interpreter, param, argument);
+        environment.define(param.name.lexeme, argument, false);
+    }
+    
+    private void checkParameter(Interpreter interpreter, Stmt.Parameter param, Object argument) {
+        // Perform type checking if parameter has a type annotation
+        if (param.type != null) {
+            ThornType paramType = (ThornType) interpreter.evaluateType(param.type);
+            if (!paramType.matches(argument)) {
+                throw new Thorn.RuntimeError(param.name, "Type error: expected " + paramType.getName() + 
+                                     " but got " + getTypeName(argument) + 
+                                     " for parameter '" + param.name.lexeme + "'");
             }
-            
-            environment.define(param.name.lexeme, argument, false);
         }
-
-        // Save current return state
-        Object previousReturnValue = interpreter.returnValue;
-        boolean previousHasReturned = interpreter.hasReturned;
-        
-        // Reset return state for this function call
-        interpreter.returnValue = null;
-        interpreter.hasReturned = false;
-        
-        interpreter.executeBlock(body, environment);
-        
-        // Get the return value
-        Object result = interpreter.hasReturned ? interpreter.returnValue : null;
+    }
+    
+    // Compiled code keeps parameters in registers, so arguments are only checked
+    private Object[] checkArguments(Interpreter interpreter, Object[] arguments) {
+        for (int i = 0; i < params.size(); i++) {
+            checkParameter(interpreter, params.get(i), arguments[i]);
+        }
+        return arguments;
+    }
+    
+    private Environment bindArguments(Interpreter interpreter, List<Object> arguments) {
+        Environment environment = new Environment(closure);
+        for (int i = 0; i < params.size(); i++) {
+            bindParameter(interpreter, environment, params.get(i), arguments.get(i));
+        }
+        return environment;
+    }
+    
+    // Bodies and compiled code run straight from the entry points above, so
+    // a call that does not end in a tail call costs no Java frames beyond
+    // the body's own. Tail calls are then run here, one after another.
+    
+    private Object complete(Interpreter interpreter, Object result) {
+        if (result instanceof TailCall) {
+            return trampoline(interpreter, (TailCall) result);
+        }
+        checkReturnType(result);
+        return result;
+    }
+    
+    private Object trampoline(Interpreter interpreter, TailCall tailCall) {
+        ThornFunction function;
+        Object result;
+        do {
+            function = tailCall.function;
+            TieredExecution.CompiledFunction code = interpreter.tiers.compiledCode(function);
+            if (code != null) {
+                Object[] arguments = function.checkArguments(interpreter, tailCall.arguments.toArray());
+                result = interpreter.tiers.run(code, arguments);
+            } else {
+                result = interpreter.executeBody(function, function.bindArguments(interpreter, tailCall.arguments));
+            }
+            tailCall = result instanceof TailCall ? (TailCall) result : null;
+        } while (tailCall != null);
         
-        // Type check return value if function has return type annotation
+        // Type check return value if function has return type annotation.
+        // Tail calls are only taken when they cannot skip a caller's check.
+        function.checkReturnType(result);
+        return result;
+    }
+    
+    private void checkReturnType(Object result) {
         if (returnType != null && result != null) {
             if (!returnType.matches(result)) {
                 throw new Thorn.RuntimeError(new Token(TokenType.RETURN, "return", null, -1), 
@@ -77,12 +196,32 @@ class ThornFunction implements ThornCallable {
                                      " but got " + getTypeName(result));
             }
         }
+    }
+    
+    /**
+     * Whether a call to target from return position of this function can be
+     * replaced by a tail call without losing this function's return type check.
+     * Generators are never tail called: calling one returns a ThornGenerator
+     * rather than running its body.
+     */
+    boolean canTailCall(ThornFunction target) {
+        if (target.generator) return false;
+        if (returnType == null) return true;
+        return target.returnType != null && returnType.getName().equals(target.returnType.getName());
+    }
+    
+    /**
+     * Marker produced by a return statement whose value is a call to another
+     * Thorn function. The enclosing invoke loop performs the call.
+     */
+    static final class TailCall {
+        final ThornFunction function;
+        final List<Object> arguments;
         
-        // Restore previous return state
-        interpreter.returnValue = previousReturnValue;
-        interpreter.hasReturned = previousHasReturned;
-        
-        return result;
+        TailCall(ThornFunction function, List<Object> arguments) {
+            this.function = function;
+            this.arguments = arguments;
+        }
     }
     
     private String getTypeName(Object value) {
@@ -115,6 +254,18 @@ class ThornFunction implements ThornCallable {
     public List<Stmt.Parameter> getParameters() {
         return params;
     }
+    
+    String getName() {
+        return name;
+    }
+    
+    List<Stmt> getBody() {
+        return body;
+    }
+    
+    Environment getClosure() {
+        return closure;
+    }
 
     @Override
     public String toString() {
@@ -0,0 +1,233 @@
+package com.thorn;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy sequence returned by calling a function whose body contains yield.
+ *
+ * The tree-walking interpreter keeps its position in the Java stack, so a
+ * generator runs its body on a thread of its own. Control is handed back
+ * and forth strictly: the body runs only while the consumer waits in
+ * hasNext(), and the consumer resumes only once the body yields, returns
+ * or fails. Exactly one thread uses the interpreter at any time, and the
+ * interpreter's execution state is swapped at each switch.
+ *
+ * The body starts on the first hasNext() and runs to each yield in turn.
+ * A for-in loop that stops early closes the generator, which unwinds the
+ * body; a generator abandoned part way through keeps its parked thread
+ * until the program exits.
+ */
+final class ThornGenerator implements Iterable<Object>, Iterator<Object> {
+    // Thrown at a suspended yield to unwind the body of a closed generator
+    private static final class Closed extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Closed() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Function bodies already checked for yield, by identity
+    private static final Map<List<Stmt>, Boolean> generatorBodies =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private final Interpreter interpreter;
+    private final ThornFunction function;
+    private final Environment environment;
+
+    // Interpreter state of whichever side is not running
+    private final Interpreter.ExecutionState consumerState = new Interpreter.ExecutionState();
+    private final Interpreter.ExecutionState bodyState = new Interpreter.ExecutionState();
+
+    // Guarded by this
+    private Thread thread;
+    private boolean bodyTurn;
+    private boolean finished;
+    private boolean closing;
+    private boolean hasValue;
+    private Object value;
+    private Throwable failure;
+
+    ThornGenerator(Interpreter interpreter, ThornFunction function, Environment environment) {
+        this.interpreter = interpreter;
+        this.function = function;
+        this.environment = environment;
+    }
+
+    /**
+     * Whether body contains a yield outside any function or lambda nested
+     * in it, which makes the function a generator.
+     */
+    static boolean isGeneratorBody(List<Stmt> body) {
+        Boolean known = generatorBodies.get(body);
+        if (known == null) {
+            known = containsYield(body);
+            generatorBodies.put(body, known);
+        }
+        return known;
+    }
+
+    private static boolean containsYield(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            if (containsYield(stmt)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The parser rejects yield inside match blocks, so statements suffice
+    private static boolean containsYield(Stmt stmt) {
+        if (stmt instanceof Stmt.Yield) {
+            return true;
+        }
+        if (stmt instanceof Stmt.Block) {
+            return containsYield(((Stmt.Block) stmt).statements);
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            return containsYield(ifStmt.thenBranch)
+                    || (ifStmt.elseBranch != null && containsYield(ifStmt.elseBranch));
+        }
+        if (stmt instanceof Stmt.While) {
+            return containsYield(((Stmt.While) stmt).body);
+        }
+        if (stmt instanceof Stmt.For) {
+            return containsYield(((Stmt.For) stmt).body);
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return this;
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        if (!hasValue && !finished) {
+            resume();
+        }
+        return hasValue;
+    }
+
+    @Override
+    public synchronized Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object result = value;
+        value = null;
+        hasValue = false;
+        return result;
+    }
+
+    /**
+     * Stop the body at its current yield, running nothing after it.
+     */
+    synchronized void close() {
+        hasValue = false;
+        value = null;
+        if (finished) {
+            return;
+        }
+        if (thread == null) {
+            finished = true;
+            return;
+        }
+        closing = true;
+        resume();
+    }
+
+    /**
+     * Called on the body's thread by a yield statement: hand value to the
+     * consumer and wait to be resumed.
+     */
+    synchronized void yieldValue(Object result) {
+        value = result;
+        hasValue = true;
+        bodyTurn = false;
+        notifyAll();
+        awaitTurn(true);
+        if (closing) {
+            throw new Closed();
+        }
+    }
+
+    // Run the body until it yields or ends; called with the lock held
+    private void resume() {
+        if (Thread.currentThread() == thread) {
+            throw new Thorn.RuntimeError(null, "Generator " + functionName() + " cannot advance itself.");
+        }
+        interpreter.saveState(consumerState);
+        if (thread == null) {
+            thread = new Thread(this::runBody, "thorn-generator-" + functionName());
+            thread.setDaemon(true);
+            bodyTurn = true;
+            thread.start();
+        } else {
+            interpreter.restoreState(bodyState);
+            bodyTurn = true;
+            notifyAll();
+        }
+        awaitTurn(false);
+        interpreter.saveState(bodyState);
+        interpreter.restoreState(consumerState);
+
+        if (failure != null) {
+            Throwable error = failure;
+            failure = null;
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            throw (Error) error;
+        }
+    }
+
+    private void runBody() {
+        try {
+            interpreter.runGenerator(this, function, environment);
+        } catch (Closed e) {
+            // Unwound by close()
+        } catch (Throwable e) {
+            synchronized (this) {
+                failure = e;
+            }
+        } finally {
+            synchronized (this) {
+                finished = true;
+                bodyTurn = false;
+                notifyAll();
+            }
+        }
+    }
+
+    // Wait with the lock held until it is the given side's turn
+    private void awaitTurn(boolean body) {
+        boolean interrupted = false;
+        while (bodyTurn != body) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String functionName() {
+        return function.getName() != null ? function.getName() : "lambda";
+    }
+
+    @Override
+    public String toString() {
+        return "<generator " + functionName() + ">";
+    }
+}
@@ -0,0 +1,177 @@
+package com.thorn;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Arithmetic sequence returned by the range() builtin.
+ *
+ * A range stores only its start, step and length and computes each
+ * element when it is read, so range(100000000) costs a few fields rather
+ * than a hundred million numbers. It is a read-only java.util.List, so
+ * indexing, slicing, .length and the list methods work on it; for-in loops in
+ * the interpreter and the VM read it through valueAt/longAt and never box
+ * a counter. Slicing a range gives another range.
+ */
+public final class ThornRange extends AbstractList<Object> implements RandomAccess {
+    private final double start;
+    private final double end;
+    private final double step;
+    private final int length;
+
+    // Start and step are exact integers, so every element is one as well
+    private final boolean integral;
+
+    private ThornRange(double start, double end, double step, int length) {
+        this.start = start;
+        this.end = end;
+        this.step = step;
+        this.length = length;
+        this.integral = isExactInteger(start) && isExactInteger(step)
+                && isExactInteger(start + step * Math.max(0, length - 1));
+    }
+
+    /**
+     * The numbers from start up to, but not including, end, counting by
+     * step. Throws IllegalArgumentException for a zero or non-finite step
+     * and for ranges of more than Integer.MAX_VALUE elements.
+     */
+    public static ThornRange of(double start, double end, double step) {
+        if (step == 0 || Double.isNaN(step) || Double.isInfinite(step)) {
+            throw new IllegalArgumentException("range() step must be a non-zero number.");
+        }
+        if (Double.isNaN(start) || Double.isNaN(end) || Double.isInfinite(start)) {
+            throw new IllegalArgumentException("range() bounds must be finite numbers.");
+        }
+        double count = Math.ceil((end - start) / step);
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("range() cannot have more than " + Integer.MAX_VALUE + " elements.");
+        }
+        return new ThornRange(start, end, step, count > 0 ? (int) count : 0);
+    }
+
+    /**
+     * Whether every element is an integer that a long holds exactly.
+     */
+    public boolean isIntegral() {
+        return integral;
+    }
+
+    /**
+     * Element at index. Callers check the bounds first.
+     */
+    public double valueAt(int index) {
+        return start + step * index;
+    }
+
+    /**
+     * Element at index of an integral range. Callers check isIntegral()
+     * and the bounds first.
+     */
+    public long longAt(int index) {
+        return (long) start + (long) step * index;
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+        return valueAt(index);
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        throw new UnsupportedOperationException("Ranges are immutable.");
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        throw new UnsupportedOperationException("Ranges are immutable.");
+    }
+
+    @Override
+    public Object remove(int index) {
+        throw new UnsupportedOperationException("Ranges are immutable.");
+    }
+
+    /**
+     * The elements from fromIndex (inclusive) to toIndex (exclusive) as a
+     * range of their own.
+     */
+    public ThornRange slice(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > length || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Slice " + fromIndex + ".." + toIndex + " out of bounds for length " + length);
+        }
+        return new ThornRange(valueAt(fromIndex), valueAt(toIndex), step, toIndex - fromIndex);
+    }
+
+    @Override
+    public List<Object> subList(int fromIndex, int toIndex) {
+        return slice(fromIndex, toIndex);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < length;
+            }
+
+            @Override
+            public Object next() {
+                if (index >= length) {
+                    throw new NoSuchElementException();
+                }
+                return valueAt(index++);
+            }
+        };
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Double) || length == 0) {
+            return false;
+        }
+        double offset = ((Double) o - start) / step;
+        return offset >= 0 && offset < length && offset == Math.floor(offset)
+                && valueAt((int) offset) == (Double) o;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!contains(o)) {
+            return -1;
+        }
+        return (int) (((Double) o - start) / step);
+    }
+
+    @Override
+    public String toString() {
+        // Printing the elements could mean millions of numbers
+        StringBuilder out = new StringBuilder("range(").append(format(start)).append(", ").append(format(end));
+        if (step != 1) {
+            out.append(", ").append(format(step));
+        }
+        return out.append(")").toString();
+    }
+
+    private static String format(double value) {
+        return value == (long) value ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static boolean isExactInteger(double value) {
+        return value == Math.rint(value) && Math.abs(value) <= (1L << 53);
+    }
+}
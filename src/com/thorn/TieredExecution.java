@@ -0,0 +1,399 @@
+package com.thorn;
+
+import com.thorn.vm.ConstantPool;
+import com.thorn.vm.FunctionInfo;
+import com.thorn.vm.OpCode;
+import com.thorn.vm.SimpleCompiler;
+import com.thorn.vm.ThornVM;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Second execution tier for the tree-walking interpreter.
+ *
+ * Every Thorn function counts its calls and loop iterations. Once the count
+ * reaches the threshold (-Dthorn.tier.threshold, default 1000, 0 disables)
+ * the function body is compiled to register bytecode and later calls run on
+ * a ThornVM that uses this class as its host. Parameters and locals live in
+ * VM registers; globals, calls and any operator applied to something other
+ * than two numbers go back to the interpreter, so both tiers print the same
+ * values and raise the same errors.
+ *
+ * Only bodies the VM can run with identical semantics are promoted: plain
+ * expression, return, if, while and block statements over literals,
+ * variables, arithmetic, comparisons and calls. Everything else stays
+ * interpreted. There is no on-stack replacement; a function that becomes
+ * hot inside a long loop is promoted on its next call.
+ */
+class TieredExecution implements ThornVM.Host {
+    private static final int DEFAULT_THRESHOLD = 1000;
+
+    // Compiled calls nested on the Java stack before further calls are
+    // interpreted. Each one re-enters ThornVM.run, whose frame is several
+    // times larger than an interpreted call's, so deep recursion runs out
+    // of Java stack well before the VM's own call stack is full.
+    private static final int MAX_NESTING = Integer.getInteger("thorn.tier.nesting", 32);
+
+    private final Interpreter interpreter;
+    private int threshold;
+    private final boolean trace;
+    private ThornVM vm;
+
+    // Recorded profile that guides the compiler's choice of opcodes, if any
+    private ExecutionProfile profile;
+
+    // Compiled function whose code the VM is currently running
+    private CompiledFunction current;
+
+    // Calls of compiled code currently on the Java stack
+    private int nesting;
+
+    /**
+     * Bytecode for a promoted function, with its own constant pool and the
+     * tokens used to resolve globals and report errors.
+     */
+    static final class CompiledFunction {
+        final ThornFunction function;
+        final FunctionInfo info;
+        final ConstantPool constantPool;
+        final Map<String, Token> globals;
+        final Token site;
+
+        CompiledFunction(ThornFunction function, FunctionInfo info, ConstantPool constantPool,
+                         Map<String, Token> globals, Token site) {
+            this.function = function;
+            this.info = info;
+            this.constantPool = constantPool;
+            this.globals = globals;
+            this.site = site;
+        }
+    }
+
+    TieredExecution(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.threshold = Integer.getInteger("thorn.tier.threshold", DEFAULT_THRESHOLD);
+        this.trace = Boolean.getBoolean("thorn.tier.trace");
+    }
+
+    void setProfile(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+
+    // Keeps every function interpreted, so that all of its statements count
+    // against the interpreter's step limit
+    void disable() {
+        threshold = 0;
+    }
+
+    /**
+     * Compiled code to run for this call of the function, or null to
+     * interpret it. Counts the call and promotes the function when it
+     * becomes hot; a profiled run records the call instead.
+     */
+    CompiledFunction compiledCode(ThornFunction function) {
+        if (interpreter.profile != null) {
+            // Profiled runs stay interpreted so that everything is recorded
+            interpreter.profile.recordCall(function.getName());
+            return null;
+        }
+        if (function.compiled != null) {
+            // Deep non-tail recursion falls back to the interpreter
+            return nesting < MAX_NESTING && vm.hasCapacity() ? function.compiled : null;
+        }
+        if (threshold <= 0 || function.tierRejected || ++function.hotness < threshold) {
+            return null;
+        }
+        return promote(function);
+    }
+
+    /**
+     * Run compiled code with checked arguments. Returns the function's value
+     * or a ThornFunction.TailCall for the caller's trampoline.
+     */
+    Object run(CompiledFunction code, Object[] arguments) {
+        CompiledFunction previous = current;
+        ThornFunction previousFunction = interpreter.currentFunction;
+        current = code;
+        interpreter.currentFunction = code.function;
+        nesting++;
+        try {
+            return vm.invoke(code.info, code.constantPool, arguments);
+        } finally {
+            nesting--;
+            current = previous;
+            interpreter.currentFunction = previousFunction;
+        }
+    }
+
+    private CompiledFunction promote(ThornFunction function) {
+        String name = function.getName() != null ? function.getName() : "<lambda>";
+        List<String> params = new ArrayList<>();
+        for (Stmt.Parameter param : function.getParameters()) {
+            params.add(param.name.lexeme);
+        }
+
+        Eligibility eligibility = new Eligibility(params);
+        String reason = eligibility.check(function.getBody());
+        if (reason == null) {
+            for (String local : eligibility.locals) {
+                // The interpreter would assign the enclosing variable instead
+                if (function.getClosure().isDefined(local)) {
+                    reason = "assigns enclosing variable '" + local + "'";
+                    break;
+                }
+            }
+        }
+
+        FunctionInfo info = null;
+        ConstantPool constantPool = new ConstantPool();
+        if (reason == null) {
+            try {
+                info = SimpleCompiler.compileHostFunction(name, params, eligibility.locals,
+                                                          function.getBody(), constantPool, profile);
+            } catch (RuntimeException e) {
+                reason = e.getMessage();
+            }
+        }
+
+        if (reason != null) {
+            function.tierRejected = true;
+            if (trace) {
+                System.err.println("[tier] " + name + " stays interpreted: " + reason);
+            }
+            return null;
+        }
+
+        if (vm == null) {
+            vm = new ThornVM(this);
+        }
+        if (trace) {
+            System.err.println("[tier] " + name + " promoted after " + function.hotness + " calls and iterations");
+        }
+        function.compiled = new CompiledFunction(function, info, constantPool,
+                                                 eligibility.globals, eligibility.site);
+        return function.compiled;
+    }
+
+    // ThornVM.Host
+
+    @Override
+    public Object getGlobal(String name) {
+        return current.function.getClosure().get(current.globals.get(name));
+    }
+
+    @Override
+    public Object call(Object callee, Object[] args) {
+        if (!(callee instanceof ThornCallable)) {
+            throw new Thorn.RuntimeError(current.site, "Can only call functions and classes.");
+        }
+
+        ThornCallable function = (ThornCallable) callee;
+        interpreter.checkArity(function, args.length, current.site);
+
+        switch (args.length) {
+            case 0:
+                return function.call0(interpreter);
+            case 1:
+                return function.call1(interpreter, args[0]);
+            case 2:
+                return function.call2(interpreter, args[0], args[1]);
+            case 3:
+                return function.call3(interpreter, args[0], args[1], args[2]);
+            default:
+                return function.call(interpreter, new ArrayList<>(Arrays.asList(args)));
+        }
+    }
+
+    @Override
+    public Object tailCall(Object callee, Object[] args) {
+        if (callee instanceof FunctionGroup ||
+            (callee instanceof ThornFunction && current.function.canTailCall((ThornFunction) callee))) {
+            return interpreter.tailCall((ThornCallable) callee, new ArrayList<>(Arrays.asList(args)), current.site);
+        }
+        return call(callee, args);
+    }
+
+    @Override
+    public Object operate(OpCode op, Object left, Object right) {
+        int line = current.site.line;
+        switch (op) {
+            case ADD: return interpreter.binaryOperation(new Token(TokenType.PLUS, "+", null, line), left, right);
+            case SUB: return interpreter.binaryOperation(new Token(TokenType.MINUS, "-", null, line), left, right);
+            case MUL: return interpreter.binaryOperation(new Token(TokenType.STAR, "*", null, line), left, right);
+            case DIV: return interpreter.binaryOperation(new Token(TokenType.SLASH, "/", null, line), left, right);
+            case MOD: return interpreter.binaryOperation(new Token(TokenType.PERCENT, "%", null, line), left, right);
+            case POW: return interpreter.binaryOperation(new Token(TokenType.STAR_STAR, "**", null, line), left, right);
+            case LT: return interpreter.binaryOperation(new Token(TokenType.LESS, "<", null, line), left, right);
+            case LE: return interpreter.binaryOperation(new Token(TokenType.LESS_EQUAL, "<=", null, line), left, right);
+            case GT: return interpreter.binaryOperation(new Token(TokenType.GREATER, ">", null, line), left, right);
+            case GE: return interpreter.binaryOperation(new Token(TokenType.GREATER_EQUAL, ">=", null, line), left, right);
+            case NEG: return interpreter.unaryOperation(new Token(TokenType.MINUS, "-", null, line), right);
+            default:
+                throw new IllegalStateException("Unexpected host operation: " + op);
+        }
+    }
+
+    /**
+     * Decides whether a function body can run on the VM and collects the
+     * names it keeps in registers. Returns the reason it cannot, or null.
+     *
+     * A name assigned at the top level of the body becomes a register local,
+     * provided it is not read before that assignment. Names assigned inside
+     * nested blocks must already be locals, since the interpreter would
+     * declare them in the block's own scope. Untyped declarations, such as
+     * the temporaries the optimizer introduces, are treated the same way.
+     */
+    private static final class Eligibility {
+        private final Set<String> params;
+        final Set<String> locals = new LinkedHashSet<>();
+        final Map<String, Token> globals = new HashMap<>();
+        Token site;
+
+        Eligibility(List<String> params) {
+            this.params = new LinkedHashSet<>(params);
+        }
+
+        String check(List<Stmt> body) {
+            for (Stmt stmt : body) {
+                String reason = statement(stmt, true);
+                if (reason != null) return reason;
+            }
+            if (site == null) {
+                site = new Token(TokenType.IDENTIFIER, "", null, -1);
+            }
+            return null;
+        }
+
+        private String statement(Stmt stmt, boolean topLevel) {
+            if (stmt instanceof Stmt.Expression) {
+                Expr expression = ((Stmt.Expression) stmt).expression;
+                if (expression instanceof Expr.Assign) {
+                    return assignment((Expr.Assign) expression, topLevel);
+                }
+                return expression(expression);
+            }
+            if (stmt instanceof Stmt.Var) {
+                Stmt.Var var = (Stmt.Var) stmt;
+                if (!topLevel || var.type != null || var.isImmutable) {
+                    return "unsupported declaration of '" + var.name.lexeme + "'";
+                }
+                String reason = var.initializer == null ? null : expression(var.initializer);
+                return reason != null ? reason : declare(var.name, topLevel);
+            }
+            if (stmt instanceof Stmt.Return) {
+                Expr value = ((Stmt.Return) stmt).value;
+                return value == null ? null : expression(value);
+            }
+            if (stmt instanceof Stmt.If) {
+                Stmt.If ifStmt = (Stmt.If) stmt;
+                String reason = expression(ifStmt.condition);
+                if (reason == null) reason = statement(ifStmt.thenBranch, false);
+                if (reason == null && ifStmt.elseBranch != null) reason = statement(ifStmt.elseBranch, false);
+                return reason;
+            }
+            if (stmt instanceof Stmt.While) {
+                Stmt.While whileStmt = (Stmt.While) stmt;
+                String reason = expression(whileStmt.condition);
+                return reason != null ? reason : statement(whileStmt.body, false);
+            }
+            if (stmt instanceof Stmt.Block) {
+                for (Stmt statement : ((Stmt.Block) stmt).statements) {
+                    String reason = statement(statement, false);
+                    if (reason != null) return reason;
+                }
+                return null;
+            }
+            return "unsupported statement " + stmt.getClass().getSimpleName();
+        }
+
+        private String assignment(Expr.Assign assign, boolean topLevel) {
+            String reason = expression(assign.value);
+            if (reason != null) return reason;
+            return declare(assign.name, topLevel);
+        }
+
+        private String declare(Token token, boolean topLevel) {
+            String name = token.lexeme;
+            noteSite(token);
+            if (params.contains(name) || locals.contains(name)) {
+                return null;
+            }
+            if (!topLevel) {
+                return "assignment declares '" + name + "' in a nested block";
+            }
+            if (globals.containsKey(name)) {
+                return "'" + name + "' is read before it is assigned";
+            }
+            locals.add(name);
+            return null;
+        }
+
+        private String expression(Expr expr) {
+            if (expr instanceof Expr.Literal) {
+                return null;
+            }
+            if (expr instanceof Expr.Variable) {
+                Token name = ((Expr.Variable) expr).name;
+                noteSite(name);
+                if (!params.contains(name.lexeme) && !locals.contains(name.lexeme)) {
+                    globals.putIfAbsent(name.lexeme, name);
+                }
+                return null;
+            }
+            if (expr instanceof Expr.Grouping) {
+                return expression(((Expr.Grouping) expr).expression);
+            }
+            if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary) expr;
+                if (unary.operator.type != TokenType.MINUS && unary.operator.type != TokenType.BANG) {
+                    return "unsupported operator " + unary.operator.lexeme;
+                }
+                return expression(unary.right);
+            }
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                switch (binary.operator.type) {
+                    case PLUS: case MINUS: case STAR: case SLASH: case PERCENT: case STAR_STAR:
+                    case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL:
+                    case EQUAL_EQUAL: case BANG_EQUAL: case QUESTION_QUESTION:
+                        break;
+                    default:
+                        return "unsupported operator " + binary.operator.lexeme;
+                }
+                String reason = expression(binary.left);
+                return reason != null ? reason : expression(binary.right);
+            }
+            if (expr instanceof Expr.Call) {
+                Expr.Call call = (Expr.Call) expr;
+                if (call.callee instanceof Expr.Variable) {
+                    // Ok and Error evaluate their argument in a Result context
+                    String name = ((Expr.Variable) call.callee).name.lexeme;
+                    if (name.equals("Ok") || name.equals("Error")) {
+                        return "calls Result constructor " + name;
+                    }
+                }
+                noteSite(call.paren);
+                String reason = expression(call.callee);
+                for (Expr argument : call.arguments) {
+                    if (reason != null) break;
+                    reason = expression(argument);
+                }
+                return reason;
+            }
+            return "unsupported expression " + expr.getClass().getSimpleName();
+        }
+
+        // Runtime errors raised for the compiled body report its first line
+        private void noteSite(Token token) {
+            if (site == null) {
+                site = token;
+            }
+        }
+    }
+}
@@ -56,6 +56,7 @@ public class UnreachableCodeEliminationPass extends OptimizationPass {
         // Remove unreachable code
         UnreachableCodeRemover remover = new UnreachableCodeRemover(reachability, context);
         List<Stmt> optimized = remover.removeUnreachableCode(statements);
+        context.recordTransformations(getName(), blocksRemoved + statementsRemoved);
         
         if (context.isDebugMode()) {
             System.out.println("  Blocks removed: " + blocksRemoved);
@@ -166,6 +167,11 @@ public class UnreachableCodeEliminationPass extends OptimizationPass {
                     return stmt;
                 }
                 
+                @Override
+                public Stmt visitYieldStmt(Stmt.Yield stmt) {
+                    return stmt;
+                }
+                
                 @Override
                 public Stmt visitFunctionStmt(Stmt.Function stmt) {
                     List<Stmt> body = removeUnreachableCode(stmt.body);
@@ -0,0 +1,181 @@
+package com.thorn.stdlib;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Immutable byte string returned and accepted by the stdlib modules.
+ *
+ * A Bytes value is a window onto a byte[], so a 10 MB payload costs 10 MB
+ * rather than ten million boxed numbers, and slicing shares the array
+ * instead of copying it. It is also a read-only java.util.List whose
+ * elements are the unsigned byte values as numbers, boxed only when read,
+ * so scripts written against byte lists keep indexing, iterating and
+ * comparing them as before.
+ */
+public final class Bytes extends AbstractList<Object> implements RandomAccess {
+    private static final Bytes EMPTY = new Bytes(new byte[0], 0, 0);
+
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    private Bytes(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Bytes over an array the caller hands over and will not modify again.
+     */
+    public static Bytes wrap(byte[] data) {
+        return data.length == 0 ? EMPTY : new Bytes(data, 0, data.length);
+    }
+
+    public static Bytes copyOf(byte[] data) {
+        return wrap(data.clone());
+    }
+
+    /**
+     * Convert a stdlib argument to raw bytes: Bytes as they are, strings
+     * as UTF-8 and lists as one number per byte. The result may be shared
+     * with a Bytes value, so callers must not modify it.
+     */
+    public static byte[] toArray(Object data) {
+        if (data instanceof Bytes) {
+            return ((Bytes) data).array();
+        } else if (data instanceof String) {
+            return ((String) data).getBytes(StandardCharsets.UTF_8);
+        } else if (data instanceof List) {
+            List<?> list = (List<?>) data;
+            byte[] bytes = new byte[list.size()];
+            for (int i = 0; i < bytes.length; i++) {
+                Object item = list.get(i);
+                if (!(item instanceof Number)) {
+                    throw new StdlibException("Byte list must contain numbers");
+                }
+                bytes[i] = (byte) ((Number) item).intValue();
+            }
+            return bytes;
+        } else if (data instanceof byte[]) {
+            return (byte[]) data;
+        }
+        throw new StdlibException("Data must be string or byte list");
+    }
+
+    /**
+     * Unsigned value of the byte at index. Callers check the bounds first.
+     */
+    public int byteAt(int index) {
+        return data[offset + index] & 0xFF;
+    }
+
+    /**
+     * The bytes from start (inclusive) to end (exclusive), sharing this
+     * value's storage.
+     */
+    public Bytes slice(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Slice " + start + ".." + end + " out of bounds for length " + length);
+        }
+        return start == 0 && end == length ? this : new Bytes(data, offset + start, end - start);
+    }
+
+    /**
+     * Read-only buffer over the bytes, without copying.
+     */
+    public ByteBuffer asBuffer() {
+        return ByteBuffer.wrap(data, offset, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * The bytes decoded as UTF-8.
+     */
+    public String decode() {
+        return new String(data, offset, length, StandardCharsets.UTF_8);
+    }
+
+    // Backing array when this value covers all of it, else a copy
+    private byte[] array() {
+        return offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+        return (double) byteAt(index);
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        throw new StdlibException("Bytes values are immutable.");
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        throw new StdlibException("Bytes values are immutable.");
+    }
+
+    @Override
+    public Object remove(int index) {
+        throw new StdlibException("Bytes values are immutable.");
+    }
+
+    @Override
+    public List<Object> subList(int fromIndex, int toIndex) {
+        return slice(fromIndex, toIndex);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < length;
+            }
+
+            @Override
+            public Object next() {
+                if (index >= length) {
+                    throw new NoSuchElementException();
+                }
+                return (double) byteAt(index++);
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof Bytes) {
+            Bytes other = (Bytes) o;
+            return Arrays.equals(data, offset, offset + length, other.data, other.offset, other.offset + other.length);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as AbstractList, so equal byte lists and Bytes hash alike
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + Double.hashCode(byteAt(i));
+        }
+        return hash;
+    }
+}
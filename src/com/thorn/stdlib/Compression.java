@@ -13,9 +13,9 @@ public class Compression {
     /**
      * Compress data using GZIP
      * @param data Data to compress (string or byte list)
-     * @return Compressed bytes as list
+     * @return Compressed bytes
      */
-    public static List<Object> gzipCompress(Object data) {
+    public static Bytes gzipCompress(Object data) {
         try {
             byte[] input = toBytes(data);
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -24,7 +24,7 @@ public class Compression {
                 gzos.write(input);
             }
             
-            return bytesToList(baos.toByteArray());
+            return wrapBytes(baos.toByteArray());
         } catch (IOException e) {
             throw new StdlibException("GZIP compression failed: " + e.getMessage());
         }
@@ -33,9 +33,9 @@ public class Compression {
     /**
      * Decompress GZIP data
      * @param data Compressed data as byte list
-     * @return Decompressed data as byte list
+     * @return Decompressed bytes
      */
-    public static List<Object> gzipDecompress(Object data) {
+    public static Bytes gzipDecompress(Object data) {
         try {
             byte[] input = toBytes(data);
             ByteArrayInputStream bais = new ByteArrayInputStream(input);
@@ -49,7 +49,7 @@ public class Compression {
                 }
             }
             
-            return bytesToList(baos.toByteArray());
+            return wrapBytes(baos.toByteArray());
         } catch (IOException e) {
             throw new StdlibException("GZIP decompression failed: " + e.getMessage());
         }
@@ -61,7 +61,7 @@ public class Compression {
      * @param level Compression level (0-9, default 6)
      * @return Compressed bytes
      */
-    public static List<Object> deflateCompress(Object data, Double level) {
+    public static Bytes deflateCompress(Object data, Double level) {
         try {
             int compressionLevel = level != null ? level.intValue() : Deflater.DEFAULT_COMPRESSION;
             if (compressionLevel < 0 || compressionLevel > 9) {
@@ -82,7 +82,7 @@ public class Compression {
             }
             
             deflater.end();
-            return bytesToList(baos.toByteArray());
+            return wrapBytes(baos.toByteArray());
             
         } catch (Exception e) {
             throw new StdlibException("DEFLATE compression failed: " + e.getMessage());
@@ -94,7 +94,7 @@ public class Compression {
      * @param data Compressed data
      * @return Decompressed bytes
      */
-    public static List<Object> deflateDecompress(Object data) {
+    public static Bytes deflateDecompress(Object data) {
         try {
             byte[] input = toBytes(data);
             Inflater inflater = new Inflater();
@@ -113,7 +113,7 @@ public class Compression {
             }
             
             inflater.end();
-            return bytesToList(baos.toByteArray());
+            return wrapBytes(baos.toByteArray());
             
         } catch (Exception e) {
             if (e instanceof StdlibException) throw (StdlibException) e;
@@ -127,7 +127,7 @@ public class Compression {
      * @return ZIP archive as bytes
      */
     @SuppressWarnings("unchecked")
-    public static List<Object> zipCreate(Map<String, Object> files) {
+    public static Bytes zipCreate(Map<String, Object> files) {
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             
@@ -143,7 +143,7 @@ public class Compression {
                 }
             }
             
-            return bytesToList(baos.toByteArray());
+            return wrapBytes(baos.toByteArray());
             
         } catch (IOException e) {
             throw new StdlibException("ZIP creation failed: " + e.getMessage());
@@ -153,7 +153,7 @@ public class Compression {
     /**
      * Extract files from a ZIP archive
      * @param data ZIP archive bytes
-     * @return Map of filename to content (string for text files, byte list for binary)
+     * @return Map of filename to content (string for text files, bytes for binary)
      */
     public static Map<String, Object> zipExtract(Object data) {
         try {
@@ -182,7 +182,7 @@ public class Compression {
                             isLikelyText(content)) {
                             files.put(entry.getName(), new String(content, java.nio.charset.StandardCharsets.UTF_8));
                         } else {
-                            files.put(entry.getName(), bytesToList(content));
+                            files.put(entry.getName(), wrapBytes(content));
                         }
                     }
                     zis.closeEntry();
@@ -262,9 +262,8 @@ public class Compression {
      * @return Base64 encoded compressed string
      */
     public static String compressString(String str) {
-        List<Object> compressed = gzipCompress(str);
-        byte[] bytes = listToBytes(compressed);
-        return Base64.getEncoder().encodeToString(bytes);
+        Bytes compressed = gzipCompress(str);
+        return Base64.getEncoder().encodeToString(toBytes(compressed));
     }
     
     /**
@@ -274,8 +273,7 @@ public class Compression {
      */
     public static String decompressString(String compressedStr) {
         byte[] bytes = Base64.getDecoder().decode(compressedStr);
-        List<Object> decompressed = gzipDecompress(bytesToList(bytes));
-        return new String(listToBytes(decompressed), java.nio.charset.StandardCharsets.UTF_8);
+        return gzipDecompress(wrapBytes(bytes)).decode();
     }
     
     /**
@@ -303,36 +301,11 @@ public class Compression {
     // Helper methods
     
     private static byte[] toBytes(Object data) {
-        if (data instanceof String) {
-            return ((String) data).getBytes(java.nio.charset.StandardCharsets.UTF_8);
-        } else if (data instanceof List) {
-            return listToBytes((List<?>) data);
-        } else if (data instanceof byte[]) {
-            return (byte[]) data;
-        } else {
-            throw new StdlibException("Data must be string or byte list");
-        }
-    }
-    
-    private static byte[] listToBytes(List<?> list) {
-        byte[] bytes = new byte[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            Object item = list.get(i);
-            if (item instanceof Double) {
-                bytes[i] = ((Double) item).byteValue();
-            } else {
-                throw new StdlibException("Byte list must contain numbers");
-            }
-        }
-        return bytes;
+        return Bytes.toArray(data);
     }
     
-    private static List<Object> bytesToList(byte[] bytes) {
-        List<Object> list = new ArrayList<>();
-        for (byte b : bytes) {
-            list.add((double)(b & 0xFF));
-        }
-        return list;
+    private static Bytes wrapBytes(byte[] bytes) {
+        return Bytes.wrap(bytes);
     }
     
     private static boolean isLikelyText(byte[] bytes) {
@@ -103,9 +103,9 @@ public class Crypto {
             digest.update(toBytes(data));
         }
         
-        public List<Object> digest() {
+        public Bytes digest() {
             byte[] hash = digest.digest();
-            return bytesToList(hash);
+            return wrapBytes(hash);
         }
         
         public String hexdigest() {
@@ -150,7 +150,7 @@ public class Crypto {
      * @param algorithm Encryption algorithm (default AES-256)
      * @return Key bytes
      */
-    public static List<Object> generateKey(String algorithm) {
+    public static Bytes generateKey(String algorithm) {
         if (algorithm == null) algorithm = "AES-256";
         
         int keySize;
@@ -168,7 +168,7 @@ public class Crypto {
             KeyGenerator keyGen = KeyGenerator.getInstance(keyAlgorithm);
             keyGen.init(keySize * 8);
             SecretKey key = keyGen.generateKey();
-            return bytesToList(key.getEncoded());
+            return wrapBytes(key.getEncoded());
         } catch (Exception e) {
             throw new StdlibException("Key generation error: " + e.getMessage());
         }
@@ -202,8 +202,8 @@ public class Crypto {
             byte[] ciphertext = cipher.doFinal(toBytes(data));
             
             Map<String, Object> result = new HashMap<>();
-            result.put("ciphertext", bytesToList(ciphertext));
-            result.put("nonce", bytesToList(nonce));
+            result.put("ciphertext", wrapBytes(ciphertext));
+            result.put("nonce", wrapBytes(nonce));
             result.put("algorithm", algorithm);
             
             return result;
@@ -218,20 +218,19 @@ public class Crypto {
      * @param key Decryption key
      * @return Decrypted bytes
      */
-    @SuppressWarnings("unchecked")
-    public static List<Object> decrypt(Map<String, Object> encrypted, Object key) {
+    public static Bytes decrypt(Map<String, Object> encrypted, Object key) {
         try {
-            List<Object> ciphertext = (List<Object>) encrypted.get("ciphertext");
-            List<Object> nonce = (List<Object>) encrypted.get("nonce");
+            Object ciphertext = encrypted.get("ciphertext");
+            Object nonce = encrypted.get("nonce");
             
             Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
             SecretKeySpec keySpec = new SecretKeySpec(toBytes(key), "AES");
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(128, listToBytes(nonce));
+            GCMParameterSpec gcmSpec = new GCMParameterSpec(128, toBytes(nonce));
             
             cipher.init(Cipher.DECRYPT_MODE, keySpec, gcmSpec);
-            byte[] plaintext = cipher.doFinal(listToBytes(ciphertext));
+            byte[] plaintext = cipher.doFinal(toBytes(ciphertext));
             
-            return bytesToList(plaintext);
+            return wrapBytes(plaintext);
         } catch (Exception e) {
             throw new StdlibException("Decryption error: " + e.getMessage());
         }
@@ -242,11 +241,11 @@ public class Crypto {
      * @param n Number of bytes
      * @return Random bytes
      */
-    public static List<Object> randomBytes(double n) {
+    public static Bytes randomBytes(double n) {
         int count = (int) n;
         byte[] bytes = new byte[count];
         new SecureRandom().nextBytes(bytes);
-        return bytesToList(bytes);
+        return wrapBytes(bytes);
     }
     
     /**
@@ -268,7 +267,7 @@ public class Crypto {
      * @param length Salt length (default 16)
      * @return Salt bytes
      */
-    public static List<Object> generateSalt(Double length) {
+    public static Bytes generateSalt(Double length) {
         int len = length != null ? length.intValue() : 16;
         return randomBytes(len);
     }
@@ -287,9 +286,9 @@ public class Crypto {
      * @param data Base64 string
      * @return Decoded bytes
      */
-    public static List<Object> base64Decode(String data) {
+    public static Bytes base64Decode(String data) {
         byte[] bytes = Base64.getDecoder().decode(data);
-        return bytesToList(bytes);
+        return wrapBytes(bytes);
     }
     
     /**
@@ -306,9 +305,9 @@ public class Crypto {
      * @param data Base64 string
      * @return Decoded bytes
      */
-    public static List<Object> base64urlDecode(String data) {
+    public static Bytes base64urlDecode(String data) {
         byte[] bytes = Base64.getUrlDecoder().decode(data);
-        return bytesToList(bytes);
+        return wrapBytes(bytes);
     }
     
     /**
@@ -325,14 +324,14 @@ public class Crypto {
      * @param data Hex string
      * @return Decoded bytes
      */
-    public static List<Object> hexDecode(String data) {
+    public static Bytes hexDecode(String data) {
         int len = data.length();
         byte[] bytes = new byte[len / 2];
         for (int i = 0; i < len; i += 2) {
             bytes[i / 2] = (byte) ((Character.digit(data.charAt(i), 16) << 4)
                                  + Character.digit(data.charAt(i+1), 16));
         }
-        return bytesToList(bytes);
+        return wrapBytes(bytes);
     }
     
     /**
@@ -360,34 +359,11 @@ public class Crypto {
     // Helper methods
     
     private static byte[] toBytes(Object data) {
-        if (data instanceof String) {
-            return ((String) data).getBytes(StandardCharsets.UTF_8);
-        } else if (data instanceof List) {
-            return listToBytes((List<?>) data);
-        } else {
-            throw new StdlibException("Data must be string or byte list");
-        }
+        return Bytes.toArray(data);
     }
     
-    private static byte[] listToBytes(List<?> list) {
-        byte[] bytes = new byte[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            Object item = list.get(i);
-            if (item instanceof Double) {
-                bytes[i] = ((Double) item).byteValue();
-            } else {
-                throw new StdlibException("Byte list must contain numbers");
-            }
-        }
-        return bytes;
-    }
-    
-    private static List<Object> bytesToList(byte[] bytes) {
-        List<Object> list = new ArrayList<>();
-        for (byte b : bytes) {
-            list.add((double)(b & 0xFF));
-        }
-        return list;
+    private static Bytes wrapBytes(byte[] bytes) {
+        return Bytes.wrap(bytes);
     }
     
     private static String bytesToHex(byte[] bytes) {
@@ -138,7 +138,7 @@ public class Json {
             
             if (!(next instanceof Map)) {
                 // Create intermediate objects as needed
-                Map<String, Object> newMap = new HashMap<>();
+                Map<String, Object> newMap = new ThornDict<>();
                 current.put(part, newMap);
                 current = newMap;
             } else {
@@ -166,7 +166,7 @@ public class Json {
      */
     @SuppressWarnings("unchecked")
     public static Map<String, Object> merge(Object... objects) {
-        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> result = new ThornDict<>();
         
         for (Object obj : objects) {
             if (obj instanceof Map) {
@@ -186,7 +186,7 @@ public class Json {
             
             if (value instanceof Map && target.get(key) instanceof Map) {
                 // Recursively merge nested objects
-                Map<String, Object> nested = new HashMap<>((Map<String, Object>) target.get(key));
+                Map<String, Object> nested = new ThornDict<>((Map<String, Object>) target.get(key));
                 deepMerge(nested, (Map<String, Object>) value);
                 target.put(key, nested);
             } else {
@@ -340,7 +340,7 @@ public class Json {
         }
         
         private Map<String, Object> parseObject() {
-            Map<String, Object> obj = new HashMap<>();
+            Map<String, Object> obj = new ThornDict<>();
             pos++; // skip '{'
             skipWhitespace();
             
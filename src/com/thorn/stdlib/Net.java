@@ -178,7 +178,7 @@ public class Net {
                             contentType.contains("json") || contentType.contains("xml"))) {
                             body = baos.toString(StandardCharsets.UTF_8.name());
                         } else {
-                            body = bytesToList(baos.toByteArray());
+                            body = wrapBytes(baos.toByteArray());
                         }
                     }
                 }
@@ -395,7 +395,7 @@ public class Net {
             return reader.readLine();
         }
         
-        public List<Object> receiveBytes(double count) throws IOException {
+        public Bytes receiveBytes(double count) throws IOException {
             int size = (int) count;
             byte[] buffer = new byte[size];
             int totalRead = 0;
@@ -406,13 +406,7 @@ public class Net {
                 totalRead += read;
             }
             
-            if (totalRead < size) {
-                byte[] actual = new byte[totalRead];
-                java.lang.System.arraycopy(buffer, 0, actual, 0, totalRead);
-                return bytesToList(actual);
-            }
-            
-            return bytesToList(buffer);
+            return wrapBytes(buffer).slice(0, totalRead);
         }
         
         public void close() throws IOException {
@@ -518,11 +512,8 @@ public class Net {
             DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
             socket.receive(packet);
             
-            byte[] data = new byte[packet.getLength()];
-            java.lang.System.arraycopy(packet.getData(), 0, data, 0, packet.getLength());
-            
             Map<String, Object> result = new HashMap<>();
-            result.put("data", bytesToList(data));
+            result.put("data", wrapBytes(Arrays.copyOf(buffer, packet.getLength())));
             result.put("host", packet.getAddress().getHostAddress());
             result.put("port", (double) packet.getPort());
             
@@ -595,35 +586,10 @@ public class Net {
     // Helper methods
     
     private static byte[] toBytes(Object data) {
-        if (data instanceof String) {
-            return ((String) data).getBytes(StandardCharsets.UTF_8);
-        } else if (data instanceof List) {
-            return listToBytes((List<?>) data);
-        } else if (data instanceof byte[]) {
-            return (byte[]) data;
-        } else {
-            throw new StdlibException("Data must be string or byte list");
-        }
-    }
-    
-    private static byte[] listToBytes(List<?> list) {
-        byte[] bytes = new byte[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            Object item = list.get(i);
-            if (item instanceof Double) {
-                bytes[i] = ((Double) item).byteValue();
-            } else {
-                throw new StdlibException("Byte list must contain numbers");
-            }
-        }
-        return bytes;
+        return Bytes.toArray(data);
     }
     
-    private static List<Object> bytesToList(byte[] bytes) {
-        List<Object> list = new ArrayList<>();
-        for (byte b : bytes) {
-            list.add((double)(b & 0xFF));
-        }
-        return list;
+    private static Bytes wrapBytes(byte[] bytes) {
+        return Bytes.wrap(bytes);
     }
 }
\ No newline at end of file
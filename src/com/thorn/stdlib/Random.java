@@ -59,18 +59,13 @@ public class Random {
     /**
      * Generate n random bytes
      * @param n Number of bytes
-     * @return List of bytes (as doubles)
+     * @return Random bytes
      */
-    public static List<Object> randbytes(double n) {
+    public static Bytes randbytes(double n) {
         int count = (int) n;
         byte[] bytes = new byte[count];
         globalRandom.nextBytes(bytes);
-        
-        List<Object> result = new ArrayList<>();
-        for (byte b : bytes) {
-            result.add((double)(b & 0xFF));
-        }
-        return result;
+        return Bytes.wrap(bytes);
     }
     
     /**
@@ -0,0 +1,213 @@
+package com.thorn.stdlib;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Typed array module for ThornLang
+ * Provides fixed-length numeric arrays stored off the Java heap, either in
+ * direct memory or memory-mapped from a file, for datasets too large to
+ * hold as lists. Typed arrays index, slice and iterate like lists.
+ */
+public class Typed {
+
+    /**
+     * Create a zero-filled array of 64-bit floats
+     * @param length Number of elements
+     * @return Typed array
+     */
+    public static TypedArray float64(double length) {
+        return TypedArray.allocate(TypedArray.Type.FLOAT64, toLength(length));
+    }
+
+    /**
+     * Create a zero-filled array of 64-bit integers
+     * @param length Number of elements
+     * @return Typed array
+     */
+    public static TypedArray int64(double length) {
+        return TypedArray.allocate(TypedArray.Type.INT64, toLength(length));
+    }
+
+    /**
+     * Create a zero-filled array of 32-bit integers
+     * @param length Number of elements
+     * @return Typed array
+     */
+    public static TypedArray int32(double length) {
+        return TypedArray.allocate(TypedArray.Type.INT32, toLength(length));
+    }
+
+    /**
+     * Create a zero-filled array of unsigned bytes
+     * @param length Number of elements
+     * @return Typed array
+     */
+    public static TypedArray uint8(double length) {
+        return TypedArray.allocate(TypedArray.Type.UINT8, toLength(length));
+    }
+
+    /**
+     * Copy a list of numbers into a new typed array
+     * @param type Element type (float64, int64, int32 or uint8)
+     * @param values Numbers to copy
+     * @return Typed array
+     */
+    public static TypedArray fromList(String type, Object values) {
+        List<?> list = toList(values, "from_list");
+        TypedArray array = TypedArray.allocate(TypedArray.Type.parse(type), list.size());
+        for (int i = 0; i < list.size(); i++) {
+            array.set(i, list.get(i));
+        }
+        return array;
+    }
+
+    /**
+     * Map an existing file as a typed array; writes go to the file
+     * @param path File to map
+     * @param type Element type (float64, int64, int32 or uint8)
+     * @return Typed array covering the whole file
+     */
+    public static TypedArray mapFile(String path, String type) {
+        Path file = Paths.get(path);
+        if (!Files.isRegularFile(file)) {
+            throw new StdlibException("File not found: " + path);
+        }
+        return TypedArray.map(file, TypedArray.Type.parse(type), Files.isWritable(file));
+    }
+
+    /**
+     * Create a zero-filled file and map it as a typed array
+     * @param path File to create (replaced if it exists)
+     * @param type Element type (float64, int64, int32 or uint8)
+     * @param length Number of elements
+     * @return Typed array backed by the new file
+     */
+    public static TypedArray createFile(String path, String type, double length) {
+        return TypedArray.create(Paths.get(path), TypedArray.Type.parse(type), toLength(length));
+    }
+
+    /**
+     * Write changes to a memory-mapped array through to its file
+     * @param array Typed array
+     */
+    public static void flush(Object array) {
+        toTyped(array, "flush").force();
+    }
+
+    /**
+     * Element type of a typed array
+     * @param array Typed array
+     * @return "float64", "int64", "int32" or "uint8"
+     */
+    public static String typeOf(Object array) {
+        return toTyped(array, "type_of").type().label();
+    }
+
+    /**
+     * Set every element to a value
+     * @param array Typed array
+     * @param value Value to store
+     */
+    public static void fill(Object array, double value) {
+        TypedArray typed = toTyped(array, "fill");
+        for (int i = 0, n = typed.size(); i < n; i++) {
+            typed.setNumber(i, value);
+        }
+    }
+
+    /**
+     * Sum of all elements, without boxing for typed arrays
+     * @param values Typed array or list of numbers
+     * @return Sum (0 when empty)
+     */
+    public static double sum(Object values) {
+        double total = 0;
+        if (values instanceof TypedArray) {
+            TypedArray typed = (TypedArray) values;
+            for (int i = 0, n = typed.size(); i < n; i++) {
+                total += typed.getNumber(i);
+            }
+            return total;
+        }
+        for (Object value : toList(values, "sum")) {
+            total += toNumber(value, "sum");
+        }
+        return total;
+    }
+
+    /**
+     * Smallest element
+     * @param values Typed array or list of numbers
+     * @return Minimum, or null when empty
+     */
+    public static Double min(Object values) {
+        return extreme(values, "min", -1);
+    }
+
+    /**
+     * Largest element
+     * @param values Typed array or list of numbers
+     * @return Maximum, or null when empty
+     */
+    public static Double max(Object values) {
+        return extreme(values, "max", 1);
+    }
+
+    private static Double extreme(Object values, String name, int sign) {
+        List<?> list = toList(values, name);
+        if (list.isEmpty()) {
+            return null;
+        }
+        double best;
+        if (list instanceof TypedArray) {
+            TypedArray typed = (TypedArray) list;
+            best = typed.getNumber(0);
+            for (int i = 1, n = typed.size(); i < n; i++) {
+                double value = typed.getNumber(i);
+                if (Double.compare(value, best) * sign > 0) {
+                    best = value;
+                }
+            }
+        } else {
+            best = toNumber(list.get(0), name);
+            for (Object element : list) {
+                double value = toNumber(element, name);
+                if (Double.compare(value, best) * sign > 0) {
+                    best = value;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static long toLength(double length) {
+        if (length < 0 || length != Math.floor(length)) {
+            throw new StdlibException("Typed array length must be a non-negative integer");
+        }
+        return (long) length;
+    }
+
+    private static TypedArray toTyped(Object value, String function) {
+        if (!(value instanceof TypedArray)) {
+            throw new StdlibException(function + "() expects a typed array");
+        }
+        return (TypedArray) value;
+    }
+
+    private static List<?> toList(Object value, String function) {
+        if (!(value instanceof List)) {
+            throw new StdlibException(function + "() expects a list or typed array");
+        }
+        return (List<?>) value;
+    }
+
+    private static double toNumber(Object value, String function) {
+        if (!(value instanceof Number)) {
+            throw new StdlibException(function + "() expects only numbers");
+        }
+        return ((Number) value).doubleValue();
+    }
+}
@@ -0,0 +1,277 @@
+package com.thorn.stdlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Fixed-length array of one numeric element type stored outside the Java
+ * heap, either in direct memory or in a memory-mapped file.
+ *
+ * Elements are little-endian and read and written without boxing through
+ * getNumber/setNumber; the java.util.List view boxes each element as a
+ * Double so indexing, for-in and list functions work unchanged. Storage is
+ * split into chunks of at most 1GB because a single ByteBuffer is limited
+ * to 2GB; element widths are powers of two, so no element straddles two
+ * chunks.
+ */
+public final class TypedArray extends AbstractList<Object> implements RandomAccess {
+    private static final int CHUNK_SHIFT = 30;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    // Longer arrays print only their first elements
+    private static final int PRINT_LIMIT = 32;
+
+    public enum Type {
+        FLOAT64(8), INT64(8), INT32(4), UINT8(1);
+
+        final int width;
+        final int shift;
+
+        Type(int width) {
+            this.width = width;
+            this.shift = Integer.numberOfTrailingZeros(width);
+        }
+
+        public String label() {
+            return name().toLowerCase();
+        }
+
+        public static Type parse(String name) {
+            for (Type type : values()) {
+                if (type.label().equals(name)) {
+                    return type;
+                }
+            }
+            throw new StdlibException("Unknown typed array type '" + name +
+                                      "'. Expected float64, int64, int32 or uint8.");
+        }
+    }
+
+    private final Type type;
+    private final int length;
+    private final ByteBuffer[] chunks;
+    private final boolean readOnly;
+
+    private TypedArray(Type type, int length, ByteBuffer[] chunks, boolean readOnly) {
+        this.type = type;
+        this.length = length;
+        this.chunks = chunks;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Zero-filled array in direct memory.
+     */
+    public static TypedArray allocate(Type type, long length) {
+        long bytes = byteSize(type, length);
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(bytes)];
+        for (int i = 0; i < chunks.length; i++) {
+            int chunkBytes = (int) Math.min(bytes - ((long) i << CHUNK_SHIFT), 1L << CHUNK_SHIFT);
+            try {
+                chunks[i] = ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.LITTLE_ENDIAN);
+            } catch (OutOfMemoryError e) {
+                throw new StdlibException("Cannot allocate " + bytes + " bytes for a typed array. " +
+                                          "Raise -XX:MaxDirectMemorySize or map a file instead.");
+            }
+        }
+        return new TypedArray(type, (int) length, chunks, false);
+    }
+
+    /**
+     * Array over the whole of an existing file, which is shared with the
+     * file: writes reach it and other processes see them. Trailing bytes
+     * that do not fill an element are ignored.
+     */
+    public static TypedArray map(Path path, Type type, boolean writable) {
+        try (FileChannel channel = writable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size() >> type.shift;
+            return map(channel, type, length, writable);
+        } catch (IOException e) {
+            throw new StdlibException("Cannot map file '" + path + "': " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Array over a new zero-filled file of length elements, replacing any
+     * file already at path.
+     */
+    public static TypedArray create(Path path, Type type, long length) {
+        long bytes = byteSize(type, length);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (bytes > 0) {
+                // Extend the file sparsely so the mapping has something to cover
+                channel.write(ByteBuffer.allocate(1), bytes - 1);
+            }
+            return map(channel, type, length, true);
+        } catch (IOException e) {
+            throw new StdlibException("Cannot create file '" + path + "': " + e.getMessage(), e);
+        }
+    }
+
+    private static TypedArray map(FileChannel channel, Type type, long length, boolean writable)
+            throws IOException {
+        long bytes = byteSize(type, length);
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(bytes)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = (long) i << CHUNK_SHIFT;
+            long chunkBytes = Math.min(bytes - start, 1L << CHUNK_SHIFT);
+            // The mapping stays valid after the channel is closed
+            chunks[i] = channel.map(mode, start, chunkBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new TypedArray(type, (int) length, chunks, !writable);
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Element at index as a double. Callers check the bounds first.
+     */
+    public double getNumber(int index) {
+        long offset = (long) index << type.shift;
+        ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+        int position = (int) (offset & CHUNK_MASK);
+        switch (type) {
+            case FLOAT64: return chunk.getDouble(position);
+            case INT64: return chunk.getLong(position);
+            case INT32: return chunk.getInt(position);
+            default: return chunk.get(position) & 0xFF;
+        }
+    }
+
+    /**
+     * Store value at index, truncating it to the element type the way a
+     * Java cast does. Callers check the bounds first.
+     */
+    public void setNumber(int index, double value) {
+        if (readOnly) {
+            throw new StdlibException("Cannot write to a read-only typed array.");
+        }
+        long offset = (long) index << type.shift;
+        ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+        int position = (int) (offset & CHUNK_MASK);
+        switch (type) {
+            case FLOAT64: chunk.putDouble(position, value); break;
+            case INT64: chunk.putLong(position, (long) value); break;
+            case INT32: chunk.putInt(position, (int) value); break;
+            default: chunk.put(position, (byte) (int) value); break;
+        }
+    }
+
+    /**
+     * Write changes to a mapped file through to the storage device.
+     */
+    public void force() {
+        for (ByteBuffer chunk : chunks) {
+            if (chunk instanceof MappedByteBuffer && !readOnly) {
+                ((MappedByteBuffer) chunk).force();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    @Override
+    public Object get(int index) {
+        checkIndex(index);
+        return getNumber(index);
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        checkIndex(index);
+        if (!(element instanceof Number)) {
+            throw new StdlibException("Typed arrays can only hold numbers.");
+        }
+        double previous = getNumber(index);
+        setNumber(index, ((Number) element).doubleValue());
+        return previous;
+    }
+
+    @Override
+    public boolean add(Object element) {
+        throw new StdlibException("Typed arrays have a fixed length.");
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        throw new StdlibException("Typed arrays have a fixed length.");
+    }
+
+    @Override
+    public Object remove(int index) {
+        throw new StdlibException("Typed arrays have a fixed length.");
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < length;
+            }
+
+            @Override
+            public Object next() {
+                if (index >= length) {
+                    throw new NoSuchElementException();
+                }
+                return getNumber(index++);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        // Printing a mapped file in full could mean gigabytes of text
+        if (length <= PRINT_LIMIT) {
+            return super.toString();
+        }
+        StringBuilder out = new StringBuilder("[");
+        for (int i = 0; i < PRINT_LIMIT; i++) {
+            out.append(getNumber(i)).append(", ");
+        }
+        return out.append("... ").append(length - PRINT_LIMIT).append(" more ")
+                  .append(type.label()).append(" values]").toString();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+    }
+
+    private static long byteSize(Type type, long length) {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new StdlibException("Typed array length must be between 0 and " + Integer.MAX_VALUE + ".");
+        }
+        return length << type.shift;
+    }
+
+    private static int chunkCount(long bytes) {
+        return (int) ((bytes + CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+}
@@ -1,18 +1,37 @@
 package com.thorn.vm;
 
+import com.thorn.StringRope;
+
 /**
  * Represents a function call frame in the VM.
  * Contains function information, return address, and register frame.
+ *
+ * A register holding an integer the VM has proved exact (a loop counter,
+ * an index, a length) keeps it unboxed in a parallel long[] and holds the
+ * INT marker instead of a Double. getRegister() boxes it as the Double it
+ * stands for, so only the opcodes that check for INT ever see it.
  */
 public class CallFrame {
+    /** Marks a register whose value is the integer in the long registers. */
+    public static final Object INT = new Object() {
+        @Override
+        public String toString() {
+            return "<int>";
+        }
+    };
+    
     private final FunctionInfo function;
+    private final int[] bytecode;          // Function bytecode, fetched once per frame
     private final int returnAddress;        // Where to return to in caller
     private final int frameBase;           // Base register for this frame
     private final Object[] registers;      // Local registers for this frame
+    private long[] ints;                   // Integer registers, allocated on first use
     private int pc;                        // Current program counter within function
+    private int resultRegister;            // Caller register that receives the return value
     
     public CallFrame(FunctionInfo function, int returnAddress, int frameBase) {
         this.function = function;
+        this.bytecode = function.bytecode();
         this.returnAddress = returnAddress;
         this.frameBase = frameBase;
         this.registers = new Object[function.getFrameSize()];
@@ -35,6 +54,14 @@ public class CallFrame {
         return registers;
     }
     
+    public int getResultRegister() {
+        return resultRegister;
+    }
+    
+    public void setResultRegister(int resultRegister) {
+        this.resultRegister = resultRegister;
+    }
+    
     public int getPc() {
         return pc;
     }
@@ -54,7 +81,30 @@ public class CallFrame {
         if (index < 0 || index >= registers.length) {
             throw new IndexOutOfBoundsException("Register index out of bounds: " + index);
         }
-        return registers[index];
+        Object value = registers[index];
+        if (value == INT) {
+            return (double) ints[index];
+        }
+        // A rope being appended to only leaves its register as a String
+        return value instanceof StringRope ? value.toString() : value;
+    }
+    
+    /**
+     * Integer held by a register marked INT.
+     */
+    public long getInt(int index) {
+        return ints[index];
+    }
+    
+    /**
+     * Store an exact integer, unboxed.
+     */
+    public void setInt(int index, long value) {
+        if (ints == null) {
+            ints = new long[registers.length];
+        }
+        ints[index] = value;
+        registers[index] = INT;
     }
     
     /**
@@ -102,7 +152,6 @@ public class CallFrame {
      * Get the current instruction from the function's bytecode.
      */
     public int getCurrentInstruction() {
-        int[] bytecode = function.getBytecode();
         if (pc >= 0 && pc < bytecode.length) {
             return bytecode[pc];
         }
@@ -113,7 +162,7 @@ public class CallFrame {
      * Check if there are more instructions to execute.
      */
     public boolean hasMoreInstructions() {
-        return pc >= 0 && pc < function.getBytecode().length;
+        return pc >= 0 && pc < bytecode.length;
     }
     
     @Override
@@ -1,5 +1,6 @@
 package com.thorn.vm;
 
+import com.thorn.ExecutionProfile;
 import java.util.Arrays;
 
 /**
@@ -17,6 +18,8 @@ public class FunctionInfo {
     private final String[] parameterNames;  // Parameter names for debugging
     private final String[] localNames;      // Local variable names for debugging
     private final UpvalueInfo[] upvalues;   // Upvalue information
+    private int frameSize;                  // Registers used, when the compiler tracked them
+    private ExecutionProfile.Site[] profileSites; // Sites to record by pc, when compiled for profiling
     
     public FunctionInfo(String name, int arity, int localCount, int upvalueCount, 
                        int[] bytecode, int startPc) {
@@ -58,6 +61,16 @@ public class FunctionInfo {
         return bytecode.clone();
     }
     
+    // Shared array for the interpreter loop, which must not modify it
+    int[] bytecode() {
+        return bytecode;
+    }
+    
+    // Shared array for the interpreter loop; null unless compiled for profiling
+    ExecutionProfile.Site[] profileSites() {
+        return profileSites;
+    }
+    
     public int getStartPc() {
         return startPc;
     }
@@ -120,6 +133,9 @@ public class FunctionInfo {
      * Includes locals and temporary registers.
      */
     public int getFrameSize() {
+        if (frameSize > 0) {
+            return frameSize;
+        }
         // For now, use localCount + many temporary registers
         // Reserve space for nested loop control registers (250+)
         // In a more sophisticated implementation, this would be calculated
@@ -174,6 +190,8 @@ public class FunctionInfo {
         private String[] parameterNames;
         private String[] localNames;
         private UpvalueInfo[] upvalues;
+        private int frameSize;
+        private ExecutionProfile.Site[] profileSites;
         
         public Builder(String name) {
             this.name = name;
@@ -224,9 +242,22 @@ public class FunctionInfo {
             return this;
         }
         
+        public Builder frameSize(int frameSize) {
+            this.frameSize = frameSize;
+            return this;
+        }
+        
+        public Builder profileSites(ExecutionProfile.Site[] profileSites) {
+            this.profileSites = profileSites;
+            return this;
+        }
+        
         public FunctionInfo build() {
-            return new FunctionInfo(name, arity, localCount, upvalueCount, bytecode, startPc,
-                                  isVariadic, parameterNames, localNames, upvalues);
+            FunctionInfo function = new FunctionInfo(name, arity, localCount, upvalueCount, bytecode, startPc,
+                                                     isVariadic, parameterNames, localNames, upvalues);
+            function.frameSize = frameSize;
+            function.profileSites = profileSites;
+            return function;
         }
     }
 }
\ No newline at end of file
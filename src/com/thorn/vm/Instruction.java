@@ -38,6 +38,7 @@ public class Instruction {
      * Create an instruction with constant flag for B operand
      */
     public static int createWithConstantB(OpCode opcode, int a, int constantIndex, int c) {
+        checkConstantIndex(constantIndex);
         return OpCode.makeInstruction(opcode, a, constantIndex | OpCode.CONSTANT_FLAG, c);
     }
     
@@ -45,6 +46,7 @@ public class Instruction {
      * Create an instruction with constant flag for C operand
      */
     public static int createWithConstantC(OpCode opcode, int a, int b, int constantIndex) {
+        checkConstantIndex(constantIndex);
         return OpCode.makeInstruction(opcode, a, b, constantIndex | OpCode.CONSTANT_FLAG);
     }
     
@@ -52,6 +54,8 @@ public class Instruction {
      * Create an instruction with constant flags for both B and C operands
      */
     public static int createWithConstants(OpCode opcode, int a, int bConstantIndex, int cConstantIndex) {
+        checkConstantIndex(bConstantIndex);
+        checkConstantIndex(cConstantIndex);
         return OpCode.makeInstruction(opcode, a, 
                                     bConstantIndex | OpCode.CONSTANT_FLAG, 
                                     cConstantIndex | OpCode.CONSTANT_FLAG);
@@ -63,6 +67,7 @@ public class Instruction {
     public static int createJump(OpCode opcode, int offset) {
         // For jumps, we use the A field for the offset
         // Sign-extend if necessary (8-bit signed range: -128 to +127)
+        checkJumpOffset(offset);
         return OpCode.makeInstruction(opcode, offset & 0xFF, 0, 0);
     }
     
@@ -70,9 +75,22 @@ public class Instruction {
      * Create a conditional jump instruction
      */
     public static int createConditionalJump(OpCode opcode, int condition, int offset) {
+        checkJumpOffset(offset);
         return OpCode.makeInstruction(opcode, condition, offset & 0xFF, 0);
     }
     
+    private static void checkConstantIndex(int constantIndex) {
+        if (constantIndex < 0 || constantIndex > 0xFF) {
+            throw new IllegalArgumentException("Constant index out of range: " + constantIndex);
+        }
+    }
+    
+    private static void checkJumpOffset(int offset) {
+        if (offset < -128 || offset > 127) {
+            throw new IllegalArgumentException("Jump offset out of range: " + offset);
+        }
+    }
+    
     /**
      * Get the signed jump offset from a jump instruction
      */
@@ -0,0 +1,71 @@
+package com.thorn.vm;
+
+import java.util.Arrays;
+
+import com.thorn.MatchPlan;
+import com.thorn.ThornResult;
+
+/**
+ * Constant-pool entry backing the MATCH_PATTERN instruction.
+ * Pairs a match expression's decision table with the bytecode offsets
+ * of its compiled cases.
+ */
+public class MatchTable {
+    /** Resume index meaning "case finished, jump past the match". */
+    public static final int EXIT = 0xFF;
+
+    private final MatchPlan plan;
+    private final int[] casePcs;
+    private final int[] bindingRegisters;
+    private int endPc;
+
+    public MatchTable(MatchPlan plan) {
+        this.plan = plan;
+        this.casePcs = new int[plan.caseCount()];
+        this.bindingRegisters = new int[plan.caseCount()];
+        Arrays.fill(bindingRegisters, -1);
+    }
+
+    public MatchPlan getPlan() {
+        return plan;
+    }
+
+    void setCasePc(int caseIndex, int pc) {
+        casePcs[caseIndex] = pc;
+    }
+
+    void setBindingRegister(int caseIndex, int register) {
+        bindingRegisters[caseIndex] = register;
+    }
+
+    void setEndPc(int pc) {
+        endPc = pc;
+    }
+
+    /**
+     * Select the next case for the value starting at fromCase, bind an
+     * Ok/Error payload if the case has one, and return the pc to jump to.
+     */
+    int dispatch(Object value, int fromCase, CallFrame frame) {
+        if (fromCase == EXIT) {
+            return endPc;
+        }
+
+        int caseIndex = plan.nextCandidate(value, fromCase);
+        if (caseIndex < 0) {
+            throw new RuntimeException("No matching case in match expression.");
+        }
+
+        int register = bindingRegisters[caseIndex];
+        if (register >= 0) {
+            ThornResult result = (ThornResult) value;
+            frame.setRegister(register, result.isOk() ? result.getValue() : result.getError());
+        }
+        return casePcs[caseIndex];
+    }
+
+    @Override
+    public String toString() {
+        return "<match table " + plan.caseCount() + " cases>";
+    }
+}
@@ -32,6 +32,7 @@ public enum OpCode {
     MOD(12),             // A = B % C
     POW(13),             // A = B ** C
     NEG(14),             // A = -B
+    APPEND(15),          // A = A + B, growing a long string in A in place
     
     // Fast arithmetic for numbers (16-19)
     ADD_FAST(16),        // A = B + C (numbers only)
@@ -62,6 +63,7 @@ public enum OpCode {
     CALL(35),            // Call function at A with B args
     RETURN(36),          // Return A
     TAIL_CALL(37),       // Tail call optimization
+    APPEND_GLOBAL(38),   // globals[constants[A]] = globals[constants[A]] + B, in place for long strings
     
     // Object Operations (40-47)
     NEW_OBJECT(40),      // A = new Object()
@@ -69,7 +71,7 @@ public enum OpCode {
     SET_PROPERTY(42),    // B.constants[A] = C
     GET_INDEX(43),       // A = B[C]
     SET_INDEX(44),       // B[A] = C
-    NEW_ARRAY(45),       // A = new Array(B elements from stack)
+    NEW_ARRAY(45),       // A = new Array()
     NEW_DICT(46),        // A = new Dict(B pairs from stack)
     
     // Function Operations (48-51)
@@ -86,7 +88,7 @@ public enum OpCode {
     CLOCK(57),           // A = clock()
     TYPE_OF(58),         // A = typeof(B)
     LOAD_IMMUTABLE(59),  // A = immutable_globals[constants[B]]
-    MATCH_PATTERN(60),   // Pattern matching optimization
+    MATCH_PATTERN(60),   // pc = case for A in match table constants[B], resuming at case C
     LAMBDA_CREATE(61),   // Create lambda function
     NOP(62),             // No operation
     HALT(63),            // Stop execution
@@ -111,13 +113,20 @@ public enum OpCode {
         return code;
     }
     
-    public static OpCode fromCode(int code) {
+    // Decoding happens once per executed instruction, so look codes up by index
+    private static final OpCode[] BY_CODE = new OpCode[128];
+    static {
         for (OpCode op : values()) {
-            if (op.code == code) {
-                return op;
-            }
+            BY_CODE[op.code] = op;
+        }
+    }
+    
+    public static OpCode fromCode(int code) {
+        OpCode op = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        if (op == null) {
+            throw new IllegalArgumentException("Invalid opcode: " + code);
         }
-        throw new IllegalArgumentException("Invalid opcode: " + code);
+        return op;
     }
     
     // Instruction format helpers
@@ -136,6 +145,9 @@ public enum OpCode {
     
     // Create instruction
     public static int makeInstruction(OpCode opcode, int a, int b, int c) {
+        if (opcode.getCode() > 0x3F) {
+            throw new IllegalArgumentException("Opcode " + opcode + " does not fit the 6-bit opcode field");
+        }
         return (opcode.getCode() << OPCODE_SHIFT) |
                ((a & 0xFF) << A_SHIFT) |
                ((b & 0x1FF) << B_SHIFT) |
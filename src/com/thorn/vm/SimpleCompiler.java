@@ -3,6 +3,9 @@ package com.thorn.vm;
 import java.util.*;
 import com.thorn.Stmt;
 import com.thorn.Expr;
+import com.thorn.ExecutionProfile;
+import com.thorn.MatchPlan;
+import com.thorn.ThornArray;
 import com.thorn.TokenType;
 
 /**
@@ -16,11 +19,24 @@ public class SimpleCompiler {
     private final Stack<Integer> registerStack;
     private final Map<Integer, Boolean> numericRegisters; // Track which registers hold numbers
     private int loopDepth = 0; // Track nested loop depth
+    private MatchBlock currentMatchBlock = null; // Innermost block-bodied match case
+    private boolean hostMode = false; // Compiling a single function for tiered execution
+    private ExecutionProfile profile = null; // Recorded profile guiding the choice of opcodes
+    private boolean profiling = false; // Noting sites for the VM to record a profile
+    private final Map<Integer, ExecutionProfile.Site> sites = new HashMap<>();
+    private Map<String, Object> constants = Collections.emptyMap(); // @immut bindings holding a constant
     
     private int nextRegister = 0;
+    private int registerHighWater = 0; // One past the highest register handed out
     
     public SimpleCompiler() {
-        this.constantPool = new ConstantPool();
+        this(new ConstantPool());
+    }
+    
+    // Nested compilers for function bodies share the script's constant pool,
+    // which is the only pool the VM reads constants from
+    private SimpleCompiler(ConstantPool constantPool) {
+        this.constantPool = constantPool;
         this.bytecode = new ArrayList<>();
         this.locals = new HashMap<>();
         this.registerStack = new Stack<>();
@@ -32,6 +48,95 @@ public class SimpleCompiler {
         }
     }
     
+    /**
+     * Compile one function body for tiered execution. Names in localNames live
+     * in registers; every other variable is read through the VM host, and calls
+     * leave the VM through the host as well.
+     */
+    public static FunctionInfo compileHostFunction(String name, List<String> params, Collection<String> localNames,
+                                                   List<Stmt> body, ConstantPool constantPool,
+                                                   ExecutionProfile profile) {
+        SimpleCompiler compiler = new SimpleCompiler(constantPool);
+        compiler.hostMode = true;
+        compiler.profile = profile;
+        
+        for (int i = 0; i < params.size(); i++) {
+            compiler.defineParameter(params.get(i), i);
+        }
+        for (String local : localNames) {
+            compiler.getLocalRegister(local);
+        }
+        
+        for (Stmt stmt : body) {
+            compiler.compileStatement(stmt);
+        }
+        
+        // Implicit return null
+        int reg = compiler.allocateRegister();
+        int nullIndex = constantPool.addConstant(null);
+        compiler.emit(Instruction.createWithConstantB(OpCode.LOAD_CONSTANT, reg, nullIndex, 0));
+        compiler.emit(Instruction.create(OpCode.RETURN, reg));
+        
+        return new FunctionInfo.Builder(name)
+            .arity(params.size())
+            .localCount(compiler.locals.size())
+            .upvalueCount(0)
+            .frameSize(compiler.registerHighWater)
+            .bytecode(compiler.bytecode.stream().mapToInt(i -> i).toArray())
+            .build();
+    }
+    
+    /**
+     * Use a recorded profile to choose opcodes: arithmetic and comparisons
+     * that only ever saw two numbers get the fast opcodes.
+     */
+    public void setProfile(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+    
+    /**
+     * Note the branches, loops and operators of the compiled code so that
+     * a VM with a profile records what they do.
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+    
+    /**
+     * Use the @immut bindings known to hold a constant: reads of them load
+     * the value from the constant pool.
+     */
+    public void setConstants(Map<String, Object> constants) {
+        this.constants = constants;
+    }
+    
+    // A compiler for a function body inside this code
+    private SimpleCompiler nested() {
+        SimpleCompiler compiler = new SimpleCompiler(constantPool);
+        compiler.profile = profile;
+        compiler.profiling = profiling;
+        compiler.constants = constants;
+        return compiler;
+    }
+    
+    private void noteSite(int pc, ExecutionProfile.Site site) {
+        if (profiling) {
+            sites.put(pc, site);
+        }
+    }
+    
+    // Sites by pc for FunctionInfo, or null when not profiling
+    private ExecutionProfile.Site[] profileSites() {
+        if (!profiling) {
+            return null;
+        }
+        ExecutionProfile.Site[] result = new ExecutionProfile.Site[bytecode.size()];
+        for (Map.Entry<Integer, ExecutionProfile.Site> entry : sites.entrySet()) {
+            result[entry.getKey()] = entry.getValue();
+        }
+        return result;
+    }
+    
     /**
      * Compile a list of statements into bytecode.
      */
@@ -51,6 +156,7 @@ public class SimpleCompiler {
                 .upvalueCount(0)
                 .bytecode(bytecode.stream().mapToInt(i -> i).toArray())
                 .startPc(0)
+                .profileSites(profileSites())
                 .build();
             
             constantPool.addFunction(mainFunction);
@@ -73,14 +179,44 @@ public class SimpleCompiler {
         if (registerStack.isEmpty()) {
             throw new RuntimeException("Out of registers");
         }
-        return registerStack.pop();
+        int register = registerStack.pop();
+        registerHighWater = Math.max(registerHighWater, register + 1);
+        return register;
     }
     
-    // Free a register
+    // Free a register; variable registers and already free ones are left alone
     private void freeRegister(int register) {
+        if (locals.containsValue(register) || registerStack.contains(register)) {
+            return;
+        }
         registerStack.push(register);
     }
     
+    // Allocate count consecutive registers and return the first one
+    private int allocateRegisterBlock(int count) {
+        for (int first = 0; first + count <= 256; first++) {
+            boolean free = true;
+            for (int reg = first; reg < first + count && free; reg++) {
+                free = registerStack.contains(reg);
+            }
+            if (free) {
+                for (int reg = first; reg < first + count; reg++) {
+                    registerStack.remove(Integer.valueOf(reg));
+                }
+                registerHighWater = Math.max(registerHighWater, first + count);
+                return first;
+            }
+        }
+        throw new RuntimeException("Out of registers");
+    }
+    
+    // Parameters arrive in registers 0..n-1, so keep them out of the free pool
+    private void defineParameter(String name, int register) {
+        locals.put(name, register);
+        registerStack.remove(Integer.valueOf(register));
+        registerHighWater = Math.max(registerHighWater, register + 1);
+    }
+    
     // Get or allocate register for a variable
     private int getLocalRegister(String name) {
         Integer reg = locals.get(name);
@@ -97,6 +233,9 @@ public class SimpleCompiler {
     private void compileStatement(Stmt stmt) {
         if (stmt instanceof Stmt.Expression) {
             Stmt.Expression exprStmt = (Stmt.Expression) stmt;
+            if (exprStmt.expression instanceof Expr.Assign && compileGlobalAppend((Expr.Assign) exprStmt.expression)) {
+                return;
+            }
             Integer resultReg = compileExpression(exprStmt.expression);
             if (resultReg != null) {
                 freeRegister(resultReg);
@@ -152,7 +291,15 @@ public class SimpleCompiler {
             compileImportStatement((Stmt.Import) stmt);
         } else if (stmt instanceof Stmt.TypeAlias) {
             compileTypeAliasStatement((Stmt.TypeAlias) stmt);
+        } else if (stmt instanceof Stmt.Yield) {
+            // Generator bodies run on a thread of their own in the
+            // interpreter; the VM has no way to suspend a frame
+            throw new RuntimeException("Generators are not supported by the VM (yield at line " +
+                    ((Stmt.Yield) stmt).keyword.line + ")");
         } else {
+            if (hostMode) {
+                throw new RuntimeException("Unsupported statement type: " + stmt.getClass().getSimpleName());
+            }
             System.err.println("Warning: Unsupported statement type: " + stmt.getClass().getSimpleName());
         }
     }
@@ -182,6 +329,17 @@ public class SimpleCompiler {
                 return localReg;
             }
             
+            // An @immut constant is loaded from the constant pool
+            if (constants.containsKey(name)) {
+                int reg = allocateRegister();
+                Object value = constants.get(name);
+                emit(Instruction.createWithConstantB(OpCode.LOAD_CONSTANT, reg, constantPool.addConstant(value), 0));
+                if (value instanceof Double) {
+                    numericRegisters.put(reg, true);
+                }
+                return reg;
+            }
+            
             // Global variable
             int reg = allocateRegister();
             int nameIndex = constantPool.addString(name);
@@ -205,11 +363,23 @@ public class SimpleCompiler {
                         if (var.name.lexeme.equals(name) && 
                             lit.value instanceof Double && 
                             (Double)lit.value == 1.0) {
-                            // Use INCREMENT_LOCAL superinstruction
-                            emit(Instruction.create(OpCode.INCREMENT_LOCAL, localReg));
+                            // In-place increment (INCREMENT_LOCAL does not fit the 6-bit opcode field)
+                            int oneIndex = constantPool.addConstant(1.0);
+                            emit(Instruction.createWithConstantC(OpCode.ADD, localReg, localReg, oneIndex));
                             return localReg;
                         }
                     }
+                    
+                    // s = s + a + b ... appends to s in place, one operand at a time
+                    List<Expr> pieces = appendChain(binaryValue, name, false);
+                    if (pieces != null) {
+                        for (Expr piece : pieces) {
+                            Integer pieceReg = compileExpression(piece);
+                            emit(Instruction.create(OpCode.APPEND, localReg, pieceReg));
+                            freeRegister(pieceReg);
+                        }
+                        return localReg;
+                    }
                 }
             }
             
@@ -243,7 +413,8 @@ public class SimpleCompiler {
                     if (localReg != null && literal.value instanceof Double) {
                         int resultReg = allocateRegister();
                         int constIndex = constantPool.addConstant(literal.value);
-                        emit(Instruction.createWithConstantB(OpCode.ADD_CONST_TO_LOCAL, resultReg, constIndex, localReg));
+                        noteSite(bytecode.size(), ExecutionProfile.operandSite(binaryExpr.operator));
+                        emit(Instruction.createWithConstantB(OpCode.ADD, resultReg, constIndex, localReg));
                         numericRegisters.put(resultReg, true);
                         return resultReg;
                     }
@@ -258,7 +429,8 @@ public class SimpleCompiler {
                     
                     if (leftLocal != null && rightLocal != null) {
                         int resultReg = allocateRegister();
-                        emit(Instruction.create(OpCode.ADD_LOCALS, resultReg, leftLocal, rightLocal));
+                        noteSite(bytecode.size(), ExecutionProfile.operandSite(binaryExpr.operator));
+                        emit(Instruction.create(OpCode.ADD, resultReg, leftLocal, rightLocal));
                         // Assume numeric if both locals exist
                         numericRegisters.put(resultReg, true);
                         return resultReg;
@@ -271,14 +443,16 @@ public class SimpleCompiler {
             Integer rightReg = compileExpression(binaryExpr.right);
             int resultReg = allocateRegister();
             
-            // Check if we can use fast arithmetic opcodes
-            // Disable fast opcodes for now due to unreliable numeric tracking
-            // TODO: Improve numeric register tracking to enable fast opcodes safely
-            boolean canUseFast = false;
+            // Fast opcodes are chosen where an operand is a number constant
+            // or a recorded profile saw nothing but numbers; they check their
+            // operands and take the general path for anything else, so a
+            // wrong guess is only slower
+            OpCode fastOpcode = getFastOpCode(binaryExpr.operator.type);
+            boolean canUseFast = fastOpcode != null &&
+                (isNumericExpression(binaryExpr.left) || isNumericExpression(binaryExpr.right) ||
+                 profile != null && profile.isNumeric(binaryExpr.operator.line, binaryExpr.operator.lexeme));
             
-            OpCode opcode = canUseFast ? 
-                getFastArithmeticOpCode(binaryExpr.operator.type) : 
-                getArithmeticOpCode(binaryExpr.operator.type);
+            OpCode opcode = canUseFast ? fastOpcode : getArithmeticOpCode(binaryExpr.operator.type);
             
             // Debug: print when using fast opcodes
             if (System.getProperty("thorn.debug.fastops") != null) {
@@ -289,6 +463,7 @@ public class SimpleCompiler {
                                  ", opcode=" + opcode);
             }
             
+            noteSite(bytecode.size(), ExecutionProfile.operandSite(binaryExpr.operator));
             emit(Instruction.create(opcode, resultReg, leftReg, rightReg));
             
             // Mark result as numeric if we're doing arithmetic
@@ -342,7 +517,12 @@ public class SimpleCompiler {
             return compileLogicalExpression((Expr.Logical) expr);
         } else if (expr instanceof Expr.This) {
             return compileThisExpression((Expr.This) expr);
+        } else if (expr instanceof Expr.Match) {
+            return compileMatchExpression((Expr.Match) expr);
         } else {
+            if (hostMode) {
+                throw new RuntimeException("Unsupported expression type: " + expr.getClass().getSimpleName());
+            }
             System.err.println("Warning: Unsupported expression type: " + expr.getClass().getSimpleName());
             // Return a null literal register
             int reg = allocateRegister();
@@ -372,9 +552,81 @@ public class SimpleCompiler {
         }
     }
     
+    // g = g + a + b ... on a global, as a statement. Appending in place
+    // leaves no register holding the new value, so expressions cannot use it.
+    private boolean compileGlobalAppend(Expr.Assign assignExpr) {
+        String name = assignExpr.name.lexeme;
+        if (hostMode || locals.containsKey(name) || !(assignExpr.value instanceof Expr.Binary)) {
+            return false;
+        }
+        List<Expr> pieces = appendChain((Expr.Binary) assignExpr.value, name, true);
+        if (pieces == null) {
+            return false;
+        }
+        
+        int nameIndex = constantPool.addString(name);
+        for (Expr piece : pieces) {
+            Integer pieceReg = compileExpression(piece);
+            emit(Instruction.create(OpCode.APPEND_GLOBAL, nameIndex, pieceReg));
+            freeRegister(pieceReg);
+        }
+        return true;
+    }
+    
+    // Right operands of a left-nested chain of + starting with the variable,
+    // or null. Appending them one by one is only equivalent when no operand
+    // after the first reads the variable, which would see the partly
+    // appended value. Called functions can read globals but not locals.
+    private List<Expr> appendChain(Expr.Binary binary, String name, boolean global) {
+        List<Expr> pieces = new ArrayList<>();
+        Expr left = binary;
+        while (left instanceof Expr.Binary && ((Expr.Binary) left).operator.type == TokenType.PLUS) {
+            pieces.add(0, ((Expr.Binary) left).right);
+            left = ((Expr.Binary) left).left;
+        }
+        if (!(left instanceof Expr.Variable) || !((Expr.Variable) left).name.lexeme.equals(name)) {
+            return null;
+        }
+        for (int i = 1; i < pieces.size(); i++) {
+            if (mayRead(pieces.get(i), name, global)) {
+                return null;
+            }
+        }
+        return pieces;
+    }
+    
+    private static boolean mayRead(Expr expr, String name, boolean global) {
+        if (expr instanceof Expr.Literal) {
+            return false;
+        }
+        if (expr instanceof Expr.Variable) {
+            return ((Expr.Variable) expr).name.lexeme.equals(name);
+        }
+        if (expr instanceof Expr.Grouping) {
+            return mayRead(((Expr.Grouping) expr).expression, name, global);
+        }
+        if (expr instanceof Expr.Unary) {
+            return mayRead(((Expr.Unary) expr).right, name, global);
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return mayRead(binary.left, name, global) || mayRead(binary.right, name, global);
+        }
+        if (expr instanceof Expr.Call && !global) {
+            Expr.Call call = (Expr.Call) expr;
+            if (mayRead(call.callee, name, global)) return true;
+            for (Expr argument : call.arguments) {
+                if (mayRead(argument, name, global)) return true;
+            }
+            return false;
+        }
+        return true;
+    }
+    
     private Integer compileCall(Expr.Call callExpr) {
-        // Handle special built-in functions first
-        if (callExpr.callee instanceof Expr.Variable) {
+        // Handle special built-in functions first; promoted functions call the
+        // interpreter's own print so output formatting stays the same
+        if (!hostMode && callExpr.callee instanceof Expr.Variable) {
             Expr.Variable funcVar = (Expr.Variable) callExpr.callee;
             String funcName = funcVar.name.lexeme;
             
@@ -396,38 +648,45 @@ public class SimpleCompiler {
             }
         }
         
-        // General function call handling - compile callee
-        Integer calleeReg = compileExpression(callExpr.callee);
-        
-        // Compile arguments into consecutive registers starting from a base
-        List<Integer> argRegs = new ArrayList<>();
-        for (Expr arg : callExpr.arguments) {
-            Integer argReg = compileExpression(arg);
-            argRegs.add(argReg);
+        return compileCallInstruction(callExpr, OpCode.CALL);
+    }
+    
+    // The function and its arguments occupy consecutive registers: A holds the
+    // function, A+1.. the arguments, and the result replaces the function in A
+    private int compileCallInstruction(Expr.Call callExpr, OpCode opcode) {
+        int argCount = callExpr.arguments.size();
+        int baseReg = allocateRegisterBlock(argCount + 1);
+        
+        compileInto(callExpr.callee, baseReg);
+        for (int i = 0; i < argCount; i++) {
+            compileInto(callExpr.arguments.get(i), baseReg + 1 + i);
         }
         
-        // Emit CALL instruction: function register, arg count
-        emit(Instruction.create(OpCode.CALL, calleeReg, callExpr.arguments.size(), 0));
-        
-        // The result will be placed in register 0 by the VM
-        int resultReg = 0;
+        emit(Instruction.create(opcode, baseReg, argCount, 0));
         
         // Free argument registers
-        for (Integer argReg : argRegs) {
-            freeRegister(argReg);
+        for (int i = 0; i < argCount; i++) {
+            freeRegister(baseReg + 1 + i);
         }
-        freeRegister(calleeReg);
         
-        return resultReg;
+        return baseReg;
+    }
+    
+    private void compileInto(Expr expr, int targetReg) {
+        Integer valueReg = compileExpression(expr);
+        if (valueReg != targetReg) {
+            emit(Instruction.create(OpCode.MOVE, targetReg, valueReg));
+            freeRegister(valueReg);
+        }
     }
     
     private void compileIfStatement(Stmt.If ifStmt) {
         // Compile condition
         Integer conditionReg = compileExpression(ifStmt.condition);
         
-        // Use CMP_JUMP_IF_FALSE superinstruction for direct jumps
         int jumpToElse = bytecode.size();
-        emit(Instruction.createConditionalJump(OpCode.CMP_JUMP_IF_FALSE, conditionReg, 0)); // Patch later
+        emit(Instruction.createConditionalJump(OpCode.JUMP_IF_FALSE, conditionReg, 0)); // Patch later
+        noteSite(jumpToElse, ExecutionProfile.branchSite(ifStmt.condition));
         freeRegister(conditionReg);
         
         // Compile then branch
@@ -463,6 +722,7 @@ public class SimpleCompiler {
         // Emit conditional jump - if false, jump to end
         int jumpToEnd = bytecode.size();
         emit(Instruction.createConditionalJump(OpCode.JUMP_IF_FALSE, conditionReg, 0)); // Patch later
+        noteSite(jumpToEnd, ExecutionProfile.loopSite(ExecutionProfile.lineOf(whileStmt.condition)));
         
         // Free condition register to prevent conflicts
         freeRegister(conditionReg);
@@ -515,6 +775,7 @@ public class SimpleCompiler {
         // Jump to end if condition is false
         int jumpToEnd = bytecode.size();
         emit(Instruction.createConditionalJump(OpCode.JUMP_IF_FALSE, tempReg, 0)); // Patch later
+        noteSite(jumpToEnd, ExecutionProfile.loopSite(forStmt.variable.line));
         
         // Get element at current index
         emit(Instruction.create(OpCode.GET_INDEX, elementReg, iterableReg, indexReg));
@@ -569,12 +830,12 @@ public class SimpleCompiler {
         int arity = funcStmt.params.size();
         
         // Create a new compiler for the function body
-        SimpleCompiler funcCompiler = new SimpleCompiler();
+        SimpleCompiler funcCompiler = nested();
         
         // Add parameters as local variables
         for (int i = 0; i < funcStmt.params.size(); i++) {
             String paramName = funcStmt.params.get(i).name.lexeme;
-            funcCompiler.locals.put(paramName, i); // Use parameter index as register
+            funcCompiler.defineParameter(paramName, i); // Use parameter index as register
         }
         
         // Compile function body
@@ -599,6 +860,7 @@ public class SimpleCompiler {
             .localCount(funcCompiler.locals.size())
             .upvalueCount(0) // TODO: Handle upvalues later
             .bytecode(bytecodeArray)
+            .profileSites(funcCompiler.profileSites())
             .build();
         int functionIndex = constantPool.addFunction(functionInfo);
         
@@ -612,6 +874,20 @@ public class SimpleCompiler {
     }
     
     private void compileReturnStatement(Stmt.Return returnStmt) {
+        if (hostMode && currentMatchBlock == null && returnStmt.value instanceof Expr.Call) {
+            // Calls in return position go back to the interpreter's trampoline
+            int callReg = compileCallInstruction((Expr.Call) returnStmt.value, OpCode.TAIL_CALL);
+            freeRegister(callReg);
+            return;
+        }
+        
+        if (currentMatchBlock != null) {
+            // A return inside a match block produces the value of the match
+            compileMatchResult(returnStmt.value, currentMatchBlock.resultReg);
+            emitMatchExit(currentMatchBlock.scrutineeReg, currentMatchBlock.tableIndex);
+            return;
+        }
+        
         if (returnStmt.value != null) {
             Integer valueReg = compileExpression(returnStmt.value);
             emit(Instruction.create(OpCode.RETURN, valueReg));
@@ -639,12 +915,12 @@ public class SimpleCompiler {
             int arity = method.params.size();
             
             // Create a new compiler for the method body
-            SimpleCompiler methodCompiler = new SimpleCompiler();
+            SimpleCompiler methodCompiler = nested();
             
             // Add parameters as local variables
             for (int i = 0; i < method.params.size(); i++) {
                 String paramName = method.params.get(i).name.lexeme;
-                methodCompiler.locals.put(paramName, i);
+                methodCompiler.defineParameter(paramName, i);
             }
             
             // Compile method body
@@ -669,6 +945,7 @@ public class SimpleCompiler {
                 .localCount(methodCompiler.locals.size())
                 .upvalueCount(0)
                 .bytecode(bytecodeArray)
+                .profileSites(methodCompiler.profileSites())
                 .build();
             
             int methodIndex = constantPool.addFunction(methodInfo);
@@ -726,12 +1003,12 @@ public class SimpleCompiler {
     
     private Integer compileLambdaExpression(Expr.Lambda lambdaExpr) {
         // Create a new compiler for the lambda body
-        SimpleCompiler lambdaCompiler = new SimpleCompiler();
+        SimpleCompiler lambdaCompiler = nested();
         
         // Add parameters as local variables
         for (int i = 0; i < lambdaExpr.params.size(); i++) {
             String paramName = lambdaExpr.params.get(i).lexeme;
-            lambdaCompiler.locals.put(paramName, i); // Use parameter index as register
+            lambdaCompiler.defineParameter(paramName, i); // Use parameter index as register
         }
         
         // Compile lambda body
@@ -756,6 +1033,7 @@ public class SimpleCompiler {
             .localCount(lambdaCompiler.locals.size())
             .upvalueCount(0) // TODO: Handle upvalues for closures
             .bytecode(bytecodeArray)
+            .profileSites(lambdaCompiler.profileSites())
             .build();
         
         int functionIndex = constantPool.addFunction(lambdaInfo);
@@ -792,54 +1070,40 @@ public class SimpleCompiler {
             // Unary minus on number produces number
             return unary.operator.type == TokenType.MINUS &&
                    isNumericExpression(unary.right);
+        } else if (expr instanceof Expr.Variable) {
+            // Nothing else binds the name of a constant
+            return constants.get(((Expr.Variable) expr).name.lexeme) instanceof Double;
         }
-        // TODO: Add more cases for variables known to be numbers
         return false;
     }
     
-    private OpCode getFastArithmeticOpCode(TokenType operator) {
+    // The numbers-only opcode for an operator, or null when it has none
+    private OpCode getFastOpCode(TokenType operator) {
         switch (operator) {
             case PLUS: return OpCode.ADD_FAST;
             case MINUS: return OpCode.SUB_FAST;
             case STAR: return OpCode.MUL_FAST;
             case SLASH: return OpCode.DIV_FAST;
-            default:
-                throw new RuntimeException("No fast opcode for operator: " + operator);
+            case EQUAL_EQUAL: return OpCode.EQ_FAST;
+            case LESS: return OpCode.LT_FAST;
+            default: return null;
         }
     }
     
     private Integer compileListExpression(Expr.ListExpr listExpr) {
-        // For now, create a list by loading it as a constant
-        // In a production VM, you'd use NEW_ARRAY opcode
-        java.util.List<Object> list = new java.util.ArrayList<>();
+        // Lists are mutable, so every evaluation creates a new one, even
+        // when all elements are literals
+        int listReg = allocateRegister();
+        emit(Instruction.create(OpCode.NEW_ARRAY, listReg, 0, 0));
         
-        // Evaluate all elements at compile time for constants
-        // For non-constant expressions, we'd need NEW_ARRAY opcode
+        // Compile each element and add to list
         for (Expr element : listExpr.elements) {
-            if (element instanceof Expr.Literal) {
-                list.add(((Expr.Literal) element).value);
-            } else {
-                // For now, compile complex lists at runtime
-                int listReg = allocateRegister();
-                int listIndex = constantPool.addConstant(new java.util.ArrayList<>());
-                emit(Instruction.createWithConstantB(OpCode.LOAD_CONSTANT, listReg, listIndex, 0));
-                
-                // Compile each element and add to list
-                for (Expr elem : listExpr.elements) {
-                    Integer elemReg = compileExpression(elem);
-                    emit(Instruction.create(OpCode.ARRAY_PUSH, listReg, elemReg));
-                    freeRegister(elemReg);
-                }
-                
-                return listReg;
-            }
+            Integer elemReg = compileExpression(element);
+            emit(Instruction.create(OpCode.ARRAY_PUSH, listReg, elemReg));
+            freeRegister(elemReg);
         }
         
-        // All elements were literals, create constant list
-        int reg = allocateRegister();
-        int listIndex = constantPool.addConstant(list);
-        emit(Instruction.createWithConstantB(OpCode.LOAD_CONSTANT, reg, listIndex, 0));
-        return reg;
+        return listReg;
     }
     
     private Integer compileIndexSetExpression(Expr.IndexSet indexSetExpr) {
@@ -992,6 +1256,129 @@ public class SimpleCompiler {
         return resultReg;
     }
     
+    // Register context for a return statement inside a match block
+    private static class MatchBlock {
+        final int scrutineeReg;
+        final int tableIndex;
+        final int resultReg;
+        
+        MatchBlock(int scrutineeReg, int tableIndex, int resultReg) {
+            this.scrutineeReg = scrutineeReg;
+            this.tableIndex = tableIndex;
+            this.resultReg = resultReg;
+        }
+    }
+    
+    private Integer compileMatchExpression(Expr.Match matchExpr) {
+        MatchPlan plan = MatchPlan.compile(matchExpr);
+        if (plan.caseCount() >= MatchTable.EXIT) {
+            throw new RuntimeException("Too many cases in match expression");
+        }
+        MatchTable table = new MatchTable(plan);
+        int tableIndex = constantPool.addConstant(table);
+        
+        // Keep the scrutinee in a register of its own for re-dispatch
+        Integer valueReg = compileExpression(matchExpr.expr);
+        int scrutineeReg = allocateRegister();
+        emit(Instruction.create(OpCode.MOVE, scrutineeReg, valueReg));
+        freeRegister(valueReg);
+        int resultReg = allocateRegister();
+        
+        // Dispatch straight to the first candidate case
+        emit(Instruction.createWithConstantB(OpCode.MATCH_PATTERN, scrutineeReg, tableIndex, 0));
+        
+        for (int i = 0; i < plan.caseCount(); i++) {
+            if (plan.kind(i) == MatchPlan.Kind.NEVER) {
+                continue;
+            }
+            Expr.Match.Case matchCase = matchExpr.cases.get(i);
+            table.setCasePc(i, bytecode.size());
+            
+            if (plan.binding(i) != null) {
+                table.setBindingRegister(i, getLocalRegister(plan.binding(i)));
+            }
+            
+            // Patterns that are not in the table are compared here
+            if (plan.kind(i) == MatchPlan.Kind.EXPRESSION) {
+                Integer patternReg = compileExpression(matchCase.pattern);
+                int testReg = allocateRegister();
+                emit(Instruction.create(OpCode.EQ, testReg, scrutineeReg, patternReg));
+                emitMatchFallthrough(testReg, scrutineeReg, tableIndex, i + 1);
+                freeRegister(testReg);
+                freeRegister(patternReg);
+            }
+            
+            if (matchCase.guard != null) {
+                Integer guardReg = compileExpression(matchCase.guard);
+                emitMatchFallthrough(guardReg, scrutineeReg, tableIndex, i + 1);
+                freeRegister(guardReg);
+            }
+            
+            if (matchCase.isBlock) {
+                compileMatchBlock(matchCase.stmts, new MatchBlock(scrutineeReg, tableIndex, resultReg));
+            } else {
+                compileMatchResult(matchCase.value, resultReg);
+            }
+            emitMatchExit(scrutineeReg, tableIndex);
+        }
+        
+        table.setEndPc(bytecode.size());
+        freeRegister(scrutineeReg);
+        return resultReg;
+    }
+    
+    // Statements of a block case; the last expression statement is the block's value
+    private void compileMatchBlock(List<Stmt> stmts, MatchBlock block) {
+        MatchBlock savedBlock = currentMatchBlock;
+        Map<String, Integer> savedLocals = new HashMap<>(locals);
+        currentMatchBlock = block;
+        
+        boolean producedValue = false;
+        for (int i = 0; i < stmts.size(); i++) {
+            Stmt stmt = stmts.get(i);
+            if (i == stmts.size() - 1 && stmt instanceof Stmt.Expression) {
+                compileMatchResult(((Stmt.Expression) stmt).expression, block.resultReg);
+                producedValue = true;
+            } else {
+                compileStatement(stmt);
+            }
+        }
+        if (!producedValue) {
+            compileMatchResult(null, block.resultReg);
+        }
+        
+        currentMatchBlock = savedBlock;
+        for (Map.Entry<String, Integer> entry : locals.entrySet()) {
+            if (!savedLocals.containsKey(entry.getKey())) {
+                freeRegister(entry.getValue());
+            }
+        }
+        locals.clear();
+        locals.putAll(savedLocals);
+    }
+    
+    private void compileMatchResult(Expr value, int resultReg) {
+        if (value == null) {
+            int nullIndex = constantPool.addConstant(null);
+            emit(Instruction.createWithConstantB(OpCode.LOAD_CONSTANT, resultReg, nullIndex, 0));
+            return;
+        }
+        Integer valueReg = compileExpression(value);
+        if (valueReg != resultReg) {
+            emit(Instruction.create(OpCode.MOVE, resultReg, valueReg));
+        }
+    }
+    
+    // If the test register is false, resume dispatch at the next candidate case
+    private void emitMatchFallthrough(int testReg, int scrutineeReg, int tableIndex, int nextCase) {
+        emit(Instruction.createConditionalJump(OpCode.JUMP_IF_TRUE, testReg, 1));
+        emit(Instruction.createWithConstantB(OpCode.MATCH_PATTERN, scrutineeReg, tableIndex, nextCase));
+    }
+    
+    private void emitMatchExit(int scrutineeReg, int tableIndex) {
+        emit(Instruction.createWithConstantB(OpCode.MATCH_PATTERN, scrutineeReg, tableIndex, MatchTable.EXIT));
+    }
+    
     private void compileExportStatement(Stmt.Export exportStmt) {
         // For now, just compile the underlying declaration
         // TODO: Implement proper module export tracking
@@ -1,5 +1,11 @@
 package com.thorn.vm;
 
+import com.thorn.ExecutionProfile;
+import com.thorn.StringRope;
+import com.thorn.ThornArray;
+import com.thorn.ThornDict;
+import com.thorn.ThornRange;
+
 import java.util.*;
 
 /**
@@ -8,6 +14,24 @@ import java.util.*;
  */
 public class ThornVM {
     private static final int MAX_CALL_STACK = 1000;
+    private static final boolean DEBUG_LT = System.getProperty("thorn.debug.lt") != null;
+    private static final boolean DEBUG_JUMPS = System.getProperty("thorn.debug.jumps") != null;
+    
+    // Every integer up to this magnitude is exact as a double
+    private static final long MAX_EXACT_INTEGER = 1L << 53;
+    
+    // Opcodes that read CallFrame.INT operands themselves; every other
+    // opcode has them boxed as Doubles before it runs
+    private static final boolean[] READS_INTEGERS = new boolean[64];
+    static {
+        for (OpCode op : EnumSet.of(OpCode.MOVE, OpCode.ADD, OpCode.SUB, OpCode.MUL, OpCode.MOD,
+                                    OpCode.NEG, OpCode.APPEND, OpCode.EQ, OpCode.NE, OpCode.LT,
+                                    OpCode.LE, OpCode.GT, OpCode.GE, OpCode.GET_INDEX, OpCode.SET_INDEX,
+                                    OpCode.ADD_FAST, OpCode.SUB_FAST, OpCode.MUL_FAST,
+                                    OpCode.EQ_FAST, OpCode.LT_FAST)) {
+            READS_INTEGERS[op.getCode()] = true;
+        }
+    }
     
     private final CallFrame[] callStack;
     private final Map<String, Object> globals;
@@ -18,14 +42,52 @@ public class ThornVM {
     // Track if we're in a Result context for division by zero handling
     private boolean inResultContext = false;
     
+    // Interpreter bridge for functions promoted by tiered execution (null otherwise)
+    private final Host host;
+    
+    // Records calls and the sites the compiler noted, for --profile-out
+    private ExecutionProfile profile;
+    
+    /**
+     * Bridge to the tree-walking interpreter used when the VM runs single
+     * functions promoted from it. Globals, calls that leave the VM, and
+     * operators applied to anything but two numbers are delegated to the
+     * host so both tiers produce the same values and errors.
+     */
+    public interface Host {
+        Object getGlobal(String name);
+        Object call(Object callee, Object[] args);
+        Object tailCall(Object callee, Object[] args);
+        Object operate(OpCode op, Object left, Object right);
+    }
+    
     public ThornVM() {
         this.callStack = new CallFrame[MAX_CALL_STACK];
         this.globals = new HashMap<>();
         this.frameCount = 0;
         this.halted = false;
+        this.host = null;
         initializeBuiltins();
     }
     
+    /**
+     * Create a VM that runs functions on behalf of the interpreter.
+     */
+    public ThornVM(Host host) {
+        this.callStack = new CallFrame[MAX_CALL_STACK];
+        this.globals = new HashMap<>();
+        this.frameCount = 0;
+        this.halted = false;
+        this.host = host;
+    }
+    
+    /**
+     * Record a profile while running code compiled with profiling on.
+     */
+    public void setProfile(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+    
     public Object execute(CompilationResult compilationResult) {
         this.constantPool = compilationResult.getConstantPool();
         this.halted = false;
@@ -34,22 +96,58 @@ public class ThornVM {
         FunctionInfo mainFunction = compilationResult.getMainFunction();
         pushFrame(mainFunction, -1); // No return address for main
         
-        return run();
+        return run(0);
+    }
+    
+    /**
+     * Run a single function to completion against the given constant pool.
+     * Re-entrant, so host calls made while it runs may invoke the VM again.
+     */
+    public Object invoke(FunctionInfo function, ConstantPool pool, Object[] args) {
+        ConstantPool previousPool = this.constantPool;
+        int baseDepth = frameCount;
+        this.constantPool = pool;
+        this.halted = false;
+        
+        try {
+            pushFrame(function, -1);
+            getCurrentFrame().setArguments(args);
+            return run(baseDepth);
+        } finally {
+            // Drop any frames left behind by an exception
+            frameCount = baseDepth;
+            this.constantPool = previousPool;
+        }
     }
     
-    private Object run() {
-        while (!halted && frameCount > 0) {
+    // Register operand, leaving CallFrame.INT for the caller to resolve
+    private static Object operand(CallFrame frame, int register) {
+        Object[] registers = frame.getRegisters();
+        Object value = register < registers.length ? registers[register] : null;
+        return value instanceof StringRope ? value.toString() : value;
+    }
+    
+    /**
+     * Whether invoke can push another frame without overflowing the call stack.
+     */
+    public boolean hasCapacity() {
+        return frameCount < MAX_CALL_STACK;
+    }
+    
+    // Execute until the frame stack unwinds back to stopDepth
+    private Object run(int stopDepth) {
+        while (!halted && frameCount > stopDepth) {
             CallFrame currentFrame = getCurrentFrame();
             
             if (!currentFrame.hasMoreInstructions()) {
                 // Function ended without explicit return - return null
                 Object returnValue = null;
                 popFrame();
-                if (frameCount == 0) {
-                    return returnValue; // Main function return
+                if (frameCount == stopDepth) {
+                    return returnValue; // Outermost function return
                 }
-                // Set return value in caller's register 0
-                getCurrentFrame().setRegister(0, returnValue);
+                // Set return value in the caller's call register
+                getCurrentFrame().setRegister(currentFrame.getResultRegister(), returnValue);
                 continue;
             }
             
@@ -59,19 +157,39 @@ public class ThornVM {
             OpCode opcode = OpCode.getOpcode(instruction);
             int a = OpCode.getA(instruction);
             
-            // Decode operands
+            // Decode operands. B and C are decoded for every instruction, even
+            // those that use them as offsets or counts, so indices beyond a
+            // compact frame read as null
             Object bValue = OpCode.isBConstant(instruction) ? 
                           constantPool.getConstant(OpCode.getBValue(instruction)) :
-                          currentFrame.getRegister(OpCode.getBValue(instruction));
+                          operand(currentFrame, OpCode.getBValue(instruction));
             
             Object cValue = OpCode.isCConstant(instruction) ?
                           constantPool.getConstant(OpCode.getCValue(instruction)) :
-                          currentFrame.getRegister(OpCode.getCValue(instruction));
+                          operand(currentFrame, OpCode.getCValue(instruction));
+            
+            if ((bValue == CallFrame.INT || cValue == CallFrame.INT) && !READS_INTEGERS[opcode.getCode()]) {
+                if (bValue == CallFrame.INT) {
+                    bValue = currentFrame.getRegister(OpCode.getBValue(instruction));
+                }
+                if (cValue == CallFrame.INT) {
+                    cValue = currentFrame.getRegister(OpCode.getCValue(instruction));
+                }
+            }
+            
+            if (profile != null) {
+                recordSite(currentFrame, opcode, a, bValue, cValue);
+            }
             
             // Dispatch instruction
             switch (opcode) {
                 case LOAD_CONSTANT:
-                    currentFrame.setRegister(a, constantPool.getConstant(OpCode.getBValue(instruction)));
+                    Object constant = constantPool.getConstant(OpCode.getBValue(instruction));
+                    if (constant instanceof Double && isExactInteger((Double) constant)) {
+                        currentFrame.setInt(a, (long) (double) (Double) constant);
+                    } else {
+                        currentFrame.setRegister(a, constant);
+                    }
                     break;
                     
                 case LOAD_LOCAL:
@@ -84,7 +202,8 @@ public class ThornVM {
                     
                 case LOAD_GLOBAL:
                     String globalName = (String) constantPool.getConstant(OpCode.getBValue(instruction));
-                    currentFrame.setRegister(a, globals.get(globalName));
+                    Object globalValue = host != null ? host.getGlobal(globalName) : globals.get(globalName);
+                    currentFrame.setRegister(a, globalValue instanceof StringRope ? globalValue.toString() : globalValue);
                     break;
                     
                 case STORE_GLOBAL:
@@ -93,91 +212,113 @@ public class ThornVM {
                     break;
                     
                 case MOVE:
-                    currentFrame.setRegister(a, bValue);
+                    if (bValue == CallFrame.INT) {
+                        currentFrame.setInt(a, currentFrame.getInt(OpCode.getBValue(instruction)));
+                    } else {
+                        currentFrame.setRegister(a, bValue);
+                    }
                     break;
                     
                 // Arithmetic operations
                 case ADD:
-                    currentFrame.setRegister(a, add(bValue, cValue));
-                    break;
-                    
                 case SUB:
-                    currentFrame.setRegister(a, subtract(bValue, cValue));
-                    break;
-                    
                 case MUL:
-                    currentFrame.setRegister(a, multiply(bValue, cValue));
+                case MOD:
+                    arithmeticInto(currentFrame, opcode, a, instruction, bValue, cValue);
                     break;
                     
                 case DIV:
                     currentFrame.setRegister(a, divide(bValue, cValue));
                     break;
                     
-                case MOD:
-                    currentFrame.setRegister(a, modulo(bValue, cValue));
-                    break;
-                    
                 case POW:
                     currentFrame.setRegister(a, power(bValue, cValue));
                     break;
                     
                 case NEG:
-                    currentFrame.setRegister(a, negate(bValue));
+                    if (bValue == CallFrame.INT && currentFrame.getInt(OpCode.getBValue(instruction)) != 0) {
+                        currentFrame.setInt(a, -currentFrame.getInt(OpCode.getBValue(instruction)));
+                    } else {
+                        // -0 is only a double
+                        currentFrame.setRegister(a, negate(bValue == CallFrame.INT ? 0.0 : bValue));
+                    }
+                    break;
+                    
+                case APPEND:
+                    Object[] appendRegisters = currentFrame.getRegisters();
+                    if (appendRegisters[a] == CallFrame.INT || bValue == CallFrame.INT) {
+                        integerArithmetic(currentFrame, OpCode.ADD, a,
+                                          appendRegisters[a], a, bValue, OpCode.getBValue(instruction));
+                    } else {
+                        appendRegisters[a] = append(appendRegisters[a], bValue);
+                    }
+                    break;
+                    
+                case APPEND_GLOBAL:
+                    String appendName = (String) constantPool.getConstant(a);
+                    globals.put(appendName, append(globals.get(appendName), bValue));
                     break;
                     
-                // Fast arithmetic (numbers only)
+                // Fast arithmetic, chosen where a profile only saw numbers.
+                // Other operands take the general path
                 case ADD_FAST:
-                    currentFrame.setRegister(a, ((Number) bValue).doubleValue() + ((Number) cValue).doubleValue());
+                    if (bValue instanceof Double && cValue instanceof Double) {
+                        currentFrame.setRegister(a, (Double) bValue + (Double) cValue);
+                    } else {
+                        arithmeticInto(currentFrame, OpCode.ADD, a, instruction, bValue, cValue);
+                    }
                     break;
                     
                 case SUB_FAST:
-                    currentFrame.setRegister(a, ((Number) bValue).doubleValue() - ((Number) cValue).doubleValue());
+                    if (bValue instanceof Double && cValue instanceof Double) {
+                        currentFrame.setRegister(a, (Double) bValue - (Double) cValue);
+                    } else {
+                        arithmeticInto(currentFrame, OpCode.SUB, a, instruction, bValue, cValue);
+                    }
                     break;
                     
                 case MUL_FAST:
-                    currentFrame.setRegister(a, ((Number) bValue).doubleValue() * ((Number) cValue).doubleValue());
+                    if (bValue instanceof Double && cValue instanceof Double) {
+                        currentFrame.setRegister(a, (Double) bValue * (Double) cValue);
+                    } else {
+                        arithmeticInto(currentFrame, OpCode.MUL, a, instruction, bValue, cValue);
+                    }
                     break;
                     
                 case DIV_FAST:
-                    currentFrame.setRegister(a, ((Number) bValue).doubleValue() / ((Number) cValue).doubleValue());
+                    if (bValue instanceof Double && cValue instanceof Double && (Double) cValue != 0.0) {
+                        currentFrame.setRegister(a, (Double) bValue / (Double) cValue);
+                    } else {
+                        currentFrame.setRegister(a, divide(bValue, cValue));
+                    }
                     break;
                     
                 // Comparison operations
                 case EQ:
-                    currentFrame.setRegister(a, isEqual(bValue, cValue));
-                    break;
-                    
                 case NE:
-                    currentFrame.setRegister(a, !isEqual(bValue, cValue));
-                    break;
-                    
                 case LT:
-                    boolean ltResult = isLess(bValue, cValue);
-                    if (System.getProperty("thorn.debug.lt") != null) {
-                        System.err.println("LT: " + bValue + " < " + cValue + " = " + ltResult);
-                    }
-                    currentFrame.setRegister(a, ltResult);
-                    break;
-                    
                 case LE:
-                    currentFrame.setRegister(a, isLessEqual(bValue, cValue));
-                    break;
-                    
                 case GT:
-                    currentFrame.setRegister(a, isGreater(bValue, cValue));
-                    break;
-                    
                 case GE:
-                    currentFrame.setRegister(a, isGreaterEqual(bValue, cValue));
+                    compareInto(currentFrame, opcode, a, instruction, bValue, cValue);
                     break;
                     
-                // Fast comparisons (numbers only)
+                // Fast comparisons, chosen where a profile only saw numbers.
+                // Doubles compare as in isEqual, so -0 and NaN behave the same
                 case EQ_FAST:
-                    currentFrame.setRegister(a, ((Number) bValue).doubleValue() == ((Number) cValue).doubleValue());
+                    if (bValue instanceof Double && cValue instanceof Double) {
+                        currentFrame.setRegister(a, bValue.equals(cValue));
+                    } else {
+                        compareInto(currentFrame, OpCode.EQ, a, instruction, bValue, cValue);
+                    }
                     break;
                     
                 case LT_FAST:
-                    currentFrame.setRegister(a, ((Number) bValue).doubleValue() < ((Number) cValue).doubleValue());
+                    if (bValue instanceof Double && cValue instanceof Double) {
+                        currentFrame.setRegister(a, (Double) bValue < (Double) cValue);
+                    } else {
+                        compareInto(currentFrame, OpCode.LT, a, instruction, bValue, cValue);
+                    }
                     break;
                     
                 // Logical operations
@@ -199,14 +340,15 @@ public class ThornVM {
                     
                 // Control flow
                 case JUMP:
+                    // Offsets are relative to the instruction after the jump
                     int jumpOffset = Instruction.getJumpOffset(instruction);
-                    currentFrame.setPc(currentFrame.getPc() + jumpOffset - 1);
+                    currentFrame.setPc(currentFrame.getPc() + jumpOffset);
                     break;
                     
                 case JUMP_IF_FALSE:
                     Object condValue = currentFrame.getRegister(a);
                     boolean shouldJump = !isTruthy(condValue);
-                    if (System.getProperty("thorn.debug.jumps") != null) {
+                    if (DEBUG_JUMPS) {
                         System.err.println("JUMP_IF_FALSE: register=" + a + ", value=" + condValue + ", truthy=" + isTruthy(condValue) + ", shouldJump=" + shouldJump);
                     }
                     if (shouldJump) {
@@ -215,10 +357,10 @@ public class ThornVM {
                         if ((offset & 0x80) != 0) {
                             offset = offset | 0xFFFFFF00;
                         }
-                        if (System.getProperty("thorn.debug.jumps") != null) {
-                            System.err.println("  Jumping by offset: " + offset + ", pc: " + currentFrame.getPc() + " -> " + (currentFrame.getPc() + offset - 1));
+                        if (DEBUG_JUMPS) {
+                            System.err.println("  Jumping by offset: " + offset + ", pc: " + currentFrame.getPc() + " -> " + (currentFrame.getPc() + offset));
                         }
-                        currentFrame.setPc(currentFrame.getPc() + offset - 1);
+                        currentFrame.setPc(currentFrame.getPc() + offset);
                     }
                     break;
                     
@@ -229,27 +371,41 @@ public class ThornVM {
                         if ((offset & 0x80) != 0) {
                             offset = offset | 0xFFFFFF00;
                         }
-                        currentFrame.setPc(currentFrame.getPc() + offset - 1);
+                        currentFrame.setPc(currentFrame.getPc() + offset);
                     }
                     break;
                     
                 case CALL:
-                    // Function call implementation
+                    // Arguments follow the function in registers A+1..A+B and the
+                    // result replaces the function in register A
                     Object function = currentFrame.getRegister(a);
                     int argCount = OpCode.getB(instruction);
                     Object result = callFunction(function, argCount, currentFrame, a);
-                    // Put result in register 0 (standard calling convention)
-                    currentFrame.setRegister(0, result);
+                    if (!(function instanceof FunctionInfo)) {
+                        currentFrame.setRegister(a, result);
+                    }
+                    break;
+                    
+                case TAIL_CALL:
+                    // Host mode only: the host either performs the call or hands back
+                    // a tail call for the interpreter's trampoline
+                    Object tailResult = host.tailCall(currentFrame.getRegister(a),
+                                                      collectArguments(currentFrame, a, OpCode.getB(instruction)));
+                    popFrame();
+                    if (frameCount == stopDepth) {
+                        return tailResult;
+                    }
+                    getCurrentFrame().setRegister(currentFrame.getResultRegister(), tailResult);
                     break;
                     
                 case RETURN:
                     Object returnValue = currentFrame.getRegister(a);
                     popFrame();
-                    if (frameCount == 0) {
-                        return returnValue; // Main function return
+                    if (frameCount == stopDepth) {
+                        return returnValue; // Outermost function return
                     }
-                    // Set return value in caller's register 0
-                    getCurrentFrame().setRegister(0, returnValue);
+                    // Set return value in the caller's call register
+                    getCurrentFrame().setRegister(currentFrame.getResultRegister(), returnValue);
                     break;
                     
                 // Built-in operations
@@ -274,12 +430,16 @@ public class ThornVM {
                     
                 case NEW_OBJECT:
                     // Create a new object (simple HashMap for properties)
-                    currentFrame.setRegister(a, new java.util.HashMap<String, Object>());
+                    currentFrame.setRegister(a, new ThornDict<String, Object>());
+                    break;
+                    
+                case NEW_ARRAY:
+                    currentFrame.setRegister(a, new ThornArray());
                     break;
                     
                 case NEW_DICT:
                     // Create a new dictionary (HashMap)
-                    currentFrame.setRegister(a, new java.util.HashMap<String, Object>());
+                    currentFrame.setRegister(a, new ThornDict<String, Object>());
                     break;
                     
                 case GET_PROPERTY:
@@ -323,7 +483,7 @@ public class ThornVM {
                         java.util.List<Object> list = (java.util.List<Object>) obj;
                         switch (propName) {
                             case "length":
-                                currentFrame.setRegister(a, (double) list.size());
+                                currentFrame.setInt(a, list.size());
                                 break;
                             case "push":
                                 currentFrame.setRegister(a, new ArrayMethod("push", list));
@@ -354,7 +514,7 @@ public class ThornVM {
                         String str = (String) obj;
                         switch (propName) {
                             case "length":
-                                currentFrame.setRegister(a, (double) str.length());
+                                currentFrame.setInt(a, str.length());
                                 break;
                             case "includes":
                                 currentFrame.setRegister(a, new StringMethod("includes", str));
@@ -404,7 +564,7 @@ public class ThornVM {
                     // A = B.length
                     Object arrayObj = bValue;
                     if (arrayObj instanceof java.util.List) {
-                        currentFrame.setRegister(a, (double) ((java.util.List<?>) arrayObj).size());
+                        currentFrame.setInt(a, ((java.util.List<?>) arrayObj).size());
                     } else if (arrayObj instanceof String) {
                         currentFrame.setRegister(a, (double) ((String) arrayObj).length());
                     } else {
@@ -416,7 +576,34 @@ public class ThornVM {
                     // A = B[C]
                     Object indexable = bValue;
                     Object index = cValue;
-                    if (indexable instanceof java.util.List && index instanceof Double) {
+                    if (index == CallFrame.INT) {
+                        long position = currentFrame.getInt(OpCode.getCValue(instruction));
+                        if (indexable instanceof ThornArray && position >= 0 && position < ((ThornArray) indexable).size()
+                                && ((ThornArray) indexable).isNumeric()) {
+                            currentFrame.setRegister(a, ((ThornArray) indexable).getNumber((int) position));
+                            break;
+                        }
+                        // Integer ranges stay unboxed, so for-in over range() counts in int registers
+                        if (indexable instanceof ThornRange && position >= 0 && position < ((ThornRange) indexable).size()
+                                && ((ThornRange) indexable).isIntegral()) {
+                            currentFrame.setInt(a, ((ThornRange) indexable).longAt((int) position));
+                            break;
+                        }
+                        index = currentFrame.getRegister(OpCode.getCValue(instruction));
+                    }
+                    if (indexable == CallFrame.INT) {
+                        indexable = currentFrame.getRegister(OpCode.getBValue(instruction));
+                    }
+                    if (indexable instanceof ThornArray && index instanceof Double
+                            && ((ThornArray) indexable).isNumeric()) {
+                        ThornArray array = (ThornArray) indexable;
+                        int idx = ((Double) index).intValue();
+                        if (idx >= 0 && idx < array.size()) {
+                            currentFrame.setRegister(a, array.getNumber(idx));
+                        } else {
+                            throw new RuntimeException("List index out of bounds: " + idx);
+                        }
+                    } else if (indexable instanceof java.util.List && index instanceof Double) {
                         java.util.List<?> list = (java.util.List<?>) indexable;
                         int idx = ((Double) index).intValue();
                         if (idx >= 0 && idx < list.size()) {
@@ -446,9 +633,35 @@ public class ThornVM {
                 case SET_INDEX:
                     // B[A] = C
                     Object setIndexable = bValue;
+                    if (currentFrame.getRegisters()[a] == CallFrame.INT && setIndexable instanceof ThornArray
+                            && ((ThornArray) setIndexable).isNumeric()
+                            && (cValue == CallFrame.INT || cValue instanceof Double)) {
+                        ThornArray array = (ThornArray) setIndexable;
+                        long position = currentFrame.getInt(a);
+                        if (position >= 0 && position < array.size()) {
+                            array.setNumber((int) position, cValue == CallFrame.INT ?
+                                currentFrame.getInt(OpCode.getCValue(instruction)) : (Double) cValue);
+                            break;
+                        }
+                    }
                     Object setIndex = currentFrame.getRegister(a);
                     Object setIndexValue = cValue;
-                    if (setIndexable instanceof java.util.List && setIndex instanceof Double) {
+                    if (setIndexValue == CallFrame.INT) {
+                        setIndexValue = currentFrame.getRegister(OpCode.getCValue(instruction));
+                    }
+                    if (setIndexable == CallFrame.INT) {
+                        setIndexable = currentFrame.getRegister(OpCode.getBValue(instruction));
+                    }
+                    if (setIndexable instanceof ThornArray && setIndex instanceof Double
+                            && setIndexValue instanceof Double && ((ThornArray) setIndexable).isNumeric()) {
+                        ThornArray array = (ThornArray) setIndexable;
+                        int idx = ((Double) setIndex).intValue();
+                        if (idx >= 0 && idx < array.size()) {
+                            array.setNumber(idx, (Double) setIndexValue);
+                        } else {
+                            throw new RuntimeException("List index out of bounds: " + idx);
+                        }
+                    } else if (setIndexable instanceof java.util.List && setIndex instanceof Double) {
                         @SuppressWarnings("unchecked")
                         java.util.List<Object> list = (java.util.List<Object>) setIndexable;
                         int idx = ((Double) setIndex).intValue();
@@ -471,7 +684,9 @@ public class ThornVM {
                     // A.push(B)
                     Object arrayToPush = currentFrame.getRegister(a);
                     Object valueToPush = bValue;
-                    if (arrayToPush instanceof java.util.List) {
+                    if (arrayToPush instanceof ThornArray && valueToPush instanceof Double) {
+                        ((ThornArray) arrayToPush).addNumber((Double) valueToPush);
+                    } else if (arrayToPush instanceof java.util.List) {
                         @SuppressWarnings("unchecked")
                         java.util.List<Object> list = (java.util.List<Object>) arrayToPush;
                         list.add(valueToPush);
@@ -527,7 +742,7 @@ public class ThornVM {
                         if ((cmpJumpOffset & 0x80) != 0) {
                             cmpJumpOffset = cmpJumpOffset | 0xFFFFFF00;
                         }
-                        currentFrame.setPc(currentFrame.getPc() + cmpJumpOffset - 1);
+                        currentFrame.setPc(currentFrame.getPc() + cmpJumpOffset);
                     }
                     break;
                     
@@ -553,6 +768,12 @@ public class ThornVM {
                     currentFrame.setRegister(a + 1, cValue);
                     break;
                     
+                case MATCH_PATTERN:
+                    // A = scrutinee register, B = match table constant, C = case to resume from
+                    MatchTable matchTable = (MatchTable) constantPool.getConstant(OpCode.getBValue(instruction));
+                    currentFrame.setPc(matchTable.dispatch(currentFrame.getRegister(a), OpCode.getC(instruction), currentFrame));
+                    break;
+                    
                 case JUMP_BACK:
                     // Absolute jump for tail calls (pc = A)
                     currentFrame.setPc(a);
@@ -572,27 +793,204 @@ public class ThornVM {
     
     // Helper methods for operations
     
+    // ADD, SUB, MUL or MOD into register a, on integer registers when an
+    // operand is one
+    private void arithmeticInto(CallFrame frame, OpCode op, int a, int instruction,
+                                Object bValue, Object cValue) {
+        if (bValue == CallFrame.INT || cValue == CallFrame.INT) {
+            integerArithmetic(frame, op, a,
+                              bValue, OpCode.getBValue(instruction),
+                              cValue, OpCode.getCValue(instruction));
+        } else {
+            frame.setRegister(a, arithmetic(op, bValue, cValue));
+        }
+    }
+    
+    private void compareInto(CallFrame frame, OpCode op, int a, int instruction,
+                             Object bValue, Object cValue) {
+        boolean compared = bValue == CallFrame.INT || cValue == CallFrame.INT ?
+            integerComparison(frame, op,
+                              bValue, OpCode.getBValue(instruction),
+                              cValue, OpCode.getCValue(instruction)) :
+            comparison(op, bValue, cValue);
+        if (DEBUG_LT && op == OpCode.LT) {
+            System.err.println("LT: " + bValue + " < " + cValue + " = " + compared);
+        }
+        frame.setRegister(a, compared);
+    }
+    
+    // Records the outcome of an instruction the compiler noted as a site:
+    // whether a condition held, or whether an operator saw two numbers
+    private void recordSite(CallFrame frame, OpCode opcode, int a, Object bValue, Object cValue) {
+        ExecutionProfile.Site[] sites = frame.getFunction().profileSites();
+        int pc = frame.getPc() - 1;
+        if (sites == null || pc >= sites.length || sites[pc] == null) {
+            return;
+        }
+        if (opcode == OpCode.JUMP_IF_FALSE) {
+            profile.recordCondition(sites[pc], isTruthy(frame.getRegister(a)));
+        } else {
+            profile.recordOperands(sites[pc], isNumber(bValue) && isNumber(cValue));
+        }
+    }
+    
+    private static boolean isNumber(Object value) {
+        return value instanceof Double || value == CallFrame.INT;
+    }
+    
+    private Object arithmetic(OpCode op, Object left, Object right) {
+        switch (op) {
+            case ADD: return add(left, right);
+            case SUB: return subtract(left, right);
+            case MUL: return multiply(left, right);
+            default: return modulo(left, right);
+        }
+    }
+    
+    private boolean comparison(OpCode op, Object left, Object right) {
+        switch (op) {
+            case EQ: return isEqual(left, right);
+            case NE: return !isEqual(left, right);
+            case LT: return isLess(left, right);
+            case LE: return isLessEqual(left, right);
+            case GT: return isGreater(left, right);
+            default: return isGreaterEqual(left, right);
+        }
+    }
+    
+    // Whether a double is an integer that an integer register holds exactly.
+    // -0 is left as a double so it still prints and compares as before
+    private static boolean isExactInteger(double value) {
+        return value == (long) value && Math.abs(value) <= MAX_EXACT_INTEGER
+            && (value != 0 || 1 / value > 0);
+    }
+    
+    // Whether an operand is CallFrame.INT or a Double holding an exact
+    // integer, so integerValue can read it
+    private static boolean isIntegerOperand(Object value) {
+        return value == CallFrame.INT || (value instanceof Double && isExactInteger((Double) value));
+    }
+    
+    private static long integerValue(CallFrame frame, Object value, int register) {
+        return value == CallFrame.INT ? frame.getInt(register) : (long) (double) (Double) value;
+    }
+    
+    // + - * % where an operand is an integer register. The result stays an
+    // unboxed integer while it is exact; otherwise it is computed as a
+    // double, giving the same value, -0 and NaN included, as before
+    private void integerArithmetic(CallFrame frame, OpCode op, int target,
+                                   Object left, int leftRegister, Object right, int rightRegister) {
+        if (isIntegerOperand(left) && isIntegerOperand(right)) {
+            long x = integerValue(frame, left, leftRegister);
+            long y = integerValue(frame, right, rightRegister);
+            long result;
+            boolean exact;
+            switch (op) {
+                case ADD:
+                    result = x + y;
+                    exact = true;
+                    break;
+                case SUB:
+                    result = x - y;
+                    exact = true;
+                    break;
+                case MUL:
+                    result = x * y;
+                    // No overflow, and no zero that a double would make -0
+                    exact = Math.multiplyHigh(x, y) == (result >> 63) && (result != 0 || (x >= 0 && y >= 0));
+                    break;
+                default:
+                    // x % 0 is NaN and a zero remainder of a negative x is -0
+                    exact = y != 0 && (x >= 0 || x % y != 0);
+                    result = exact ? x % y : 0;
+                    break;
+            }
+            if (exact && Math.abs(result) <= MAX_EXACT_INTEGER) {
+                frame.setInt(target, result);
+                return;
+            }
+        }
+        frame.setRegister(target, arithmetic(op,
+            left == CallFrame.INT ? frame.getRegister(leftRegister) : left,
+            right == CallFrame.INT ? frame.getRegister(rightRegister) : right));
+    }
+    
+    private boolean integerComparison(CallFrame frame, OpCode op,
+                                      Object left, int leftRegister, Object right, int rightRegister) {
+        if (!isIntegerOperand(left) || !isIntegerOperand(right)) {
+            return comparison(op,
+                left == CallFrame.INT ? frame.getRegister(leftRegister) : left,
+                right == CallFrame.INT ? frame.getRegister(rightRegister) : right);
+        }
+        long x = integerValue(frame, left, leftRegister);
+        long y = integerValue(frame, right, rightRegister);
+        switch (op) {
+            case EQ: return x == y;
+            case NE: return x != y;
+            case LT: return x < y;
+            case LE: return x <= y;
+            case GT: return x > y;
+            default: return x >= y;
+        }
+    }
+    
     private Object add(Object left, Object right) {
         if (left instanceof Double && right instanceof Double) {
             return (Double) left + (Double) right;
         }
+        if (host != null) {
+            return host.operate(OpCode.ADD, left, right);
+        }
         if (left instanceof String || right instanceof String) {
             return stringify(left) + stringify(right);
         }
         throw new RuntimeException("Invalid operands for +");
     }
     
+    // `s = s + piece` for a register or global variable. Long strings are
+    // grown in a StringRope that stays in the variable; every other read
+    // flattens it.
+    private Object append(Object current, Object piece) {
+        if (current instanceof Double && piece instanceof Double) {
+            return (Double) current + (Double) piece;
+        }
+        if (current instanceof StringRope) {
+            StringRope rope = (StringRope) current;
+            if (piece instanceof String || host == null) {
+                rope.append(piece instanceof String ? (String) piece : stringify(piece));
+                return rope;
+            }
+            current = rope.toString();
+        }
+        if (current instanceof String && piece instanceof String &&
+            StringRope.worthwhile((String) current, (String) piece)) {
+            StringRope rope = new StringRope((String) current);
+            rope.append((String) piece);
+            return rope;
+        }
+        return add(current, piece);
+    }
+    
     private Object subtract(Object left, Object right) {
+        if (host != null && !(left instanceof Double && right instanceof Double)) {
+            return host.operate(OpCode.SUB, left, right);
+        }
         checkNumberOperands(left, right);
         return ((Number) left).doubleValue() - ((Number) right).doubleValue();
     }
     
     private Object multiply(Object left, Object right) {
+        if (host != null && !(left instanceof Double && right instanceof Double)) {
+            return host.operate(OpCode.MUL, left, right);
+        }
         checkNumberOperands(left, right);
         return ((Number) left).doubleValue() * ((Number) right).doubleValue();
     }
     
     private Object divide(Object left, Object right) {
+        if (host != null && !(left instanceof Double && right instanceof Double && (Double) right != 0.0)) {
+            return host.operate(OpCode.DIV, left, right);
+        }
         checkNumberOperands(left, right);
         double rightVal = ((Number) right).doubleValue();
         if (rightVal == 0.0) {
@@ -606,16 +1004,25 @@ public class ThornVM {
     }
     
     private Object modulo(Object left, Object right) {
+        if (host != null && !(left instanceof Double && right instanceof Double)) {
+            return host.operate(OpCode.MOD, left, right);
+        }
         checkNumberOperands(left, right);
         return ((Number) left).doubleValue() % ((Number) right).doubleValue();
     }
     
     private Object power(Object left, Object right) {
+        if (host != null && !(left instanceof Double && right instanceof Double)) {
+            return host.operate(OpCode.POW, left, right);
+        }
         checkNumberOperands(left, right);
         return Math.pow(((Number) left).doubleValue(), ((Number) right).doubleValue());
     }
     
     private Object negate(Object operand) {
+        if (host != null && !(operand instanceof Double)) {
+            return host.operate(OpCode.NEG, null, operand);
+        }
         checkNumberOperand(operand);
         return -((Number) operand).doubleValue();
     }
@@ -627,21 +1034,33 @@ public class ThornVM {
     }
     
     private boolean isLess(Object left, Object right) {
+        if (host != null && !(left instanceof Double && right instanceof Double)) {
+            return (Boolean) host.operate(OpCode.LT, left, right);
+        }
         checkNumberOperands(left, right);
         return ((Number) left).doubleValue() < ((Number) right).doubleValue();
     }
     
     private boolean isLessEqual(Object left, Object right) {
+        if (host != null && !(left instanceof Double && right instanceof Double)) {
+            return (Boolean) host.operate(OpCode.LE, left, right);
+        }
         checkNumberOperands(left, right);
         return ((Number) left).doubleValue() <= ((Number) right).doubleValue();
     }
     
     private boolean isGreater(Object left, Object right) {
+        if (host != null && !(left instanceof Double && right instanceof Double)) {
+            return (Boolean) host.operate(OpCode.GT, left, right);
+        }
         checkNumberOperands(left, right);
         return ((Number) left).doubleValue() > ((Number) right).doubleValue();
     }
     
     private boolean isGreaterEqual(Object left, Object right) {
+        if (host != null && !(left instanceof Double && right instanceof Double)) {
+            return (Boolean) host.operate(OpCode.GE, left, right);
+        }
         checkNumberOperands(left, right);
         return ((Number) left).doubleValue() >= ((Number) right).doubleValue();
     }
@@ -712,23 +1131,28 @@ public class ThornVM {
     private Object callFunction(Object function, int argCount, CallFrame callerFrame, int functionRegister) {
         if (function instanceof FunctionInfo) {
             FunctionInfo funcInfo = (FunctionInfo) function;
-            
-            // Collect arguments from caller's registers (starting after function register)
-            Object[] args = new Object[argCount];
-            for (int i = 0; i < argCount; i++) {
-                args[i] = callerFrame.getRegister(i + 1); // Skip function register (register 0)
+            if (profile != null) {
+                profile.recordCall(funcInfo.getName());
             }
             
+            // Collect arguments from the registers following the function
+            Object[] args = collectArguments(callerFrame, functionRegister, argCount);
+            
             // Push new frame for the function
             pushFrame(funcInfo, callerFrame.getPc());
             
             // Set up arguments in new frame
             getCurrentFrame().setArguments(args);
+            getCurrentFrame().setResultRegister(functionRegister);
             
             // Return null for now - actual return will happen via RETURN instruction
             return null;
         }
         
+        if (host != null) {
+            return host.call(function, collectArguments(callerFrame, functionRegister, argCount));
+        }
+        
         // Handle built-in functions
         if ("native_print".equals(function)) {
             if (argCount > 0) {
@@ -741,6 +1165,26 @@ public class ThornVM {
             return (double) System.currentTimeMillis();
         }
         
+        if ("native_range".equals(function)) {
+            if (argCount < 1 || argCount > 3) {
+                throw new RuntimeException("range() takes 1 to 3 arguments but got " + argCount + ".");
+            }
+            Object[] args = collectArguments(callerFrame, functionRegister, argCount);
+            for (Object arg : args) {
+                if (!(arg instanceof Double)) {
+                    throw new RuntimeException("range() arguments must be numbers.");
+                }
+            }
+            double start = argCount == 1 ? 0 : (Double) args[0];
+            double end = (Double) args[argCount == 1 ? 0 : 1];
+            double step = argCount == 3 ? (Double) args[2] : 1;
+            try {
+                return ThornRange.of(start, end, step);
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+        
         if ("native_ok".equals(function)) {
             if (argCount != 1) {
                 throw new RuntimeException("Ok() expects 1 argument");
@@ -790,10 +1234,19 @@ public class ThornVM {
         throw new RuntimeException("Not a function: " + function);
     }
     
+    private Object[] collectArguments(CallFrame frame, int functionRegister, int argCount) {
+        Object[] args = new Object[argCount];
+        for (int i = 0; i < argCount; i++) {
+            args[i] = frame.getRegister(functionRegister + 1 + i);
+        }
+        return args;
+    }
+    
     private void initializeBuiltins() {
         // Add built-in functions and constants
         globals.put("clock", "native_clock");
         globals.put("print", "native_print");
+        globals.put("range", "native_range");
         globals.put("Ok", "native_ok");
         globals.put("Error", "native_error");
     }
@@ -914,7 +1367,16 @@ public class ThornVM {
                     end = Math.max(start, Math.min(end, list.size()));
                     
                     // Create new list with sliced elements
-                    return new ArrayList<>(list.subList(start, end));
+                    if (list instanceof ThornArray) {
+                        return ((ThornArray) list).slice(start, end);
+                    }
+                    if (list instanceof com.thorn.stdlib.Bytes) {
+                        return ((com.thorn.stdlib.Bytes) list).slice(start, end);
+                    }
+                    if (list instanceof ThornRange) {
+                        return ((ThornRange) list).slice(start, end);
+                    }
+                    return new ThornArray(list.subList(start, end));
                     
                 default:
                     throw new RuntimeException("Unknown array method: " + methodName);
@@ -943,13 +1405,19 @@ public class ThornVM {
                     if (argCount != 0) {
                         throw new RuntimeException("keys() expects 0 arguments");
                     }
-                    return new java.util.ArrayList<>(map.keySet());
+                    if (map instanceof ThornDict) {
+                        return ((ThornDict<Object, Object>) map).keysArray();
+                    }
+                    return new ThornArray(map.keySet());
                     
                 case "values":
                     if (argCount != 0) {
                         throw new RuntimeException("values() expects 0 arguments");
                     }
-                    return new java.util.ArrayList<>(map.values());
+                    if (map instanceof ThornDict) {
+                        return ((ThornDict<Object, Object>) map).valuesArray();
+                    }
+                    return new ThornArray(map.values());
                     
                 case "has":
                     if (argCount != 1) {